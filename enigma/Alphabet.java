@@ -1,9 +1,12 @@
 package enigma;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
- *  to and from indices into the alphabet.
+ *  to and from indices into the alphabet.  Both directions are table
+ *  lookups, so alphabets may be as large as the whole Basic
+ *  Multilingual Plane (65536 characters).
  *  @author Jay Chiang
  */
 class Alphabet {
@@ -11,12 +14,25 @@ class Alphabet {
     /** A new alphabet containing CHARS. The K-th character has index
      *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
-        _set = new ArrayList<Character>();
+        char max = 0;
         for (int i = 0; i < chars.length(); i += 1) {
-            if (!_set.contains(chars.charAt(i))) {
-                _set.add(chars.charAt(i));
+            max = (char) Math.max(max, chars.charAt(i));
+        }
+        _index = new char[chars.isEmpty() ? 0 : max + 1];
+        Arrays.fill(_index, ABSENT);
+        char[] set = new char[chars.length()];
+        BitSet seen = new BitSet(_index.length);
+        int size = 0;
+        for (int i = 0; i < chars.length(); i += 1) {
+            char ch = chars.charAt(i);
+            if (!seen.get(ch)) {
+                seen.set(ch);
+                _index[ch] = (char) size;
+                set[size] = ch;
+                size += 1;
             }
         }
+        _chars = Arrays.copyOf(set, size);
     }
 
     /** A default alphabet of all upper-case characters. */
@@ -26,27 +42,42 @@ class Alphabet {
 
     /** Returns the size of the alphabet. */
     int size() {
-        return _set.size();
+        return _chars.length;
     }
 
     /** Returns true if CH is in this alphabet. */
     boolean contains(char ch) {
-        return _set.contains(ch);
+        return ch < _index.length
+            && (_index[ch] != ABSENT || _chars.length == MAX_SIZE);
     }
 
     /** Returns character number INDEX in the alphabet, where
      *  0 <= INDEX < size(). */
     char toChar(int index) {
-        return _set.get(index);
+        return _chars[index];
     }
 
     /** Returns the index of character CH which must be in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        return _set.indexOf(ch);
+        return contains(ch) ? _index[ch] : -1;
     }
 
-    /** Stores chars of an instance.*/
-    private ArrayList<Character> _set;
+    /** Return the approximate number of bytes my tables occupy. */
+    long footprint() {
+        return 2L * (_chars.length + _index.length);
+    }
+
+    /** Largest possible alphabet size. */
+    static final int MAX_SIZE = Character.MAX_VALUE + 1;
+    /** Marks characters not in the alphabet in _index.  It can also be a
+     *  real index only in an alphabet of MAX_SIZE, where every character
+     *  is present. */
+    private static final char ABSENT = Character.MAX_VALUE;
+
+    /** My characters, in order. */
+    private final char[] _chars;
+    /** _index[C] is the index of character C, or ABSENT. */
+    private final char[] _index;
 
 }
@@ -0,0 +1,176 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/** Measures how configuration and encryption scale with alphabet size.
+ *  Usage:
+ *      java enigma.AlphabetBenchmark [CHARS [SIZE...]]
+ *  For each SIZE (default 26, 256, 4096 and 65536), builds an alphabet
+ *  of that many characters, a reflector and four rotors with random
+ *  wirings, and a machine from them, reporting the time to parse the
+ *  rotors' cycle notation, the size of each rotor's tables (computed,
+ *  and measured on the heap over several copies), and the rate at
+ *  which the machine converts CHARS (default 2000000) random characters.
+ *  @author Jay Chiang
+ */
+public final class AlphabetBenchmark {
+
+    /** Run the benchmark described by ARGS. */
+    public static void main(String... args) {
+        int chars = args.length > 0 ? Integer.parseInt(args[0])
+            : DEFAULT_CHARS;
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i += 1) {
+                sizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%6s %10s %12s %12s %14s%n", "size", "parse ms",
+                          "table B/rot", "heap B/rot", "chars/s");
+        for (int size : sizes) {
+            run(size, chars);
+        }
+    }
+
+    /** Report the measurements for an alphabet of SIZE characters,
+     *  converting CHARS characters. */
+    private static void run(int size, int chars) {
+        Random random = new Random(SEED);
+        Alphabet alpha = new Alphabet(alphabet(size));
+        String[] cycles = new String[ROTORS];
+        cycles[0] = reflector(alpha, random);
+        for (int i = 1; i < ROTORS; i += 1) {
+            cycles[i] = wiring(alpha, random);
+        }
+
+        long before = usedMemory();
+        long start = System.nanoTime();
+        Permutation[][] copies = new Permutation[COPIES][ROTORS];
+        for (Permutation[] copy : copies) {
+            for (int i = 0; i < ROTORS; i += 1) {
+                copy[i] = new Permutation(cycles[i], alpha);
+            }
+        }
+        double parseMillis = (System.nanoTime() - start) / 1e6 / COPIES;
+        long heap = (usedMemory() - before) / (COPIES * ROTORS);
+        Permutation[] perms = copies[0];
+
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R", perms[0]));
+        rotors.add(new FixedRotor("F", perms[1]));
+        String notch = String.valueOf(alpha.toChar(size - 1));
+        for (int i = 2; i < ROTORS; i += 1) {
+            rotors.add(new MovingRotor("M" + i, perms[i], notch));
+        }
+        Machine machine = new Machine(alpha, ROTORS, ROTORS - 2, rotors);
+        machine.insertRotors(new String[] { "R", "F", "M2", "M3", "M4" });
+        machine.setPlugboard(new Permutation("", alpha));
+        int[] text = new int[chars];
+        for (int i = 0; i < chars; i += 1) {
+            text[i] = random.nextInt(size);
+        }
+        for (int i = 0; i < WARMUP && i < chars; i += 1) {
+            machine.convert(text[i]);
+        }
+        start = System.nanoTime();
+        int sink = 0;
+        for (int c : text) {
+            sink += machine.convert(c);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%6d %10.2f %12d %12d %14.0f%s%n", size,
+                          parseMillis, perms[1].footprint(), heap,
+                          chars / seconds, sink == 0 ? " " : "");
+    }
+
+    /** Return an alphabet of SIZE characters.  Parentheses, which the
+     *  cycle notation reserves, are included only in the full BMP. */
+    private static String alphabet(int size) {
+        if (size > Alphabet.MAX_SIZE || size < 2) {
+            throw new IllegalArgumentException("bad alphabet size");
+        }
+        StringBuilder result = new StringBuilder();
+        char base = size <= 26 ? 'A' : size == Alphabet.MAX_SIZE ? 0
+            : BASE;
+        for (int i = 0; i < size; i += 1) {
+            result.append((char) (base + i));
+        }
+        return result.toString();
+    }
+
+    /** Return the indices of ALPHA's characters that may appear in
+     *  cycles, shuffled with RANDOM. */
+    private static List<Integer> shuffled(Alphabet alpha, Random random) {
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int k = 0; k < alpha.size(); k += 1) {
+            char ch = alpha.toChar(k);
+            if (ch != '(' && ch != ')' && !Character.isWhitespace(ch)) {
+                result.add(k);
+            }
+        }
+        Collections.shuffle(result, random);
+        return result;
+    }
+
+    /** Return the cycles of a random permutation of ALPHA. */
+    private static String wiring(Alphabet alpha, Random random) {
+        List<Integer> image = shuffled(alpha, random);
+        List<Integer> domain = new ArrayList<>(image);
+        Collections.sort(domain);
+        int[] next = new int[alpha.size()];
+        for (int i = 0; i < domain.size(); i += 1) {
+            next[domain.get(i)] = image.get(i);
+        }
+        boolean[] done = new boolean[alpha.size()];
+        StringBuilder result = new StringBuilder();
+        for (int k : domain) {
+            if (!done[k]) {
+                result.append('(');
+                for (int j = k; !done[j]; j = next[j]) {
+                    done[j] = true;
+                    result.append(alpha.toChar(j));
+                }
+                result.append(") ");
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the cycles of a random reflector (pairing) of ALPHA. */
+    private static String reflector(Alphabet alpha, Random random) {
+        List<Integer> order = shuffled(alpha, random);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i + 1 < order.size(); i += 2) {
+            result.append('(').append(alpha.toChar(order.get(i)))
+                .append(alpha.toChar(order.get(i + 1))).append(") ");
+        }
+        return result.toString();
+    }
+
+    /** Return the heap in use after a garbage collection. */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /** Default alphabet sizes. */
+    private static final int[] DEFAULT_SIZES = { 26, 256, 4096, 65536 };
+    /** Default number of characters converted. */
+    private static final int DEFAULT_CHARS = 2_000_000;
+    /** Copies of each rotor built to measure parsing and heap use. */
+    private static final int COPIES = 8;
+    /** Characters converted before timing. */
+    private static final int WARMUP = 200_000;
+    /** Number of rotors, including the reflector. */
+    private static final int ROTORS = 5;
+    /** First character of mid-sized alphabets (CJK ideographs). */
+    private static final char BASE = '\u4e00';
+    /** Random seed. */
+    private static final long SEED = 39;
+
+}
@@ -22,4 +22,31 @@ public class AlphabetTest {
         assertEquals(2, alphabet.toInt(alphabet.toChar(2)));
     }
 
+    @Test
+    public void sparseAlphabet() {
+        Alphabet alphabet = new Alphabet("\u4e00A\uffe0");
+        assertEquals(3, alphabet.size());
+        assertEquals(true, alphabet.contains('\uffe0'));
+        assertEquals(false, alphabet.contains('B'));
+        assertEquals(false, alphabet.contains('\uffff'));
+        assertEquals(2, alphabet.toInt('\uffe0'));
+        assertEquals(-1, alphabet.toInt('\u4e01'));
+        assertEquals('A', alphabet.toChar(1));
+    }
+
+    @Test
+    public void fullAlphabet() {
+        StringBuilder chars = new StringBuilder();
+        for (int c = Character.MAX_VALUE; c >= 0; c -= 1) {
+            chars.append((char) c);
+        }
+        Alphabet alphabet = new Alphabet(chars.toString());
+        assertEquals(Alphabet.MAX_SIZE, alphabet.size());
+        assertEquals(true, alphabet.contains('\uffff'));
+        assertEquals(true, alphabet.contains('\u0000'));
+        assertEquals(0, alphabet.toInt('\uffff'));
+        assertEquals(Character.MAX_VALUE, alphabet.toInt('\u0000'));
+        assertEquals('\u0000', alphabet.toChar(Character.MAX_VALUE));
+    }
+
 }
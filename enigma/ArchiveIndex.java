@@ -0,0 +1,513 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import static enigma.EnigmaException.*;
+
+/** A sparse index into an archive of messages in Main's input format,
+ *  allowing any range of it to be decrypted without replaying the
+ *  messages before it.  Message characters (those in the alphabet, on
+ *  lines other than setting lines) are numbered from 0 across the
+ *  whole archive.  Before character 0 and after every INTERVAL
+ *  characters, the index records a checkpoint: the byte offset in the
+ *  archive just past that character, the number of setting lines
+ *  before it, and the positions of the rotors.  To decrypt characters
+ *  FROM to FROM+COUNT-1, a machine is set up from the setting lines
+ *  before the nearest checkpoint at or below FROM, its rotors are set
+ *  to the recorded positions, and decoding proceeds from the recorded
+ *  offset, so at most INTERVAL+COUNT characters are converted however
+ *  long the archive is.  The setting lines themselves are kept in the
+ *  index, since a ring setting on the first one applies to all
+ *  messages.
+ *
+ *  The index is kept in a sidecar file (by default, the archive's name
+ *  with ".idx" appended), which also records the archive's length so
+ *  that a stale index is detected.  Usage:
+ *      java enigma.ArchiveIndex [--interval=N] CONF ARCHIVE
+ *  writes the index of ARCHIVE, and
+ *      java enigma.ArchiveIndex CONF ARCHIVE FROM COUNT
+ *  prints message characters FROM to FROM+COUNT-1 of ARCHIVE, using
+ *  its index.
+ *  @author Jay Chiang
+ */
+public final class ArchiveIndex {
+
+    /** Default number of message characters between checkpoints. */
+    static final int DEFAULT_INTERVAL = 1 << 16;
+    /** Suffix of sidecar file names. */
+    static final String SUFFIX = ".idx";
+
+    /** Index or read the archive described by ARGS. */
+    public static void main(String... args) {
+        try {
+            int interval = DEFAULT_INTERVAL;
+            int first = 0;
+            for (; first < args.length && args[first].startsWith("--");
+                 first += 1) {
+                String arg = args[first];
+                if (arg.startsWith("--interval=")) {
+                    interval = Integer.parseInt(
+                        arg.substring(arg.indexOf('=') + 1));
+                } else {
+                    throw error("unknown option %s", arg);
+                }
+            }
+            int rest = args.length - first;
+            if (rest != 2 && rest != 4) {
+                throw error("Usage: java enigma.ArchiveIndex "
+                            + "[--interval=N] CONF ARCHIVE [FROM COUNT]");
+            }
+            Config config = KeySearch.readConfig(args[first]);
+            String archive = args[first + 1];
+            if (rest == 2) {
+                ArchiveIndex index =
+                    build(config, archive, Charset.defaultCharset(),
+                          interval);
+                index.write(archive + SUFFIX);
+                System.err.printf("%d characters, %d checkpoints%n",
+                                  index.characters(), index.checkpoints());
+            } else {
+                ArchiveIndex index = read(config, archive);
+                System.out.println(
+                    index.decrypt(Long.parseLong(args[first + 2]),
+                                  Integer.parseInt(args[first + 3])));
+            }
+        } catch (NumberFormatException excp) {
+            System.err.println("Error: bad numeric argument");
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** An empty index of ARCHIVE, decoded with CHARSET, for messages
+     *  under CONFIG with checkpoints every INTERVAL characters. */
+    private ArchiveIndex(Config config, String archive, Charset charset,
+                         int interval) {
+        if (interval <= 0) {
+            throw error("bad checkpoint interval");
+        }
+        _config = config;
+        _archive = Paths.get(archive);
+        _charset = charset;
+        _interval = interval;
+        _slots = config.numRotors() - 1;
+    }
+
+    /** Return an index of ARCHIVE, decoded with CHARSET, for messages
+     *  under CONFIG, with a checkpoint every INTERVAL characters. */
+    static ArchiveIndex build(Config config, String archive,
+                              Charset charset, int interval) {
+        ArchiveIndex index =
+            new ArchiveIndex(config, archive, charset, interval);
+        index.scan();
+        return index;
+    }
+
+    /** Return the index of ARCHIVE for messages under CONFIG, read from
+     *  its sidecar file. */
+    static ArchiveIndex read(Config config, String archive) {
+        return read(config, archive, archive + SUFFIX);
+    }
+
+    /** Return the index of ARCHIVE for messages under CONFIG, read from
+     *  the file SIDECAR. */
+    static ArchiveIndex read(Config config, String archive,
+                             String sidecar) {
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(
+                     Files.newInputStream(Paths.get(sidecar))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("%s is not an archive index", sidecar);
+            }
+            Charset charset = Charset.forName(in.readUTF());
+            ArchiveIndex index =
+                new ArchiveIndex(config, archive, charset, in.readInt());
+            if (in.readInt() != index._slots) {
+                throw error("%s is for a different configuration",
+                            sidecar);
+            }
+            index._length = in.readLong();
+            index._characters = in.readLong();
+            int lines = in.readInt();
+            for (int i = 0; i < lines; i += 1) {
+                index._settings.add(in.readUTF());
+            }
+            int n = in.readInt();
+            index.reserve(n);
+            for (int k = 0; k < n; k += 1) {
+                index._offsets[k] = in.readLong();
+                index._lines[k] = in.readInt();
+                for (int i = 0; i < index._slots; i += 1) {
+                    index._positions[k * index._slots + i] = in.readChar();
+                }
+            }
+            index._count = n;
+            index.checkCurrent();
+            return index;
+        } catch (IOException | IllegalArgumentException excp) {
+            throw error("could not read index %s", sidecar);
+        }
+    }
+
+    /** Write me to the file SIDECAR. */
+    void write(String sidecar) {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(
+                     Files.newOutputStream(Paths.get(sidecar))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(_charset.name());
+            out.writeInt(_interval);
+            out.writeInt(_slots);
+            out.writeLong(_length);
+            out.writeLong(_characters);
+            out.writeInt(_settings.size());
+            for (String line : _settings) {
+                out.writeUTF(line);
+            }
+            out.writeInt(_count);
+            for (int k = 0; k < _count; k += 1) {
+                out.writeLong(_offsets[k]);
+                out.writeInt(_lines[k]);
+                for (int i = 0; i < _slots; i += 1) {
+                    out.writeChar(_positions[k * _slots + i]);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not write index %s", sidecar);
+        }
+    }
+
+    /** Return the total number of message characters in my archive. */
+    long characters() {
+        return _characters;
+    }
+
+    /** Return the number of checkpoints I hold. */
+    int checkpoints() {
+        return _count;
+    }
+
+    /** Return the number of message characters between checkpoints. */
+    int interval() {
+        return _interval;
+    }
+
+    /** Return the conversions of message characters FROM through
+     *  FROM+COUNT-1 of my archive (fewer, if the archive ends first). */
+    String decrypt(long from, int count) {
+        if (from < 0 || count < 0) {
+            throw error("bad range");
+        }
+        checkCurrent();
+        StringBuilder out = new StringBuilder(count);
+        if (count == 0 || from >= _characters) {
+            return out.toString();
+        }
+        int k = (int) Math.min(from / _interval, _count - 1);
+        Cursor cursor = new Cursor(k);
+        long end = from + count;
+        Alphabet alpha = _config.alphabet();
+        decode(_offsets[k], cursor, c -> {
+            if (cursor.converted() > from) {
+                out.append(alpha.toChar(c));
+            }
+            return cursor.converted() < end;
+        });
+        return out.toString();
+    }
+
+    /** Scan my archive from the beginning, recording checkpoints. */
+    private void scan() {
+        _length = archiveLength();
+        reserve(INITIAL_CHECKPOINTS);
+        _count = 1;
+        Cursor cursor = new Cursor(0);
+        decode(0, cursor, c -> {
+            if (cursor.converted() % _interval == 0) {
+                mark(cursor);
+            }
+            return true;
+        });
+        cursor.finish();
+        _characters = cursor.converted();
+    }
+
+    /** Decode my archive starting at byte OFFSET, feeding the characters
+     *  to CURSOR, which passes each converted message character to
+     *  SINK, until SINK returns false or the archive ends. */
+    private void decode(long offset, Cursor cursor, IntPredicate sink) {
+        CharsetDecoder decoder = _charset.newDecoder();
+        ByteBuffer bytes = ByteBuffer.allocate(CHUNK);
+        CharBuffer chars = CharBuffer.allocate(CHUNK);
+        try (FileChannel channel = FileChannel.open(_archive)) {
+            channel.position(offset);
+            long read = offset;
+            boolean eof = false;
+            while (!eof) {
+                int n = channel.read(bytes);
+                eof = n < 0;
+                read += Math.max(n, 0);
+                bytes.flip();
+                CoderResult result = decoder.decode(bytes, chars, eof);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                if (eof) {
+                    decoder.flush(chars);
+                }
+                chars.flip();
+                cursor._chunkEnd = read - bytes.remaining();
+                cursor._pending = chars;
+                if (!cursor.feed(chars, sink)) {
+                    return;
+                }
+                chars.clear();
+                bytes.compact();
+            }
+        } catch (CharacterCodingException excp) {
+            throw error("malformed input in %s", _archive);
+        } catch (IOException excp) {
+            throw error("could not read %s", _archive);
+        }
+    }
+
+    /** Record a checkpoint at the current position of CURSOR, just
+     *  after a message character. */
+    private void mark(Cursor cursor) {
+        reserve(_count + 1);
+        long unread =
+            _charset.encode(cursor._pending.duplicate()).remaining();
+        _offsets[_count] = cursor._chunkEnd - unread;
+        _lines[_count] = cursor.lines();
+        cursor.positions(_positions, _count * _slots);
+        _count += 1;
+    }
+
+    /** Make room for at least N checkpoints. */
+    private void reserve(int n) {
+        if (_offsets == null) {
+            _offsets = new long[n];
+            _lines = new int[n];
+            _positions = new char[n * _slots];
+        } else if (n > _offsets.length) {
+            int size = Math.max(n, 2 * _offsets.length);
+            _offsets = Arrays.copyOf(_offsets, size);
+            _lines = Arrays.copyOf(_lines, size);
+            _positions = Arrays.copyOf(_positions, size * _slots);
+        }
+    }
+
+    /** Return the current length of my archive. */
+    private long archiveLength() {
+        try {
+            return Files.size(_archive);
+        } catch (IOException excp) {
+            throw error("could not open %s", _archive);
+        }
+    }
+
+    /** Complain if my archive has changed length since it was
+     *  indexed. */
+    private void checkCurrent() {
+        if (archiveLength() != _length) {
+            throw error("index of %s is out of date", _archive);
+        }
+    }
+
+    /** The state of Main's processing at some point in my archive.  The
+     *  line handling is that of Encoder. */
+    private final class Cursor {
+
+        /** A cursor at checkpoint K. */
+        Cursor(int k) {
+            _main = new Main(_config);
+            _machine = _main.readConfig();
+            _alphabet = _config.alphabet();
+            if (k == 0) {
+                return;
+            }
+            StringBuilder ignored = new StringBuilder();
+            for (int i = 0; i < _lines[k]; i += 1) {
+                _main.processLine(_machine, _settings.get(i), ignored);
+            }
+            _numLines = _lines[k];
+            _state = MESSAGE;
+            _converted = (long) k * _interval;
+            List<Rotor> rotors = _machine.getRotors();
+            for (int i = 0; i < _slots; i += 1) {
+                rotors.get(i + 1).set((int) _positions[k * _slots + i]);
+            }
+        }
+
+        /** Process the characters remaining in IN, passing each converted
+         *  message character to SINK.  Return false, leaving the rest of
+         *  IN unread, as soon as SINK does. */
+        boolean feed(CharBuffer in, IntPredicate sink) {
+            while (in.hasRemaining()) {
+                char ch = in.get();
+                if (_skipNewline) {
+                    _skipNewline = false;
+                    if (ch == '\n') {
+                        continue;
+                    }
+                }
+                if (Main.lineEnd(ch)) {
+                    _skipNewline = ch == '\r';
+                    endLine();
+                } else if (_state == START) {
+                    if (_numLines == 0 || ch == '*') {
+                        _state = SETTINGS;
+                        _line.append(ch);
+                    } else {
+                        _state = MESSAGE;
+                        if (!message(ch, sink)) {
+                            return false;
+                        }
+                    }
+                } else if (_state == SETTINGS) {
+                    _line.append(ch);
+                } else if (!message(ch, sink)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Finish the last line of input. */
+        void finish() {
+            if (_state != START) {
+                endLine();
+            }
+            if (_numLines == 0) {
+                throw error("bad input");
+            }
+        }
+
+        /** Return the number of message characters converted, counting
+         *  from the start of the archive. */
+        long converted() {
+            return _converted;
+        }
+
+        /** Return the number of setting lines processed. */
+        int lines() {
+            return _numLines;
+        }
+
+        /** Store the positions of my moving and fixed rotors (not the
+         *  reflector) into RESULT, starting at START. */
+        void positions(char[] result, int start) {
+            List<Rotor> rotors = _machine.getRotors();
+            for (int i = 0; i < _slots; i += 1) {
+                result[start + i] = (char) rotors.get(i + 1).getPosition();
+            }
+        }
+
+        /** Convert message character CH, if in the alphabet, passing the
+         *  result to SINK.  Return SINK's verdict. */
+        private boolean message(char ch, IntPredicate sink) {
+            if (_main.ignoresMessages() || !_alphabet.contains(ch)) {
+                return true;
+            }
+            int c = _machine.convert(_alphabet.toInt(ch));
+            _converted += 1;
+            return sink.test(c);
+        }
+
+        /** Finish the current line. */
+        private void endLine() {
+            if (_state == SETTINGS || _numLines == 0) {
+                String line = _line.toString();
+                _line.setLength(0);
+                _main.processLine(_machine, line, new StringBuilder());
+                if (_settings.size() == _numLines) {
+                    _settings.add(line);
+                }
+                _numLines += 1;
+            }
+            _state = START;
+        }
+
+        /** Handles setting lines. */
+        private final Main _main;
+        /** The machine. */
+        private final Machine _machine;
+        /** The machine's alphabet. */
+        private final Alphabet _alphabet;
+        /** The setting line being accumulated. */
+        private final StringBuilder _line = new StringBuilder();
+        /** Current line state. */
+        private int _state = START;
+        /** Number of setting lines processed. */
+        private int _numLines;
+        /** True iff the previous character was a '\r'. */
+        private boolean _skipNewline;
+        /** Count of message characters converted. */
+        private long _converted;
+        /** The byte offset just past the chunk being decoded, and the
+         *  characters decoded from it. */
+        private long _chunkEnd;
+        /** See _chunkEnd. */
+        private CharBuffer _pending;
+    }
+
+    /** Line states: at the start of a line, within a setting line, or
+     *  within a message line. */
+    private static final int START = 0, SETTINGS = 1, MESSAGE = 2;
+    /** First word of an index file ("ENIX"). */
+    private static final int MAGIC = 0x454e4958;
+    /** Index file format version. */
+    private static final int VERSION = 1;
+    /** Bytes and characters decoded at a time. */
+    private static final int CHUNK = 8192;
+    /** Checkpoints allocated at first. */
+    private static final int INITIAL_CHECKPOINTS = 16;
+
+    /** Configuration of the machine. */
+    private final Config _config;
+    /** The archive. */
+    private final Path _archive;
+    /** The archive's character set. */
+    private final Charset _charset;
+    /** Message characters between checkpoints. */
+    private final int _interval;
+    /** Number of rotor positions recorded per checkpoint. */
+    private final int _slots;
+    /** Length of the archive when indexed, in bytes. */
+    private long _length;
+    /** Number of message characters in the archive. */
+    private long _characters;
+    /** The setting lines of the archive, in order. */
+    private final ArrayList<String> _settings = new ArrayList<>();
+    /** Number of checkpoints. */
+    private int _count;
+    /** Byte offset of each checkpoint. */
+    private long[] _offsets;
+    /** Number of setting lines before each checkpoint. */
+    private int[] _lines;
+    /** Rotor positions at each checkpoint, _slots per checkpoint. */
+    private char[] _positions;
+}
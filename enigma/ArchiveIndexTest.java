@@ -0,0 +1,166 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.Scanner;
+
+import static enigma.DaemonTest.CONFIG;
+import static enigma.DaemonTest.INPUT;
+
+/** The suite of all JUnit tests for the ArchiveIndex class.
+ *  @author Jay Chiang
+ */
+public class ArchiveIndexTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a configuration for testing. */
+    private Config config() {
+        return Config.read(new Scanner(CONFIG));
+    }
+
+    /** Return an archive of messages with several setting lines, CR-LF
+     *  line ends, and characters (some outside ASCII) that are not in
+     *  the alphabet. */
+    private String archive() {
+        Random random = new Random(35);
+        StringBuilder text = new StringBuilder(INPUT);
+        String[] settings = {
+            "* B Beta I II III ZZZZ (AB)",
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        };
+        for (int k = 0; k < 6; k += 1) {
+            text.append(settings[k % 2]).append(k % 3 == 0 ? "\r\n" : "\n");
+            for (int line = 0; line < 5; line += 1) {
+                int length = random.nextInt(90);
+                for (int i = 0; i < length; i += 1) {
+                    int r = random.nextInt(30);
+                    text.append(r < 26 ? (char) ('A' + r)
+                                : r == 26 ? ' ' : r == 27 ? '\u00e9'
+                                : r == 28 ? '\u2603' : '-');
+                }
+                text.append('\n');
+            }
+        }
+        return text.append("LAST LINE").toString();
+    }
+
+    /** Return the message characters Main produces from INPUT. */
+    private String direct(String input) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Main(new String[0], config(),
+                 new ByteArrayInputStream(
+                     input.getBytes(StandardCharsets.UTF_8)),
+                 new PrintStream(out)).process();
+        return out.toString().replaceAll("\\s", "");
+    }
+
+    /** Return a temporary file containing TEXT in UTF-8. */
+    private File file(String text) throws IOException {
+        File file = File.createTempFile("enigma-archive", ".txt");
+        file.deleteOnExit();
+        new File(file.getPath() + ArchiveIndex.SUFFIX).deleteOnExit();
+        Files.writeString(file.toPath(), text);
+        return file;
+    }
+
+    /** Return an index of ARCHIVE with checkpoints every INTERVAL
+     *  characters. */
+    private ArchiveIndex index(File archive, int interval) {
+        return ArchiveIndex.build(config(), archive.getPath(),
+                                  StandardCharsets.UTF_8, interval);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testRangesMatchMain() throws IOException {
+        String text = archive();
+        String expected = direct(text);
+        File archive = file(text);
+        for (int interval : new int[] { 1, 7, 64, 1 << 20 }) {
+            ArchiveIndex index = index(archive, interval);
+            assertEquals(expected.length(), index.characters());
+            assertEquals(expected.length() / interval + 1,
+                         index.checkpoints());
+            assertEquals(expected, index.decrypt(0, expected.length()));
+            for (int from = 0; from < expected.length(); from += 13) {
+                for (int count : new int[] { 0, 1, 5, 100 }) {
+                    int end = Math.min(expected.length(), from + count);
+                    assertEquals(expected.substring(from, end),
+                                 index.decrypt(from, count));
+                }
+            }
+            assertEquals("", index.decrypt(expected.length(), 10));
+        }
+    }
+
+    @Test
+    public void testLineEnds() throws IOException {
+        String text = "* B Beta III IV I AXLE\nHELLO\u2028"
+            + "* B Beta III IV I AAAA\rWORLD\u0085AGAIN\u2029\r\n"
+            + "* B Beta III IV I ZZZZ\r\nLAST\n";
+        String expected = direct(
+            text.replaceAll("\r\n|[\r\u2028\u2029\u0085]", "\n"));
+        assertEquals(19, expected.length());
+        File archive = file(text);
+        for (int interval : new int[] { 1, 4, 1 << 20 }) {
+            ArchiveIndex index = index(archive, interval);
+            assertEquals(expected.length(), index.characters());
+            assertEquals(expected, index.decrypt(0, 100));
+            for (int from = 0; from < expected.length(); from += 1) {
+                assertEquals(expected.substring(from),
+                             index.decrypt(from, 100));
+            }
+        }
+    }
+
+    @Test
+    public void testSidecarRoundTrip() throws IOException {
+        String text = archive();
+        String expected = direct(text);
+        File archive = file(text);
+        String sidecar = archive.getPath() + ArchiveIndex.SUFFIX;
+        index(archive, 10).write(sidecar);
+        ArchiveIndex index = ArchiveIndex.read(config(), archive.getPath());
+        assertEquals(10, index.interval());
+        assertEquals(expected.length(), index.characters());
+        for (int from = 0; from < expected.length(); from += 37) {
+            int end = Math.min(expected.length(), from + 25);
+            assertEquals(expected.substring(from, end),
+                         index.decrypt(from, 25));
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testStaleIndex() throws IOException {
+        File archive = file(archive());
+        ArchiveIndex index = index(archive, 10);
+        Files.writeString(archive.toPath(), "MORE\n",
+                          StandardOpenOption.APPEND);
+        index.decrypt(0, 10);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testBadSidecar() throws IOException {
+        File archive = file(archive());
+        ArchiveIndex.read(config(), archive.getPath(), archive.getPath());
+    }
+
+}
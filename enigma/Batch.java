@@ -0,0 +1,259 @@
+package enigma;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** Main's manifest mode: many (configuration, input, output) jobs run
+ *  in one JVM on a bounded pool of threads.  The manifest has one job
+ *  per line, "CONFIG INPUT OUTPUT", with blank lines and lines starting
+ *  with '#' ignored.  Each distinct configuration file is parsed once
+ *  (see ConfigCache), and its keystream cache, shared by all the jobs
+ *  that use it, gets the budget given by --keystream-cache.  Each job
+ *  does exactly what
+ *      java enigma.Main OPTIONS CONFIG INPUT OUTPUT
+ *  would do, and fails or succeeds on its own: a failing job reports
+ *  "Error: ..." on the standard error, prefixed by its manifest line
+ *  number and input file, and leaves whatever output it had written,
+ *  but the other jobs carry on.  When all are done, a summary of jobs,
+ *  failures, bytes and throughput goes to the standard error; the exit
+ *  code is 1 if any job failed.
+ *  @author Jay Chiang
+ */
+final class Batch {
+
+    /** A batch running the jobs in the file MANIFEST on THREADS threads,
+     *  giving each Main the command-line OPTIONS. */
+    Batch(String manifest, int threads, List<String> options) {
+        _manifest = manifest;
+        _threads = threads;
+        _options = options.toArray(new String[0]);
+        _lazy = options.contains("--lazy-rotors");
+        long keystreamBytes = 0;
+        for (String option : _options) {
+            if (option.startsWith("--keystream-cache=")) {
+                keystreamBytes =
+                    (long) Main.keystreamMegabytes(option) << 20;
+            }
+            if (option.startsWith("--checkpoint")
+                || option.equals("--resume")
+                || option.startsWith("--trace=")) {
+                throw error("%s cannot be used with --manifest", option);
+            }
+        }
+        _configs = new ConfigCache(keystreamBytes);
+    }
+
+    /** Return the batch described by the leading options of ARGS (see
+     *  Main.main), or null if they do not include --manifest. */
+    static Batch fromArgs(String... args) {
+        String manifest = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        ArrayList<String> options = new ArrayList<>();
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("--");
+             first += 1) {
+            String arg = args[first];
+            if (arg.startsWith("--manifest=")) {
+                manifest = arg.substring(arg.indexOf('=') + 1);
+            } else if (arg.startsWith("--threads=")) {
+                threads = positive(arg);
+            } else {
+                options.add(arg);
+            }
+        }
+        if (manifest == null) {
+            return null;
+        }
+        if (first != args.length) {
+            throw error("no file arguments allowed with --manifest");
+        }
+        return new Batch(manifest, threads, options);
+    }
+
+    /** Return the positive integer following '=' in OPTION. */
+    private static int positive(String option) {
+        try {
+            int value = Integer.parseInt(
+                option.substring(option.indexOf('=') + 1));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("bad option value: %s", option);
+    }
+
+    /** Return my cache of parsed configurations. */
+    ConfigCache cache() {
+        return _configs;
+    }
+
+    /** Run all my jobs, reporting failures and the summary on ERR.
+     *  Return true iff all succeeded. */
+    boolean run(PrintStream err) {
+        List<Job> jobs = readManifest();
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        long start = System.nanoTime();
+        try {
+            List<Future<Job>> results = new ArrayList<>();
+            for (Job job : jobs) {
+                results.add(pool.submit(() -> job.run(_configs, _lazy,
+                                                      _options)));
+            }
+            for (Future<Job> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException excp) {
+                    throw new IllegalStateException(excp.getCause());
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    throw error("interrupted");
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int failed = 0;
+        long bytesIn = 0, bytesOut = 0;
+        for (Job job : jobs) {
+            if (job.error != null) {
+                failed += 1;
+                err.printf("%s: %s%n", job, job.error);
+            }
+            bytesIn += job.bytesIn;
+            bytesOut += job.bytesOut;
+        }
+        err.printf("%d jobs (%d failed) on %d threads, %d configurations "
+                   + "parsed: %d bytes in, %d bytes out in %.3f s "
+                   + "(%.1f jobs/s, %.2f MB/s in)%n",
+                   jobs.size(), failed, _threads, _configs.misses(),
+                   bytesIn, bytesOut, seconds, jobs.size() / seconds,
+                   bytesIn / seconds / 1e6);
+        return failed == 0;
+    }
+
+    /** Return the jobs listed in my manifest. */
+    private List<Job> readManifest() {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(_manifest));
+        } catch (IOException excp) {
+            throw error("could not open %s", _manifest);
+        }
+        ArrayList<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i += 1) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] words = line.split("\\s+");
+            if (words.length != 3) {
+                throw error("%s:%d: expected CONFIG INPUT OUTPUT",
+                            _manifest, i + 1);
+            }
+            jobs.add(new Job(i + 1, words[0], words[1], words[2]));
+        }
+        return jobs;
+    }
+
+    /** One (configuration, input, output) job and its outcome. */
+    static final class Job {
+        /** The job on manifest line LINE with files CONFIG, INPUT and
+         *  OUTPUT. */
+        Job(int line, String config, String input, String output) {
+            this.line = line;
+            this.config = config;
+            this.input = input;
+            this.output = output;
+        }
+
+        /** Run the job as Main would with OPTIONS, taking its
+         *  configuration from CONFIGS (indexed lazily if LAZY), and
+         *  return it.  Files are opened in Main's order, so that the
+         *  same missing file is reported. */
+        Job run(ConfigCache configs, boolean lazy, String[] options) {
+            try {
+                if (!new File(config).canRead()) {
+                    throw error("could not open %s", config);
+                }
+                try (InputStream in = open(input);
+                     PrintStream printer = create(output)) {
+                    try {
+                        Config parsed = configs.get(config, lazy);
+                        new Main(options, parsed, in, printer).process();
+                    } finally {
+                        printer.flush();
+                        bytesIn = new File(input).length();
+                        bytesOut = new File(output).length();
+                    }
+                }
+            } catch (EnigmaException excp) {
+                error = "Error: " + excp.getMessage();
+            } catch (IOException excp) {
+                error = "Error: I/O error: " + excp.getMessage();
+            } catch (RuntimeException excp) {
+                error = "Exception: " + excp;
+            }
+            return this;
+        }
+
+        /** Return a stream reading the file NAME. */
+        private static InputStream open(String name) {
+            try {
+                return new FileInputStream(name);
+            } catch (IOException excp) {
+                throw error("could not open %s", name);
+            }
+        }
+
+        /** Return a PrintStream writing the file NAME. */
+        private static PrintStream create(String name) {
+            try {
+                return new PrintStream(new File(name));
+            } catch (IOException excp) {
+                throw error("could not open %s", name);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("job %d (%s)", line, input);
+        }
+
+        /** Manifest line number. */
+        final int line;
+        /** File names. */
+        final String config, input, output;
+        /** The job's error message, or null if it succeeded. */
+        String error;
+        /** Bytes read and written. */
+        long bytesIn, bytesOut;
+    }
+
+    /** Name of the manifest. */
+    private final String _manifest;
+    /** Size of the thread pool. */
+    private final int _threads;
+    /** Options passed to each Main. */
+    private final String[] _options;
+    /** True iff configurations are indexed lazily (--lazy-rotors). */
+    private final boolean _lazy;
+    /** Parsed configurations, shared by all jobs, with the keystream
+     *  cache budget given by --keystream-cache. */
+    private final ConfigCache _configs;
+}
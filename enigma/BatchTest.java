@@ -0,0 +1,106 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.DaemonTest.CONFIG;
+import static enigma.DaemonTest.INPUT;
+
+/** The suite of all JUnit tests for the Batch class.
+ *  @author Jay Chiang
+ */
+public class BatchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Output of Main for INPUT under CONFIG. */
+    private static final String EXPECTED =
+        "QVPQS OKOIL PUBKJ ZPISF XDW\n"
+        + "\n"
+        + "BHCNS CXNUO AATZX SRCFY DGU\n";
+
+    /** Write TEXT to the file NAME in DIR, returning its path. */
+    private String write(Path dir, String name, String text)
+        throws IOException {
+        return Files.writeString(dir.resolve(name), text).toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testJobs() throws IOException {
+        Path dir = Files.createTempDirectory("batch");
+        String conf = write(dir, "a.conf", CONFIG);
+        String good = write(dir, "good.in", INPUT);
+        String bad = write(dir, "bad.in", "* B I III IV Beta AXLE\nHI\n");
+        StringBuilder manifest = new StringBuilder("# jobs\n\n");
+        for (int i = 0; i < 5; i += 1) {
+            manifest.append(String.format("%s %s %s%n", conf, good,
+                                          dir.resolve("out" + i)));
+        }
+        manifest.append(String.format("%s %s %s%n", conf, bad,
+                                      dir.resolve("bad.out")));
+        String list = write(dir, "jobs", manifest.toString());
+
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Batch batch = Batch.fromArgs("--threads=2", "--manifest=" + list);
+        assertFalse(batch.run(new PrintStream(err, true)));
+        for (int i = 0; i < 5; i += 1) {
+            assertEquals(EXPECTED, Files.readString(dir.resolve("out" + i)));
+        }
+        String report = err.toString();
+        assertTrue(report, report.startsWith(
+            String.format("job 8 (%s): Error: bad input%n", bad)));
+        assertTrue(report, report.contains(
+            "6 jobs (1 failed) on 2 threads, 1 configurations parsed"));
+    }
+
+    @Test
+    public void testLazyRotors() throws IOException {
+        Path dir = Files.createTempDirectory("batch");
+        String conf = write(dir, "a.conf", CONFIG);
+        String good = write(dir, "good.in", INPUT);
+        String list = write(dir, "jobs", String.format(
+            "%s %s %s%n%s %s %s%n", conf, good, dir.resolve("out0"),
+            conf, good, dir.resolve("out1")));
+        Batch batch = Batch.fromArgs("--lazy-rotors", "--manifest=" + list);
+        assertTrue(batch.run(new PrintStream(new ByteArrayOutputStream())));
+        for (int i = 0; i < 2; i += 1) {
+            assertEquals(EXPECTED, Files.readString(dir.resolve("out" + i)));
+        }
+        Config config = batch.cache().get(conf, true);
+        assertTrue(config.lazy());
+        assertEquals(1, batch.cache().misses());
+        assertEquals(5, config.permutationsBuilt());
+    }
+
+    @Test
+    public void testArguments() {
+        assertNull(Batch.fromArgs("--stats", "a.conf"));
+        try {
+            Batch.fromArgs("--manifest=m", "a.conf");
+            fail("file argument accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            Batch.fromArgs("--manifest=m", "--resume");
+            fail("--resume accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+}
@@ -0,0 +1,496 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** A simulation of the Turing-Welchman bombe.  A crib (plaintext known
+ *  to lie at a given offset in the ciphertext) yields a menu: a graph
+ *  on alphabet characters with an edge from P to C, labeled I, for
+ *  each crib character P enciphered as C at crib offset I.  For every
+ *  rotor order and starting position, the scrambler permutation at
+ *  each crib offset is precomputed as the rightmost rotor's state plus
+ *  a table for the rest of the rotors, shared by all offsets at which
+ *  those stand still.  Then, for each hypothesis "the test character
+ *  is plugged to H", the consequences are propagated along the menu
+ *  (if A is plugged to Y and A-B is labeled I, then B is plugged to
+ *  S_I(Y)), with Welchman's diagonal board adding Y-A for each A-Y.
+ *  The hypotheses are kept as one bitset per character, and
+ *  a hypothesis whose closure plugs some character to two others is
+ *  dropped as soon as that happens.  Those that survive are stops.
+ *  Rotor orders and leftmost positions are divided among the threads of
+ *  a ForkJoinPool.  Ring settings are taken to be all zero.  Usage:
+ *      java enigma.Bombe [--offset=K] [--threads=T]
+ *                        CONF CIPHERTEXT CRIB
+ *  where CIPHERTEXT is a file as for KeySearch and CRIB is the known
+ *  plaintext, starting at ciphertext character K (default 0).
+ *  @author Jay Chiang
+ */
+public final class Bombe {
+
+    /** Run the bombe described by ARGS. */
+    public static void main(String... args) {
+        try {
+            int offset = 0, threads = 0;
+            int first = 0;
+            for (; first < args.length && args[first].startsWith("--");
+                 first += 1) {
+                String arg = args[first];
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--offset=")) {
+                    offset = Integer.parseInt(value);
+                } else if (arg.startsWith("--threads=")) {
+                    threads = Integer.parseInt(value);
+                } else {
+                    throw error("unknown option %s", arg);
+                }
+            }
+            if (args.length != first + 3) {
+                throw error("Usage: java enigma.Bombe [--offset=K] "
+                            + "[--threads=T] CONF CIPHERTEXT CRIB");
+            }
+            Config config = KeySearch.readConfig(args[first]);
+            Alphabet alpha = config.alphabet();
+            Bombe bombe =
+                new Bombe(new RotorTables(config), config.numRotors(),
+                          config.numPawls(),
+                          KeySearch.readText(alpha, args[first + 1]),
+                          KeySearch.indices(alpha, args[first + 2]),
+                          offset);
+            ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads)
+                : ForkJoinPool.commonPool();
+            for (Stop stop : bombe.search(pool)) {
+                System.out.println(stop);
+            }
+            System.err.println(bombe.report());
+        } catch (NumberFormatException excp) {
+            System.err.println("Error: bad option value");
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A bombe for a machine with NUMROTORS slots and NUMPAWLS pawls
+     *  built from TABLES, given that CRIB (as indices) is the plaintext
+     *  of CIPHERTEXT starting at index OFFSET. */
+    Bombe(RotorTables tables, int numRotors, int numPawls,
+          int[] ciphertext, int[] crib, int offset) {
+        int n = tables.size();
+        if (n > Long.SIZE) {
+            throw error("bombe needs an alphabet of at most %d characters",
+                        Long.SIZE);
+        }
+        if (crib.length == 0 || offset < 0
+            || offset + crib.length > ciphertext.length) {
+            throw error("crib does not fit the ciphertext");
+        }
+        _tables = tables;
+        _numRotors = numRotors;
+        _orders = KeySearch.orders(tables, numRotors, numPawls);
+        _offset = offset;
+        _cribLength = crib.length;
+        int[] degree = new int[n];
+        for (int i = 0; i < crib.length; i += 1) {
+            int p = crib[i], c = ciphertext[offset + i];
+            if (p == c) {
+                throw error("crib character %d enciphers to itself", i);
+            }
+            degree[p] += 1;
+            degree[c] += 1;
+        }
+        _neighbors = new int[n][];
+        _labels = new int[n][];
+        _test = 0;
+        for (int x = 0; x < n; x += 1) {
+            _neighbors[x] = new int[degree[x]];
+            _labels[x] = new int[degree[x]];
+            if (degree[x] > degree[_test]) {
+                _test = x;
+            }
+            degree[x] = 0;
+        }
+        for (int i = 0; i < crib.length; i += 1) {
+            int p = crib[i], c = ciphertext[offset + i];
+            addEdge(p, c, i, degree);
+            addEdge(c, p, i, degree);
+        }
+    }
+
+    /** Record in the menu an edge from A to B labeled I, where DEGREE
+     *  counts the edges already recorded for each character. */
+    private void addEdge(int a, int b, int i, int[] degree) {
+        _neighbors[a][degree[a]] = b;
+        _labels[a][degree[a]] = i;
+        degree[a] += 1;
+    }
+
+    /** Restrict the search to the rotor orders in ORDERS. */
+    void setOrders(List<int[]> orders) {
+        _orders = new ArrayList<>(orders);
+    }
+
+    /** Return the character whose hypotheses are tested: the one with
+     *  the most menu edges. */
+    int testCharacter() {
+        return _test;
+    }
+
+    /** Return the number of rotor positions the full search covers. */
+    long positions() {
+        long perOrder = 1;
+        for (int i = 1; i < _numRotors; i += 1) {
+            perOrder *= _tables.size();
+        }
+        return perOrder * _orders.size();
+    }
+
+    /** Run the bombe on POOL, returning all stops in order of rotor
+     *  order and position. */
+    List<Stop> search(ForkJoinPool pool) {
+        _tried.reset();
+        long start = System.nanoTime();
+        List<Stop> stops =
+            pool.invoke(new Task(0, _orders.size() * _tables.size()));
+        _elapsed = System.nanoTime() - start;
+        return stops;
+    }
+
+    /** Return the number of rotor positions tried by the last
+     *  search. */
+    long tried() {
+        return _tried.sum();
+    }
+
+    /** Return the rate at which the last search tried rotor
+     *  positions. */
+    double positionsPerSecond() {
+        return _tried.sum() * 1e9 / Math.max(1, _elapsed);
+    }
+
+    /** Return a summary of the last search's speed. */
+    String report() {
+        return String.format("%d positions in %.2f s: %.0f positions/s",
+                             tried(), _elapsed / 1e9, positionsPerSecond());
+    }
+
+    /** A range of work units, each a rotor order and a starting
+     *  position of the leftmost rotor. */
+    private final class Task extends RecursiveTask<List<Stop>> {
+
+        /** The units numbered FROM (inclusive) to TO (exclusive). */
+        Task(int from, int to) {
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected List<Stop> compute() {
+            if (_to - _from <= 1) {
+                ArrayList<Stop> result = new ArrayList<>();
+                if (_to > _from) {
+                    new Unit().run(_from, result);
+                }
+                return result;
+            }
+            int mid = (_from + _to) >>> 1;
+            Task left = new Task(_from, mid);
+            left.fork();
+            List<Stop> right = new Task(mid, _to).compute();
+            List<Stop> result = left.join();
+            result.addAll(right);
+            return result;
+        }
+
+        /** First and last-plus-one units. */
+        private final int _from, _to;
+    }
+
+    /** The working storage for one work unit. */
+    private final class Unit {
+
+        /** Storage for units over my alphabet. */
+        Unit() {
+            int n = _tables.size();
+            _n = n;
+            _inners = new int[_cribLength][n];
+            _innerOf = new int[_cribLength][];
+            _shifts = new int[_cribLength];
+            _passes = new int[_cribLength];
+            _cache = new int[CACHE_SIZE][n];
+            _cacheKey = new long[CACHE_SIZE];
+            _cacheUse = new long[CACHE_SIZE];
+            Arrays.fill(_cacheKey, -1);
+            _rows = new long[n];
+            _facts = new int[2 * n];
+        }
+
+        /** Test every position in work unit UNIT, adding stops to
+         *  STOPS. */
+        void run(int unit, List<Stop> stops) {
+            int n = _n;
+            int[] order = _orders.get(unit / n);
+            CompiledMachine machine =
+                new CompiledMachine(_tables, _numRotors);
+            machine.setRotors(order);
+            int last = _numRotors - 1;
+            _fwd = machine.forwardTable(last);
+            _bwd = machine.backwardTable(last);
+            int[] posns = new int[_numRotors];
+            posns[1] = unit % n;
+            long tried = 0;
+            do {
+                for (int i = 1; i < _numRotors; i += 1) {
+                    machine.setPosition(i, posns[i]);
+                }
+                for (int k = 0; k < _offset; k += 1) {
+                    machine.step();
+                }
+                tried += 1;
+                int[] inner = null;
+                int tables = 0, version = 0;
+                for (int i = 0; i < _cribLength; i += 1) {
+                    machine.step();
+                    if (inner == null || machine.innerVersion() != version) {
+                        version = machine.innerVersion();
+                        inner = innerTable(machine, tried, tables);
+                        if (inner == _inners[tables]) {
+                            tables += 1;
+                        }
+                    }
+                    _innerOf[i] = inner;
+                    _shifts[i] = machine.shift(last);
+                    _passes[i] = machine.pass(last);
+                }
+                for (int h = 0; h < n; h += 1) {
+                    if (close(_test, h)) {
+                        stops.add(new Stop(_tables, order, posns, _rows));
+                    }
+                }
+            } while (increment(posns, 2, n));
+            _tried.add(tried);
+        }
+
+        /** Return a table of MACHINE's inner mapping (see
+         *  CompiledMachine.inner) for use in position number STAMP.  It
+         *  is taken from or added to _cache, keyed by the positions of
+         *  the inner rotors, unless that would evict a table already
+         *  used in this position, in which case it is built in
+         *  _inners[SPARE]. */
+        private int[] innerTable(CompiledMachine machine, long stamp,
+                                 int spare) {
+            long key = 0;
+            for (int i = 1; i < _numRotors - 1; i += 1) {
+                key = key * _n + machine.position(i);
+            }
+            int slot = (int) (key % CACHE_SIZE);
+            int[] table;
+            if (_cacheKey[slot] == key) {
+                table = _cache[slot];
+            } else if (_cacheUse[slot] != stamp) {
+                table = _cache[slot];
+                machine.inner(table);
+                _cacheKey[slot] = key;
+            } else {
+                table = _inners[spare];
+                machine.inner(table);
+                return table;
+            }
+            _cacheUse[slot] = stamp;
+            return table;
+        }
+
+        /** Compute into _rows the consequences of plugging X to Y.
+         *  Return false as soon as they plug some character to two
+         *  others. */
+        private boolean close(int x, int y) {
+            for (int k = 0; k < _top; k += 2) {
+                _rows[_facts[k]] = 0;
+            }
+            _top = 0;
+            if (!plug(x, y)) {
+                return false;
+            }
+            for (int next = 0; next < _top; next += 2) {
+                int a = _facts[next], v = _facts[next + 1];
+                int[] neighbors = _neighbors[a], labels = _labels[a];
+                for (int e = 0; e < neighbors.length; e += 1) {
+                    if (!plug(neighbors[e], scramble(labels[e], v))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Return the scrambler's output for C at crib offset I. */
+        private int scramble(int i, int c) {
+            int n = _n, s = _shifts[i], pass = _passes[i];
+            if (c != pass) {
+                c = _fwd[c + s] - s;
+                c = c < 0 ? c + n : c;
+            }
+            c = _innerOf[i][c];
+            if (c != pass) {
+                c = _bwd[c + s] - s;
+                c = c < 0 ? c + n : c;
+            }
+            return c;
+        }
+
+        /** Record that A is plugged to B and, by the diagonal board, B to
+         *  A, queueing each new fact.  Return false if either character
+         *  was already plugged to something else. */
+        private boolean plug(int a, int b) {
+            return set(a, b) && (a == b || set(b, a));
+        }
+
+        /** Record that A is plugged to B, queueing the fact if it is
+         *  new.  Return false if A was already plugged to something
+         *  else. */
+        private boolean set(int a, int b) {
+            long bit = 1L << b;
+            long row = _rows[a];
+            if ((row & bit) != 0) {
+                return true;
+            }
+            if (row != 0) {
+                return false;
+            }
+            _rows[a] = bit;
+            _facts[_top] = a;
+            _facts[_top + 1] = b;
+            _top += 2;
+            return true;
+        }
+
+        /** Alphabet size. */
+        private final int _n;
+        /** The scrambler at crib offset I takes C through the rightmost
+         *  rotor (doubled wirings _fwd and _bwd, shifted by _shifts[I],
+         *  passing _passes[I] unchanged) and _innerOf[I], which is one
+         *  of the tables in _cache or _inners. */
+        private final int[][] _inners, _innerOf;
+        /** Inner tables of recently seen positions of the inner rotors,
+         *  and those positions, packed as a base-_n number (-1 for an
+         *  empty slot).  Entry K holds key _cacheKey[K] and was last
+         *  used in position number _cacheUse[K]. */
+        private final int[][] _cache;
+        /** Keys and last uses of _cache entries. */
+        private final long[] _cacheKey, _cacheUse;
+        /** Rightmost rotor state at each crib offset. */
+        private final int[] _shifts, _passes;
+        /** Doubled wirings of the rightmost rotor. */
+        private int[] _fwd, _bwd;
+        /** Bit Y of _rows[X] is set iff X is taken to be plugged to
+         *  Y. */
+        private final long[] _rows;
+        /** The (character, partner) pairs set in _rows, in the order
+         *  found; those not yet propagated follow those that have been.
+         *  Each row holds at most one bit, so there are at most _n. */
+        private final int[] _facts;
+        /** Number of entries in _facts. */
+        private int _top;
+    }
+
+    /** Treat DIGITS[FROM..] as a base-N number, least significant digit
+     *  last, and add one to it.  Return false (leaving all zeros) if
+     *  it overflows. */
+    private static boolean increment(int[] digits, int from, int n) {
+        for (int i = digits.length - 1; i >= from; i -= 1) {
+            digits[i] += 1;
+            if (digits[i] < n) {
+                return true;
+            }
+            digits[i] = 0;
+        }
+        return false;
+    }
+
+    /** A rotor order and position at which the bombe stopped, with the
+     *  plugs its surviving hypothesis implies. */
+    static final class Stop {
+
+        /** A stop for the rotors ORDER (numbers in TABLES) at positions
+         *  POSNS (indexed by slot; entry 0 is ignored), where bit Y of
+         *  ROWS[X] is set iff X is plugged to Y. */
+        Stop(RotorTables tables, int[] order, int[] posns, long[] rows) {
+            Alphabet alpha = tables.config().alphabet();
+            StringBuilder line = new StringBuilder("*");
+            for (int k : order) {
+                line.append(' ').append(tables.name(k));
+            }
+            line.append(' ');
+            for (int i = 1; i < posns.length; i += 1) {
+                line.append(alpha.toChar(posns[i]));
+            }
+            _rotors = line.toString();
+            ArrayList<String> plugs = new ArrayList<>();
+            for (int x = 0; x < rows.length; x += 1) {
+                int y = Long.numberOfTrailingZeros(rows[x]);
+                if (rows[x] != 0 && x < y) {
+                    plugs.add("(" + alpha.toChar(x) + alpha.toChar(y) + ")");
+                }
+            }
+            Collections.sort(plugs);
+            _plugs = String.join(" ", plugs);
+        }
+
+        /** Return a setting line for my rotors and positions, without
+         *  plugboard. */
+        String rotors() {
+            return _rotors;
+        }
+
+        /** Return the plugs implied by the stop, as cycles. */
+        String plugs() {
+            return _plugs;
+        }
+
+        /** Return a setting line for my key, as accepted by Main,
+         *  including the plugs found. */
+        String settings() {
+            return _plugs.isEmpty() ? _rotors : _rotors + " " + _plugs;
+        }
+
+        @Override
+        public String toString() {
+            return settings();
+        }
+
+        /** Rotor order and positions as a setting line. */
+        private final String _rotors;
+        /** Implied plugs. */
+        private final String _plugs;
+    }
+
+    /** Number of inner tables each unit caches. */
+    private static final int CACHE_SIZE = 64;
+
+    /** Compiled rotors. */
+    private final RotorTables _tables;
+    /** Number of slots. */
+    private final int _numRotors;
+    /** Rotor orders to try. */
+    private List<int[]> _orders;
+    /** Index of the crib's first character in the ciphertext. */
+    private final int _offset;
+    /** Length of the crib. */
+    private final int _cribLength;
+    /** The menu: character X has an edge to _neighbors[X][E] labeled
+     *  with crib offset _labels[X][E]. */
+    private final int[][] _neighbors, _labels;
+    /** The test character. */
+    private int _test;
+    /** Positions tried in the current search. */
+    private final LongAdder _tried = new LongAdder();
+    /** Duration of the last search. */
+    private long _elapsed;
+}
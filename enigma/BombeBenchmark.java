@@ -0,0 +1,150 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/** Compares the bombe with trying keys by trial decryption on Machine.
+ *  Usage:
+ *      java enigma.BombeBenchmark CONF SETTINGS
+ *                                 [CRIBLENGTH [ORDERS [SAMPLE]]]
+ *  encrypts a random message under the setting line SETTINGS, takes
+ *  its first CRIBLENGTH (default 25) characters as the crib, and runs
+ *  the bombe over every position of the first ORDERS (default 8) rotor
+ *  orders of CONF.  It then times SAMPLE (default 20000) keys of the
+ *  brute-force alternative: setting up a Machine as Main does, with a
+ *  plugboard built from the cycles of SETTINGS, and decrypting the
+ *  crib's ciphertext with Machine.convert.  One bombe position covers
+ *  every plugboard, while brute force needs a trial per plugboard, so
+ *  the report gives the ratio of the rates per rotor position and also
+ *  that ratio times the number of plugboards with as many plugs as
+ *  SETTINGS has.
+ *  @author Jay Chiang
+ */
+public final class BombeBenchmark {
+
+    /** Run the benchmark described by ARGS. */
+    public static void main(String... args) {
+        if (args.length < 2 || args.length > 5) {
+            System.err.println("Usage: java enigma.BombeBenchmark CONF "
+                               + "SETTINGS [CRIBLENGTH [ORDERS [SAMPLE]]]");
+            System.exit(1);
+        }
+        int cribLength = args.length > 2 ? Integer.parseInt(args[2])
+            : DEFAULT_CRIB;
+        int numOrders = args.length > 3 ? Integer.parseInt(args[3])
+            : DEFAULT_ORDERS;
+        int sample = args.length > 4 ? Integer.parseInt(args[4])
+            : DEFAULT_SAMPLE;
+        Config config = KeySearch.readConfig(args[0]);
+        Alphabet alpha = config.alphabet();
+        Random random = new Random(SEED);
+        StringBuilder plain = new StringBuilder();
+        for (int i = 0; i < MESSAGE_LENGTH; i += 1) {
+            plain.append(alpha.toChar(random.nextInt(alpha.size())));
+        }
+        int[] cipher = KeySearch.indices(alpha,
+            new Main(config).processMessage(args[1], plain.toString()));
+        int[] crib = KeySearch.indices(alpha,
+                                       plain.substring(0, cribLength));
+        ArrayList<String> plugs = new ArrayList<>();
+        for (String word : args[1].trim().split("\\s+")) {
+            if (word.startsWith("(")) {
+                plugs.add(word);
+            }
+        }
+        String cycles = String.join(" ", plugs);
+        double plugboards = plugboards(alpha.size(), plugs.size());
+        RotorTables tables = new RotorTables(config);
+        List<int[]> orders = KeySearch.orders(tables, config.numRotors(),
+                                              config.numPawls());
+        orders = orders.subList(0, Math.min(numOrders, orders.size()));
+
+        for (int round = 0; round < ROUNDS; round += 1) {
+            Bombe bombe = new Bombe(tables, config.numRotors(),
+                                    config.numPawls(), cipher, crib, 0);
+            bombe.setOrders(orders);
+            List<Bombe.Stop> stops = bombe.search(ForkJoinPool.commonPool());
+            double bruteRate = bruteForce(config, tables, cipher, crib,
+                                          cycles, sample);
+            double ratio = bombe.positionsPerSecond() / bruteRate;
+            System.out.printf("bombe   %12.0f positions/s  %d stops%n",
+                              bombe.positionsPerSecond(), stops.size());
+            System.out.printf("machine %12.0f keys/s%n", bruteRate);
+            System.out.printf("ratio   %12.1fx per position, %.1ex over "
+                              + "%.3g plugboards%n", ratio,
+                              ratio * plugboards, plugboards);
+        }
+    }
+
+    /** Return the number of plugboards with PLUGS plugs over an
+     *  alphabet of N characters: N! / ((N - 2 PLUGS)! PLUGS! 2^PLUGS). */
+    static double plugboards(int n, int plugs) {
+        double result = 1;
+        for (int k = 0; k < plugs; k += 1) {
+            result *= (double) (n - 2 * k) * (n - 2 * k - 1) / 2 / (k + 1);
+        }
+        return result;
+    }
+
+    /** Try the first SAMPLE keys (rotor orders from TABLES and
+     *  positions) of CONFIG, each with the plugboard CYCLES, by
+     *  decrypting the first characters of CIPHER with a Machine and
+     *  comparing them with CRIB.  Return the number of keys tried per
+     *  second. */
+    private static double bruteForce(Config config, RotorTables tables,
+                                     int[] cipher, int[] crib,
+                                     String cycles, int sample) {
+        Alphabet alpha = config.alphabet();
+        int n = alpha.size(), slots = config.numRotors();
+        List<int[]> orders = KeySearch.orders(tables, slots,
+                                              config.numPawls());
+        Machine machine = config.newMachine();
+        String[] names = new String[slots];
+        char[] posns = new char[slots - 1];
+        long perOrder = (long) Math.pow(n, slots - 1);
+        int matches = 0;
+        long start = System.nanoTime();
+        for (int key = 0; key < sample; key += 1) {
+            int[] order = orders.get((int) (key / perOrder % orders.size()));
+            for (int i = 0; i < slots; i += 1) {
+                names[i] = tables.name(order[i]);
+            }
+            long p = key % perOrder;
+            for (int i = posns.length - 1; i >= 0; i -= 1) {
+                posns[i] = alpha.toChar((int) (p % n));
+                p /= n;
+            }
+            machine.insertRotors(names);
+            machine.setRotors(new String(posns));
+            machine.setPlugboard(new Permutation(cycles, alpha));
+            boolean match = true;
+            for (int i = 0; i < crib.length; i += 1) {
+                match &= machine.convert(cipher[i]) == crib[i];
+            }
+            if (match) {
+                matches += 1;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (matches > 0) {
+            System.out.printf("machine found %d matches%n", matches);
+        }
+        return sample / seconds;
+    }
+
+    /** Number of times each measurement is taken. */
+    private static final int ROUNDS = 3;
+    /** Default crib length. */
+    private static final int DEFAULT_CRIB = 25;
+    /** Default number of rotor orders searched by the bombe. */
+    private static final int DEFAULT_ORDERS = 8;
+    /** Default number of keys tried by brute force. */
+    private static final int DEFAULT_SAMPLE = 20000;
+    /** Length of the generated message. */
+    private static final int MESSAGE_LENGTH = 200;
+    /** Seed for generated messages. */
+    private static final long SEED = 61;
+
+}
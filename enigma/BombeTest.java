@@ -0,0 +1,83 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.KeySearchTest.PLAIN;
+import static enigma.KeySearchTest.SMALL;
+import static enigma.KeySearchTest.encrypt;
+
+/** The suite of all JUnit tests for the Bombe class.
+ *  @author Jay Chiang
+ */
+public class BombeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** Return a bombe over SMALL for the ciphertext of PLAIN under
+     *  SETTINGS, with the CRIBLENGTH characters of PLAIN starting at
+     *  OFFSET as the crib. */
+    private Bombe bombe(String settings, int offset, int cribLength) {
+        Config config = Config.read(new Scanner(SMALL));
+        Alphabet alpha = config.alphabet();
+        int[] cipher = KeySearch.indices(alpha,
+                                         encrypt(SMALL, settings, PLAIN));
+        int[] crib = KeySearch.indices(alpha,
+            PLAIN.substring(offset, offset + cribLength));
+        return new Bombe(new RotorTables(config), config.numRotors(),
+                         config.numPawls(), cipher, crib, offset);
+    }
+
+    @Test
+    public void testFindsKey() {
+        String plugs = "(AQ) (EX) (IP) (RT)";
+        HashSet<String> truth = new HashSet<>(Arrays.asList(plugs.split(" ")));
+        for (int offset : new int[] { 0, 40 }) {
+            Bombe bombe = bombe("* B III I QD " + plugs, offset, 30);
+            List<Bombe.Stop> stops = bombe.search(new ForkJoinPool(2));
+            assertEquals(6 * 26 * 26, bombe.positions());
+            assertEquals(bombe.positions(), bombe.tried());
+            boolean found = false;
+            for (Bombe.Stop stop : stops) {
+                if (stop.rotors().equals("* B III I QD")
+                    && truth.containsAll(Arrays.asList(stop.plugs()
+                                                       .split(" ")))) {
+                    found = true;
+                }
+            }
+            assertTrue("true key among " + stops.size() + " stops", found);
+            assertTrue(stops.size() < 50);
+        }
+    }
+
+    @Test
+    public void testNoPlugboard() {
+        Bombe bombe = bombe("* B II III AZ", 0, 30);
+        boolean found = false;
+        for (Bombe.Stop stop : bombe.search(new ForkJoinPool(1))) {
+            found |= stop.rotors().equals("* B II III AZ")
+                && stop.plugs().isEmpty();
+        }
+        assertTrue(found);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testSelfEncipherment() {
+        Config config = Config.read(new Scanner(SMALL));
+        Alphabet alpha = config.alphabet();
+        new Bombe(new RotorTables(config), 3, 2,
+                  KeySearch.indices(alpha, "ABCDE"),
+                  KeySearch.indices(alpha, "XBY"), 0);
+    }
+
+}
@@ -0,0 +1,662 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** A catalog of the characteristics of every rotor order and starting
+ *  position of a configuration, for recovering the key of a day's
+ *  traffic from its message indicators, as Rejewski did.  Under the
+ *  old indicator procedure each message began with its message key,
+ *  HALF characters, typed twice at the day's key, so the first LENGTH
+ *  characters of every message are A1(k1) A2(k2) A3(k3) A4(k1) A5(k2)
+ *  A6(k3), where Ai is the machine's mapping after I steps.  With
+ *  enough messages, the indicators determine the products A4 A1,
+ *  A5 A2 and A6 A3, and the cycle types of those products (the
+ *  characteristic) do not depend on the plugboard, since changing it
+ *  conjugates each product.  Looking the characteristic up in the
+ *  catalog gives the few keys (rotor order and starting positions,
+ *  with ring settings 0) that could have produced it.
+ *
+ *  A characteristic is identified by a 64-bit fingerprint of its three
+ *  cycle types.  The catalog file holds the alphabet, rotor names and
+ *  rotor orders, an open-addressed hash table from fingerprint to a
+ *  range of key numbers, and the key numbers grouped by fingerprint;
+ *  it is mapped into memory when opened, so a lookup touches only a
+ *  few pages.  Usage:
+ *      java enigma.CharacteristicCatalog [--threads=T] CONF CATALOG
+ *  builds the catalog for the configuration in CONF, reporting progress
+ *  on the standard error, and
+ *      java enigma.CharacteristicCatalog [--limit=K] CATALOG INDICATORS
+ *  prints the characteristic of the indicators (the first LENGTH
+ *  alphabet characters of each line) in the file INDICATORS and the
+ *  setting lines of up to K [50] keys that have it.
+ *  @author Jay Chiang
+ */
+public final class CharacteristicCatalog {
+
+    /** Length of an indicator. */
+    static final int LENGTH = 6;
+    /** Length of a message key. */
+    static final int HALF = LENGTH / 2;
+
+    /** Build or consult a catalog as described by ARGS. */
+    public static void main(String... args) {
+        try {
+            int threads = 0, limit = DEFAULT_LIMIT;
+            int first = 0;
+            for (; first < args.length && args[first].startsWith("--");
+                 first += 1) {
+                String arg = args[first];
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--threads=")) {
+                    threads = Integer.parseInt(value);
+                } else if (arg.startsWith("--limit=")) {
+                    limit = Integer.parseInt(value);
+                } else {
+                    throw error("unknown option %s", arg);
+                }
+            }
+            if (args.length != first + 2) {
+                throw error("Usage: java enigma.CharacteristicCatalog "
+                            + "[--threads=T] CONF CATALOG\n"
+                            + "   or: java enigma.CharacteristicCatalog "
+                            + "[--limit=K] CATALOG INDICATORS");
+            }
+            Path catalog = Paths.get(args[first + 1]);
+            if (!isCatalog(Paths.get(args[first]))) {
+                Config config = KeySearch.readConfig(args[first]);
+                Builder builder = new Builder(new RotorTables(config),
+                                              config.numRotors(),
+                                              config.numPawls());
+                builder.setProgress(System.err);
+                builder.build(threads > 0 ? new ForkJoinPool(threads)
+                              : ForkJoinPool.commonPool(), catalog);
+                System.err.println(builder.report());
+            } else {
+                lookup(open(Paths.get(args[first])), args[first + 1],
+                       limit);
+            }
+        } catch (NumberFormatException excp) {
+            System.err.println("Error: bad option value");
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Print the characteristic of the indicators in the file named
+     *  INDICATORS and the settings of up to LIMIT keys in CATALOG that
+     *  have it. */
+    private static void lookup(CharacteristicCatalog catalog,
+                               String indicators, int limit) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(indicators));
+        } catch (IOException excp) {
+            throw error("could not open %s", indicators);
+        }
+        int[][] counts = characteristic(catalog.alphabet(), lines);
+        long start = System.nanoTime();
+        int[] keys = catalog.lookup(fingerprint(counts));
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("characteristic %s: %d keys (%.3f ms)%n",
+                          describe(counts), keys.length, elapsed / 1e6);
+        for (int i = 0; i < keys.length && i < limit; i += 1) {
+            System.out.println(catalog.settings(keys[i]));
+        }
+    }
+
+    /** Return the characteristic determined by INDICATORS, whose first
+     *  LENGTH characters in ALPHABET (others are ignored) are each an
+     *  indicator, as counts of cycles by length (see
+     *  PermutationAlgebra.cycleType) for each of the HALF products.
+     *  The indicators must be consistent and determine each product
+     *  completely. */
+    static int[][] characteristic(Alphabet alphabet,
+                                  List<String> indicators) {
+        int n = alphabet.size();
+        int[][] products = new int[HALF][n];
+        for (int[] product : products) {
+            Arrays.fill(product, -1);
+        }
+        int[] letters = new int[LENGTH];
+        for (String line : indicators) {
+            int len = 0;
+            for (int i = 0; i < line.length() && len < LENGTH; i += 1) {
+                int c = alphabet.toInt(line.charAt(i));
+                if (c >= 0) {
+                    letters[len] = c;
+                    len += 1;
+                }
+            }
+            if (len == 0) {
+                continue;
+            } else if (len < LENGTH) {
+                throw error("indicator too short: %s", line.trim());
+            }
+            for (int h = 0; h < HALF; h += 1) {
+                int from = letters[h], to = letters[h + HALF];
+                if (products[h][from] >= 0 && products[h][from] != to) {
+                    throw error("inconsistent indicators");
+                }
+                products[h][from] = to;
+            }
+        }
+        int[][] counts = new int[HALF][n + 1];
+        boolean[] seen = new boolean[n];
+        for (int h = 0; h < HALF; h += 1) {
+            if (!PermutationAlgebra.isPermutation(products[h])) {
+                throw error("indicators do not determine the "
+                            + "characteristic");
+            }
+            PermutationAlgebra.cycleType(products[h], counts[h], seen);
+        }
+        return counts;
+    }
+
+    /** Return the fingerprint of the characteristic COUNTS (as returned
+     *  by characteristic). */
+    static long fingerprint(int[][] counts) {
+        long h = 0;
+        for (int[] product : counts) {
+            for (int len = 1; len < product.length; len += 1) {
+                h = (h + product[len] + 1) * 0x9E3779B97F4A7C15L;
+            }
+            h ^= h >>> 31;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        return h ^ h >>> 33;
+    }
+
+    /** Return the characteristic COUNTS in the form "L L ... / L L ...
+     *  / L L ...", listing the cycle lengths of each product, longest
+     *  first. */
+    static String describe(int[][] counts) {
+        StringBuilder result = new StringBuilder();
+        for (int h = 0; h < counts.length; h += 1) {
+            if (h > 0) {
+                result.append(" /");
+            }
+            for (int len : PermutationAlgebra.partition(counts[h])) {
+                result.append(' ').append(len);
+            }
+        }
+        return result.substring(1);
+    }
+
+    /** Return true iff FILE begins as a catalog does. */
+    private static boolean isCatalog(Path file) {
+        try (DataInputStream in = new DataInputStream(
+                 Files.newInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Return the catalog in FILE. */
+    static CharacteristicCatalog open(Path file) {
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                         channel.size());
+            return new CharacteristicCatalog(buf);
+        } catch (IOException | RuntimeException excp) {
+            throw error("could not read catalog %s", file);
+        }
+    }
+
+    /** The catalog held in BUF. */
+    private CharacteristicCatalog(ByteBuffer buf) {
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            throw new IllegalArgumentException();
+        }
+        _alphabet = new Alphabet(string(buf));
+        _slots = buf.getInt();
+        int count = buf.getInt();
+        _names = new String[count];
+        for (int k = 0; k < count; k += 1) {
+            _names[k] = string(buf);
+        }
+        _orders = new int[buf.getInt()][_slots];
+        for (int[] order : _orders) {
+            for (int i = 0; i < _slots; i += 1) {
+                order[i] = buf.getInt();
+            }
+        }
+        _keys = buf.getInt();
+        _mask = buf.getInt() - 1;
+        _characteristics = buf.getInt();
+        _buckets = buf.position();
+        _entries = _buckets + BUCKET_BYTES * (_mask + 1);
+        _buf = buf;
+        if (_entries + 4L * _keys != buf.limit()) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /** Return the string at the position of BUF (a length and that
+     *  many chars), moving past it. */
+    private static String string(ByteBuffer buf) {
+        char[] chars = new char[buf.getInt()];
+        for (int i = 0; i < chars.length; i += 1) {
+            chars[i] = buf.getChar();
+        }
+        return new String(chars);
+    }
+
+    /** Write STRING to OUT as string reads it. */
+    private static void writeString(DataOutputStream out, String string)
+        throws IOException {
+        out.writeInt(string.length());
+        out.writeChars(string);
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of keys I catalog. */
+    int keys() {
+        return _keys;
+    }
+
+    /** Return the number of distinct characteristics among my keys. */
+    int characteristics() {
+        return _characteristics;
+    }
+
+    /** Return the numbers of the keys whose characteristic has the
+     *  fingerprint FINGERPRINT, in increasing order. */
+    int[] lookup(long fingerprint) {
+        for (int b = (int) fingerprint & _mask; true; b = (b + 1) & _mask) {
+            int bucket = _buckets + BUCKET_BYTES * b;
+            int count = _buf.getInt(bucket + 12);
+            if (count == 0) {
+                return new int[0];
+            }
+            if (_buf.getLong(bucket) == fingerprint) {
+                int start = _buf.getInt(bucket + 8);
+                int[] result = new int[count];
+                for (int i = 0; i < count; i += 1) {
+                    result[i] = _buf.getInt(_entries + 4 * (start + i));
+                }
+                return result;
+            }
+        }
+    }
+
+    /** Return a setting line, as accepted by Main, for key number KEY:
+     *  its rotor order and starting positions. */
+    String settings(int key) {
+        int n = _alphabet.size();
+        char[] posns = new char[_slots - 1];
+        for (int i = _slots - 2; i >= 0; i -= 1) {
+            posns[i] = _alphabet.toChar(key % n);
+            key /= n;
+        }
+        StringBuilder line = new StringBuilder("*");
+        for (int k : _orders[key]) {
+            line.append(' ').append(_names[k]);
+        }
+        return line.append(' ').append(posns).toString();
+    }
+
+    /** Builds the catalog of a configuration.  The work is divided by
+     *  rotor order and leftmost starting position among the threads of
+     *  a ForkJoinPool, as in KeySearch; each task runs its own
+     *  CompiledMachine over the starting positions of the other rotors.
+     *  Stepping the machine through LENGTH characters changes the
+     *  rotors other than the rightmost only at a turnover, so each
+     *  mapping Ai is the rightmost rotor's wiring around a table of the
+     *  rest (CompiledMachine.inner) that is refilled only when they
+     *  move. */
+    static final class Builder {
+
+        /** A builder for the keys of a machine with NUMROTORS slots and
+         *  NUMPAWLS pawls built from TABLES. */
+        Builder(RotorTables tables, int numRotors, int numPawls) {
+            _tables = tables;
+            _slots = numRotors;
+            _orders = KeySearch.orders(tables, numRotors, numPawls);
+            int n = tables.size();
+            long perUnit = 1;
+            for (int i = 2; i < numRotors; i += 1) {
+                perUnit *= n;
+            }
+            if (_orders.isEmpty()
+                || perUnit * n * _orders.size() > Integer.MAX_VALUE) {
+                throw error("no catalog of %d rotor orders and %d slots "
+                            + "is possible", _orders.size(), numRotors);
+            }
+            _perUnit = (int) perUnit;
+        }
+
+        /** Report progress about once a second on OUT, or not at all
+         *  if OUT is null. */
+        void setProgress(PrintStream out) {
+            _progress = out;
+        }
+
+        /** Return the number of keys the catalog covers. */
+        int keys() {
+            return _perUnit * units();
+        }
+
+        /** Return the number of work units. */
+        private int units() {
+            return _orders.size() * _tables.size();
+        }
+
+        /** Compute the characteristics of all keys on POOL and write the
+         *  catalog to FILE. */
+        void build(ForkJoinPool pool, Path file) {
+            long start = System.nanoTime();
+            _done.reset();
+            long[] fingerprints = new long[keys()];
+            ForkJoinTask<Void> task =
+                pool.submit(new Task(0, units(), fingerprints));
+            while (true) {
+                try {
+                    task.get(1, TimeUnit.SECONDS);
+                    break;
+                } catch (TimeoutException excp) {
+                    if (_progress != null) {
+                        long done = _done.sum();
+                        double secs = (System.nanoTime() - start) / 1e9;
+                        _progress.printf("%d of %d keys (%.0f%%), %.0f "
+                                         + "keys/s%n", done, keys(),
+                                         100.0 * done / keys(),
+                                         done / secs);
+                    }
+                } catch (InterruptedException excp) {
+                    task.cancel(true);
+                    throw error("interrupted");
+                } catch (ExecutionException excp) {
+                    throw error("catalog build failed: %s",
+                                excp.getCause());
+                }
+            }
+            _computed = System.nanoTime() - start;
+            write(fingerprints, file);
+            _elapsed = System.nanoTime() - start;
+        }
+
+        /** Group the keys by their FINGERPRINTS and write the catalog to
+         *  FILE. */
+        private void write(long[] fingerprints, Path file) {
+            int capacity = 16;
+            long[] keys = new long[capacity];
+            int[] counts = new int[capacity];
+            int distinct = 0;
+            for (long fp : fingerprints) {
+                if (2 * (distinct + 1) > capacity) {
+                    long[] oldKeys = keys;
+                    int[] oldCounts = counts;
+                    capacity *= 2;
+                    keys = new long[capacity];
+                    counts = new int[capacity];
+                    for (int b = 0; b < oldKeys.length; b += 1) {
+                        if (oldCounts[b] > 0) {
+                            int to = find(keys, counts, oldKeys[b]);
+                            keys[to] = oldKeys[b];
+                            counts[to] = oldCounts[b];
+                        }
+                    }
+                }
+                int b = find(keys, counts, fp);
+                if (counts[b] == 0) {
+                    keys[b] = fp;
+                    distinct += 1;
+                }
+                counts[b] += 1;
+            }
+            int[] starts = new int[capacity], fill = new int[capacity];
+            for (int b = 1; b < capacity; b += 1) {
+                starts[b] = starts[b - 1] + counts[b - 1];
+            }
+            int[] entries = new int[fingerprints.length];
+            for (int key = 0; key < fingerprints.length; key += 1) {
+                int b = find(keys, counts, fingerprints[key]);
+                entries[starts[b] + fill[b]] = key;
+                fill[b] += 1;
+            }
+            _characteristics = distinct;
+
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(file),
+                                              1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                Alphabet alpha = _tables.config().alphabet();
+                StringBuilder chars = new StringBuilder();
+                for (int c = 0; c < alpha.size(); c += 1) {
+                    chars.append(alpha.toChar(c));
+                }
+                writeString(out, chars.toString());
+                out.writeInt(_slots);
+                out.writeInt(_tables.count());
+                for (int k = 0; k < _tables.count(); k += 1) {
+                    writeString(out, _tables.name(k));
+                }
+                out.writeInt(_orders.size());
+                for (int[] order : _orders) {
+                    for (int k : order) {
+                        out.writeInt(k);
+                    }
+                }
+                out.writeInt(fingerprints.length);
+                out.writeInt(capacity);
+                out.writeInt(distinct);
+                for (int b = 0; b < capacity; b += 1) {
+                    out.writeLong(keys[b]);
+                    out.writeInt(starts[b]);
+                    out.writeInt(counts[b]);
+                }
+                for (int key : entries) {
+                    out.writeInt(key);
+                }
+                out.flush();
+                _bytes = out.size();
+            } catch (IOException excp) {
+                throw error("could not write catalog %s", file);
+            }
+        }
+
+        /** Return the bucket of the open-addressed table KEYS, COUNTS
+         *  (where a count of 0 marks an empty bucket) holding FP, or the
+         *  empty bucket where it belongs. */
+        private static int find(long[] keys, int[] counts, long fp) {
+            int mask = keys.length - 1;
+            int b = (int) fp & mask;
+            while (counts[b] != 0 && keys[b] != fp) {
+                b = (b + 1) & mask;
+            }
+            return b;
+        }
+
+        /** Return the number of distinct characteristics found by the
+         *  last build. */
+        int characteristics() {
+            return _characteristics;
+        }
+
+        /** Return a summary of the last build. */
+        String report() {
+            return String.format("%d keys, %d characteristics in %.2f s "
+                                 + "(%.2f s computing): %.0f keys/s; "
+                                 + "catalog of %d bytes", keys(),
+                                 _characteristics, _elapsed / 1e9,
+                                 _computed / 1e9,
+                                 keys() * 1e9 / Math.max(1, _computed),
+                                 _bytes);
+        }
+
+        /** A range of work units, each a rotor order and a starting
+         *  position of the leftmost rotor. */
+        private final class Task extends RecursiveAction {
+
+            /** The units numbered FROM (inclusive) to TO (exclusive),
+             *  storing the fingerprint of key K in FINGERPRINTS[K]. */
+            Task(int from, int to, long[] fingerprints) {
+                _from = from;
+                _to = to;
+                _fingerprints = fingerprints;
+            }
+
+            @Override
+            protected void compute() {
+                if (_to - _from <= 1) {
+                    if (_to > _from) {
+                        buildUnit(_from, _fingerprints);
+                    }
+                    return;
+                }
+                int mid = (_from + _to) >>> 1;
+                invokeAll(new Task(_from, mid, _fingerprints),
+                          new Task(mid, _to, _fingerprints));
+            }
+
+            /** First and last-plus-one units. */
+            private final int _from, _to;
+            /** Result array. */
+            private final long[] _fingerprints;
+        }
+
+        /** Store the fingerprints of the keys of work unit UNIT in
+         *  FINGERPRINTS, indexed by key number. */
+        private void buildUnit(int unit, long[] fingerprints) {
+            int n = _tables.size(), slots = _slots, last = slots - 1;
+            CompiledMachine machine = new CompiledMachine(_tables, slots);
+            machine.setRotors(_orders.get(unit / n));
+            int[] posns = new int[slots];
+            posns[1] = unit % n;
+            int[][] mappings = new int[LENGTH][n];
+            int[] product = new int[n], inner = new int[n];
+            int[][] counts = new int[HALF][n + 1];
+            boolean[] seen = new boolean[n];
+            int[] fwd = machine.forwardTable(last);
+            int[] bwd = machine.backwardTable(last);
+            boolean filled = false;
+            int version = 0;
+            int key = unit * _perUnit;
+            do {
+                for (int i = 1; i < slots; i += 1) {
+                    machine.setPosition(i, posns[i]);
+                }
+                for (int step = 0; step < LENGTH; step += 1) {
+                    machine.step();
+                    if (!filled || machine.innerVersion() != version) {
+                        machine.inner(inner);
+                        version = machine.innerVersion();
+                        filled = true;
+                    }
+                    int s = machine.shift(last), pass = machine.pass(last);
+                    int[] mapping = mappings[step];
+                    for (int c = 0; c < n; c += 1) {
+                        int x = c;
+                        if (x != pass) {
+                            x = fwd[x + s] - s;
+                            x = x < 0 ? x + n : x;
+                        }
+                        x = inner[x];
+                        if (x != pass) {
+                            x = bwd[x + s] - s;
+                            x = x < 0 ? x + n : x;
+                        }
+                        mapping[c] = x;
+                    }
+                }
+                for (int h = 0; h < HALF; h += 1) {
+                    PermutationAlgebra.compose(mappings[h + HALF],
+                                               mappings[h], product);
+                    PermutationAlgebra.cycleType(product, counts[h], seen);
+                }
+                fingerprints[key] = fingerprint(counts);
+                key += 1;
+            } while (increment(posns, 2, n));
+            _done.add(_perUnit);
+        }
+
+        /** Treat DIGITS[FROM..] as a base-N number, least significant
+         *  digit last, and add one to it.  Return false (leaving all
+         *  zeros) if it overflows. */
+        private static boolean increment(int[] digits, int from, int n) {
+            for (int i = digits.length - 1; i >= from; i -= 1) {
+                digits[i] += 1;
+                if (digits[i] < n) {
+                    return true;
+                }
+                digits[i] = 0;
+            }
+            return false;
+        }
+
+        /** Rotor wirings. */
+        private final RotorTables _tables;
+        /** Number of slots. */
+        private final int _slots;
+        /** Rotor orders, in key-number order. */
+        private final List<int[]> _orders;
+        /** Keys per work unit. */
+        private final int _perUnit;
+        /** Keys done so far in the current build. */
+        private final LongAdder _done = new LongAdder();
+        /** Where progress goes, or null. */
+        private PrintStream _progress;
+        /** Distinct characteristics found by the last build. */
+        private int _characteristics;
+        /** Size of the last catalog written. */
+        private long _bytes;
+        /** Nanoseconds the last build took in all, and computing
+         *  characteristics. */
+        private long _elapsed, _computed;
+    }
+
+    /** First word of a catalog file. */
+    private static final int MAGIC = 0x454E4348;
+    /** Version of the catalog format. */
+    private static final int VERSION = 1;
+    /** Size of a hash table bucket: fingerprint, start, count. */
+    private static final int BUCKET_BYTES = 16;
+    /** Default number of keys printed by a lookup. */
+    private static final int DEFAULT_LIMIT = 50;
+
+    /** The catalog's contents. */
+    private final ByteBuffer _buf;
+    /** Alphabet of the configuration. */
+    private final Alphabet _alphabet;
+    /** Number of slots. */
+    private final int _slots;
+    /** Rotor names, by number. */
+    private final String[] _names;
+    /** Rotor orders, in key-number order. */
+    private final int[][] _orders;
+    /** Number of keys, and of distinct characteristics. */
+    private final int _keys, _characteristics;
+    /** Number of hash table buckets, less one. */
+    private final int _mask;
+    /** Offsets in _buf of the hash table and of the key numbers. */
+    private final int _buckets, _entries;
+}
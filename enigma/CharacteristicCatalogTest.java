@@ -0,0 +1,136 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+
+/** The suite of all JUnit tests for the CharacteristicCatalog class.
+ *  @author Jay Chiang
+ */
+public class CharacteristicCatalogTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A three-slot configuration with 12 rotor orders. */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ 3 2\n"
+        + "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + "IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "  (RX) (SZ) (TV)\n";
+
+    /** Return the indicators of a day's messages enciphered with the
+     *  setting line SETTINGS under CONFIG: each message key typed twice.
+     *  The keys are chosen so that every letter appears in every
+     *  place. */
+    private List<String> indicators(Config config, String settings) {
+        List<String> result = new ArrayList<>();
+        for (int j = 0; j < 26; j += 1) {
+            String key = "" + (char) ('A' + j) + (char) ('A' + (j + 7) % 26)
+                + (char) ('A' + (j + 13) % 26);
+            String out = new Main(config).processMessage(settings,
+                                                         key + key);
+            result.add(out.replaceAll("\\s", ""));
+        }
+        return result;
+    }
+
+    /** Return the catalog of CONFIG, built in a temporary file. */
+    private CharacteristicCatalog build(Config config) throws IOException {
+        Path file = Files.createTempFile("catalog", ".bin");
+        try {
+            CharacteristicCatalog.Builder builder =
+                new CharacteristicCatalog.Builder(new RotorTables(config),
+                                                  config.numRotors(),
+                                                  config.numPawls());
+            builder.build(new ForkJoinPool(2), file);
+            assertEquals(12 * 26 * 26, builder.keys());
+            CharacteristicCatalog result = CharacteristicCatalog.open(file);
+            assertEquals(builder.characteristics(),
+                         result.characteristics());
+            return result;
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testFindsKey() throws IOException {
+        Config config = Config.read(new Scanner(CONFIG));
+        CharacteristicCatalog catalog = build(config);
+        assertEquals(12 * 26 * 26, catalog.keys());
+        assertTrue(catalog.characteristics() > 100);
+        String[] days = { "* B III I XY", "* B IV II AQ", "* B I II ZZ" };
+        for (String day : days) {
+            int[][] plain = CharacteristicCatalog.characteristic(
+                config.alphabet(), indicators(config, day));
+            int[][] plugged = CharacteristicCatalog.characteristic(
+                config.alphabet(),
+                indicators(config, day + " (AB) (CX) (MZ) (QT)"));
+            assertEquals(CharacteristicCatalog.describe(plain),
+                         CharacteristicCatalog.describe(plugged));
+            long fingerprint = CharacteristicCatalog.fingerprint(plugged);
+            assertEquals(CharacteristicCatalog.fingerprint(plain),
+                         fingerprint);
+            List<String> found = new ArrayList<>();
+            for (int key : catalog.lookup(fingerprint)) {
+                found.add(catalog.settings(key));
+            }
+            assertTrue(day + " not in " + found, found.contains(day));
+            assertTrue(found.size() < catalog.keys() / 10);
+        }
+        assertEquals(0, catalog.lookup(12345).length);
+    }
+
+    @Test
+    public void testDescribe() {
+        int[][] counts = new int[3][27];
+        counts[0][13] = 2;
+        counts[1][10] = 2;
+        counts[1][2] = 2;
+        counts[1][1] = 2;
+        counts[2][1] = 26;
+        assertEquals("13 13 / 10 10 2 2 1 1 / " + String.join(
+            " ", Collections.nCopies(26, "1")),
+            CharacteristicCatalog.describe(counts));
+    }
+
+    @Test
+    public void testBadIndicators() {
+        Alphabet alpha = new Alphabet();
+        String[][] bad = {
+            { "ABCDEF", "ABCXYZ" },
+            { "ABCDEF" },
+            { "ABC" },
+        };
+        for (String[] indicators : bad) {
+            try {
+                CharacteristicCatalog.characteristic(
+                    alpha, Arrays.asList(indicators));
+                fail("accepted " + Arrays.toString(indicators));
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+}
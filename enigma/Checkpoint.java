@@ -0,0 +1,315 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** The durable state of a Main run partway through its input: enough to
+ *  resume it and produce exactly the output an uninterrupted run
+ *  would.  It records the byte offsets of the next input line and of
+ *  the end of the output written so far, the first setting line (whose
+ *  ring setting applies to all messages) and the current one, and the
+ *  positions and ring settings of the machine's rotors.  A checkpoint
+ *  is written to a temporary file that is forced to disk and then
+ *  renamed over the previous one, so a crash leaves either the old or
+ *  the new checkpoint intact.
+ *  @author Jay Chiang
+ */
+final class Checkpoint {
+
+    /** A checkpoint at input offset INPUT and output offset OUTPUT,
+     *  after the setting lines FIRST and CURRENT, with the rotors of
+     *  MACHINE in their current state. */
+    Checkpoint(long input, long output, String first, String current,
+               Machine machine) {
+        _input = input;
+        _output = output;
+        _first = first;
+        _current = current;
+        List<Rotor> rotors = machine.getRotors();
+        _positions = new int[rotors.size()];
+        _rings = new int[rotors.size()];
+        for (int i = 0; i < rotors.size(); i += 1) {
+            _positions[i] = rotors.get(i).getPosition();
+            _rings[i] = rotors.get(i).getRingAdjustment();
+        }
+    }
+
+    /** A checkpoint with the given field values. */
+    private Checkpoint(long input, long output, String first,
+                       String current, int[] positions, int[] rings) {
+        _input = input;
+        _output = output;
+        _first = first;
+        _current = current;
+        _positions = positions;
+        _rings = rings;
+    }
+
+    /** Return the checkpoint stored in FILE, or null if there is
+     *  none. */
+    static Checkpoint read(Path file) {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw error("could not read checkpoint %s", file);
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new ByteArrayInputStream(data))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw error("%s is not a checkpoint", file);
+            }
+            long input = in.readLong(), output = in.readLong();
+            String first = in.readUTF(), current = in.readUTF();
+            int[] positions = new int[in.readInt()];
+            int[] rings = new int[positions.length];
+            for (int i = 0; i < positions.length; i += 1) {
+                positions[i] = in.readInt();
+                rings[i] = in.readInt();
+            }
+            return new Checkpoint(input, output, first, current,
+                                  positions, rings);
+        } catch (IOException | NegativeArraySizeException excp) {
+            throw error("%s is not a checkpoint", file);
+        }
+    }
+
+    /** Store me durably in FILE, replacing its previous contents
+     *  atomically. */
+    void write(Path file) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(_input);
+            out.writeLong(_output);
+            out.writeUTF(_first);
+            out.writeUTF(_current);
+            out.writeInt(_positions.length);
+            for (int i = 0; i < _positions.length; i += 1) {
+                out.writeInt(_positions[i]);
+                out.writeInt(_rings[i]);
+            }
+        } catch (IOException excp) {
+            throw new AssertionError(excp);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(
+                     temp, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("could not write checkpoint %s", file);
+        }
+    }
+
+    /** Bring MACHINE, whose rotors have just been inserted by the
+     *  current setting line, to my recorded rotor state. */
+    void restore(Machine machine) {
+        List<Rotor> rotors = machine.getRotors();
+        if (rotors.size() != _positions.length) {
+            throw error("checkpoint does not match configuration");
+        }
+        for (int i = 0; i < _positions.length; i += 1) {
+            rotors.get(i).set(_positions[i]);
+            rotors.get(i).setRingAdjustment(_rings[i]);
+        }
+    }
+
+    /** Return the byte offset of the next input line. */
+    long input() {
+        return _input;
+    }
+
+    /** Return the byte length of the output written so far. */
+    long output() {
+        return _output;
+    }
+
+    /** Return the first setting line. */
+    String first() {
+        return _first;
+    }
+
+    /** Return the setting line in effect. */
+    String current() {
+        return _current;
+    }
+
+    /** Reads lines of a file as Main's Scanner does (ending at "\r\n"
+     *  or any one of Main.LINE_ENDS), keeping track of the byte offset
+     *  of the next one, so that a later run can start reading there.
+     *  A line ends where the bytes encoding one of those characters (in
+     *  the file's charset) appear, so the offset counts exactly the
+     *  bytes of each terminator.  The charset must therefore never use
+     *  those bytes as part of another character's encoding, as UTF-8
+     *  and the ISO-8859 charsets do not. */
+    static final class Input implements AutoCloseable {
+
+        /** Lines of FILE in CHARSET, starting at byte OFFSET. */
+        Input(Path file, Charset charset, long offset) {
+            _charset = charset;
+            _return = "\r".getBytes(charset);
+            _newline = "\n".getBytes(charset);
+            CharsetEncoder encoder = charset.newEncoder();
+            ArrayList<byte[]> ends = new ArrayList<>();
+            for (char ch : Main.LINE_ENDS.toCharArray()) {
+                if (encoder.canEncode(ch)) {
+                    byte[] bytes = ch == '\r' ? _return
+                        : String.valueOf(ch).getBytes(charset);
+                    ends.add(bytes);
+                    _starts[bytes[0] & 0xff] = true;
+                }
+            }
+            _ends = ends.toArray(new byte[0][]);
+            try {
+                _channel = FileChannel.open(file);
+                _channel.position(offset);
+            } catch (IOException excp) {
+                throw error("could not open %s", file);
+            }
+            _offset = offset;
+            _buffer.flip();
+        }
+
+        /** Return the next line, without its terminator, or null at the
+         *  end of the file. */
+        String readLine() throws IOException {
+            _line.reset();
+            boolean any = false;
+            while (true) {
+                if (!_buffer.hasRemaining() && !fill(1)) {
+                    return any ? decodeLine() : null;
+                }
+                any = true;
+                byte b = _buffer.get(_buffer.position());
+                if (_starts[b & 0xff]) {
+                    for (byte[] end : _ends) {
+                        if (skip(end)) {
+                            if (end == _return) {
+                                skip(_newline);
+                            }
+                            return decodeLine();
+                        }
+                    }
+                }
+                _buffer.get();
+                _offset += 1;
+                _line.write(b);
+            }
+        }
+
+        /** Return the byte offset of the next line. */
+        long offset() {
+            return _offset;
+        }
+
+        @Override
+        public void close() throws IOException {
+            _channel.close();
+        }
+
+        /** If the next bytes are BYTES, consume them and return true;
+         *  else return false. */
+        private boolean skip(byte[] bytes) throws IOException {
+            if (_buffer.remaining() < bytes.length && !fill(bytes.length)) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i += 1) {
+                if (_buffer.get(_buffer.position() + i) != bytes[i]) {
+                    return false;
+                }
+            }
+            _buffer.position(_buffer.position() + bytes.length);
+            _offset += bytes.length;
+            return true;
+        }
+
+        /** Read more of the file into my buffer, keeping the bytes not
+         *  yet consumed, until it holds at least N of them.  Return
+         *  false if the file ends first. */
+        private boolean fill(int n) throws IOException {
+            _buffer.compact();
+            try {
+                while (_buffer.position() < n) {
+                    if (_channel.read(_buffer) <= 0) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                _buffer.flip();
+            }
+        }
+
+        /** Return the current line's bytes as a string. */
+        private String decodeLine() {
+            return new String(_line.toByteArray(), _charset);
+        }
+
+        /** The file. */
+        private final FileChannel _channel;
+        /** Its charset. */
+        private final Charset _charset;
+        /** The encodings of those of Main.LINE_ENDS that the charset can
+         *  encode. */
+        private final byte[][] _ends;
+        /** _starts[B] is true iff some encoding in _ends starts with the
+         *  byte B. */
+        private final boolean[] _starts = new boolean[256];
+        /** The encodings of '\r' and '\n'. */
+        private final byte[] _return, _newline;
+        /** Bytes read from the file and not yet consumed. */
+        private final ByteBuffer _buffer = ByteBuffer.allocate(BUFFER);
+        /** Bytes of the current line. */
+        private final ByteArrayOutputStream _line =
+            new ByteArrayOutputStream();
+        /** Byte offset of the next unconsumed byte. */
+        private long _offset;
+    }
+
+    /** First word of a checkpoint file ("ENCK"). */
+    private static final int MAGIC = 0x454e434b;
+    /** Checkpoint file format version. */
+    private static final int VERSION = 1;
+    /** Size of input buffers. */
+    private static final int BUFFER = 1 << 16;
+
+    /** Byte offset of the next input line. */
+    private final long _input;
+    /** Byte length of the output so far. */
+    private final long _output;
+    /** The first and the current setting lines. */
+    private final String _first, _current;
+    /** Positions and ring settings of the rotors, by slot. */
+    private final int[] _positions, _rings;
+}
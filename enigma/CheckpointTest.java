@@ -0,0 +1,216 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for the Checkpoint class and Main's
+ *  checkpointed runs.
+ *  @author Jay Chiang
+ */
+public class CheckpointTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A setting line that Main rejects, and a valid one of the same
+     *  length. */
+    private static final String BAD = "* B Beta I II III ZZ  ",
+        GOOD = "* B Beta I II III ZZZZ";
+
+    /** Return messages with a ring setting, several setting lines, and
+     *  mixed line ends, with the setting line MIDDLE about halfway. */
+    private String input(String middle) {
+        Random random = new Random(36);
+        StringBuilder text =
+            new StringBuilder("* B Beta III IV I AXLE BCDE (HQ) (EX)\n");
+        for (int line = 0; line < 200; line += 1) {
+            if (line == 100) {
+                text.append(middle).append('\n');
+            } else if (line % 70 == 0) {
+                text.append("* B Beta II I III QEVJ (AB)\r\n");
+            }
+            int length = random.nextInt(80);
+            for (int i = 0; i < length; i += 1) {
+                text.append((char) ('A' + random.nextInt(26)));
+            }
+            text.append(line % 3 == 0 ? "\r\n" : line % 3 == 1 ? "\n" : "\r");
+        }
+        return text.append("NO NEWLINE").toString();
+    }
+
+    /** Return a temporary file, initially containing TEXT. */
+    private File file(String text) throws IOException {
+        File file = File.createTempFile("enigma-ckpt", ".txt");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), text);
+        return file;
+    }
+
+    /** Return the configuration file. */
+    private File conf() throws IOException {
+        return file(DaemonTest.CONFIG);
+    }
+
+    /** Text with every kind of line end, including a '\r' and '\n'
+     *  that do not make one "\r\n", and characters outside ASCII. */
+    private static final String LINE_ENDS =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n"
+        + "FROM HIS\u2028SHOULDER\rHIA\r\nWATHA\u0085\u0085"
+        + "* B Beta III IV I AAAA\u2029TOOK \u00e9THE\r\r\n"
+        + "\n\u2603CAMERA\r";
+
+    /** Return the lines of BYTES, read in CHARSET by a Scanner. */
+    private List<String> scanned(byte[] bytes, Charset charset) {
+        Scanner scanner = new Scanner(new ByteArrayInputStream(bytes),
+                                      charset.name());
+        List<String> result = new ArrayList<>();
+        while (scanner.hasNextLine()) {
+            result.add(scanner.nextLine());
+        }
+        return result;
+    }
+
+    /** Run Main on ARGS, checkpointing after every line. */
+    private void run(String... args) {
+        Main main = new Main(args);
+        main.setCheckpointInterval(0);
+        main.process();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testUninterruptedMatchesMain() throws IOException {
+        File conf = conf(), in = file(input(GOOD));
+        File expected = file(""), out = file("");
+        File ckpt = new File(out.getPath() + ".ckpt");
+        new Main(new String[] { conf.getPath(), in.getPath(),
+                                expected.getPath() }).process();
+        run("--checkpoint=" + ckpt, conf.getPath(), in.getPath(),
+            out.getPath());
+        assertEquals(Files.readString(expected.toPath()),
+                     Files.readString(out.toPath()));
+        assertFalse(ckpt.exists());
+    }
+
+    @Test
+    public void testResumeAfterCrash() throws IOException {
+        File conf = conf(), in = file(input(BAD));
+        File expected = file(""), out = file("");
+        File ckpt = new File(out.getPath() + ".ckpt");
+        ckpt.deleteOnExit();
+        String[] args = { "--checkpoint=" + ckpt, "--resume",
+                          conf.getPath(), in.getPath(), out.getPath() };
+        try {
+            run(args);
+            fail("bad setting line accepted");
+        } catch (EnigmaException excp) {
+            assertTrue(Checkpoint.read(ckpt.toPath()).input() > 0);
+        }
+        Files.writeString(out.toPath(), "PARTIAL WRITE",
+                          StandardOpenOption.APPEND);
+        Files.writeString(in.toPath(), input(GOOD));
+        run(args);
+        new Main(new String[] { conf.getPath(), in.getPath(),
+                                expected.getPath() }).process();
+        assertArrayEquals(Files.readAllBytes(expected.toPath()),
+                          Files.readAllBytes(out.toPath()));
+        assertFalse(ckpt.exists());
+    }
+
+    @Test
+    public void testCheckpointRoundTrip() throws IOException {
+        Main main = new Main(Config.read(new Scanner(DaemonTest.CONFIG)));
+        Machine m = main.readConfig();
+        StringBuilder out = new StringBuilder();
+        main.processLine(m, "* B Beta III IV I AXLE BCDE", out);
+        main.processLine(m, "HELLO WORLD", out);
+        File file = file("");
+        new Checkpoint(12, 34, "* B Beta III IV I AXLE BCDE", "", m)
+            .write(file.toPath());
+        Checkpoint got = Checkpoint.read(file.toPath());
+        assertEquals(12, got.input());
+        assertEquals(34, got.output());
+        assertEquals("", got.current());
+        Machine fresh = main.readConfig();
+        main.processLine(fresh, "* B Beta III IV I AAAA", out);
+        got.restore(fresh);
+        for (int i = 0; i < m.numRotors(); i += 1) {
+            Rotor a = m.getRotors().get(i), b = fresh.getRotors().get(i);
+            assertEquals(a.getPosition(), b.getPosition());
+            assertEquals(a.getRingAdjustment(), b.getRingAdjustment());
+        }
+        assertNull(Checkpoint.read(new File(file + ".none").toPath()));
+    }
+
+    @Test
+    public void testInputLineEnds() throws IOException {
+        for (Charset charset : new Charset[] { StandardCharsets.UTF_8,
+                                               StandardCharsets.ISO_8859_1 }) {
+            byte[] bytes = LINE_ENDS.getBytes(charset);
+            File file = file("");
+            Files.write(file.toPath(), bytes);
+            List<String> expected = scanned(bytes, charset);
+            List<Long> offsets = new ArrayList<>();
+            try (Checkpoint.Input in =
+                 new Checkpoint.Input(file.toPath(), charset, 0)) {
+                for (String line : expected) {
+                    assertEquals(charset.name(), line, in.readLine());
+                    offsets.add(in.offset());
+                }
+                assertNull(in.readLine());
+            }
+            assertEquals(bytes.length, (long) offsets.get(offsets.size() - 1));
+            for (int k = 0; k < offsets.size(); k += 1) {
+                try (Checkpoint.Input in =
+                     new Checkpoint.Input(file.toPath(), charset,
+                                          offsets.get(k))) {
+                    for (String line : expected.subList(k + 1,
+                                                        expected.size())) {
+                        assertEquals(line, in.readLine());
+                    }
+                    assertNull(in.readLine());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLineEndsMatchMain() throws IOException {
+        File conf = conf(), in = file("");
+        Files.write(in.toPath(),
+                    LINE_ENDS.getBytes(Charset.defaultCharset()));
+        File expected = file(""), out = file("");
+        File ckpt = new File(out.getPath() + ".ckpt");
+        new Main(new String[] { conf.getPath(), in.getPath(),
+                                expected.getPath() }).process();
+        run("--checkpoint=" + ckpt, conf.getPath(), in.getPath(),
+            out.getPath());
+        assertArrayEquals(Files.readAllBytes(expected.toPath()),
+                          Files.readAllBytes(out.toPath()));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testNotWithPipeline() throws IOException {
+        new Main(new String[] { "--checkpoint=x", "--pipeline",
+                                conf().getPath(), "in", "out" });
+    }
+
+}
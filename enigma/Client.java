@@ -0,0 +1,173 @@
+package enigma;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.net.UnixDomainSocketAddress;
+
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+
+import static enigma.EnigmaException.*;
+
+/** A thin command-line client that has a running Daemon do the work of
+ *  Main.  It accepts the arguments and options of Main, except
+ *  --checkpoint, --checkpoint-every and --resume, which the daemon
+ *  rejects (the daemon sees only a stream of input, not the files that
+ *  a checkpoint would record), and --trace, which would have the
+ *  daemon write a file with its own permissions.  It produces the same
+ *  output, error messages and exit codes, but avoids parsing the
+ *  configuration again on every run.
+ *
+ *  A request consists of the absolute configuration path and the
+ *  options (as a UTF string, then an int count and that many UTF
+ *  strings), followed by the raw input up to end of stream.  The reply
+ *  is a sequence of frames, each a type byte (Daemon.OUTPUT,
+ *  Daemon.ERROR or Daemon.DONE), a four-byte length and that many
+ *  bytes.
+ *  @author Jay Chiang
+ */
+public final class Client {
+
+    /** Have the daemon at Daemon.socketPath() process ARGS as Main
+     *  would (see Main.main). */
+    public static void main(String... args) {
+        try {
+            new Client(Daemon.socketPath()).run(args, System.in, System.out);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A client of the daemon listening on SOCKET. */
+    Client(Path socket) {
+        _socket = socket;
+    }
+
+    /** Process ARGS as Main would, with STDIN and STDOUT as the
+     *  default input and output. */
+    void run(String[] args, InputStream stdin, OutputStream stdout) {
+        ArrayList<String> options = new ArrayList<>();
+        int first = 0;
+        while (first < args.length && args[first].startsWith("--")) {
+            options.add(args[first]);
+            first += 1;
+        }
+        int count = args.length - first;
+        if (count < 1 || count > 3) {
+            throw error("Only 1, 2, or 3 command-line arguments allowed");
+        }
+        File config = new File(args[first]);
+        if (!config.canRead() || config.isDirectory()) {
+            throw error("could not open %s", args[first]);
+        }
+        try (InputStream in = count > 1 ? open(args[first + 1]) : null;
+             OutputStream out = count > 2 ? create(args[first + 2]) : null) {
+            request(config.getAbsolutePath(), options,
+                    in == null ? stdin : in, out == null ? stdout : out);
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Send CONFIG, OPTIONS and the contents of IN to the daemon, and
+     *  copy its output to OUT. */
+    private void request(String config, ArrayList<String> options,
+                         InputStream in, OutputStream out) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(_socket));
+        } catch (IOException excp) {
+            throw error("could not connect to daemon at %s", _socket);
+        }
+        try (channel) {
+            DataOutputStream header =
+                new DataOutputStream(Daemon.outputStream(channel));
+            header.writeUTF(config);
+            header.writeInt(options.size());
+            for (String option : options) {
+                header.writeUTF(option);
+            }
+            header.flush();
+            Thread sender = new Thread(() -> send(in, channel),
+                                       "enigma-client-sender");
+            sender.setDaemon(true);
+            sender.start();
+            receive(new DataInputStream(Daemon.inputStream(channel)), out);
+        } catch (IOException excp) {
+            throw error("lost connection to daemon: %s", excp.getMessage());
+        }
+    }
+
+    /** Copy IN to CHANNEL, then close CHANNEL for output. */
+    private static void send(InputStream in, SocketChannel channel) {
+        try {
+            in.transferTo(Daemon.outputStream(channel));
+            channel.shutdownOutput();
+        } catch (IOException excp) {
+            /* The daemon has stopped reading; its reply says why. */
+        }
+    }
+
+    /** Copy the frames of a reply from IN to OUT until the reply ends,
+     *  throwing an EnigmaException if it reports an error. */
+    private static void receive(DataInputStream in, OutputStream out)
+        throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        try {
+            while (true) {
+                byte type = in.readByte();
+                int length = in.readInt();
+                if (buffer.length < length) {
+                    buffer = new byte[length];
+                }
+                in.readFully(buffer, 0, length);
+                if (type == Daemon.OUTPUT) {
+                    out.write(buffer, 0, length);
+                } else if (type == Daemon.ERROR) {
+                    out.flush();
+                    throw new EnigmaException(
+                        new String(buffer, 0, length, StandardCharsets.UTF_8));
+                } else {
+                    out.flush();
+                    return;
+                }
+            }
+        } catch (EOFException excp) {
+            throw error("daemon closed connection");
+        }
+    }
+
+    /** Return a stream reading the file named NAME. */
+    private static InputStream open(String name) {
+        try {
+            return new FileInputStream(name);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a stream writing the file named NAME. */
+    private static OutputStream create(String name) {
+        try {
+            return new FileOutputStream(name);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Path of the daemon's socket. */
+    private final Path _socket;
+}
@@ -0,0 +1,382 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** An Enigma machine running on RotorTables.  It steps and converts
+ *  exactly as a Machine with the same rotors, positions, ring settings
+ *  and plugboard would, but keeps all of its state in primitive arrays
+ *  so that changing the key and converting a character cost a few
+ *  array references and no allocation.  Slot 0 holds the reflector,
+ *  as in Machine.  Not thread-safe: give each thread its own.
+ *  @author Jay Chiang
+ */
+final class CompiledMachine {
+
+    /** A machine with NUMROTORS slots using rotors from TABLES, with an
+     *  identity plugboard and no rotors yet inserted. */
+    CompiledMachine(RotorTables tables, int numRotors) {
+        if (numRotors < 2) {
+            throw error("numRotors not > 1");
+        }
+        _tables = tables;
+        _n = tables.size();
+        _slots = numRotors;
+        _rotors = new int[numRotors];
+        _fwd = new int[numRotors][];
+        _bwd = new int[numRotors][];
+        _notch = new boolean[numRotors][];
+        _rotates = new boolean[numRotors];
+        _posn = new int[numRotors];
+        _ring = new int[numRotors];
+        _shift = new int[numRotors];
+        _pass = new int[numRotors];
+        _advance = new boolean[numRotors];
+        _plugboard = new int[_n];
+        for (int c = 0; c < _n; c += 1) {
+            _plugboard[c] = c;
+        }
+        _fwdExt = new int[_tables.count()][];
+        _bwdExt = new int[_tables.count()][];
+    }
+
+    /** Return my tables. */
+    RotorTables tables() {
+        return _tables;
+    }
+
+    /** Return my number of slots. */
+    int numRotors() {
+        return _slots;
+    }
+
+    /** Put rotor number ROTOR (in my tables) into SLOT, at position 0
+     *  with ring setting 0. */
+    void setRotor(int slot, int rotor) {
+        _rotors[slot] = rotor;
+        _fwd[slot] = extended(_fwdExt, _tables.forward(rotor), rotor);
+        _bwd[slot] = extended(_bwdExt, _tables.backward(rotor), rotor);
+        _notch[slot] = _tables.notches(rotor);
+        _rotates[slot] = _tables.rotates(rotor);
+        _posn[slot] = 0;
+        _ring[slot] = 0;
+        _shift[slot] = 0;
+        _pass[slot] = -1;
+        touch(slot);
+    }
+
+    /** Put the rotors numbered ROTORS into my slots, in order. */
+    void setRotors(int... rotors) {
+        if (rotors.length != _slots) {
+            throw error("wrong number of rotors");
+        }
+        for (int i = 0; i < rotors.length; i += 1) {
+            setRotor(i, rotors[i]);
+        }
+    }
+
+    /** Return the rotor number in SLOT. */
+    int rotor(int slot) {
+        return _rotors[slot];
+    }
+
+    /** Set the rotor in SLOT to position POSN. */
+    void setPosition(int slot, int posn) {
+        if (_posn[slot] != posn) {
+            touch(slot);
+        }
+        _posn[slot] = posn;
+        _shift[slot] = Math.floorMod(posn - _ring[slot], _n);
+        setPass(slot);
+    }
+
+    /** Set the rotor in SLOT to ring setting RING. */
+    void setRing(int slot, int ring) {
+        if (_ring[slot] != ring) {
+            touch(slot);
+        }
+        _ring[slot] = ring;
+        _shift[slot] = Math.floorMod(_posn[slot] - ring, _n);
+        setPass(slot);
+    }
+
+    /** Recompute _pass[SLOT].  Rotor hands its permutation the unwrapped
+     *  index C + position - ring, and Permutation returns -1 unchanged,
+     *  so Machine passes the one C for which that index is -1 through
+     *  the rotor untouched.  There is such a C only while the position
+     *  is below the ring setting. */
+    private void setPass(int slot) {
+        int d = _posn[slot] - _ring[slot];
+        _pass[slot] = d < 0 ? -d - 1 : -1;
+    }
+
+    /** Return the position of the rotor in SLOT. */
+    int position(int slot) {
+        return _posn[slot];
+    }
+
+    /** Return the ring setting of the rotor in SLOT. */
+    int ring(int slot) {
+        return _ring[slot];
+    }
+
+    /** Set the plugboard to map C to PLUGBOARD[C] for each C.  A null
+     *  PLUGBOARD means no plugs. */
+    void setPlugboard(int[] plugboard) {
+        for (int c = 0; c < _n; c += 1) {
+            _plugboard[c] = plugboard == null ? c : plugboard[c];
+        }
+    }
+
+    /** Set my rotors, positions, rings and plugboard from the setting
+     *  line SETTINGS, which has the form accepted by Main (reflector
+     *  and rotor names, positions, optional ring setting, optional
+     *  plugboard cycles).  The ring setting is applied as Main applies
+     *  that of the first setting line of its input. */
+    void setUp(String settings) {
+        String[] words = settings.trim().split("\\s+");
+        Alphabet alpha = _tables.config().alphabet();
+        if (words.length < _slots + 2 || !words[0].equals("*")) {
+            throw error("bad input");
+        }
+        for (int i = 0; i < _slots; i += 1) {
+            int rotor = _tables.index(words[i + 1]);
+            if (rotor < 0) {
+                throw error("bad input");
+            }
+            setRotor(i, rotor);
+        }
+        String posns = words[_slots + 1];
+        int next = _slots + 2;
+        String rings = null;
+        if (next < words.length && !words[next].startsWith("(")) {
+            rings = words[next];
+            next += 1;
+        }
+        if (posns.length() != _slots - 1
+            || rings != null && rings.length() != _slots - 1) {
+            throw error("bad input");
+        }
+        for (int i = 1; i < _slots; i += 1) {
+            if (rings != null) {
+                setRing(i, alpha.toInt(rings.charAt(i - 1)));
+            }
+            setPosition(i, alpha.toInt(posns.charAt(i - 1)));
+        }
+        StringBuilder cycles = new StringBuilder();
+        for (int i = next; i < words.length; i += 1) {
+            cycles.append(words[i]).append(' ');
+        }
+        Permutation plugs = new Permutation(cycles.toString(), alpha);
+        for (int c = 0; c < _n; c += 1) {
+            _plugboard[c] = plugs.permute(c);
+        }
+    }
+
+    /** Advance the rotors as Machine.convert does before converting a
+     *  character. */
+    void step() {
+        int last = _slots - 1;
+        if (_slots > 2) {
+            boolean[] advance = _advance;
+            for (int i = last; i > 1; i -= 1) {
+                if (_notch[i][_posn[i]] && _rotates[i - 1]) {
+                    if (i < last) {
+                        _doubleSteps += 1;
+                    }
+                    advance[i] = true;
+                    advance[i - 1] = true;
+                } else if (i == last) {
+                    advance[i] = true;
+                }
+            }
+            for (int i = 1; i <= last; i += 1) {
+                if (advance[i]) {
+                    advance[i] = false;
+                    if (_rotates[i]) {
+                        advanceSlot(i);
+                    }
+                }
+            }
+        } else if (_rotates[1]) {
+            advanceSlot(1);
+        }
+    }
+
+    /** Move the rotor in SLOT on by one position. */
+    private void advanceSlot(int slot) {
+        int p = _posn[slot] + 1;
+        _posn[slot] = p == _n ? 0 : p;
+        int s = _shift[slot] + 1;
+        _shift[slot] = s == _n ? 0 : s;
+        setPass(slot);
+        touch(slot);
+    }
+
+    /** Return the number of double steps (counted as by
+     *  Machine.doubleSteps) so far. */
+    long doubleSteps() {
+        return _doubleSteps;
+    }
+
+    /** Note that the state of SLOT has changed. */
+    private void touch(int slot) {
+        if (slot < _slots - 1) {
+            _version += 1;
+        }
+    }
+
+    /** Return a number that changes whenever the rotor, position or ring
+     *  setting of any slot but the rightmost does, so that a table
+     *  filled by inner stays valid for as long as this value does. */
+    int innerVersion() {
+        return _version;
+    }
+
+    /** Fill INNER with the mapping that the slots other than the
+     *  rightmost now apply to a character leaving the rightmost rotor
+     *  (through the reflector and back).  With no plugboard,
+     *  scramble(C) is the rightmost rotor's backward conversion of
+     *  INNER applied to its forward conversion of C; see shift, pass,
+     *  forwardTable, and backwardTable. */
+    void inner(int[] inner) {
+        int n = _n, last = _slots - 1;
+        for (int x = 0; x < n; x += 1) {
+            int c = x;
+            for (int i = last - 1; i >= 0; i -= 1) {
+                if (c != _pass[i]) {
+                    int s = _shift[i];
+                    c = _fwd[i][c + s] - s;
+                    if (c < 0) {
+                        c += n;
+                    }
+                }
+            }
+            for (int i = 1; i < last; i += 1) {
+                if (c != _pass[i]) {
+                    int s = _shift[i];
+                    c = _bwd[i][c + s] - s;
+                    if (c < 0) {
+                        c += n;
+                    }
+                }
+            }
+            inner[x] = c;
+        }
+    }
+
+    /** Return (position - ring setting) mod n for the rotor in SLOT: the
+     *  rotor maps C forward to forwardTable(SLOT)[C + shift] - shift,
+     *  mod n, unless C is pass(SLOT). */
+    int shift(int slot) {
+        return _shift[slot];
+    }
+
+    /** Return the character the rotor in SLOT now passes through
+     *  unchanged, as Machine does (see setPass), or -1. */
+    int pass(int slot) {
+        return _pass[slot];
+    }
+
+    /** Return the doubled forward wiring of the rotor in SLOT, whose
+     *  entry C + S is its 0-setting forward mapping of (C + S) mod n.
+     *  The result is shared; do not modify it. */
+    int[] forwardTable(int slot) {
+        return _fwd[slot];
+    }
+
+    /** Return the doubled backward wiring of the rotor in SLOT, as for
+     *  forwardTable. */
+    int[] backwardTable(int slot) {
+        return _bwd[slot];
+    }
+
+    /** Return the conversion of C with the rotors as they now stand,
+     *  without stepping. */
+    int scramble(int c) {
+        int n = _n;
+        c = _plugboard[c];
+        for (int i = _slots - 1; i >= 0; i -= 1) {
+            if (c == _pass[i]) {
+                continue;
+            }
+            int s = _shift[i];
+            c = _fwd[i][c + s] - s;
+            if (c < 0) {
+                c += n;
+            }
+        }
+        for (int i = 1; i < _slots; i += 1) {
+            if (c == _pass[i]) {
+                continue;
+            }
+            int s = _shift[i];
+            c = _bwd[i][c + s] - s;
+            if (c < 0) {
+                c += n;
+            }
+        }
+        return _plugboard[c];
+    }
+
+    /** Return the result of converting C (an alphabet index), after
+     *  first advancing the machine, as for Machine.convert. */
+    int convert(int c) {
+        step();
+        return scramble(c);
+    }
+
+    /** Convert the first LEN indices of IN into OUT, stepping before
+     *  each. IN and OUT may be the same array. */
+    void convert(int[] in, int[] out, int len) {
+        for (int i = 0; i < len; i += 1) {
+            step();
+            out[i] = scramble(in[i]);
+        }
+    }
+
+    /** Return the doubled copy of wiring TABLE of rotor ROTOR, creating
+     *  and caching it in CACHE if needed.  Entry C + S of the result is
+     *  TABLE[(C + S) mod n], so that a shifted lookup needs no
+     *  division. */
+    private int[] extended(int[][] cache, int[] table, int rotor) {
+        if (cache[rotor] == null) {
+            int[] ext = new int[2 * _n];
+            for (int i = 0; i < ext.length; i += 1) {
+                ext[i] = table[i % _n];
+            }
+            cache[rotor] = ext;
+        }
+        return cache[rotor];
+    }
+
+    /** Source of rotor wirings. */
+    private final RotorTables _tables;
+    /** Alphabet size. */
+    private final int _n;
+    /** Number of slots. */
+    private final int _slots;
+    /** Rotor number in each slot. */
+    private final int[] _rotors;
+    /** Doubled wirings of the rotor in each slot. */
+    private final int[][] _fwd, _bwd;
+    /** Notch table of the rotor in each slot. */
+    private final boolean[][] _notch;
+    /** Whether the rotor in each slot has a ratchet. */
+    private final boolean[] _rotates;
+    /** Position, ring setting, and (position - ring) mod n of each
+     *  slot. */
+    private final int[] _posn, _ring, _shift;
+    /** The input each slot passes through unchanged (see setPass), or
+     *  -1. */
+    private final int[] _pass;
+    /** Changes to slots other than the rightmost (see innerVersion). */
+    private int _version;
+    /** Number of double steps so far. */
+    private long _doubleSteps;
+    /** Scratch flags for step. */
+    private final boolean[] _advance;
+    /** Plugboard mapping. */
+    private final int[] _plugboard;
+    /** Doubled wirings by rotor number, built on first use. */
+    private final int[][] _fwdExt, _bwdExt;
+}
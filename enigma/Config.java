@@ -0,0 +1,397 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static enigma.EnigmaException.*;
+
+/** A parsed Enigma configuration: the alphabet, the numbers of rotor
+ *  slots and pawls, and the available rotors.  A Config is immutable
+ *  once read, so one instance may be shared among threads, each of
+ *  which builds its own Machine (whose rotors hold mutable positions)
+ *  with newMachine().  The rotor tables, engine selector and keystream
+ *  cache its machines share are built under its lock when first
+ *  needed, and read without it afterwards, so that machines made once
+ *  they exist take no lock to find them.
+ *
+ *  A Config made by index() is lazy: it checks the whole text exactly
+ *  as read() does, reporting the same error for the same malformed
+ *  input, but records only each rotor's name, type, and the range of
+ *  text holding its cycles.  A rotor's Permutation is built when first
+ *  asked for, and then kept, so a large catalog costs little more than
+ *  one pass over its text plus the rotors actually used.  Threads
+ *  asking for the same unbuilt permutation at once may each build it,
+ *  but all then use the first one kept.  Its machines
+ *  likewise build rotors only when they are named.
+ *  @author Jay Chiang
+ */
+final class Config {
+
+    /** A configuration with alphabet ALPHABET, NUMROTORS slots and
+     *  NUMPAWLS pawls, initially with no rotors. */
+    private Config(Alphabet alphabet, int numRotors, int numPawls) {
+        _alphabet = alphabet;
+        _numRotors = numRotors;
+        _numPawls = numPawls;
+    }
+
+    /** Return a configuration read from the contents of CONFIG. */
+    static Config read(Scanner config) {
+        try {
+            Alphabet alphabet = new Alphabet(config.next());
+            int numRotors = config.nextInt();
+            int numPawls = config.nextInt();
+            Config result = new Config(alphabet, numRotors, numPawls);
+            while (config.hasNext()) {
+                result.readRotor(config);
+            }
+            return result;
+        } catch (NoSuchElementException excp) {
+            throw error("configuration file truncated");
+        }
+    }
+
+    /** Return a lazy configuration (see above) indexing the text
+     *  CONFIG, which must not change while the result is in use. */
+    static Config index(CharSequence config) {
+        Tokens tokens = new Tokens(config);
+        try {
+            Alphabet alphabet = new Alphabet(tokens.next());
+            int numRotors = tokens.nextInt();
+            int numPawls = tokens.nextInt();
+            Config result = new Config(alphabet, numRotors, numPawls);
+            result._source = config;
+            while (tokens.hasNext()) {
+                result.indexRotor(tokens);
+            }
+            result._built =
+                new AtomicReferenceArray<>(result._names.size());
+            return result;
+        } catch (NoSuchElementException excp) {
+            throw error("configuration file truncated");
+        }
+    }
+
+    /** Read the description of one rotor from CONFIG and add it. */
+    private void readRotor(Scanner config) {
+        try {
+            String name = config.next();
+            String type = checkType(config.next());
+            String permString = readCycles(config);
+            addRotor(name, type, new Permutation(permString, _alphabet));
+        } catch (NoSuchElementException excp) {
+            throw error("bad rotor description");
+        }
+    }
+
+    /** Index the description of one rotor from TOKENS, as readRotor
+     *  reads it, without building its permutation. */
+    private void indexRotor(Tokens tokens) {
+        try {
+            String name = tokens.next();
+            String type = checkType(tokens.next());
+            int charLeft = _alphabet.size();
+            int start = -1;
+            while (charLeft > 0 && tokens.hasNext()) {
+                String onePerm = tokens.next();
+                if (onePerm.charAt(0) != '('
+                    || onePerm.charAt(onePerm.length() - 1) != ')') {
+                    throw new NoSuchElementException();
+                }
+                if (start < 0) {
+                    start = tokens.start();
+                }
+                charLeft -= onePerm.length() - 2;
+            }
+            if (start < 0) {
+                throw new NoSuchElementException();
+            }
+            addRotor(name, type, null);
+            _starts.add(start);
+            _ends.add(tokens.end());
+        } catch (NoSuchElementException excp) {
+            throw error("bad rotor description");
+        }
+    }
+
+    /** Return TYPE if it is a valid rotor type. */
+    private static String checkType(String type) {
+        if (!type.equals("R") && !type.equals("N")
+            && type.charAt(0) != 'M') {
+            throw error("bad rotor description");
+        }
+        return type;
+    }
+
+    /** Add a rotor named NAME of type TYPE with permutation PERM (null if
+     *  not yet built). */
+    private void addRotor(String name, String type, Permutation perm) {
+        _byName.putIfAbsent(name, _names.size());
+        _names.add(name);
+        _types.add(type);
+        _perms.add(perm);
+    }
+
+    /** Return the cycles of the permutation of a rotor read from
+     *  CONFIG, reading until the cycles account for the whole alphabet
+     *  or the next token is not a cycle. */
+    private String readCycles(Scanner config) {
+        int charLeft = _alphabet.size();
+        boolean done = false;
+        ArrayList<String> permList = new ArrayList<>();
+        while (!done) {
+            if (config.hasNext()) {
+                String onePerm = config.next();
+                if (onePerm.charAt(0) == '('
+                        && onePerm.charAt(onePerm.length() - 1) == ')') {
+                    permList.add(onePerm);
+                    charLeft -= (onePerm.length() - 2);
+                    if (charLeft <= 0) {
+                        done = true;
+                    }
+                } else {
+                    throw new NoSuchElementException();
+                }
+            } else {
+                done = true;
+            }
+        }
+        if (permList.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return String.join(" ", permList);
+    }
+
+    /** Return a new rotor for my rotor number K, in its 0 setting. */
+    Rotor newRotor(int k) {
+        String name = _names.get(k), type = _types.get(k);
+        Permutation perm = permutation(k);
+        if (type.equals("R")) {
+            return new Reflector(name, perm);
+        } else if (type.equals("N")) {
+            return new FixedRotor(name, perm);
+        } else {
+            return new MovingRotor(name, perm, type.substring(1));
+        }
+    }
+
+    /** Return the number of rotors I describe. */
+    int numRotorsAvailable() {
+        return _names.size();
+    }
+
+    /** Return the type of rotor number K: "R" for a reflector, "N" for
+     *  a fixed rotor, or "M" followed by its notches. */
+    String rotorType(int k) {
+        return _types.get(k);
+    }
+
+    /** Return the permutation of rotor number K in its 0 setting. */
+    Permutation permutation(int k) {
+        if (_built == null) {
+            return _perms.get(k);
+        }
+        Permutation perm = _built.get(k);
+        if (perm == null) {
+            Tokens tokens = new Tokens(
+                _source.subSequence(_starts.get(k), _ends.get(k)));
+            ArrayList<String> permList = new ArrayList<>();
+            while (tokens.hasNext()) {
+                permList.add(tokens.next());
+            }
+            perm = new Permutation(String.join(" ", permList), _alphabet);
+            if (!_built.compareAndSet(k, null, perm)) {
+                perm = _built.get(k);
+            }
+        }
+        return perm;
+    }
+
+    /** Return the number of rotor number K, the first named NAME, or -1
+     *  if there is none. */
+    int rotorIndex(String name) {
+        Integer k = _byName.get(name);
+        return k == null ? -1 : k;
+    }
+
+    /** Return true iff I build permutations only when asked for them. */
+    boolean lazy() {
+        return _source != null;
+    }
+
+    /** Return the number of my rotors whose permutations have been
+     *  built. */
+    int permutationsBuilt() {
+        if (_built == null) {
+            return _perms.size();
+        }
+        int result = 0;
+        for (int k = 0; k < _built.length(); k += 1) {
+            result += _built.get(k) == null ? 0 : 1;
+        }
+        return result;
+    }
+
+    /** Return a new machine with fresh copies of all my rotors, each
+     *  built when first named. */
+    Machine newMachine() {
+        return new Machine(this);
+    }
+
+    /** Return tables for all my rotors, building them on first use. */
+    RotorTables tables() {
+        RotorTables tables = _tables;
+        if (tables == null) {
+            synchronized (this) {
+                if (_tables == null) {
+                    _tables = new RotorTables(this);
+                }
+                tables = _tables;
+            }
+        }
+        return tables;
+    }
+
+    /** Return the engine selector shared by my machines. */
+    EngineSelector selector() {
+        EngineSelector selector = _selector;
+        if (selector == null) {
+            synchronized (this) {
+                if (_selector == null) {
+                    _selector = new EngineSelector(this);
+                }
+                selector = _selector;
+            }
+        }
+        return selector;
+    }
+
+    /** Return the keystream cache shared by my machines (disabled until
+     *  given a budget). */
+    KeystreamCache keystreams() {
+        KeystreamCache keystreams = _keystreams;
+        if (keystreams == null) {
+            synchronized (this) {
+                if (_keystreams == null) {
+                    _keystreams = new KeystreamCache(this);
+                }
+                keystreams = _keystreams;
+            }
+        }
+        return keystreams;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls. */
+    int numPawls() {
+        return _numPawls;
+    }
+
+    /** Return the names of my rotors, in the order read. */
+    List<String> rotorNames() {
+        return Collections.unmodifiableList(_names);
+    }
+
+    /** Common alphabet of my rotors. */
+    private final Alphabet _alphabet;
+    /** Number of rotor slots. */
+    private final int _numRotors;
+    /** Number of pawls. */
+    private final int _numPawls;
+    /** Rotor names, in the order read. */
+    private final ArrayList<String> _names = new ArrayList<>();
+    /** Rotor types ("R", "N", or "M" followed by notches), parallel to
+     *  _names. */
+    private final ArrayList<String> _types = new ArrayList<>();
+    /** Rotor permutations, parallel to _names (eager only). */
+    private final ArrayList<Permutation> _perms = new ArrayList<>();
+    /** Rotor permutations, parallel to _names, each null until built
+     *  (lazy only, else null). */
+    private AtomicReferenceArray<Permutation> _built;
+    /** Rotor numbers by name (the first, for repeated names). */
+    private final HashMap<String, Integer> _byName = new HashMap<>();
+    /** Tables of my rotors, or null until asked for. */
+    private volatile RotorTables _tables;
+    /** Engine selector for my machines, or null until asked for. */
+    private volatile EngineSelector _selector;
+    /** Keystream cache for my machines, or null until asked for. */
+    private volatile KeystreamCache _keystreams;
+    /** Text indexed by index(), or null if I was read eagerly. */
+    private CharSequence _source;
+    /** Ranges of _source holding the cycles of each rotor (lazy only),
+     *  parallel to _names. */
+    private final ArrayList<Integer> _starts = new ArrayList<>(),
+        _ends = new ArrayList<>();
+
+    /** Splits text into whitespace-separated tokens as a Scanner does,
+     *  keeping the position of each. */
+    private static final class Tokens {
+        /** Tokens of TEXT. */
+        Tokens(CharSequence text) {
+            _text = text;
+        }
+
+        /** Return true iff there is another token. */
+        boolean hasNext() {
+            while (_pos < _text.length()
+                   && Character.isWhitespace(_text.charAt(_pos))) {
+                _pos += 1;
+            }
+            return _pos < _text.length();
+        }
+
+        /** Return the next token. */
+        String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            _start = _pos;
+            while (_pos < _text.length()
+                   && !Character.isWhitespace(_text.charAt(_pos))) {
+                _pos += 1;
+            }
+            return _text.subSequence(_start, _pos).toString();
+        }
+
+        /** Return the next token as an integer. */
+        int nextInt() {
+            try {
+                return Integer.parseInt(next());
+            } catch (NumberFormatException excp) {
+                throw new NoSuchElementException();
+            }
+        }
+
+        /** Return the position of the first character of the last token
+         *  returned. */
+        int start() {
+            return _start;
+        }
+
+        /** Return the position just past the last token returned. */
+        int end() {
+            return _pos;
+        }
+
+        /** The text. */
+        private final CharSequence _text;
+        /** Position of the next character to examine. */
+        private int _pos;
+        /** Start of the last token returned. */
+        private int _start;
+    }
+}
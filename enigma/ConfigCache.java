@@ -0,0 +1,126 @@
+package enigma;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** A thread-safe cache of parsed configuration files, keyed by path.
+ *  An entry is reused for as long as its file keeps the modification
+ *  time and length it had when parsed; otherwise the file is read
+ *  again.  Concurrent requests for the same stale or missing entry
+ *  parse the file only once.  Lazily indexed configurations (see
+ *  Config.index) are cached apart from those read eagerly.
+ *  @author Jay Chiang
+ */
+final class ConfigCache {
+
+    /** A cache whose configurations have disabled keystream caches. */
+    ConfigCache() {
+        this(0);
+    }
+
+    /** A cache giving each configuration it parses a keystream cache
+     *  budget of KEYSTREAMBYTES (see KeystreamCache). */
+    ConfigCache(long keystreamBytes) {
+        _keystreamBytes = keystreamBytes;
+    }
+
+    /** Return the configuration in the file named PATH, parsing it only
+     *  if it is not cached or has changed since it was cached. */
+    Config get(String path) {
+        return get(path, false);
+    }
+
+    /** Return the configuration in the file named PATH, as get(PATH)
+     *  does, but indexed lazily if LAZY. */
+    Config get(String path, boolean lazy) {
+        File file = new File(path).getAbsoluteFile();
+        long modified = file.lastModified(), length = file.length();
+        ConcurrentHashMap<String, Entry> entries =
+            lazy ? _lazyEntries : _entries;
+        Entry entry = entries.compute(file.getPath(), (key, old) -> {
+            if (old != null && old.modified == modified
+                && old.length == length) {
+                _hits.incrementAndGet();
+                return old;
+            }
+            _misses.incrementAndGet();
+            Config config = lazy ? index(file) : parse(file);
+            if (_keystreamBytes > 0) {
+                config.keystreams().setBudget(_keystreamBytes);
+            }
+            return new Entry(config, modified, length);
+        });
+        return entry.config;
+    }
+
+    /** Return the configuration read from FILE. */
+    private static Config parse(File file) {
+        try (Scanner scanner = new Scanner(file)) {
+            return Config.read(scanner);
+        } catch (FileNotFoundException excp) {
+            throw error("could not open %s", file.getPath());
+        }
+    }
+
+    /** Return the configuration indexed from the text of FILE, decoded
+     *  as a Scanner would decode it. */
+    private static Config index(File file) {
+        try {
+            return Config.index(new String(Files.readAllBytes(file.toPath()),
+                                           Charset.defaultCharset()));
+        } catch (IOException excp) {
+            throw error("could not open %s", file.getPath());
+        }
+    }
+
+    /** Return the number of requests answered from the cache. */
+    long hits() {
+        return _hits.get();
+    }
+
+    /** Return the number of requests that parsed a file. */
+    long misses() {
+        return _misses.get();
+    }
+
+    /** Return the number of cached configurations. */
+    int size() {
+        return _entries.size() + _lazyEntries.size();
+    }
+
+    /** A cached configuration and the state of its file. */
+    private static final class Entry {
+        /** An entry for CONFIG, read from a file last modified at
+         *  MODIFIED and having LENGTH bytes. */
+        Entry(Config config, long modified, long length) {
+            this.config = config;
+            this.modified = modified;
+            this.length = length;
+        }
+
+        /** The parsed configuration. */
+        final Config config;
+        /** Modification time and length of the file when parsed. */
+        final long modified, length;
+    }
+
+    /** Keystream cache budget of each configuration. */
+    private final long _keystreamBytes;
+    /** Cached entries by absolute path. */
+    private final ConcurrentHashMap<String, Entry> _entries =
+        new ConcurrentHashMap<>();
+    /** Cached lazily indexed entries by absolute path. */
+    private final ConcurrentHashMap<String, Entry> _lazyEntries =
+        new ConcurrentHashMap<>();
+    /** Request counters. */
+    private final AtomicLong _hits = new AtomicLong(),
+        _misses = new AtomicLong();
+}
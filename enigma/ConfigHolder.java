@@ -0,0 +1,253 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** The current configuration of a long-running service, which may be
+ *  replaced while it runs.  A Config is an immutable snapshot, so the
+ *  holder publishes each new one by writing a volatile reference:
+ *  get() is a single read with no lock, a request that has read a
+ *  snapshot finishes on it, and requests that read later see the new
+ *  one.  Old snapshots are reclaimed when the last request using them
+ *  ends.
+ *
+ *  A holder made from a file reloads it, when it has changed, either
+ *  on request (reload) or every so often on a background thread
+ *  (start).  So as not to read a file that is still being written, a
+ *  change is acted on only once the file's modification time and
+ *  length are the same at two successive checks; writers that replace
+ *  the file by an atomic rename are never seen half-written at all.
+ *  A changed file is parsed, checked and warmed off the request path:
+ *  besides parsing, the check requires that the rotors can fill the
+ *  slots of a setting line, and warming builds everything the
+ *  snapshot's machines share (the rotor tables, the keystream cache,
+ *  and the engine selector, calibrated on such a line or keeping the
+ *  previous snapshot's calibration if the alphabet size and slot count
+ *  are unchanged) before it is published.  A request thus finds all of
+ *  it already built and takes no lock to reach it, and the first
+ *  requests on a new snapshot are as fast as later ones.
+ *  A file that fails is reported (lastError) and ignored until it
+ *  changes again; the previous snapshot stays in use.
+ *  @author Jay Chiang
+ */
+final class ConfigHolder implements AutoCloseable {
+
+    /** A holder that always supplies CONFIG. */
+    ConfigHolder(Config config) {
+        _file = null;
+        _keystreamBytes = 0;
+        _current = config;
+    }
+
+    /** A holder for the configuration in FILE, which is read now and
+     *  must be valid. */
+    ConfigHolder(Path file) {
+        this(file, 0);
+    }
+
+    /** A holder for the configuration in FILE, as for
+     *  ConfigHolder(FILE), giving each version a keystream cache budget
+     *  of KEYSTREAMBYTES. */
+    ConfigHolder(Path file, long keystreamBytes) {
+        _file = file;
+        _keystreamBytes = keystreamBytes;
+        if (!reload()) {
+            throw error("%s", _lastError);
+        }
+    }
+
+    /** Return the current configuration. */
+    Config get() {
+        return _current;
+    }
+
+    /** Return the number of configurations published after the first. */
+    long generation() {
+        return _generation.get();
+    }
+
+    /** Return the number of changed files rejected. */
+    long failures() {
+        return _failures.get();
+    }
+
+    /** Return the error that made the last changed file be rejected, or
+     *  null if it was accepted. */
+    String lastError() {
+        return _lastError;
+    }
+
+    /** If my file has changed since last read, and not since the last
+     *  check (except when first read), read, check and warm it, and
+     *  publish it if it is valid.  Return true iff a new configuration
+     *  was published. */
+    synchronized boolean reload() {
+        if (_file == null) {
+            return false;
+        }
+        long modified, length;
+        try {
+            modified = Files.getLastModifiedTime(_file).toMillis();
+            length = Files.size(_file);
+        } catch (IOException excp) {
+            modified = length = -1;
+        }
+        if (modified != _modified || length != _length) {
+            _modified = modified;
+            _length = length;
+            _handled = false;
+            if (_current != null) {
+                return false;
+            }
+        } else if (_current != null && _handled) {
+            return false;
+        }
+        _handled = true;
+        if (modified < 0) {
+            return reject(String.format("could not open %s", _file));
+        }
+        Config config;
+        try {
+            String text = new String(Files.readAllBytes(_file),
+                                     Charset.defaultCharset());
+            config = Config.read(new Scanner(text));
+            if (_keystreamBytes > 0) {
+                config.keystreams().setBudget(_keystreamBytes);
+            }
+            warm(config, _current);
+        } catch (IOException excp) {
+            return reject(String.format("could not open %s", _file));
+        } catch (EnigmaException excp) {
+            return reject(excp.getMessage());
+        } catch (RuntimeException excp) {
+            return reject(excp.toString());
+        }
+        boolean first = _current == null;
+        _current = config;
+        _lastError = null;
+        if (!first) {
+            _generation.incrementAndGet();
+        }
+        commit(true, null);
+        return true;
+    }
+
+    /** Note that the changed file was rejected because of ERROR, and
+     *  return false. */
+    private boolean reject(String error) {
+        _lastError = error;
+        if (_current != null) {
+            _failures.incrementAndGet();
+        }
+        commit(false, error);
+        return false;
+    }
+
+    /** Record a reload event, if enabled, of a configuration that was
+     *  PUBLISHED, or rejected because of ERROR. */
+    private void commit(boolean published, String error) {
+        Events.ConfigReload event = new Events.ConfigReload();
+        if (event.shouldCommit()) {
+            event.generation = _generation.get();
+            event.published = published;
+            event.error = error;
+            event.commit();
+        }
+    }
+
+    /** Check that CONFIG's rotors can fill its slots, and prepare the
+     *  shared state of its machines on a machine holding the first
+     *  rotors of each kind that do.  The engine selector keeps the
+     *  calibration of that of PREVIOUS, the configuration CONFIG
+     *  replaces (if not null), when it can. */
+    private static void warm(Config config, Config previous) {
+        Machine m = config.newMachine();
+        ArrayList<Rotor> rotors = m.getAvailableRotors();
+        int fixed = config.numRotors() - config.numPawls() - 1;
+        String[] names = new String[config.numRotors()];
+        int nextFixed = 1, nextMoving = fixed + 1;
+        for (Rotor rotor : rotors) {
+            if (names[0] == null && rotor.reflecting()) {
+                names[0] = rotor.name();
+            } else if (rotor.rotates() && nextMoving < names.length) {
+                names[nextMoving] = rotor.name();
+                nextMoving += 1;
+            } else if (!rotor.rotates() && nextFixed <= fixed) {
+                names[nextFixed] = rotor.name();
+                nextFixed += 1;
+            }
+        }
+        if (names[0] == null || nextFixed <= fixed
+            || nextMoving < names.length) {
+            throw error("rotors cannot fill the %d slots",
+                        config.numRotors());
+        }
+        m.insertRotors(names);
+        char first = config.alphabet().toChar(0);
+        m.setRotors(String.valueOf(first).repeat(names.length - 1));
+        m.setPlugboard(new Permutation("", config.alphabet()));
+        if (m.compilable()) {
+            config.tables();
+        }
+        config.keystreams();
+        if (previous != null) {
+            config.selector().inherit(previous.selector());
+        }
+        config.selector().prepare(m);
+    }
+
+    /** Check my file for changes every PERIOD milliseconds on a
+     *  background thread, until closed. */
+    synchronized void start(long period) {
+        if (_file == null || _poller != null) {
+            return;
+        }
+        _poller = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "enigma-config-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _poller.scheduleWithFixedDelay(this::reload, period, period,
+                                       TimeUnit.MILLISECONDS);
+    }
+
+    /** Stop checking my file in the background. */
+    @Override
+    public synchronized void close() {
+        if (_poller != null) {
+            _poller.shutdownNow();
+            _poller = null;
+        }
+    }
+
+    /** File read, or null if my configuration is fixed. */
+    private final Path _file;
+    /** Keystream cache budget of each configuration read from _file. */
+    private final long _keystreamBytes;
+    /** The current configuration. */
+    private volatile Config _current;
+    /** Modification time and length of the file when last checked (-1
+     *  if it could not be). */
+    private long _modified, _length;
+    /** True iff the file as of _modified and _length has been read (or
+     *  found missing). */
+    private boolean _handled;
+    /** Number of configurations published after the first. */
+    private final AtomicLong _generation = new AtomicLong();
+    /** Number of changed files rejected. */
+    private final AtomicLong _failures = new AtomicLong();
+    /** See lastError. */
+    private volatile String _lastError;
+    /** Background checker, or null. */
+    private ScheduledExecutorService _poller;
+}
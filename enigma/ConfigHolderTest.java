@@ -0,0 +1,172 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static enigma.DaemonTest.CONFIG;
+
+/** The suite of all JUnit tests for the ConfigHolder class.
+ *  @author Jay Chiang
+ */
+public class ConfigHolderTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Setting line for the test messages. */
+    private static final String SETTINGS =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** CONFIG with rotor I renamed IX. */
+    private static final String RENAMED = CONFIG.replace("\nI MQ",
+                                                         "\nIX MQ");
+
+    /** Replace the contents of FILE with TEXT, and move its modification
+     *  time on, so that the change is seen however coarse the clock. */
+    private void rewrite(Path file, String text) throws IOException {
+        FileTime before = Files.getLastModifiedTime(file);
+        Files.writeString(file, text);
+        Files.setLastModifiedTime(
+            file, FileTime.fromMillis(before.toMillis() + 2000));
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testReload() throws IOException {
+        Path file = Files.createTempFile("holder", ".conf");
+        Files.writeString(file, CONFIG);
+        try (ConfigHolder holder = new ConfigHolder(file)) {
+            Config first = holder.get();
+            assertTrue(first.rotorIndex("I") >= 0);
+            assertFalse(holder.reload());
+            assertSame(first, holder.get());
+
+            rewrite(file, RENAMED);
+            assertFalse(holder.reload());
+            assertSame(first, holder.get());
+            assertTrue(holder.reload());
+            assertEquals(1, holder.generation());
+            assertTrue(holder.get().rotorIndex("IX") >= 0);
+            assertTrue(first.rotorIndex("I") >= 0);
+
+            Config good = holder.get();
+            rewrite(file, "ABC 5 3\nI MQ (ABD)\n");
+            assertFalse(holder.reload());
+            assertNull(holder.lastError());
+            assertFalse(holder.reload());
+            assertSame(good, holder.get());
+            assertNotNull(holder.lastError());
+            assertFalse(holder.reload());
+            assertEquals(1, holder.failures());
+
+            rewrite(file, CONFIG.replace("\nB R", "\nB N"));
+            assertFalse(holder.reload());
+            assertFalse(holder.reload());
+            assertTrue(holder.lastError(),
+                       holder.lastError().contains("cannot fill"));
+            assertEquals(2, holder.failures());
+
+            Files.delete(file);
+            assertFalse(holder.reload());
+            assertFalse(holder.reload());
+            assertEquals(3, holder.failures());
+            assertSame(good, holder.get());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testWaitsForWriter() throws IOException {
+        Path file = Files.createTempFile("holder", ".conf");
+        Files.writeString(file, CONFIG);
+        try (ConfigHolder holder = new ConfigHolder(file)) {
+            Config first = holder.get();
+            String half = RENAMED.substring(0, RENAMED.indexOf("\nIX"));
+            rewrite(file, half);
+            assertFalse(holder.reload());
+            rewrite(file, RENAMED);
+            assertFalse(holder.reload());
+            assertSame(first, holder.get());
+            assertNull(holder.lastError());
+            assertTrue(holder.reload());
+            assertTrue(holder.get().rotorIndex("IX") >= 0);
+            assertEquals(0, holder.failures());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testBadInitialFile() throws IOException {
+        Path file = Files.createTempFile("holder", ".conf");
+        Files.writeString(file, "ABC 5 3\n");
+        try {
+            new ConfigHolder(file);
+            fail("bad configuration accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testServerPicksUpChanges() throws IOException {
+        Path file = Files.createTempFile("holder", ".conf");
+        Files.writeString(file, CONFIG);
+        ConfigHolder holder = new ConfigHolder(file);
+        Server server = new Server(holder, 0);
+        Thread thread = new Thread(server::serve);
+        thread.setDaemon(true);
+        thread.start();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                        server.port())) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            Server.writeRequest(out, SETTINGS, "FROM HIS SHOULDER HIAWATHA");
+            out.flush();
+            assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW\n",
+                         Server.readReply(in));
+
+            rewrite(file, RENAMED);
+            holder.reload();
+            assertTrue(holder.reload());
+            Server.writeRequest(out, SETTINGS.replace(" I ", " IX "),
+                                "FROM HIS SHOULDER HIAWATHA");
+            Server.writeRequest(out, SETTINGS, "HI");
+            out.flush();
+            assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW\n",
+                         Server.readReply(in));
+            try {
+                Server.readReply(in);
+                fail("old rotor name accepted after reload");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            server.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Scanner;
+
+import static enigma.DaemonTest.CONFIG;
+import static enigma.DaemonTest.INPUT;
+
+/** The suite of all JUnit tests for the Config class, chiefly its lazy
+ *  (indexed) form.
+ *  @author Jay Chiang
+ */
+public class ConfigTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Malformed configurations, each with its mistake. */
+    private static final String[] BAD = {
+        "",
+        "ABC",
+        "ABC 3 x",
+        "ABC 3 2 I",
+        "ABC 3 2 I Q (ABC)",
+        "ABC 3 2 I M",
+        "ABC 3 2 I MA (AB) II MB (ABC)",
+        "ABC 3 2 I MA (AB (C)",
+        "ABC 3 2 I MA (ABC) II",
+    };
+
+    /** Return the output of the messages in INPUT under CONFIG. */
+    private String run(Config config) {
+        Main main = new Main(config);
+        Machine machine = main.readConfig();
+        StringBuilder out = new StringBuilder();
+        for (String line : INPUT.split("\n")) {
+            main.processLine(machine, line, out);
+        }
+        return out.toString();
+    }
+
+    /** Return the message of the error from reading TEXT with read or
+     *  (if LAZY) index, or null if there is none. */
+    private String errorFrom(String text, boolean lazy) {
+        try {
+            if (lazy) {
+                Config.index(text);
+            } else {
+                Config.read(new Scanner(text));
+            }
+            return null;
+        } catch (EnigmaException excp) {
+            return excp.getMessage();
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testIndexMatchesRead() {
+        Config eager = Config.read(new Scanner(CONFIG));
+        Config lazy = Config.index(CONFIG);
+        assertFalse(eager.lazy());
+        assertTrue(lazy.lazy());
+        assertEquals(eager.rotorNames(), lazy.rotorNames());
+        assertEquals(0, lazy.permutationsBuilt());
+        Alphabet alpha = eager.alphabet();
+        for (int k = 0; k < eager.numRotorsAvailable(); k += 1) {
+            assertEquals(eager.rotorType(k), lazy.rotorType(k));
+            for (int c = 0; c < alpha.size(); c += 1) {
+                assertEquals(eager.permutation(k).permute(c),
+                             lazy.permutation(k).permute(c));
+            }
+        }
+        assertEquals(run(eager), run(Config.index(CONFIG)));
+    }
+
+    @Test
+    public void testOnlyNamedRotorsBuilt() {
+        Config lazy = Config.index(CONFIG);
+        Machine machine = lazy.newMachine();
+        assertEquals(0, lazy.permutationsBuilt());
+        machine.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        assertEquals(5, lazy.permutationsBuilt());
+        assertSame(lazy.permutation(0), lazy.permutation(0));
+        assertNull(machine.availableRotor("VIII"));
+        assertEquals(6, machine.getAvailableRotors().size());
+        assertEquals(6, lazy.permutationsBuilt());
+    }
+
+    @Test
+    public void testSameErrors() {
+        for (String text : BAD) {
+            String expected = errorFrom(text, false);
+            assertNotNull(text, expected);
+            assertEquals(text, expected, errorFrom(text, true));
+        }
+    }
+
+}
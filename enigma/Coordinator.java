@@ -0,0 +1,447 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.EnigmaException.*;
+
+/** Runs a KeySearch across several worker JVMs on this host.  Usage:
+ *      java enigma.Coordinator [--workers=N] [--chunk=U] [--top=K]
+ *                              [--rings=R] [--ngrams=FILE] [--threads=T]
+ *                              CONF CIPHERTEXT
+ *  starts N (default 2) Worker processes, each using T threads
+ *  (default: all), which connect back to a loopback socket.  The key
+ *  space is split into chunks of U (default 1) KeySearch work units,
+ *  each a rotor order and leftmost starting position, which are handed
+ *  to workers as they become free.  Workers load CONF themselves
+ *  through Main, so it must be readable by them.  If a worker dies or
+ *  its connection fails, the chunk it held goes back on the queue for
+ *  the others; the search fails only if every worker does.  The best
+ *  K candidates over all chunks are printed as for KeySearch.
+ *
+ *  The protocol uses DataOutputStream encodings.  On connecting, a
+ *  worker is sent the job: the configuration file name and n-gram file
+ *  name (empty for none) as UTF strings, then the number of candidates
+ *  to keep, number of ring slots and thread count as ints, then the
+ *  ciphertext as an int count followed by that many int indices.  It
+ *  is then sent any number of UNIT messages (the byte UNIT and two
+ *  ints: first and last-plus-one unit), to each of which it replies
+ *  with the byte RESULT, a long count of keys tried, an int count of
+ *  candidates and, for each, a double score and UTF setting line; or
+ *  with the byte FAILED and a UTF error message.  Finally it is sent
+ *  the byte STOP.
+ *  @author Jay Chiang
+ */
+public final class Coordinator {
+
+    /** Message type assigning work units. */
+    static final byte UNIT = 1;
+    /** Message type ending a worker's session. */
+    static final byte STOP = 2;
+    /** Message type of a worker's results. */
+    static final byte RESULT = 3;
+    /** Message type of a worker's error report. */
+    static final byte FAILED = 4;
+
+    /** Run the search described by ARGS. */
+    public static void main(String... args) {
+        try {
+            int workers = DEFAULT_WORKERS, top = KeySearch.DEFAULT_TOP;
+            int chunk = 1, rings = 0, threads = 0;
+            String ngrams = null;
+            int first = 0;
+            for (; first < args.length && args[first].startsWith("--");
+                 first += 1) {
+                String arg = args[first];
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--workers=")) {
+                    workers = Integer.parseInt(value);
+                } else if (arg.startsWith("--chunk=")) {
+                    chunk = Integer.parseInt(value);
+                } else if (arg.startsWith("--top=")) {
+                    top = Integer.parseInt(value);
+                } else if (arg.startsWith("--rings=")) {
+                    rings = Integer.parseInt(value);
+                } else if (arg.startsWith("--threads=")) {
+                    threads = Integer.parseInt(value);
+                } else if (arg.startsWith("--ngrams=")) {
+                    ngrams = value;
+                } else {
+                    throw error("unknown option %s", arg);
+                }
+            }
+            if (args.length != first + 2) {
+                throw error("Usage: java enigma.Coordinator [--workers=N] "
+                            + "[--chunk=U] [--top=K] [--rings=R] "
+                            + "[--ngrams=FILE] [--threads=T] "
+                            + "CONF CIPHERTEXT");
+            }
+            Coordinator coord = new Coordinator(args[first],
+                                                args[first + 1]);
+            coord.setTop(top);
+            coord.setRingSlots(rings);
+            coord.setChunk(chunk);
+            coord.setWorkerThreads(threads);
+            if (ngrams != null) {
+                coord.setNGrams(ngrams);
+            }
+            for (KeySearch.Candidate candidate : coord.search(workers)) {
+                System.out.println(candidate);
+            }
+            System.err.println(coord.report());
+        } catch (NumberFormatException excp) {
+            System.err.println("Error: bad option value");
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A coordinator for a search of the ciphertext in the file named
+     *  CIPHERTEXT under the configuration in the file named CONF. */
+    Coordinator(String conf, String ciphertext) {
+        _conf = new File(conf).getAbsolutePath();
+        _config = new Main(new String[] { _conf }).configuration();
+        _cipher = KeySearch.readText(_config.alphabet(), ciphertext);
+    }
+
+    /** Keep the best K candidates. */
+    void setTop(int k) {
+        if (k < 1) {
+            throw error("must keep at least one candidate");
+        }
+        _top = k;
+    }
+
+    /** Also search the ring settings of the rightmost R rotors. */
+    void setRingSlots(int r) {
+        if (r < 0 || r > _config.numRotors() - 1) {
+            throw error("bad number of ring slots");
+        }
+        _ringSlots = r;
+    }
+
+    /** Hand out work units U at a time. */
+    void setChunk(int u) {
+        if (u < 1) {
+            throw error("bad chunk size");
+        }
+        _chunk = u;
+    }
+
+    /** Have each worker use T threads (all available, if T is 0). */
+    void setWorkerThreads(int t) {
+        _threads = Math.max(0, t);
+    }
+
+    /** Have workers score with the n-gram table in the file NAME. */
+    void setNGrams(String name) {
+        _ngrams = new File(name).getAbsolutePath();
+    }
+
+    /** Return a KeySearch for my job, as each worker builds it. */
+    KeySearch newSearch() {
+        return newSearch(_config, _cipher, _ringSlots, _top);
+    }
+
+    /** Return a KeySearch of CIPHER under CONFIG, searching the rings of
+     *  RINGSLOTS rotors and keeping TOP candidates. */
+    static KeySearch newSearch(Config config, int[] cipher, int ringSlots,
+                               int top) {
+        KeySearch search = new KeySearch(new RotorTables(config),
+                                         config.numRotors(),
+                                         config.numPawls(), cipher);
+        search.setRingSlots(ringSlots);
+        search.setTop(top);
+        return search;
+    }
+
+    /** Run the search on WORKERS worker processes and return the best
+     *  candidates, best first. */
+    List<KeySearch.Candidate> search(int workers) {
+        if (workers < 1) {
+            throw error("need at least one worker");
+        }
+        int units = newSearch().units();
+        synchronized (this) {
+            _pending.clear();
+            for (int u = 0; u < units; u += _chunk) {
+                _pending.add(new int[] { u, Math.min(units, u + _chunk) });
+            }
+            _remaining = _pending.size();
+            _live = workers;
+            _best = new KeySearch.TopK(_top);
+            _tried = _assigned = _reassigned = 0;
+            _failure = null;
+        }
+        long start = System.nanoTime();
+        try (ServerSocket server =
+             new ServerSocket(0, workers, InetAddress.getLoopbackAddress())) {
+            _processes.clear();
+            for (int w = 0; w < workers; w += 1) {
+                _processes.add(spawn(server.getLocalPort()));
+            }
+            server.setSoTimeout(ACCEPT_TIMEOUT);
+            ArrayList<Thread> handlers = new ArrayList<>();
+            for (int w = 0; w < workers; w += 1) {
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException excp) {
+                    workerDied();
+                    continue;
+                }
+                Thread handler = new Thread(() -> handle(socket));
+                handler.setDaemon(true);
+                handler.start();
+                handlers.add(handler);
+            }
+            synchronized (this) {
+                while (_remaining > 0 && _live > 0 && _failure == null) {
+                    wait();
+                }
+                if (_failure != null) {
+                    throw error("worker failed: %s", _failure);
+                }
+                if (_remaining > 0) {
+                    throw error("all workers failed");
+                }
+            }
+            for (Thread handler : handlers) {
+                handler.join(ACCEPT_TIMEOUT);
+            }
+        } catch (IOException excp) {
+            throw error("could not start workers: %s", excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        } finally {
+            stopWorkers();
+            _elapsed = System.nanoTime() - start;
+        }
+        return _best.sorted();
+    }
+
+    /** Start a worker process that connects to PORT. */
+    private Process spawn(int port) throws IOException {
+        String java = System.getProperty("java.home") + File.separator
+            + "bin" + File.separator + "java";
+        ProcessBuilder builder =
+            new ProcessBuilder(java, "-cp",
+                               System.getProperty("java.class.path"),
+                               "enigma.Worker",
+                               InetAddress.getLoopbackAddress()
+                               .getHostAddress(),
+                               Integer.toString(port));
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+    }
+
+    /** Wait briefly for my worker processes to exit after STOP, then
+     *  kill any that have not. */
+    private void stopWorkers() {
+        for (Process process : _processes) {
+            try {
+                if (!process.waitFor(STOP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException excp) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Serve the worker connected to SOCKET until there is no work
+     *  left or the connection fails. */
+    private void handle(Socket socket) {
+        int[] range = null;
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(s.getOutputStream()));
+            out.writeUTF(_conf);
+            out.writeUTF(_ngrams == null ? "" : _ngrams);
+            out.writeInt(_top);
+            out.writeInt(_ringSlots);
+            out.writeInt(_threads);
+            out.writeInt(_cipher.length);
+            for (int c : _cipher) {
+                out.writeInt(c);
+            }
+            while ((range = take()) != null) {
+                out.writeByte(UNIT);
+                out.writeInt(range[0]);
+                out.writeInt(range[1]);
+                out.flush();
+                byte type = in.readByte();
+                if (type == FAILED) {
+                    fail(in.readUTF());
+                    return;
+                } else if (type != RESULT) {
+                    throw new IOException("bad reply");
+                }
+                long tried = in.readLong();
+                int count = in.readInt();
+                ArrayList<KeySearch.Candidate> found = new ArrayList<>();
+                for (int i = 0; i < count; i += 1) {
+                    double score = in.readDouble();
+                    found.add(new KeySearch.Candidate(score, in.readUTF()));
+                }
+                complete(tried, found);
+                range = null;
+            }
+            out.writeByte(STOP);
+            out.flush();
+        } catch (IOException excp) {
+            if (range != null) {
+                requeue(range);
+            }
+        } finally {
+            workerDied();
+        }
+    }
+
+    /** Return the next chunk of units to assign, waiting until one is
+     *  available, or null if the search is over. */
+    private synchronized int[] take() {
+        while (_pending.isEmpty() && _remaining > 0 && _failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        if (_remaining == 0 || _failure != null) {
+            return null;
+        }
+        _assigned += 1;
+        return _pending.poll();
+    }
+
+    /** Record that a chunk was finished after trying TRIED keys, with
+     *  FOUND the best of them. */
+    private synchronized void complete(long tried,
+                                       List<KeySearch.Candidate> found) {
+        for (KeySearch.Candidate candidate : found) {
+            if (_best.accepts(candidate.score())) {
+                _best.add(candidate);
+            }
+        }
+        _tried += tried;
+        _remaining -= 1;
+        notifyAll();
+    }
+
+    /** Put RANGE, whose worker failed, back on the queue. */
+    private synchronized void requeue(int[] range) {
+        _pending.addFirst(range);
+        _reassigned += 1;
+        notifyAll();
+    }
+
+    /** Record that the search failed with MESSAGE. */
+    private synchronized void fail(String message) {
+        if (_failure == null) {
+            _failure = message;
+        }
+        notifyAll();
+    }
+
+    /** Record that a worker has gone. */
+    private synchronized void workerDied() {
+        _live -= 1;
+        notifyAll();
+    }
+
+    /** Return the processes of the current or last search's workers. */
+    List<Process> workers() {
+        return Collections.unmodifiableList(_processes);
+    }
+
+    /** Return the number of keys tried by the last search. */
+    synchronized long candidates() {
+        return _tried;
+    }
+
+    /** Return the number of chunks handed to workers so far. */
+    synchronized long assigned() {
+        return _assigned;
+    }
+
+    /** Return the number of chunks reassigned after a worker failed. */
+    synchronized long reassigned() {
+        return _reassigned;
+    }
+
+    /** Return a summary of the last search. */
+    String report() {
+        return String.format("%d candidates in %.2f s: %.0f candidates/s, "
+                             + "%d chunks reassigned", candidates(),
+                             _elapsed / 1e9,
+                             candidates() * 1e9 / Math.max(1, _elapsed),
+                             reassigned());
+    }
+
+    /** Default number of worker processes. */
+    static final int DEFAULT_WORKERS = 2;
+    /** Milliseconds to wait for each worker to connect. */
+    private static final int ACCEPT_TIMEOUT = 30_000;
+    /** Milliseconds to wait for a worker to exit once stopped. */
+    private static final int STOP_TIMEOUT = 5_000;
+
+    /** Absolute name of the configuration file. */
+    private final String _conf;
+    /** The configuration, as Main reads it. */
+    private final Config _config;
+    /** The ciphertext, as indices. */
+    private final int[] _cipher;
+    /** Absolute name of the n-gram file, or null. */
+    private String _ngrams;
+    /** Number of candidates kept. */
+    private int _top = KeySearch.DEFAULT_TOP;
+    /** Number of rightmost rotors whose rings are searched. */
+    private int _ringSlots;
+    /** Work units per chunk. */
+    private int _chunk = 1;
+    /** Threads per worker, or 0 for all. */
+    private int _threads;
+    /** Chunks (first and last-plus-one unit) not yet assigned. */
+    private final ArrayDeque<int[]> _pending = new ArrayDeque<>();
+    /** Chunks not yet completed. */
+    private int _remaining;
+    /** Workers still connected or expected to connect. */
+    private int _live;
+    /** Best candidates so far. */
+    private KeySearch.TopK _best;
+    /** Keys tried in completed chunks. */
+    private long _tried;
+    /** Chunks assigned and reassigned. */
+    private long _assigned, _reassigned;
+    /** Error reported by a worker, or null. */
+    private String _failure;
+    /** Worker processes. */
+    private final List<Process> _processes = new CopyOnWriteArrayList<>();
+    /** Duration of the last search. */
+    private long _elapsed;
+}
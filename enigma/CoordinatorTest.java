@@ -0,0 +1,95 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.KeySearchTest.PLAIN;
+import static enigma.KeySearchTest.SMALL;
+import static enigma.KeySearchTest.encrypt;
+
+/** The suite of all JUnit tests for the Coordinator and Worker classes.
+ *  These start worker JVMs on this host.
+ *  @author Jay Chiang
+ */
+public class CoordinatorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /** Return a coordinator for the ciphertext of PLAIN under SMALL with
+     *  setting line SETTINGS, using temporary files. */
+    private Coordinator coordinator(String settings) throws IOException {
+        File conf = File.createTempFile("enigma-coord", ".conf");
+        File cipher = File.createTempFile("enigma-coord", ".txt");
+        conf.deleteOnExit();
+        cipher.deleteOnExit();
+        Files.writeString(conf.toPath(), SMALL);
+        Files.writeString(cipher.toPath(), encrypt(SMALL, settings, PLAIN));
+        return new Coordinator(conf.getPath(), cipher.getPath());
+    }
+
+    /** Return the setting lines of CANDIDATES. */
+    private List<String> settings(List<KeySearch.Candidate> candidates) {
+        ArrayList<String> result = new ArrayList<>();
+        for (KeySearch.Candidate candidate : candidates) {
+            result.add(candidate.toString());
+        }
+        return result;
+    }
+
+    @Test
+    public void testMatchesLocalSearch() throws IOException {
+        Coordinator coord = coordinator("* B III I QD");
+        coord.setTop(3);
+        coord.setChunk(7);
+        KeySearch local = coord.newSearch();
+        List<KeySearch.Candidate> expected =
+            local.search(new ForkJoinPool(1));
+        List<KeySearch.Candidate> got = coord.search(2);
+        assertEquals(settings(expected), settings(got));
+        assertEquals("* B III I QD", got.get(0).settings());
+        assertEquals(local.keySpace(), coord.candidates());
+        assertEquals(0, coord.reassigned());
+    }
+
+    @Test
+    public void testSurvivesKilledWorker() throws Exception {
+        Coordinator coord = coordinator("* B III I QD");
+        coord.setTop(5);
+        coord.setRingSlots(1);
+        coord.setWorkerThreads(1);
+        KeySearch local = coord.newSearch();
+        List<KeySearch.Candidate> expected =
+            local.search(new ForkJoinPool(1));
+        List<List<KeySearch.Candidate>> result = new ArrayList<>();
+        Thread search = new Thread(() -> result.add(coord.search(3)));
+        search.start();
+        while (coord.assigned() < 3 && search.isAlive()) {
+            Thread.sleep(1);
+        }
+        coord.workers().get(0).destroyForcibly().waitFor();
+        search.join();
+        assertEquals(1, result.size());
+        assertEquals(settings(expected), settings(result.get(0)));
+        assertEquals(local.keySpace(), coord.candidates());
+        assertFalse(coord.workers().get(0).isAlive());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testWorkerError() throws IOException {
+        Coordinator coord = coordinator("* B III I QD");
+        coord.setNGrams("/nonexistent/ngrams.txt");
+        coord.search(1);
+    }
+
+}
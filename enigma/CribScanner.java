@@ -0,0 +1,237 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static enigma.EnigmaException.*;
+
+/** Finds the offsets at which a crib may lie in a ciphertext.  Since
+ *  the reflector is a derangement, no character enciphers to itself,
+ *  so the crib cannot lie at any offset K at which some crib character
+ *  J equals ciphertext character K + J.  The ciphertext is kept as one
+ *  bitset per alphabet character, marking the positions at which it
+ *  occurs.  Shifting the bitset of crib character J right by J marks
+ *  the offsets that J rules out, so ORing these for every J rules out
+ *  64 offsets per word operation, in time proportional to the crib
+ *  length times the ciphertext length over 64.  Many messages are
+ *  scanned at once by dividing them among the threads of a
+ *  ForkJoinPool.  Usage:
+ *      java enigma.CribScanner [--threads=T] CONF CRIB CIPHERTEXT...
+ *  prints, for each file CIPHERTEXT (as for KeySearch), its name and
+ *  the offsets at which CRIB may lie, which are those worth giving to
+ *  Bombe's --offset option.
+ *  @author Jay Chiang
+ */
+public final class CribScanner {
+
+    /** Run the scan described by ARGS. */
+    public static void main(String... args) {
+        try {
+            int threads = 0;
+            int first = 0;
+            for (; first < args.length && args[first].startsWith("--");
+                 first += 1) {
+                String arg = args[first];
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--threads=")) {
+                    threads = Integer.parseInt(value);
+                } else {
+                    throw error("unknown option %s", arg);
+                }
+            }
+            if (args.length < first + 3) {
+                throw error("Usage: java enigma.CribScanner [--threads=T] "
+                            + "CONF CRIB CIPHERTEXT...");
+            }
+            Alphabet alpha = KeySearch.readConfig(args[first]).alphabet();
+            int[] crib = KeySearch.indices(alpha, args[first + 1]);
+            List<int[]> messages = new ArrayList<>();
+            long chars = 0;
+            for (int i = first + 2; i < args.length; i += 1) {
+                messages.add(KeySearch.readText(alpha, args[i]));
+                chars += messages.get(messages.size() - 1).length;
+            }
+            ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads)
+                : ForkJoinPool.commonPool();
+            long start = System.nanoTime();
+            int[][] offsets = scan(pool, alpha.size(), messages, crib);
+            long elapsed = System.nanoTime() - start;
+            long found = 0;
+            for (int m = 0; m < offsets.length; m += 1) {
+                StringBuilder line = new StringBuilder(args[first + 2 + m]);
+                line.append(':');
+                for (int k : offsets[m]) {
+                    line.append(' ').append(k);
+                }
+                System.out.println(line);
+                found += offsets[m].length;
+            }
+            System.err.printf("%d messages, %d characters: %d offsets "
+                              + "in %.3f s%n", offsets.length, chars, found,
+                              elapsed / 1e9);
+        } catch (NumberFormatException excp) {
+            System.err.println("Error: bad option value");
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return, for each of MESSAGES (as indices into an alphabet of N
+     *  characters), the offsets at which CRIB may lie, scanning the
+     *  messages on POOL. */
+    static int[][] scan(ForkJoinPool pool, int n, List<int[]> messages,
+                        int[] crib) {
+        check(n, crib);
+        int[][] result = new int[messages.size()][];
+        pool.invoke(new Task(0, messages.size(), n, messages, crib, result));
+        return result;
+    }
+
+    /** A scanner for CIPHERTEXT, as indices into an alphabet of N
+     *  characters. */
+    CribScanner(int n, int[] ciphertext) {
+        _n = n;
+        _length = ciphertext.length;
+        _masks = new long[n][(_length >>> 6) + 2];
+        for (int i = 0; i < _length; i += 1) {
+            int c = ciphertext[i];
+            if (c < 0 || c >= n) {
+                throw error("ciphertext character %d not in alphabet", i);
+            }
+            _masks[c][i >>> 6] |= 1L << i;
+        }
+    }
+
+    /** Return the length of my ciphertext. */
+    int length() {
+        return _length;
+    }
+
+    /** Return the offsets at which CRIB may lie, as a bitset: bit K & 63
+     *  of word K >>> 6 is set iff no character of CRIB placed at offset
+     *  K matches the ciphertext character under it.  Only offsets at
+     *  which the whole crib fits are included. */
+    long[] valid(int[] crib) {
+        check(_n, crib);
+        int count = _length - crib.length + 1;
+        if (count <= 0) {
+            return new long[0];
+        }
+        int words = (count + 63) >>> 6;
+        long[] bad = new long[words];
+        for (int j = 0; j < crib.length; j += 1) {
+            long[] mask = _masks[crib[j]];
+            int skip = j >>> 6, shift = j & 63;
+            if (shift == 0) {
+                for (int w = 0; w < words; w += 1) {
+                    bad[w] |= mask[w + skip];
+                }
+            } else {
+                int back = 64 - shift;
+                for (int w = 0; w < words; w += 1) {
+                    bad[w] |= (mask[w + skip] >>> shift)
+                        | (mask[w + skip + 1] << back);
+                }
+            }
+        }
+        for (int w = 0; w < words; w += 1) {
+            bad[w] = ~bad[w];
+        }
+        if ((count & 63) != 0) {
+            bad[words - 1] &= (1L << count) - 1;
+        }
+        return bad;
+    }
+
+    /** Return the offsets at which CRIB may lie, in increasing
+     *  order. */
+    int[] offsets(int[] crib) {
+        long[] valid = valid(crib);
+        int total = 0;
+        for (long word : valid) {
+            total += Long.bitCount(word);
+        }
+        int[] result = new int[total];
+        int k = 0;
+        for (int w = 0; w < valid.length; w += 1) {
+            for (long word = valid[w]; word != 0; word &= word - 1) {
+                result[k] = (w << 6) + Long.numberOfTrailingZeros(word);
+                k += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Check that CRIB is a non-empty text over an alphabet of N
+     *  characters. */
+    private static void check(int n, int[] crib) {
+        if (crib.length == 0) {
+            throw error("empty crib");
+        }
+        for (int c : crib) {
+            if (c < 0 || c >= n) {
+                throw error("crib character not in alphabet");
+            }
+        }
+    }
+
+    /** A range of messages, scanned GRAIN at a time. */
+    private static final class Task extends RecursiveAction {
+
+        /** The messages numbered FROM (inclusive) to TO (exclusive) of
+         *  MESSAGES, over an alphabet of N characters, storing the
+         *  offsets of CRIB in message M in RESULT[M]. */
+        Task(int from, int to, int n, List<int[]> messages, int[] crib,
+             int[][] result) {
+            _from = from;
+            _to = to;
+            _n = n;
+            _messages = messages;
+            _crib = crib;
+            _result = result;
+        }
+
+        @Override
+        protected void compute() {
+            if (_to - _from <= GRAIN) {
+                for (int m = _from; m < _to; m += 1) {
+                    _result[m] = new CribScanner(_n, _messages.get(m))
+                        .offsets(_crib);
+                }
+                return;
+            }
+            int mid = (_from + _to) >>> 1;
+            invokeAll(new Task(_from, mid, _n, _messages, _crib, _result),
+                      new Task(mid, _to, _n, _messages, _crib, _result));
+        }
+
+        /** First and last-plus-one messages. */
+        private final int _from, _to;
+        /** Alphabet size. */
+        private final int _n;
+        /** All messages. */
+        private final List<int[]> _messages;
+        /** The crib. */
+        private final int[] _crib;
+        /** Result array. */
+        private final int[][] _result;
+    }
+
+    /** Largest number of messages scanned by one task, since a single
+     *  message is usually too quick to be worth a task of its own. */
+    private static final int GRAIN = 16;
+
+    /** Alphabet size. */
+    private final int _n;
+    /** Length of the ciphertext. */
+    private final int _length;
+    /** _masks[C] has bit I & 63 of word I >>> 6 set iff ciphertext
+     *  character I is C.  Each has a spare zero word at the end, so
+     *  that shifts may read one word past the last. */
+    private final long[][] _masks;
+
+}
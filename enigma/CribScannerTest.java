@@ -0,0 +1,120 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.KeySearchTest.PLAIN;
+import static enigma.KeySearchTest.SMALL;
+import static enigma.KeySearchTest.encrypt;
+
+/** The suite of all JUnit tests for the CribScanner class.
+ *  @author Jay Chiang
+ */
+public class CribScannerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return LEN random indices below N drawn with RANDOM. */
+    private int[] random(int len, int n, Random random) {
+        int[] result = new int[len];
+        for (int i = 0; i < len; i += 1) {
+            result[i] = random.nextInt(n);
+        }
+        return result;
+    }
+
+    /** Return the offsets at which CRIB may lie in CIPHER, found by
+     *  comparing every character. */
+    private int[] direct(int[] cipher, int[] crib) {
+        List<Integer> found = new ArrayList<>();
+        for (int k = 0; k + crib.length <= cipher.length; k += 1) {
+            boolean ok = true;
+            for (int j = 0; j < crib.length; j += 1) {
+                ok &= cipher[k + j] != crib[j];
+            }
+            if (ok) {
+                found.add(k);
+            }
+        }
+        return found.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testMatchesDirectCheck() {
+        Random random = new Random(50);
+        for (int n : new int[] { 2, 5, 26 }) {
+            for (int len : new int[] { 1, 63, 64, 65, 200, 1000 }) {
+                int[] cipher = random(len, n, random);
+                CribScanner scanner = new CribScanner(n, cipher);
+                assertEquals(len, scanner.length());
+                for (int cribLength : new int[] { 1, 3, 64, 65, 130,
+                                                  1001 }) {
+                    int[] crib = random(cribLength, n, random);
+                    assertArrayEquals("n=" + n + " len=" + len + " crib="
+                                      + cribLength, direct(cipher, crib),
+                                      scanner.offsets(crib));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFindsCrib() {
+        Config config = Config.read(new Scanner(SMALL));
+        Alphabet alpha = config.alphabet();
+        int[] cipher = KeySearch.indices(alpha,
+            encrypt(SMALL, "* B III I QD (AQ) (EX) (IP) (RT)", PLAIN));
+        int[] crib = KeySearch.indices(alpha, "ITWASTHEEPOCHOF");
+        int[] offsets = new CribScanner(alpha.size(), cipher).offsets(crib);
+        for (int k = PLAIN.indexOf("ITWASTHEEPOCHOF"); k >= 0;
+             k = PLAIN.indexOf("ITWASTHEEPOCHOF", k + 1)) {
+            assertTrue(Arrays.binarySearch(offsets, k) >= 0);
+        }
+        assertTrue(offsets.length < cipher.length - crib.length + 1);
+    }
+
+    @Test
+    public void testScan() {
+        Random random = new Random(51);
+        List<int[]> messages = new ArrayList<>();
+        for (int m = 0; m < 100; m += 1) {
+            messages.add(random(random.nextInt(300), 26, random));
+        }
+        int[] crib = random(20, 26, random);
+        int[][] offsets = CribScanner.scan(new ForkJoinPool(3), 26,
+                                           messages, crib);
+        assertEquals(messages.size(), offsets.length);
+        for (int m = 0; m < messages.size(); m += 1) {
+            assertArrayEquals(direct(messages.get(m), crib), offsets[m]);
+        }
+    }
+
+    @Test
+    public void testBadCribs() {
+        CribScanner scanner = new CribScanner(26, new int[] { 0, 1, 2 });
+        for (int[] crib : new int[][] { {}, { 26 }, { 0, -1 } }) {
+            try {
+                scanner.offsets(crib);
+                fail("accepted " + Arrays.toString(crib));
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+}
@@ -0,0 +1,309 @@
+package enigma;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static enigma.EnigmaException.*;
+
+/** A long-running Enigma server that keeps parsed configurations warm
+ *  and serves encryption requests from Clients over a Unix-domain
+ *  socket.  Usage:
+ *      java enigma.Daemon [--socket=PATH] [--keystream-cache=MB]
+ *                         [CONF ...]
+ *  listens on PATH (by default, socketPath()) after preloading each
+ *  CONF.  Each configuration gets a keystream cache of up to MB
+ *  megabytes (default 0, disabled), shared by all clients; a client's
+ *  own --keystream-cache option only opts in or out of using it.
+ *  Each connection carries one request, handled on its own thread: the
+ *  client sends a header and then its input; the daemon replies with a
+ *  sequence of frames (see Client).
+ *  @author Jay Chiang
+ */
+public final class Daemon {
+
+    /** Frame type of a block of output. */
+    static final byte OUTPUT = 'O';
+    /** Frame type of an error message, which ends a reply. */
+    static final byte ERROR = 'E';
+    /** Frame type marking successful completion of a reply. */
+    static final byte DONE = 'D';
+
+    /** Start a daemon as described by ARGS. */
+    public static void main(String... args) {
+        try {
+            Path socket = socketPath();
+            long keystreamBytes = 0;
+            int first = 0;
+            for (; first < args.length && args[first].startsWith("--");
+                 first += 1) {
+                String arg = args[first];
+                if (arg.startsWith("--socket=")) {
+                    socket = Paths.get(arg.substring("--socket=".length()));
+                } else if (arg.startsWith("--keystream-cache=")) {
+                    keystreamBytes =
+                        (long) Main.keystreamMegabytes(arg) << 20;
+                } else {
+                    throw error("unknown option %s", arg);
+                }
+            }
+            Daemon daemon = new Daemon(socket, keystreamBytes);
+            for (int i = first; i < args.length; i += 1) {
+                daemon.preload(args[i]);
+            }
+            daemon.serve();
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return the socket path shared by daemon and clients: the value
+     *  of the enigma.socket property or ENIGMA_SOCKET environment
+     *  variable if set, and otherwise a file in the temporary
+     *  directory. */
+    static Path socketPath() {
+        String path = System.getProperty("enigma.socket",
+                                         System.getenv("ENIGMA_SOCKET"));
+        if (path == null) {
+            path = Paths.get(System.getProperty("java.io.tmpdir"),
+                             "enigma-" + System.getProperty("user.name")
+                             + ".sock").toString();
+        }
+        return Paths.get(path);
+    }
+
+    /** A daemon that will listen on SOCKET. */
+    Daemon(Path socket) {
+        this(socket, 0);
+    }
+
+    /** A daemon that will listen on SOCKET, giving each configuration a
+     *  keystream cache budget of KEYSTREAMBYTES. */
+    Daemon(Path socket, long keystreamBytes) {
+        _socket = socket;
+        _cache = new ConfigCache(keystreamBytes);
+    }
+
+    /** Parse the configuration in file PATH ahead of the first request
+     *  for it. */
+    void preload(String path) {
+        _cache.get(path);
+    }
+
+    /** Return my cache of parsed configurations. */
+    ConfigCache cache() {
+        return _cache;
+    }
+
+    /** Accept and serve connections until closed. */
+    void serve() {
+        try {
+            Files.deleteIfExists(_socket);
+            _server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            _server.bind(UnixDomainSocketAddress.of(_socket));
+        } catch (IOException excp) {
+            throw error("could not listen on %s", _socket);
+        }
+        ExecutorService workers = newPerTaskExecutor();
+        try {
+            while (true) {
+                SocketChannel client = _server.accept();
+                workers.execute(() -> handle(client));
+            }
+        } catch (IOException excp) {
+            /* Closed. */
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /** Stop accepting connections and remove the socket. */
+    void close() {
+        try {
+            if (_server != null) {
+                _server.close();
+            }
+            Files.deleteIfExists(_socket);
+        } catch (IOException excp) {
+            /* Ignore. */
+        }
+    }
+
+    /** Serve the single request arriving on CLIENT. */
+    private void handle(SocketChannel client) {
+        try (client) {
+            FrameOutputStream frames = new FrameOutputStream(client);
+            try {
+                DataInputStream in =
+                    new DataInputStream(inputStream(client));
+                String config = in.readUTF();
+                String[] options = new String[in.readInt()];
+                for (int i = 0; i < options.length; i += 1) {
+                    options[i] = in.readUTF();
+                }
+                PrintStream out = new PrintStream(frames);
+                boolean lazy =
+                    Arrays.asList(options).contains("--lazy-rotors");
+                new Main(options, _cache.get(config, lazy), in, out)
+                    .process();
+                out.flush();
+                frames.send(DONE, new byte[0]);
+            } catch (EnigmaException excp) {
+                frames.flush();
+                frames.send(ERROR, String.valueOf(excp.getMessage())
+                            .getBytes(StandardCharsets.UTF_8));
+            } catch (RuntimeException excp) {
+                frames.flush();
+                frames.send(ERROR, excp.toString()
+                            .getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException excp) {
+            /* Client went away. */
+        }
+    }
+
+    /** Return an executor that runs each task on a new thread: a
+     *  virtual thread where the runtime supports them, and otherwise a
+     *  pooled daemon thread. */
+    static ExecutorService newPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /** Return a stream reading from CHANNEL that does not lock out
+     *  concurrent writers, as the streams from Channels may. */
+    static InputStream inputStream(SocketChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                return channel.read(ByteBuffer.wrap(buf, off, len));
+            }
+        };
+    }
+
+    /** Return a stream writing to CHANNEL that does not lock out
+     *  concurrent readers. */
+    static OutputStream outputStream(SocketChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] buf, int off, int len)
+                throws IOException {
+                ByteBuffer data = ByteBuffer.wrap(buf, off, len);
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+        };
+    }
+
+    /** A buffered stream that sends its contents to a channel as
+     *  OUTPUT frames, and can send frames of other types. */
+    static final class FrameOutputStream extends OutputStream {
+
+        /** A stream framing output to CHANNEL. */
+        FrameOutputStream(SocketChannel channel) {
+            _out = new DataOutputStream(outputStream(channel));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (_count == _buffer.length) {
+                flush();
+            }
+            _buffer[_count] = (byte) b;
+            _count += 1;
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            while (len > 0) {
+                if (_count == _buffer.length) {
+                    flush();
+                }
+                int n = Math.min(len, _buffer.length - _count);
+                System.arraycopy(buf, off, _buffer, _count, n);
+                _count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (_count > 0) {
+                send(OUTPUT, _buffer, _count);
+                _count = 0;
+            }
+        }
+
+        /** Send a frame of type TYPE containing DATA. */
+        void send(byte type, byte[] data) throws IOException {
+            send(type, data, data.length);
+        }
+
+        /** Send a frame of type TYPE containing the first LEN bytes of
+         *  DATA. */
+        private synchronized void send(byte type, byte[] data, int len)
+            throws IOException {
+            _out.writeByte(type);
+            _out.writeInt(len);
+            _out.write(data, 0, len);
+            _out.flush();
+        }
+
+        /** Destination of frames. */
+        private final DataOutputStream _out;
+        /** Pending output. */
+        private final byte[] _buffer = new byte[1 << 16];
+        /** Number of pending bytes in _buffer. */
+        private int _count;
+    }
+
+    /** Path of my listening socket. */
+    private final Path _socket;
+    /** Parsed configurations. */
+    private final ConfigCache _cache;
+    /** Listening channel, once serving. */
+    private volatile ServerSocketChannel _server;
+}
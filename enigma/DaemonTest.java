@@ -0,0 +1,140 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** The suite of all JUnit tests for the Daemon, Client and ConfigCache
+ *  classes.
+ *  @author Jay Chiang
+ */
+public class DaemonTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A small configuration. */
+    static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ 5 3\n"
+        + "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + "IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "  (RX) (SZ) (TV)\n";
+
+    /** Messages for CONFIG. */
+    static final String INPUT =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n"
+        + "FROM HIS SHOULDER HIAWATHA\n"
+        + "\n"
+        + "TOOK THE CAMERA OF ROSEWOOD\n";
+
+    /** Return the output of Main on CONFIG and INPUT. */
+    private String direct(String input) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Main(new String[0], Config.read(new java.util.Scanner(CONFIG)),
+                 new ByteArrayInputStream(input.getBytes()),
+                 new PrintStream(out)).process();
+        return out.toString();
+    }
+
+    /** Return the output of a client of the daemon on SOCKET run with
+     *  ARGS and standard input INPUT. */
+    private String client(Path socket, String input, String... args) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Client(socket).run(args,
+                               new ByteArrayInputStream(input.getBytes()),
+                               out);
+        return out.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testRequests() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("enigma");
+        File conf = dir.resolve("test.conf").toFile();
+        Files.writeString(conf.toPath(), CONFIG);
+        Path socket = dir.resolve("test.sock");
+        Daemon daemon = new Daemon(socket);
+        Thread server = new Thread(daemon::serve);
+        server.setDaemon(true);
+        server.start();
+        while (!Files.exists(socket)) {
+            Thread.sleep(10);
+        }
+        try {
+            String expected = direct(INPUT);
+            assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW\n\n"
+                         + "BHCNS CXNUO AATZX SRCFY DGU\n", expected);
+            assertEquals(expected, client(socket, INPUT, conf.getPath()));
+            assertEquals(expected, client(socket, INPUT, "--pipeline",
+                                          conf.getPath()));
+            assertEquals(1, daemon.cache().misses());
+            assertEquals(1, daemon.cache().hits());
+            try {
+                client(socket, INPUT + "* B Beta III II AXLE\n",
+                       conf.getPath());
+                fail("no error reported");
+            } catch (EnigmaException excp) {
+                assertEquals("bad input", excp.getMessage());
+            }
+            try {
+                client(socket, INPUT, dir.resolve("none.conf").toString());
+                fail("no error reported");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().startsWith("could not open"));
+            }
+            for (String option : new String[] { "--checkpoint=ckpt",
+                                                "--checkpoint-every=5",
+                                                "--resume" }) {
+                try {
+                    client(socket, INPUT, option, conf.getPath());
+                    fail("accepted " + option);
+                } catch (EnigmaException excp) {
+                    assertEquals(option + " needs input and output files",
+                                 excp.getMessage());
+                }
+            }
+            try {
+                client(socket, INPUT, "--trace=" + dir.resolve("trace"),
+                       conf.getPath());
+                fail("accepted --trace");
+            } catch (EnigmaException excp) {
+                assertFalse(Files.exists(dir.resolve("trace")));
+            }
+        } finally {
+            daemon.close();
+        }
+    }
+
+    @Test
+    public void testCacheReload() throws IOException {
+        Path conf = Files.createTempFile("enigma", ".conf");
+        Files.writeString(conf, CONFIG);
+        ConfigCache cache = new ConfigCache();
+        Config first = cache.get(conf.toString());
+        assertSame(first, cache.get(conf.toString()));
+        Files.writeString(conf, CONFIG
+                          + "Gamma N (AFNIRLBSQWVXGUZDKMTPCOYJHE)\n");
+        Config second = cache.get(conf.toString());
+        assertNotSame(first, second);
+        assertEquals(7, second.rotorNames().size());
+        assertEquals(1, cache.size());
+    }
+
+}
@@ -0,0 +1,172 @@
+package enigma;
+
+import java.nio.CharBuffer;
+
+import static enigma.EnigmaException.*;
+
+/** An incremental form of Main's message processing.  Input may arrive
+ *  in chunks of any size, split anywhere (even inside a line or a
+ *  line terminator); the machine state carries over from one chunk to
+ *  the next, and setting lines ('*' lines) may appear anywhere in the
+ *  stream, exactly as in Main's input.  Message characters are
+ *  converted as soon as they arrive, so memory use is independent of
+ *  line and stream length; only a setting line is held until its end.
+ *  Concatenating the results of all calls to update and finish gives
+ *  the output Main would produce for the concatenated input.
+ *  @author Jay Chiang
+ */
+final class Encoder {
+
+    /** An encoder for messages under configuration CONFIG. */
+    Encoder(Config config) {
+        _main = new Main(config);
+        _machine = _main.readConfig();
+        _alphabet = config.alphabet();
+    }
+
+    /** Process all characters remaining in INPUT, returning the output
+     *  they complete. */
+    CharBuffer update(CharBuffer input) {
+        StringBuilder out = new StringBuilder(input.remaining() + 16);
+        update(input, out);
+        return CharBuffer.wrap(out);
+    }
+
+    /** Process all characters remaining in INPUT, appending the output
+     *  they complete to OUT. */
+    void update(CharBuffer input, StringBuilder out) {
+        checkOpen();
+        while (input.hasRemaining()) {
+            char ch = input.get();
+            if (_skipNewline) {
+                _skipNewline = false;
+                if (ch == '\n') {
+                    continue;
+                }
+            }
+            if (Main.lineEnd(ch)) {
+                _skipNewline = ch == '\r';
+                endLine(out);
+            } else if (_state == START) {
+                if (!_started || ch == '*') {
+                    _state = SETTINGS;
+                    _settings.append(ch);
+                } else {
+                    _state = MESSAGE;
+                    _event = new Events.Conversion();
+                    _event.begin();
+                    _lineIn = _lineOut = 0;
+                    _lineDoubleSteps = _machine.doubleSteps();
+                    message(ch, out);
+                }
+            } else if (_state == SETTINGS) {
+                _settings.append(ch);
+            } else {
+                message(ch, out);
+            }
+        }
+    }
+
+    /** Signal the end of input, returning any remaining output.  No
+     *  further calls are allowed. */
+    CharBuffer finish() {
+        StringBuilder out = new StringBuilder();
+        finish(out);
+        return CharBuffer.wrap(out);
+    }
+
+    /** Signal the end of input, appending any remaining output to OUT.
+     *  No further calls are allowed. */
+    void finish(StringBuilder out) {
+        checkOpen();
+        _finished = true;
+        if (_state != START) {
+            endLine(out);
+        }
+        if (!_started) {
+            throw error("bad input");
+        }
+    }
+
+    /** Return the number of message characters converted so far. */
+    long converted() {
+        return _converted;
+    }
+
+    /** Convert message character CH, if in the alphabet, appending the
+     *  result to OUT. */
+    private void message(char ch, StringBuilder out) {
+        _lineIn += 1;
+        if (_main.ignoresMessages() || !_alphabet.contains(ch)) {
+            return;
+        }
+        if (_group == GROUP) {
+            out.append(' ');
+            _group = 0;
+        }
+        out.append(_alphabet.toChar(_machine.convert(_alphabet.toInt(ch))));
+        _group += 1;
+        _converted += 1;
+        _lineOut += 1;
+    }
+
+    /** Finish the current line, appending any output to OUT. */
+    private void endLine(StringBuilder out) {
+        if (_state == SETTINGS || !_started) {
+            String line = _settings.toString();
+            _settings.setLength(0);
+            _started = true;
+            _main.processLine(_machine, line, out);
+        } else if (!_main.ignoresMessages()) {
+            out.append('\n');
+        }
+        if (_state == MESSAGE) {
+            Main.commit(_event, _machine, _lineIn, _lineOut,
+                        _lineDoubleSteps);
+            _event = null;
+        }
+        _state = START;
+        _group = 0;
+    }
+
+    /** Complain if finish has been called. */
+    private void checkOpen() {
+        if (_finished) {
+            throw new IllegalStateException("encoder already finished");
+        }
+    }
+
+    /** Line states: at the start of a line, within a setting line, or
+     *  within a message line. */
+    private static final int START = 0, SETTINGS = 1, MESSAGE = 2;
+    /** Letters per output group. */
+    private static final int GROUP = 5;
+
+    /** Handles setting lines. */
+    private final Main _main;
+    /** The machine, whose state persists across chunks. */
+    private final Machine _machine;
+    /** The machine's alphabet. */
+    private final Alphabet _alphabet;
+    /** The setting line being accumulated. */
+    private final StringBuilder _settings = new StringBuilder();
+    /** Current line state. */
+    private int _state = START;
+    /** Letters in the current output group. */
+    private int _group;
+    /** True once the first line has been processed. */
+    private boolean _started;
+    /** True iff the previous character was a '\r'. */
+    private boolean _skipNewline;
+    /** True once finish has been called. */
+    private boolean _finished;
+    /** Count of converted characters. */
+    private long _converted;
+    /** Flight recorder event for the current message line. */
+    private Events.Conversion _event;
+    /** Characters seen and converted in the current message line. */
+    private int _lineIn, _lineOut;
+    /** Machine's double step count at the start of the current message
+     *  line. */
+    private long _lineDoubleSteps;
+}
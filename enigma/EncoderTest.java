@@ -0,0 +1,161 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.concurrent.Flow;
+
+import static enigma.DaemonTest.CONFIG;
+import static enigma.DaemonTest.INPUT;
+
+/** The suite of all JUnit tests for the Encoder and EncryptingProcessor
+ *  classes.
+ *  @author Jay Chiang
+ */
+public class EncoderTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Input with a settings change, a ring setting and CR-LF line
+     *  ends. */
+    private static final String MIXED =
+        INPUT + "* B Beta I II III ZZZZ BBBB (AB)\r\nA B C\r\n\r\n"
+        + "  * not a setting\nNOT AT END";
+
+    /** Return a configuration for testing. */
+    private Config config() {
+        return Config.read(new Scanner(CONFIG));
+    }
+
+    /** Return the output of Main on INPUT. */
+    private String direct(String input) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Main(new String[0], config(),
+                 new ByteArrayInputStream(input.getBytes()),
+                 new PrintStream(out)).process();
+        return out.toString();
+    }
+
+    /** Return the output of an Encoder given INPUT in pieces of at most
+     *  SIZE characters. */
+    private String chunked(String input, int size) {
+        Encoder encoder = new Encoder(config());
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < input.length(); i += size) {
+            String piece = input.substring(i, Math.min(input.length(),
+                                                       i + size));
+            encoder.update(CharBuffer.wrap(piece), out);
+        }
+        encoder.finish(out);
+        return out.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testChunkSizes() {
+        String expected = direct(MIXED);
+        for (int size = 1; size <= MIXED.length(); size += 1) {
+            assertEquals("chunk size " + size, expected,
+                         chunked(MIXED, size));
+        }
+    }
+
+    @Test
+    public void testLineEnds() {
+        String input = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n"
+            + "FROM HIS\u2028SHOULDER\rHIA\r\nWATHA\u0085\u0085"
+            + "* B Beta III IV I AAAA\u2029TOOK THE\r";
+        String expected = direct(
+            input.replaceAll("\r\n|[\r\u2028\u2029\u0085]", "\n"));
+        assertEquals(6, expected.split("\n", -1).length - 1);
+        for (int size = 1; size <= input.length(); size += 1) {
+            assertEquals("chunk size " + size, expected,
+                         chunked(input, size));
+        }
+    }
+
+    @Test
+    public void testErrors() {
+        try {
+            chunked("HELLO\n", 3);
+            fail("no error for missing setting line");
+        } catch (EnigmaException excp) {
+            assertEquals("bad input", excp.getMessage());
+        }
+        try {
+            chunked("", 3);
+            fail("no error for empty input");
+        } catch (EnigmaException excp) {
+            assertEquals("bad input", excp.getMessage());
+        }
+    }
+
+    @Test
+    public void testBackpressure() {
+        EncryptingProcessor processor = new EncryptingProcessor(config());
+        ArrayList<String> received = new ArrayList<>();
+        long[] requested = new long[1];
+        boolean[] completed = new boolean[1];
+        Flow.Subscription[] downstream = new Flow.Subscription[1];
+        processor.subscribe(new Flow.Subscriber<CharBuffer>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                downstream[0] = subscription;
+            }
+
+            @Override
+            public void onNext(CharBuffer item) {
+                received.add(item.toString());
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                fail(throwable.toString());
+            }
+
+            @Override
+            public void onComplete() {
+                completed[0] = true;
+            }
+        });
+        processor.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                requested[0] += n;
+            }
+
+            @Override
+            public void cancel() {
+                fail("cancelled");
+            }
+        });
+        assertEquals(0, requested[0]);
+        downstream[0].request(1);
+        assertEquals(1, requested[0]);
+        processor.onNext(CharBuffer.wrap("* B Beta III IV I AXLE "));
+        assertEquals("setting prefix yields nothing; ask again",
+                     2, requested[0]);
+        processor.onNext(CharBuffer.wrap("(HQ) (EX) (IP) (TR) (BY)\nFROM"));
+        assertEquals(1, received.size());
+        assertEquals(2, requested[0]);
+        processor.onComplete();
+        assertFalse("final output waits for demand", completed[0]);
+        downstream[0].request(1);
+        assertTrue(completed[0]);
+        assertEquals("QVPQ\n", String.join("", received));
+    }
+
+}
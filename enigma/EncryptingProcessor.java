@@ -0,0 +1,198 @@
+package enigma;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.Flow;
+
+/** A reactive-streams stage that encrypts a stream of character
+ *  chunks with an Encoder, so that streams of any length are handled
+ *  in constant memory.  Demand is passed upstream one for one: each
+ *  chunk requested by the subscriber causes one chunk to be requested
+ *  from the publisher, and a chunk that yields no output is replaced
+ *  by requesting another.  Settings changes travel in-band as '*'
+ *  lines.  An EnigmaException from the encoder cancels the upstream
+ *  subscription and is passed downstream through onError.  Only one
+ *  subscriber is supported.
+ *  @author Jay Chiang
+ */
+final class EncryptingProcessor
+    implements Flow.Processor<CharBuffer, CharBuffer> {
+
+    /** A processor encrypting under CONFIG. */
+    EncryptingProcessor(Config config) {
+        _encoder = new Encoder(config);
+    }
+
+    @Override
+    public synchronized void subscribe(
+        Flow.Subscriber<? super CharBuffer> subscriber) {
+        if (_downstream != null) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(
+                new IllegalStateException("already subscribed"));
+            return;
+        }
+        _downstream = subscriber;
+        subscriber.onSubscribe(new Downstream());
+        if (_upstream != null) {
+            forwardDemand();
+        }
+    }
+
+    @Override
+    public synchronized void onSubscribe(Flow.Subscription subscription) {
+        if (_upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        _upstream = subscription;
+        forwardDemand();
+    }
+
+    @Override
+    public synchronized void onNext(CharBuffer chunk) {
+        if (_done) {
+            return;
+        }
+        _outstanding -= 1;
+        CharBuffer out;
+        try {
+            out = _encoder.update(chunk);
+        } catch (EnigmaException excp) {
+            _upstream.cancel();
+            terminate(excp);
+            return;
+        }
+        if (out.hasRemaining()) {
+            _demand -= 1;
+            _downstream.onNext(out);
+        }
+        forwardDemand();
+    }
+
+    @Override
+    public synchronized void onError(Throwable throwable) {
+        terminate(throwable);
+    }
+
+    @Override
+    public synchronized void onComplete() {
+        if (_done) {
+            return;
+        }
+        try {
+            _tail = _encoder.finish();
+        } catch (EnigmaException excp) {
+            terminate(excp);
+            return;
+        }
+        _completed = true;
+        drainTail();
+    }
+
+    /** Return the number of chunks requested from upstream but not yet
+     *  received. */
+    synchronized long outstanding() {
+        return _outstanding;
+    }
+
+    /** Request from upstream as many chunks as the subscriber wants and
+     *  have not yet been asked for. */
+    private void forwardDemand() {
+        if (_upstream == null || _downstream == null || _done || _completed) {
+            return;
+        }
+        long wanted = _demand - _outstanding;
+        if (wanted > 0) {
+            _outstanding += wanted;
+            _upstream.request(wanted);
+        }
+    }
+
+    /** After upstream completion, deliver the final output if there is
+     *  demand for it, and then complete. */
+    private void drainTail() {
+        if (_done || _downstream == null) {
+            return;
+        }
+        if (_tail != null && _tail.hasRemaining()) {
+            if (_demand == 0) {
+                return;
+            }
+            _demand -= 1;
+            _downstream.onNext(_tail);
+        }
+        _tail = null;
+        _done = true;
+        _downstream.onComplete();
+    }
+
+    /** End the stream with error THROWABLE. */
+    private void terminate(Throwable throwable) {
+        if (_done) {
+            return;
+        }
+        _done = true;
+        if (_downstream != null) {
+            _downstream.onError(throwable);
+        }
+    }
+
+    /** The subscription given to my subscriber. */
+    private final class Downstream implements Flow.Subscription {
+        @Override
+        public void request(long n) {
+            synchronized (EncryptingProcessor.this) {
+                if (n <= 0) {
+                    terminate(new IllegalArgumentException(
+                                  "non-positive request"));
+                    if (_upstream != null) {
+                        _upstream.cancel();
+                    }
+                    return;
+                }
+                _demand = _demand + n < 0 ? Long.MAX_VALUE : _demand + n;
+                if (_completed) {
+                    drainTail();
+                } else {
+                    forwardDemand();
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (EncryptingProcessor.this) {
+                _done = true;
+                if (_upstream != null) {
+                    _upstream.cancel();
+                }
+            }
+        }
+    }
+
+    /** The encoder carrying machine state across chunks. */
+    private final Encoder _encoder;
+    /** Subscription to my publisher. */
+    private Flow.Subscription _upstream;
+    /** My subscriber. */
+    private Flow.Subscriber<? super CharBuffer> _downstream;
+    /** Chunks requested by the subscriber and not yet delivered. */
+    private long _demand;
+    /** Chunks requested from upstream and not yet received. */
+    private long _outstanding;
+    /** Output remaining after upstream completion, awaiting demand. */
+    private CharBuffer _tail;
+    /** True once upstream has completed. */
+    private boolean _completed;
+    /** True once the stream has terminated downstream or been
+     *  cancelled. */
+    private boolean _done;
+}
@@ -0,0 +1,275 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** Chooses, for each message a Machine converts, between its general
+ *  path (its Rotor objects, one character at a time) and the
+ *  table-driven path of a CompiledMachine, which is several times
+ *  faster per character but must first be loaded with the machine's
+ *  rotors, positions, ring settings and plugboard and afterwards
+ *  return the positions.  Messages at least threshold() characters
+ *  long take the compiled path.
+ *
+ *  The threshold comes from a short calibration run the first time it
+ *  is needed: scratch machines with the same rotors convert a few
+ *  thousand characters on each path and repeat the compiled path's
+ *  loading, and the threshold is the length at which the compiled
+ *  path's saving per character pays for its loading.  Alphabet size
+ *  and slot count enter through these measurements; in addition,
+ *  alphabets whose rotor tables would exceed MAX_TABLE_BYTES, and
+ *  lazily indexed configurations (whose tables would force every rotor
+ *  to be built), always use the general path.
+ *
+ *  One selector serves all machines of a Config, so it holds only what
+ *  they share: the calibration and counts of the messages and
+ *  characters sent each way, for report().  A machine may instead be
+ *  given its own mode or threshold (see Machine.forceEngine and
+ *  Machine.setEngineThreshold), which affects no other machine.  The
+ *  selector is thread-safe, and after calibration a decision takes no
+ *  lock.
+ *  @author Jay Chiang
+ */
+final class EngineSelector {
+
+    /** Modes: choose by threshold, or always use one path. */
+    static final int AUTO = 0, GENERAL = 1, COMPILED = 2;
+    /** Mode names, indexed by mode. */
+    private static final String[] MODE_NAMES = {
+        "auto", "general", "compiled"
+    };
+
+    /** Largest rotor tables (in bytes) for which the compiled path is
+     *  considered. */
+    static final long MAX_TABLE_BYTES = 64L << 20;
+
+    /** A selector for machines of CONFIG. */
+    EngineSelector(Config config) {
+        _config = config;
+        long tableBytes = 9L * config.alphabet().size()
+            * config.numRotorsAvailable();
+        if (config.lazy()) {
+            _unsupported = "lazily indexed configuration";
+        } else if (tableBytes > MAX_TABLE_BYTES) {
+            _unsupported = "rotor tables would take " + tableBytes
+                + " bytes";
+        } else {
+            _unsupported = null;
+        }
+    }
+
+    /** Return the mode named NAME ("auto", "general" or "compiled"). */
+    static int mode(String name) {
+        for (int m = 0; m < MODE_NAMES.length; m += 1) {
+            if (MODE_NAMES[m].equals(name)) {
+                return m;
+            }
+        }
+        throw error("unknown engine %s", name);
+    }
+
+    /** Return true iff my configuration's machines may use the compiled
+     *  path at all. */
+    boolean supported() {
+        return _unsupported == null;
+    }
+
+    /** Return true iff M should convert a message of LENGTH characters
+     *  on the compiled path, calibrating first (with M's rotors) if
+     *  need be.  If THRESHOLD is positive, it is used instead of the
+     *  calibrated threshold. */
+    boolean useCompiled(Machine m, int length, long threshold) {
+        if (_unsupported != null || !m.compilable()) {
+            return false;
+        }
+        return length >= (threshold > 0 ? threshold : calibrated(m));
+    }
+
+    /** Count a message of LENGTH characters sent to the compiled path if
+     *  COMPILED, and otherwise to the general path. */
+    void count(boolean compiled, int length) {
+        (compiled ? _compiledMessages : _generalMessages).increment();
+        (compiled ? _compiledChars : _generalChars).add(length);
+    }
+
+    /** Return my threshold, first calibrating with M's rotors, which
+     *  must be compilable, if there is none yet. */
+    private long calibrated(Machine m) {
+        long threshold = _threshold;
+        if (threshold == 0) {
+            synchronized (this) {
+                if (_threshold == 0) {
+                    calibrate(m);
+                }
+                threshold = _threshold;
+            }
+        }
+        return threshold;
+    }
+
+    /** Take on the threshold and measurements of PREVIOUS, the selector
+     *  of a configuration that this one replaces, if PREVIOUS has
+     *  calibrated and its configuration has the same alphabet size and
+     *  number of slots as mine (so that the measurements still
+     *  hold). */
+    void inherit(EngineSelector previous) {
+        synchronized (this) {
+            synchronized (previous) {
+                if (previous._threshold == 0
+                    || previous._config.alphabet().size()
+                        != _config.alphabet().size()
+                    || previous._config.numRotors() != _config.numRotors()) {
+                    return;
+                }
+                _generalNanos = previous._generalNanos;
+                _compiledNanos = previous._compiledNanos;
+                _loadNanos = previous._loadNanos;
+                _tablesNanos = previous._tablesNanos;
+                _slots = previous._slots;
+                _threshold = previous._threshold;
+            }
+        }
+    }
+
+    /** Calibrate now with M's rotors, if I would calibrate on the next
+     *  message M converts, so that no message waits for it.  The
+     *  calibration run is not counted as a message. */
+    void prepare(Machine m) {
+        if (_unsupported == null && _threshold == 0 && m.compilable()) {
+            calibrated(m);
+        }
+    }
+
+    /** Return the calibrated threshold, or 0 if there is none yet. */
+    long threshold() {
+        return _threshold;
+    }
+
+    /** Measure both paths with scratch machines having M's rotors and
+     *  plugboard, and set the threshold.  Called with my lock held. */
+    private void calibrate(Machine m) {
+        Events.EngineCalibration event = new Events.EngineCalibration();
+        event.begin();
+        Alphabet alpha = _config.alphabet();
+        Random random = new Random(SEED);
+        char[] text = new char[CALIBRATION_CHARS];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = alpha.toChar(random.nextInt(alpha.size()));
+        }
+        String msg = new String(text);
+        Machine general = m.scratchCopy(), compiled = m.scratchCopy();
+        general.forceEngine(GENERAL);
+        compiled.forceEngine(COMPILED);
+        long start = System.nanoTime();
+        compiled.convert("");
+        _tablesNanos = System.nanoTime() - start;
+        double g = Double.MAX_VALUE, c = Double.MAX_VALUE;
+        double s = Double.MAX_VALUE;
+        for (int r = 0; r < CALIBRATION_ROUNDS; r += 1) {
+            start = System.nanoTime();
+            general.convert(msg);
+            g = Math.min(g, perChar(System.nanoTime() - start, msg));
+            start = System.nanoTime();
+            compiled.convert(msg);
+            c = Math.min(c, perChar(System.nanoTime() - start, msg));
+            start = System.nanoTime();
+            for (int i = 0; i < SYNC_REPEATS; i += 1) {
+                compiled.forgetCompiledState();
+                compiled.convert("");
+            }
+            s = Math.min(s, (double) (System.nanoTime() - start)
+                         / SYNC_REPEATS);
+        }
+        _generalNanos = g;
+        _compiledNanos = c;
+        _loadNanos = s;
+        _slots = m.numRotors();
+        _threshold = g <= c ? Long.MAX_VALUE
+            : Math.max(1, (long) Math.ceil(s / (g - c)));
+        if (event.shouldCommit()) {
+            event.generalNanosPerChar = g;
+            event.compiledNanosPerChar = c;
+            event.loadNanos = s;
+            event.tablesNanos = _tablesNanos;
+            event.threshold = _threshold;
+            event.alphabetSize = alpha.size();
+            event.slots = _slots;
+            event.commit();
+        }
+    }
+
+    /** Return NANOS spread over the characters of MSG. */
+    private static double perChar(long nanos, String msg) {
+        return (double) nanos / msg.length();
+    }
+
+    /** Return a one-line account of the decisions for machines in
+     *  AUTO mode with no threshold of their own, the measurements and
+     *  threshold behind them, and the counts of all messages. */
+    String report() {
+        return report(AUTO, 0);
+    }
+
+    /** Return report() as it applies to machines in mode MODE with
+     *  threshold THRESHOLD (0 if they use mine). */
+    synchronized String report(int mode, long threshold) {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("engine %s", MODE_NAMES[mode]));
+        long shown = threshold > 0 ? threshold : _threshold;
+        if (_unsupported != null) {
+            result.append(String.format(" (general only: %s)",
+                                        _unsupported));
+        } else if (mode == AUTO && shown > 0) {
+            if (_generalNanos > 0) {
+                result.append(String.format(
+                    ": general %.1f ns/char, compiled %.1f ns/char, "
+                    + "load %.0f ns, tables %.2f ms (alphabet %d, "
+                    + "%d slots)", _generalNanos, _compiledNanos,
+                    _loadNanos, _tablesNanos / 1e6,
+                    _config.alphabet().size(), _slots));
+            }
+            result.append(shown == Long.MAX_VALUE ? "; never compiled"
+                          : String.format("; compiled from %d chars",
+                                          shown));
+            result.append(threshold > 0 ? " (pinned)" : "");
+        }
+        result.append(String.format(
+            "; %d messages (%d chars) general, %d (%d chars) compiled",
+            _generalMessages.sum(), _generalChars.sum(),
+            _compiledMessages.sum(), _compiledChars.sum()));
+        return result.toString();
+    }
+
+    /** Characters in the calibration message. */
+    private static final int CALIBRATION_CHARS = 4096;
+    /** Number of calibration rounds (the best of which counts). */
+    private static final int CALIBRATION_ROUNDS = 5;
+    /** Loads timed per calibration round. */
+    private static final int SYNC_REPEATS = 64;
+    /** Seed for the calibration message. */
+    private static final long SEED = 41;
+
+    /** The configuration whose machines I serve. */
+    private final Config _config;
+    /** Why only the general path is possible, or null. */
+    private final String _unsupported;
+    /** Shortest message sent to the compiled path by machines with no
+     *  threshold of their own, or 0 if not yet calibrated.  Written
+     *  last, under my lock, so that a nonzero value read without it
+     *  shows a finished calibration. */
+    private volatile long _threshold;
+    /** Calibration results: nanoseconds per character on each path,
+     *  and per load of a compiled machine. */
+    private double _generalNanos, _compiledNanos, _loadNanos;
+    /** Nanoseconds taken to build the rotor tables. */
+    private long _tablesNanos;
+    /** Slots of the calibrated machine. */
+    private int _slots;
+    /** Messages and characters sent each way. */
+    private final LongAdder _generalMessages = new LongAdder(),
+        _compiledMessages = new LongAdder(),
+        _generalChars = new LongAdder(),
+        _compiledChars = new LongAdder();
+}
@@ -0,0 +1,149 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Scanner;
+
+import static enigma.DaemonTest.CONFIG;
+
+/** The suite of all JUnit tests for the EngineSelector class and
+ *  Machine's compiled path.
+ *  @author Jay Chiang
+ */
+public class EngineSelectorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Messages with ring settings, a change of rotors and plugboard,
+     *  double steps, characters outside the alphabet, and messages of
+     *  many lengths. */
+    private static final String INPUT =
+        "* B Beta III IV I AXLE CDEF (HQ) (EX) (IP) (TR) (BY)\n"
+        + "FROM HIS SHOULDER HIAWATHA\n"
+        + "A\n"
+        + "\n"
+        + "TOOK THE CAMERA OF ROSEWOOD 42\n"
+        + "* B Beta I II III ADVQ (AZ)\n"
+        + "ABCDEFGHIJKLMNOPQRSTUVWXYZABCDEFGHIJKLMNOPQRSTUVWXYZ\n"
+        + "QQ\n";
+
+    /** Return the output of Main, with OPTIONS, on CONFIG and INPUT.  If
+     *  REPORT is non-null, set REPORT[0] to the engine report. */
+    private String run(String[] report, String... options) {
+        return run(Config.read(new Scanner(CONFIG)), report, options);
+    }
+
+    /** Return the output of Main, with OPTIONS, on CONFIG and INPUT.  If
+     *  REPORT is non-null, set REPORT[0] to the engine report. */
+    private String run(Config config, String[] report, String... options) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Main(options, config, new ByteArrayInputStream(INPUT.getBytes()),
+                 new PrintStream(out)).process();
+        if (report != null) {
+            report[0] = config.selector().report();
+        }
+        return out.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testEnginesAgree() {
+        String general = run(null, "--engine=general");
+        assertEquals(general, run(null, "--engine=compiled"));
+        assertEquals(general, run(null, "--engine=auto"));
+        assertEquals(general, run(null, "--engine-threshold=10"));
+    }
+
+    @Test
+    public void testStateCarriesOver() {
+        Config config = Config.read(new Scanner(CONFIG));
+        Machine general = config.newMachine(), mixed = config.newMachine();
+        for (Machine m : new Machine[] { general, mixed }) {
+            m.insertRotors(new String[] { "B", "Beta", "III", "IV", "I" });
+            m.setRotors("AXLE");
+            m.setPlugboard(new Permutation("(HQ) (EX)", config.alphabet()));
+        }
+        general.forceEngine(EngineSelector.GENERAL);
+        String msg = "THE QUICK BROWN FOX JUMPS OVER THE LAZY DOG";
+        for (int i = 0; i < 20; i += 1) {
+            mixed.forceEngine(i % 3 == 0 ? EngineSelector.GENERAL
+                              : EngineSelector.COMPILED);
+            assertEquals(general.convert(msg), mixed.convert(msg));
+            assertEquals(general.getSetupString(), mixed.getSetupString());
+            assertEquals(general.doubleSteps(), mixed.doubleSteps());
+            assertEquals(general.convert(3), mixed.convert(3));
+        }
+    }
+
+    @Test
+    public void testPinnedThreshold() {
+        Config config = Config.read(new Scanner(CONFIG));
+        run(config, null, "--engine-threshold=10");
+        String[] report = { config.selector().report(EngineSelector.AUTO,
+                                                     10) };
+        assertTrue(report[0], report[0].contains("compiled from 10 chars "
+                                                 + "(pinned)"));
+        assertTrue(report[0], report[0].endsWith(
+            "2 messages (3 chars) general, 3 (108 chars) compiled"));
+    }
+
+    @Test
+    public void testOptionsArePerMachine() {
+        Config config = Config.read(new Scanner(CONFIG));
+        run(config, null, "--engine=general");
+        run(config, null, "--engine-threshold=10");
+        String report = config.selector().report();
+        assertTrue(report, report.startsWith("engine auto"));
+        assertFalse(report, report.contains("pinned"));
+        assertTrue(report, report.endsWith(
+            "7 messages (114 chars) general, 3 (108 chars) compiled"));
+        assertEquals(0, config.selector().threshold());
+        Machine m = config.newMachine();
+        m.insertRotors(new String[] { "B", "Beta", "III", "IV", "I" });
+        m.setRotors("AXLE");
+        m.setPlugboard(new Permutation("", config.alphabet()));
+        m.convert("HELLO");
+        assertTrue(config.selector().threshold() > 0);
+    }
+
+    @Test
+    public void testCalibration() {
+        Config config = Config.read(new Scanner(CONFIG));
+        Machine m = config.newMachine();
+        m.insertRotors(new String[] { "B", "Beta", "III", "IV", "I" });
+        m.setRotors("AXLE");
+        m.setPlugboard(new Permutation("", config.alphabet()));
+        assertEquals(0, config.selector().threshold());
+        m.convert("HELLO");
+        assertTrue(config.selector().threshold() > 0);
+        assertTrue(config.selector().report().contains("ns/char"));
+    }
+
+    @Test
+    public void testGeneralOnly() {
+        Config lazy = Config.index(CONFIG);
+        Machine m = lazy.newMachine();
+        m.insertRotors(new String[] { "B", "Beta", "III", "IV", "I" });
+        m.setRotors("AXLE");
+        m.setPlugboard(new Permutation("", lazy.alphabet()));
+        m.convert("HELLO");
+        assertEquals(0, lazy.selector().threshold());
+        assertTrue(lazy.selector().report().contains("general only"));
+
+        Machine short4 = Config.read(new Scanner(CONFIG)).newMachine();
+        short4.insertRotors(new String[] { "B", "Beta", "III", "IV" });
+        assertFalse(short4.compilable());
+    }
+
+}
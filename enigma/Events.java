@@ -0,0 +1,142 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Java Flight Recorder events emitted by the simulator.  Each is
+ *  committed at most once per configuration, setting line, or message
+ *  line, never per character, so that they cost nearly nothing whether
+ *  recording is on or off.  enigma.jfc in this directory is a recording
+ *  profile that enables them.
+ *  @author Jay Chiang
+ */
+final class Events {
+
+    /** Not instantiable. */
+    private Events() {
+    }
+
+    /** Reading a configuration and building a machine from it. */
+    @Name("enigma.ConfigRead")
+    @Label("Configuration Read")
+    @Category("Enigma")
+    @Description("Parsing of a machine configuration")
+    @StackTrace(false)
+    static final class ConfigRead extends Event {
+        /** Number of rotors the configuration describes. */
+        @Label("Rotors Parsed")
+        int rotors;
+        /** Size of the alphabet. */
+        @Label("Alphabet Size")
+        int alphabetSize;
+        /** True iff an already-parsed configuration was reused. */
+        @Label("Reused")
+        boolean reused;
+    }
+
+    /** Reloading a changed configuration file (see ConfigHolder). */
+    @Name("enigma.ConfigReload")
+    @Label("Configuration Reload")
+    @Category("Enigma")
+    @Description("Parsing, checking and publishing of a changed "
+                 + "configuration")
+    @StackTrace(false)
+    static final class ConfigReload extends Event {
+        /** Generation published, or the current one if rejected. */
+        @Label("Generation")
+        long generation;
+        /** True iff the new configuration was published. */
+        @Label("Published")
+        boolean published;
+        /** Why the new configuration was rejected, or null. */
+        @Label("Error")
+        String error;
+    }
+
+    /** Processing a setting line. */
+    @Name("enigma.SetUp")
+    @Label("Machine Set Up")
+    @Category("Enigma")
+    @Description("Processing of a setting line")
+    @StackTrace(false)
+    static final class SetUp extends Event {
+        /** The setting line. */
+        @Label("Settings")
+        String settings;
+        /** True iff the plugboard was reused from the previous setting
+         *  line rather than parsed. */
+        @Label("Plugboard Cache Hit")
+        boolean plugboardCacheHit;
+    }
+
+    /** Converting one message line. */
+    @Name("enigma.Conversion")
+    @Label("Message Conversion")
+    @Category("Enigma")
+    @Description("Conversion of one line of a message")
+    @StackTrace(false)
+    static final class Conversion extends Event {
+        /** Characters in the line. */
+        @Label("Characters In")
+        int charsIn;
+        /** Characters converted. */
+        @Label("Characters Out")
+        int charsOut;
+        /** Characters skipped as not in the alphabet. */
+        @Label("Characters Skipped")
+        int charsSkipped;
+    }
+
+    /** Calibrating the choice between a Machine's general and compiled
+     *  paths (see EngineSelector). */
+    @Name("enigma.EngineCalibration")
+    @Label("Engine Calibration")
+    @Category("Enigma")
+    @Description("Measurement of each conversion path and the resulting "
+                 + "message length threshold")
+    @StackTrace(false)
+    static final class EngineCalibration extends Event {
+        /** Nanoseconds per character on the general path. */
+        @Label("General ns/char")
+        double generalNanosPerChar;
+        /** Nanoseconds per character on the compiled path. */
+        @Label("Compiled ns/char")
+        double compiledNanosPerChar;
+        /** Nanoseconds to load a compiled machine. */
+        @Label("Load ns")
+        double loadNanos;
+        /** Nanoseconds to build the rotor tables. */
+        @Label("Tables ns")
+        long tablesNanos;
+        /** Shortest message sent to the compiled path. */
+        @Label("Threshold")
+        long threshold;
+        /** Size of the alphabet. */
+        @Label("Alphabet Size")
+        int alphabetSize;
+        /** Number of rotor slots. */
+        @Label("Slots")
+        int slots;
+    }
+
+    /** Unusual rotor stepping during one message line. */
+    @Name("enigma.Stepping")
+    @Label("Stepping Anomaly")
+    @Category("Enigma")
+    @Description("Double steps of non-rightmost rotors during a message "
+                 + "line")
+    @StackTrace(false)
+    static final class Stepping extends Event {
+        /** Number of double steps. */
+        @Label("Double Steps")
+        int doubleSteps;
+        /** Rotor positions after the line. */
+        @Label("Setup After")
+        String setupAfter;
+    }
+
+}
@@ -0,0 +1,121 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.List;
+import java.util.Scanner;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static enigma.DaemonTest.CONFIG;
+
+/** The suite of all JUnit tests for the flight recorder events.
+ *  @author Jay Chiang
+ */
+public class EventsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Messages with a repeated plugboard and a double step. */
+    private static final String INPUT =
+        "* B Beta III IV I AXLE (HQ) (EX)\n"
+        + "FROM HIS SHOULDER 42 HIAWATHA\n"
+        + "* B Beta III IV I AXJE (HQ) (EX)\n"
+        + "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n";
+
+    /** Return the events recorded while running BODY with the enigma.jfc
+     *  profile (found in the current directory or in enigma/). */
+    private List<RecordedEvent> record(Runnable body)
+        throws IOException, ParseException {
+        Path jfc = Path.of("enigma.jfc");
+        if (!jfc.toFile().exists()) {
+            jfc = Path.of("enigma", "enigma.jfc");
+        }
+        Configuration profile = Configuration.create(jfc);
+        File file = File.createTempFile("enigma", ".jfr");
+        file.deleteOnExit();
+        try (Recording recording = new Recording(profile)) {
+            recording.start();
+            body.run();
+            recording.stop();
+            recording.dump(file.toPath());
+        }
+        return RecordingFile.readAllEvents(file.toPath());
+    }
+
+    /** Return the events in EVENTS named NAME. */
+    private List<RecordedEvent> named(List<RecordedEvent> events,
+                                      String name) {
+        return events.stream()
+            .filter(e -> e.getEventType().getName().equals(name))
+            .collect(Collectors.toList());
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testMainEvents() throws Exception {
+        List<RecordedEvent> events = record(() -> {
+            Main main = new Main(Config.read(new Scanner(CONFIG)));
+            String[] lines = INPUT.split("\n");
+            Machine m = main.readConfig();
+            StringBuilder out = new StringBuilder();
+            for (String line : lines) {
+                main.processLine(m, line, out);
+            }
+        });
+        List<RecordedEvent> config = named(events, "enigma.ConfigRead");
+        assertEquals(1, config.size());
+        assertEquals(6, config.get(0).getInt("rotors"));
+        assertTrue(config.get(0).getBoolean("reused"));
+        List<RecordedEvent> setUps = named(events, "enigma.SetUp");
+        assertEquals(2, setUps.size());
+        assertFalse(setUps.get(0).getBoolean("plugboardCacheHit"));
+        assertTrue(setUps.get(1).getBoolean("plugboardCacheHit"));
+        List<RecordedEvent> conversions =
+            named(events, "enigma.Conversion");
+        assertEquals(2, conversions.size());
+        assertEquals(29, conversions.get(0).getInt("charsIn"));
+        assertEquals(23, conversions.get(0).getInt("charsOut"));
+        assertEquals(6, conversions.get(0).getInt("charsSkipped"));
+        List<RecordedEvent> stepping = named(events, "enigma.Stepping");
+        assertEquals(1, stepping.size());
+        assertEquals(1, stepping.get(0).getInt("doubleSteps"));
+    }
+
+    @Test
+    public void testEncoderBatchesPerLine() throws Exception {
+        List<RecordedEvent> events = record(() -> {
+            Encoder encoder =
+                new Encoder(Config.read(new Scanner(CONFIG)));
+            StringBuilder out = new StringBuilder();
+            for (int i = 0; i < INPUT.length(); i += 3) {
+                encoder.update(CharBuffer.wrap(
+                    INPUT, i, Math.min(i + 3, INPUT.length())), out);
+            }
+            encoder.finish(out);
+        });
+        List<RecordedEvent> conversions =
+            named(events, "enigma.Conversion");
+        assertEquals(2, conversions.size());
+        assertEquals(26, conversions.get(1).getInt("charsOut"));
+        assertEquals(1, named(events, "enigma.Stepping").size());
+    }
+
+}
@@ -0,0 +1,33 @@
+package enigma;
+
+/** Scores texts by their index of coincidence: the probability that
+ *  two characters drawn without replacement from the text are equal.
+ *  Natural-language plaintext scores well above the 1/n expected of
+ *  random text over an n-character alphabet.  Each instance keeps a
+ *  table of counts, so give each thread its own.
+ *  @author Jay Chiang
+ */
+final class IndexOfCoincidence implements Scorer {
+
+    /** A scorer for texts over an alphabet of SIZE characters. */
+    IndexOfCoincidence(int size) {
+        _counts = new int[size];
+    }
+
+    @Override
+    public double score(int[] text, int len) {
+        int[] counts = _counts;
+        for (int i = 0; i < len; i += 1) {
+            counts[text[i]] += 1;
+        }
+        long sum = 0;
+        for (int c = 0; c < counts.length; c += 1) {
+            sum += (long) counts[c] * (counts[c] - 1);
+            counts[c] = 0;
+        }
+        return len < 2 ? 0.0 : (double) sum / ((long) len * (len - 1));
+    }
+
+    /** Character counts, all zero between calls. */
+    private final int[] _counts;
+}
@@ -0,0 +1,475 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only attack that tries every rotor order and every
+ *  combination of starting positions (and, optionally, ring settings
+ *  of the rightmost rotors) for a configuration, assuming no plugboard,
+ *  and reports the keys whose decryptions score best.  The work is
+ *  divided by rotor order and leftmost starting position among the
+ *  threads of a ForkJoinPool; each task runs its own CompiledMachine,
+ *  so trying a key costs one pass over the ciphertext through
+ *  primitive tables.  Usage:
+ *      java enigma.KeySearch [--top=K] [--rings=R] [--ngrams=FILE]
+ *                            [--threads=T] CONF CIPHERTEXT
+ *  where CIPHERTEXT is a file whose alphabet characters are the
+ *  ciphertext.  FILE is an n-gram table of counts, as NGramScorer
+ *  reads, or a file written by MappedNGramScorer.  Without --ngrams,
+ *  candidates are scored by index of coincidence.
+ *  @author Jay Chiang
+ */
+public final class KeySearch {
+
+    /** Run the search described by ARGS. */
+    public static void main(String... args) {
+        try {
+            int top = DEFAULT_TOP, rings = 0, threads = 0;
+            String ngrams = null;
+            int first = 0;
+            for (; first < args.length && args[first].startsWith("--");
+                 first += 1) {
+                String arg = args[first];
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--top=")) {
+                    top = Integer.parseInt(value);
+                } else if (arg.startsWith("--rings=")) {
+                    rings = Integer.parseInt(value);
+                } else if (arg.startsWith("--threads=")) {
+                    threads = Integer.parseInt(value);
+                } else if (arg.startsWith("--ngrams=")) {
+                    ngrams = value;
+                } else {
+                    throw error("unknown option %s", arg);
+                }
+            }
+            if (args.length != first + 2) {
+                throw error("Usage: java enigma.KeySearch [--top=K] "
+                            + "[--rings=R] [--ngrams=FILE] [--threads=T] "
+                            + "CONF CIPHERTEXT");
+            }
+            Config config = readConfig(args[first]);
+            int[] cipher = readText(config.alphabet(), args[first + 1]);
+            KeySearch search = new KeySearch(new RotorTables(config),
+                                             config.numRotors(),
+                                             config.numPawls(), cipher);
+            search.setTop(top);
+            search.setRingSlots(rings);
+            if (ngrams != null) {
+                Scorer scorer = MappedNGramScorer.load(config.alphabet(),
+                                                       ngrams);
+                search.setScorer(() -> scorer);
+            }
+            ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads)
+                : ForkJoinPool.commonPool();
+            for (Candidate candidate : search.search(pool)) {
+                System.out.println(candidate);
+            }
+            System.err.println(search.report());
+        } catch (NumberFormatException excp) {
+            System.err.println("Error: bad option value");
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return the configuration in the file named NAME. */
+    static Config readConfig(String name) {
+        try (Scanner config = new Scanner(new File(name))) {
+            return Config.read(config);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return the characters of ALPHABET in the file named NAME, as
+     *  indices. */
+    static int[] readText(Alphabet alphabet, String name) {
+        try {
+            return indices(alphabet, Files.readString(Paths.get(name)));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return the characters of TEXT that are in ALPHABET, as
+     *  indices. */
+    static int[] indices(Alphabet alphabet, String text) {
+        int[] result = new int[text.length()];
+        int len = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            char ch = text.charAt(i);
+            if (alphabet.contains(ch)) {
+                result[len] = alphabet.toInt(ch);
+                len += 1;
+            }
+        }
+        return Arrays.copyOf(result, len);
+    }
+
+    /** A search for keys of a machine with NUMROTORS slots and NUMPAWLS
+     *  pawls built from TABLES that decrypt CIPHERTEXT (as alphabet
+     *  indices). */
+    KeySearch(RotorTables tables, int numRotors, int numPawls,
+              int[] ciphertext) {
+        _tables = tables;
+        _numRotors = numRotors;
+        _cipher = ciphertext.clone();
+        _orders = orders(tables, numRotors, numPawls);
+        int n = tables.size();
+        _scorer = () -> new IndexOfCoincidence(n);
+    }
+
+    /** Return every assignment of distinct rotors from TABLES to the
+     *  NUMROTORS slots of a machine with NUMPAWLS pawls that Main would
+     *  accept: a reflector in slot 0, then fixed rotors, then NUMPAWLS
+     *  moving rotors. */
+    static List<int[]> orders(RotorTables tables, int numRotors,
+                              int numPawls) {
+        ArrayList<int[]> result = new ArrayList<>();
+        addOrders(tables, numRotors - numPawls, new int[numRotors], 0,
+                  result);
+        return result;
+    }
+
+    /** Add to RESULT every completion of ORDER from SLOT on, where
+     *  slots from FIRSTMOVING on hold moving rotors. */
+    private static void addOrders(RotorTables tables, int firstMoving,
+                                  int[] order, int slot,
+                                  List<int[]> result) {
+        if (slot == order.length) {
+            result.add(order.clone());
+            return;
+        }
+        for (int k = 0; k < tables.count(); k += 1) {
+            boolean fits;
+            if (slot == 0) {
+                fits = tables.reflecting(k);
+            } else if (slot < firstMoving) {
+                fits = !tables.reflecting(k) && !tables.rotates(k);
+            } else {
+                fits = tables.rotates(k);
+            }
+            for (int i = 0; fits && i < slot; i += 1) {
+                fits = order[i] != k;
+            }
+            if (fits) {
+                order[slot] = k;
+                addOrders(tables, firstMoving, order, slot + 1, result);
+            }
+        }
+    }
+
+    /** Restrict the search to the rotor orders in ORDERS. */
+    void setOrders(List<int[]> orders) {
+        _orders = new ArrayList<>(orders);
+    }
+
+    /** Keep the best K candidates. */
+    void setTop(int k) {
+        if (k < 1) {
+            throw error("must keep at least one candidate");
+        }
+        _top = k;
+    }
+
+    /** Also search the ring settings of the rightmost R rotors. */
+    void setRingSlots(int r) {
+        if (r < 0 || r > _numRotors - 1) {
+            throw error("bad number of ring slots");
+        }
+        _ringSlots = r;
+    }
+
+    /** Use scorers from SCORER, which is called once per task and may
+     *  return a shared instance if it is thread-safe. */
+    void setScorer(Supplier<Scorer> scorer) {
+        _scorer = scorer;
+    }
+
+    /** Return the number of keys the full search covers. */
+    long keySpace() {
+        long n = _tables.size();
+        long perOrder = 1;
+        for (int i = 1; i < _numRotors + _ringSlots; i += 1) {
+            perOrder *= n;
+        }
+        return perOrder * _orders.size();
+    }
+
+    /** Return the number of work units in the full search.  Each is a
+     *  rotor order and a starting position of the leftmost rotor. */
+    int units() {
+        return _orders.size() * _tables.size();
+    }
+
+    /** Run the search on POOL, returning the best candidates, best
+     *  first. */
+    List<Candidate> search(ForkJoinPool pool) {
+        return search(pool, 0, units());
+    }
+
+    /** Run the part of the search covering work units FROM (inclusive)
+     *  to TO (exclusive) on POOL, returning the best candidates, best
+     *  first. */
+    List<Candidate> search(ForkJoinPool pool, int from, int to) {
+        if (from < 0 || to > units() || from > to) {
+            throw error("bad range of work units");
+        }
+        _tried.reset();
+        long start = System.nanoTime();
+        TopK best = pool.invoke(new Task(from, to));
+        _elapsed = System.nanoTime() - start;
+        return best.sorted();
+    }
+
+    /** Return the number of keys tried by the last search. */
+    long candidates() {
+        return _tried.sum();
+    }
+
+    /** Return the rate at which the last search tried keys. */
+    double candidatesPerSecond() {
+        return _tried.sum() * 1e9 / Math.max(1, _elapsed);
+    }
+
+    /** Return a summary of the last search's speed. */
+    String report() {
+        return String.format("%d candidates in %.2f s: %.0f candidates/s, "
+                             + "%.0f chars/s", candidates(), _elapsed / 1e9,
+                             candidatesPerSecond(),
+                             candidatesPerSecond() * _cipher.length);
+    }
+
+    /** A range of work units, each a rotor order and a starting
+     *  position of the leftmost rotor. */
+    private final class Task extends RecursiveTask<TopK> {
+
+        /** The units numbered FROM (inclusive) to TO (exclusive). */
+        Task(int from, int to) {
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected TopK compute() {
+            if (_to - _from <= 1) {
+                TopK result = new TopK(_top);
+                if (_to > _from) {
+                    searchUnit(_from, result);
+                }
+                return result;
+            }
+            int mid = (_from + _to) >>> 1;
+            Task left = new Task(_from, mid);
+            left.fork();
+            TopK right = new Task(mid, _to).compute();
+            return left.join().merge(right);
+        }
+
+        /** First and last-plus-one units. */
+        private final int _from, _to;
+    }
+
+    /** Try every key in work unit UNIT, offering results to BEST. */
+    private void searchUnit(int unit, TopK best) {
+        int n = _tables.size();
+        int[] order = _orders.get(unit / n);
+        int slots = _numRotors;
+        CompiledMachine machine = new CompiledMachine(_tables, slots);
+        machine.setRotors(order);
+        Scorer scorer = _scorer.get();
+        int[] text = new int[_cipher.length];
+        int[] posns = new int[slots];
+        int[] rings = new int[slots];
+        posns[1] = unit % n;
+        int firstRing = slots - _ringSlots;
+        long tried = 0;
+        do {
+            do {
+                for (int i = 1; i < slots; i += 1) {
+                    machine.setRing(i, rings[i]);
+                    machine.setPosition(i, posns[i]);
+                }
+                machine.convert(_cipher, text, text.length);
+                double score = scorer.score(text, text.length);
+                tried += 1;
+                if (best.accepts(score)) {
+                    best.add(new Candidate(score, _tables, order, posns,
+                                           rings, _ringSlots > 0));
+                }
+            } while (increment(rings, firstRing, n));
+        } while (increment(posns, 2, n));
+        _tried.add(tried);
+    }
+
+    /** Treat DIGITS[FROM..] as a base-N number, least significant digit
+     *  last, and add one to it.  Return false (leaving all zeros) if
+     *  it overflows. */
+    private static boolean increment(int[] digits, int from, int n) {
+        for (int i = digits.length - 1; i >= from; i -= 1) {
+            digits[i] += 1;
+            if (digits[i] < n) {
+                return true;
+            }
+            digits[i] = 0;
+        }
+        return false;
+    }
+
+    /** A key found by the search and its score. */
+    static final class Candidate implements Comparable<Candidate> {
+
+        /** A candidate with SCORE for the rotors ORDER (numbers in
+         *  TABLES), at positions POSNS with ring settings RINGS
+         *  (indexed by slot; entry 0 is ignored).  The setting line
+         *  includes the ring settings iff WITHRINGS. */
+        Candidate(double score, RotorTables tables, int[] order,
+                  int[] posns, int[] rings, boolean withRings) {
+            _score = score;
+            Alphabet alpha = tables.config().alphabet();
+            StringBuilder line = new StringBuilder("*");
+            for (int k : order) {
+                line.append(' ').append(tables.name(k));
+            }
+            line.append(' ');
+            for (int i = 1; i < posns.length; i += 1) {
+                line.append(alpha.toChar(posns[i]));
+            }
+            if (withRings) {
+                line.append(' ');
+                for (int i = 1; i < rings.length; i += 1) {
+                    line.append(alpha.toChar(rings[i]));
+                }
+            }
+            _settings = line.toString();
+        }
+
+        /** A candidate with SCORE whose key is the setting line
+         *  SETTINGS. */
+        Candidate(double score, String settings) {
+            _score = score;
+            _settings = settings;
+        }
+
+        /** Return my score. */
+        double score() {
+            return _score;
+        }
+
+        /** Return a setting line for my key, as accepted by Main. */
+        String settings() {
+            return _settings;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            int cmp = Double.compare(other._score, _score);
+            return cmp != 0 ? cmp : _settings.compareTo(other._settings);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.6f  %s", _score, _settings);
+        }
+
+        /** Score of my decryption. */
+        private final double _score;
+        /** My key as a setting line. */
+        private final String _settings;
+    }
+
+    /** A collection of the best K candidates offered to it. */
+    static final class TopK {
+
+        /** A collection keeping K candidates. */
+        TopK(int k) {
+            _items = new Candidate[k];
+        }
+
+        /** Return true iff a candidate with SCORE would be kept. */
+        boolean accepts(double score) {
+            return _count < _items.length || score > _items[_worst].score();
+        }
+
+        /** Add CANDIDATE, displacing the worst if I am full. */
+        void add(Candidate candidate) {
+            if (_count < _items.length) {
+                _items[_count] = candidate;
+                _count += 1;
+            } else if (candidate.compareTo(_items[_worst]) < 0) {
+                _items[_worst] = candidate;
+            } else {
+                return;
+            }
+            _worst = 0;
+            for (int i = 1; i < _count; i += 1) {
+                if (_items[i].compareTo(_items[_worst]) > 0) {
+                    _worst = i;
+                }
+            }
+        }
+
+        /** Add all of OTHER's candidates to me, and return me. */
+        TopK merge(TopK other) {
+            for (int i = 0; i < other._count; i += 1) {
+                add(other._items[i]);
+            }
+            return this;
+        }
+
+        /** Return my candidates, best first. */
+        List<Candidate> sorted() {
+            ArrayList<Candidate> result = new ArrayList<>();
+            for (int i = 0; i < _count; i += 1) {
+                result.add(_items[i]);
+            }
+            Collections.sort(result);
+            return result;
+        }
+
+        /** Kept candidates. */
+        private final Candidate[] _items;
+        /** Number of kept candidates. */
+        private int _count;
+        /** Index of the worst kept candidate. */
+        private int _worst;
+    }
+
+    /** Default number of candidates reported. */
+    static final int DEFAULT_TOP = 10;
+
+    /** Compiled rotors. */
+    private final RotorTables _tables;
+    /** Number of slots. */
+    private final int _numRotors;
+    /** The ciphertext, as indices. */
+    private final int[] _cipher;
+    /** Rotor orders to try. */
+    private List<int[]> _orders;
+    /** Number of candidates kept. */
+    private int _top = DEFAULT_TOP;
+    /** Number of rightmost rotors whose rings are searched. */
+    private int _ringSlots;
+    /** Source of scorers. */
+    private Supplier<Scorer> _scorer;
+    /** Keys tried in the current search. */
+    private final LongAdder _tried = new LongAdder();
+    /** Duration of the last search. */
+    private long _elapsed;
+}
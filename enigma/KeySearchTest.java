@@ -0,0 +1,154 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.DaemonTest.CONFIG;
+
+/** The suite of all JUnit tests for the KeySearch, CompiledMachine and
+ *  scoring classes.
+ *  @author Jay Chiang
+ */
+public class KeySearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** English plaintext for attacks. */
+    static final String PLAIN =
+        "ITWASTHEBESTOFTIMESITWASTHEWORSTOFTIMESITWASTHEAGEOFWISDOMIT"
+        + "WASTHEAGEOFFOOLISHNESSITWASTHEEPOCHOFBELIEFITWASTHEEPOCHOF"
+        + "INCREDULITYITWASTHESEASONOFLIGHTITWASTHESEASONOFDARKNESSIT"
+        + "WASTHESPRINGOFHOPEITWASTHEWINTEROFDESPAIRWEHADEVERYTHING"
+        + "BEFOREUSWEHADNOTHINGBEFOREUSWEWEREALLGOINGDIRECTTOHEAVENWE"
+        + "WEREALLGOINGDIRECTTHEOTHERWAY";
+
+    /** A three-slot configuration with a small key space. */
+    static final String SMALL =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ 3 2\n"
+        + "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + "II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "  (RX) (SZ) (TV)\n";
+
+    /** Return the result of Main processing setting line SETTINGS and
+     *  then MESSAGE under CONFIGTEXT, with spaces removed. */
+    static String encrypt(String configText, String settings,
+                          String message) {
+        Main main = new Main(Config.read(new Scanner(configText)));
+        return main.processMessage(settings, message).replaceAll("\\s", "");
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testCompiledMatchesMachine() {
+        Config config = Config.read(new Scanner(CONFIG));
+        RotorTables tables = new RotorTables(config);
+        Alphabet alpha = config.alphabet();
+        Random random = new Random(42);
+        String[] lines = {
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+            "* B Beta I II III AAAA",
+            "* B Beta II III IV ZZZZ QEVJ (AB) (CD)",
+            "* B Beta III I II ADUQ BCDE",
+        };
+        for (String line : lines) {
+            StringBuilder msg = new StringBuilder();
+            for (int i = 0; i < 2000; i += 1) {
+                msg.append((char) ('A' + random.nextInt(26)));
+            }
+            String expected = encrypt(CONFIG, line, msg.toString());
+            CompiledMachine machine =
+                new CompiledMachine(tables, config.numRotors());
+            machine.setUp(line);
+            int[] text = KeySearch.indices(alpha, msg.toString());
+            machine.convert(text, text, text.length);
+            StringBuilder got = new StringBuilder();
+            for (int c : text) {
+                got.append(alpha.toChar(c));
+            }
+            assertEquals(line, expected, got.toString());
+        }
+    }
+
+    @Test
+    public void testOrders() {
+        Config config = Config.read(new Scanner(CONFIG));
+        List<int[]> orders = KeySearch.orders(new RotorTables(config), 5, 3);
+        assertEquals("1 reflector x 1 fixed x 4P3 moving", 24,
+                     orders.size());
+    }
+
+    @Test
+    public void testIndexOfCoincidence() {
+        IndexOfCoincidence ioc = new IndexOfCoincidence(26);
+        int[] text = KeySearch.indices(new Alphabet(), "AABB");
+        assertEquals(4.0 / 12.0, ioc.score(text, text.length), 1e-12);
+        assertEquals(4.0 / 12.0, ioc.score(text, text.length), 1e-12);
+    }
+
+    @Test
+    public void testNGramScorer() {
+        Alphabet alpha = new Alphabet();
+        NGramScorer scorer =
+            new NGramScorer(alpha, new Scanner("TH 3\nHE 1\n"));
+        assertEquals(2, scorer.order());
+        int[] the = KeySearch.indices(alpha, "THE");
+        assertEquals(Math.log10(0.75) + Math.log10(0.25),
+                     scorer.score(the, the.length), 1e-9);
+        int[] xx = KeySearch.indices(alpha, "XX");
+        assertEquals(Math.log10(0.01 / 4), scorer.score(xx, 2), 1e-9);
+    }
+
+    @Test
+    public void testSearchFindsKey() {
+        String settings = "* B III I QD";
+        String cipher = encrypt(SMALL, settings, PLAIN);
+        Config config = Config.read(new Scanner(SMALL));
+        KeySearch search =
+            new KeySearch(new RotorTables(config), config.numRotors(),
+                          config.numPawls(),
+                          KeySearch.indices(config.alphabet(), cipher));
+        search.setTop(3);
+        assertEquals(6 * 26 * 26, search.keySpace());
+        List<KeySearch.Candidate> best = search.search(new ForkJoinPool(2));
+        assertEquals(3, best.size());
+        assertEquals(settings, best.get(0).settings());
+        assertEquals(search.keySpace(), search.candidates());
+        assertTrue(best.get(0).score() >= best.get(1).score());
+    }
+
+    @Test
+    public void testTopK() {
+        KeySearch.TopK top = new KeySearch.TopK(2);
+        RotorTables tables =
+            new RotorTables(Config.read(new Scanner(SMALL)));
+        int[] order = { 3, 0, 1 };
+        ArrayList<Double> scores = new ArrayList<>();
+        for (double s : new double[] { 1, 5, 3, 4, 2 }) {
+            if (top.accepts(s)) {
+                top.add(new KeySearch.Candidate(s, tables, order,
+                                                new int[3], new int[3],
+                                                false));
+            }
+        }
+        for (KeySearch.Candidate c : top.sorted()) {
+            scores.add(c.score());
+        }
+        assertEquals(List.of(5.0, 4.0), scores);
+    }
+
+}
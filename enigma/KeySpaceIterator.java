@@ -0,0 +1,290 @@
+package enigma;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import static enigma.EnigmaException.*;
+
+/** A cursor over the keys (rotor order, rotor positions, and ring
+ *  settings of the rightmost rotors) of a machine, visited in
+ *  reflected Gray-code order: each key is written as the mixed-radix
+ *  digits (order number, position of slot 1, ..., position of the last
+ *  slot, ring settings of the ring slots), and consecutive keys differ
+ *  by one in exactly one digit.  After each advance, change() and
+ *  changedSlot() describe how the key differs from the previous one,
+ *  so a consumer need only update the state of that rotor; apply does
+ *  so for a CompiledMachine.  Neighboring rotor orders in the list
+ *  given (such as that from KeySearch.orders) usually differ in only
+ *  the rightmost slots.
+ *
+ *  A KeySpaceIterator is also a Spliterator over itself: each element
+ *  is the cursor, describing the current key only until the next
+ *  advance.  Splitting divides the range of key numbers; the first key
+ *  each part visits is reported as a change of ALL, so a consumer that
+ *  keeps one machine per thread stays correct however the parts are
+ *  scheduled.
+ *  @author Jay Chiang
+ */
+final class KeySpaceIterator implements Spliterator<KeySpaceIterator> {
+
+    /** Change kind: every part of the key may have changed. */
+    static final int ALL = 0;
+    /** Change kind: the rotor order changed (see rotorChanged). */
+    static final int ORDER = 1;
+    /** Change kind: the position of changedSlot() changed. */
+    static final int POSITION = 2;
+    /** Change kind: the ring setting of changedSlot() changed. */
+    static final int RING = 3;
+
+    /** A cursor over keys for a machine with NUMROTORS slots over an
+     *  alphabet of N characters, with the rotor orders ORDERS and the
+     *  ring settings of the rightmost RINGSLOTS slots varying. */
+    KeySpaceIterator(List<int[]> orders, int numRotors, int n,
+                     int ringSlots) {
+        if (orders.isEmpty() || ringSlots < 0 || ringSlots >= numRotors) {
+            throw error("bad key space");
+        }
+        _orders = orders;
+        _slots = numRotors;
+        _ringSlots = ringSlots;
+        int digits = 1 + (numRotors - 1) + ringSlots;
+        _radix = new int[digits];
+        _weight = new long[digits + 1];
+        _radix[0] = orders.size();
+        for (int i = 1; i < digits; i += 1) {
+            _radix[i] = n;
+        }
+        _weight[digits] = 1;
+        for (int i = digits - 1; i >= 0; i -= 1) {
+            _weight[i] = Math.multiplyExact(_weight[i + 1], _radix[i]);
+        }
+        _digit = new int[digits];
+        _dir = new int[digits];
+        _posns = new int[numRotors];
+        _rings = new int[numRotors];
+        _next = 0;
+        _end = _weight[0];
+    }
+
+    /** A cursor over keys FROM (inclusive) to END (exclusive) of the
+     *  same key space as OTHER. */
+    private KeySpaceIterator(KeySpaceIterator other, long from, long end) {
+        _orders = other._orders;
+        _slots = other._slots;
+        _ringSlots = other._ringSlots;
+        _radix = other._radix;
+        _weight = other._weight;
+        _digit = new int[_radix.length];
+        _dir = new int[_radix.length];
+        _posns = new int[_slots];
+        _rings = new int[_slots];
+        _next = from;
+        _end = end;
+    }
+
+    /** Return the total number of keys in my key space. */
+    long size() {
+        return _weight[0];
+    }
+
+    /** Move to the next key.  Return false, leaving the current key
+     *  unchanged, if there are no more in my range. */
+    boolean advance() {
+        if (_next >= _end) {
+            return false;
+        }
+        if (!_started) {
+            seek(_next);
+            _started = true;
+            _change = ALL;
+            _changedSlot = -1;
+            _previousOrder = null;
+        } else {
+            step();
+        }
+        _index = _next;
+        _next += 1;
+        return true;
+    }
+
+    /** Set my digits and directions to those of key number INDEX.  Digit
+     *  I has swept its range INDEX / _weight[I] times, reversing after
+     *  each sweep. */
+    private void seek(long index) {
+        for (int i = 0; i < _digit.length; i += 1) {
+            long sweeps = index / _weight[i];
+            int d = (int) (index / _weight[i + 1] % _radix[i]);
+            _dir[i] = sweeps % 2 == 0 ? 1 : -1;
+            _digit[i] = _dir[i] > 0 ? d : _radix[i] - 1 - d;
+        }
+        for (int i = 0; i < _digit.length; i += 1) {
+            store(i);
+        }
+    }
+
+    /** Move one digit by one, as the reflected Gray code does, and
+     *  record the change. */
+    private void step() {
+        for (int i = _digit.length - 1; i >= 0; i -= 1) {
+            int d = _digit[i] + _dir[i];
+            if (d >= 0 && d < _radix[i]) {
+                if (i == 0) {
+                    _previousOrder = _orders.get(_digit[0]);
+                }
+                _digit[i] = d;
+                store(i);
+                return;
+            }
+            _dir[i] = -_dir[i];
+        }
+        throw new IllegalStateException("key space exhausted");
+    }
+
+    /** Copy digit I into the key fields and record it as the change. */
+    private void store(int i) {
+        if (i == 0) {
+            _change = ORDER;
+            _changedSlot = -1;
+        } else if (i < _slots) {
+            _posns[i] = _digit[i];
+            _change = POSITION;
+            _changedSlot = i;
+        } else {
+            int slot = i - _slots + (_slots - _ringSlots);
+            _rings[slot] = _digit[i];
+            _change = RING;
+            _changedSlot = slot;
+        }
+    }
+
+    /** Return the number of the current key in my Gray-code order. */
+    long index() {
+        return _index;
+    }
+
+    /** Return the kind of change from the previous key: ALL, ORDER,
+     *  POSITION, or RING. */
+    int change() {
+        return _change;
+    }
+
+    /** Return the slot whose position or ring setting changed, or -1 if
+     *  the change is ALL or ORDER. */
+    int changedSlot() {
+        return _changedSlot;
+    }
+
+    /** Return true iff the rotor in SLOT differs from that of the
+     *  previous key. */
+    boolean rotorChanged(int slot) {
+        return _change == ALL
+            || _change == ORDER && _previousOrder[slot] != order()[slot];
+    }
+
+    /** Return the current rotor order.  The result is shared; do not
+     *  modify it. */
+    int[] order() {
+        return _orders.get(_digit[0]);
+    }
+
+    /** Return the current position of the rotor in SLOT. */
+    int position(int slot) {
+        return _posns[slot];
+    }
+
+    /** Return the current ring setting of the rotor in SLOT. */
+    int ring(int slot) {
+        return _rings[slot];
+    }
+
+    /** Bring MACHINE, which was last set to the previous key by this
+     *  method, to the current key.  Only rotors and ring settings that
+     *  changed are updated; all positions are reset, since converting
+     *  characters moves them. */
+    void apply(CompiledMachine machine) {
+        int[] order = order();
+        for (int i = 0; i < _slots; i += 1) {
+            if (rotorChanged(i)) {
+                machine.setRotor(i, order[i]);
+                machine.setRing(i, _rings[i]);
+            }
+        }
+        if (_change == RING) {
+            machine.setRing(_changedSlot, _rings[_changedSlot]);
+        }
+        for (int i = 1; i < _slots; i += 1) {
+            machine.setPosition(i, _posns[i]);
+        }
+    }
+
+    /** Return a setting line for the current key, as accepted by Main,
+     *  naming rotors from TABLES. */
+    String settings(RotorTables tables) {
+        return new KeySearch.Candidate(0, tables, order(), _posns, _rings,
+                                       _ringSlots > 0).settings();
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super KeySpaceIterator> action) {
+        if (!advance()) {
+            return false;
+        }
+        action.accept(this);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super KeySpaceIterator> action) {
+        while (advance()) {
+            action.accept(this);
+        }
+    }
+
+    @Override
+    public Spliterator<KeySpaceIterator> trySplit() {
+        long lo = _next, mid = lo + (_end - lo) / 2;
+        if (_started || mid - lo < MIN_SPLIT) {
+            return null;
+        }
+        KeySpaceIterator prefix = new KeySpaceIterator(this, lo, mid);
+        _next = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return _end - _next;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL;
+    }
+
+    /** Smallest range worth splitting. */
+    private static final long MIN_SPLIT = 1024;
+
+    /** Rotor orders. */
+    private final List<int[]> _orders;
+    /** Number of slots and of ring slots. */
+    private final int _slots, _ringSlots;
+    /** Radix of each digit, most significant first. */
+    private final int[] _radix;
+    /** _weight[I] is the product of the radices of digits I on. */
+    private final long[] _weight;
+    /** Current digits, and the direction each moves next. */
+    private final int[] _digit, _dir;
+    /** Current positions and ring settings, by slot. */
+    private final int[] _posns, _rings;
+    /** Order of the previous key, when the change is ORDER. */
+    private int[] _previousOrder;
+    /** Kind of the last change, and the slot it affected. */
+    private int _change, _changedSlot;
+    /** Number of the current key. */
+    private long _index = -1;
+    /** Number of the next key, and of the end of my range. */
+    private long _next, _end;
+    /** True once I have visited a key. */
+    private boolean _started;
+}
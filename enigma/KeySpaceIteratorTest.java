@@ -0,0 +1,136 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static enigma.KeySearchTest.SMALL;
+
+/** The suite of all JUnit tests for the KeySpaceIterator class.
+ *  @author Jay Chiang
+ */
+public class KeySpaceIteratorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /** Rotor tables for SMALL. */
+    private final RotorTables _tables =
+        new RotorTables(Config.read(new Scanner(SMALL)));
+
+    /** Return an iterator over SMALL's keys with RINGSLOTS ring
+     *  slots. */
+    private KeySpaceIterator keys(int ringSlots) {
+        return new KeySpaceIterator(KeySearch.orders(_tables, 3, 2), 3,
+                                    _tables.size(), ringSlots);
+    }
+
+    @Test
+    public void testVisitsEachKeyOnce() {
+        KeySpaceIterator keys = keys(1);
+        assertEquals(6 * 26 * 26 * 26, keys.size());
+        Set<String> seen = new HashSet<>();
+        while (keys.advance()) {
+            assertTrue(seen.add(keys.settings(_tables)));
+        }
+        assertEquals(keys.size(), seen.size());
+    }
+
+    @Test
+    public void testMinimalDeltas() {
+        KeySpaceIterator keys = keys(2);
+        int[] posns = new int[3], rings = new int[3];
+        int[] order = null;
+        while (keys.advance()) {
+            int diffs = 0;
+            for (int i = 1; i < 3; i += 1) {
+                if (keys.position(i) != posns[i]) {
+                    diffs += 1;
+                    assertEquals(1, Math.abs(keys.position(i) - posns[i]));
+                    assertEquals(KeySpaceIterator.POSITION, keys.change());
+                    assertEquals(i, keys.changedSlot());
+                }
+                if (keys.ring(i) != rings[i]) {
+                    diffs += 1;
+                    assertEquals(1, Math.abs(keys.ring(i) - rings[i]));
+                    assertEquals(KeySpaceIterator.RING, keys.change());
+                    assertEquals(i, keys.changedSlot());
+                }
+                posns[i] = keys.position(i);
+                rings[i] = keys.ring(i);
+            }
+            if (order == null) {
+                assertEquals(KeySpaceIterator.ALL, keys.change());
+            } else if (order != keys.order()) {
+                diffs += 1;
+                assertEquals(KeySpaceIterator.ORDER, keys.change());
+                for (int i = 0; i < 3; i += 1) {
+                    assertEquals(order[i] != keys.order()[i],
+                                 keys.rotorChanged(i));
+                }
+            }
+            assertEquals(order == null ? 0 : 1, diffs);
+            order = keys.order();
+        }
+    }
+
+    @Test
+    public void testApplyMatchesFreshMachine() {
+        KeySpaceIterator keys = keys(1);
+        CompiledMachine incremental = new CompiledMachine(_tables, 3);
+        CompiledMachine fresh = new CompiledMachine(_tables, 3);
+        int[] text = new int[40], a = new int[40], b = new int[40];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = (i * 7) % 26;
+        }
+        while (keys.advance()) {
+            keys.apply(incremental);
+            if (keys.index() % 97 == 0) {
+                fresh.setUp(keys.settings(_tables));
+                incremental.convert(text, a, text.length);
+                fresh.convert(text, b, text.length);
+                assertArrayEquals(keys.settings(_tables), b, a);
+            }
+        }
+    }
+
+    @Test
+    public void testParallelStream() {
+        KeySpaceIterator keys = keys(1);
+        long size = keys.size();
+        Set<String> seen =
+            StreamSupport.stream(keys, true)
+            .map(k -> k.settings(_tables) + " " + k.index())
+            .collect(Collectors.toSet());
+        assertEquals(size, seen.size());
+        Set<String> sequential = new HashSet<>();
+        KeySpaceIterator all = keys(1);
+        while (all.advance()) {
+            sequential.add(all.settings(_tables) + " " + all.index());
+        }
+        assertEquals(sequential, seen);
+        assertNotNull(keys(1).trySplit());
+    }
+
+    @Test
+    public void testSplitsStartWithFullChange() {
+        KeySpaceIterator keys = keys(0);
+        KeySpaceIterator prefix = (KeySpaceIterator) keys.trySplit();
+        assertTrue(keys.advance());
+        assertEquals(KeySpaceIterator.ALL, keys.change());
+        assertEquals(prefix.estimateSize(), keys.index());
+        List<int[]> orders = KeySearch.orders(_tables, 3, 2);
+        assertEquals(orders.size() * 26 * 26,
+                     prefix.estimateSize() + keys.estimateSize() + 1);
+    }
+
+}
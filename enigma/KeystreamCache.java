@@ -0,0 +1,455 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** A bounded cache of keystreams shared by the machines of a Config.
+ *  A keystream belongs to a starting key (the rotors in each slot,
+ *  their ring settings and positions, and the plugboard) and holds, for
+ *  each step S after that key, the substitution table the machine
+ *  applies to the character converted at step S, together with the
+ *  rotor positions after it.  Messages that start from a cached key
+ *  are then converted by one table lookup per character.  A keystream
+ *  is extended on demand, a step at a time, by a CompiledMachine of its
+ *  own, which fills each table from the rightmost rotor and a cached
+ *  mapping of the others (see CompiledMachine.inner).  Since that
+ *  costs a conversion of every character of the alphabet per step, a
+ *  keystream is made only for a key seen before: the first lookup of a
+ *  key just records its hash, and the message is converted as usual.
+ *
+ *  The tables of all keystreams together may occupy at most budget()
+ *  bytes, and any one keystream at most a quarter of that; keystreams
+ *  are evicted least recently used first to make room.  A machine that
+ *  is still reading an evicted keystream may go on using the steps
+ *  already computed, but the keystream no longer grows.  The cache is
+ *  disabled (a budget of 0) until setBudget is called.  It is
+ *  thread-safe: lookups in a keystream's tables take no lock, and only
+ *  extending a keystream, or finding one, does.
+ *  @author Jay Chiang
+ */
+final class KeystreamCache {
+
+    /** A disabled cache for machines of CONFIG. */
+    KeystreamCache(Config config) {
+        _config = config;
+    }
+
+    /** Allow my keystreams to occupy up to BYTES bytes (0 disables me),
+     *  evicting keystreams if they now take more. */
+    synchronized void setBudget(long bytes) {
+        if (bytes < 0) {
+            throw error("negative keystream cache budget");
+        }
+        _budget = bytes;
+        makeRoom(null, 0);
+    }
+
+    /** Return my budget in bytes. */
+    synchronized long budget() {
+        return _budget;
+    }
+
+    /** Return true iff I may be used for machines of my Config, whose
+     *  rotor tables must not be too large to build. */
+    boolean enabled() {
+        return _budget > 0 && !_config.lazy()
+            && _config.alphabet().size()
+                * (long) _config.numRotorsAvailable() * 9
+               <= EngineSelector.MAX_TABLE_BYTES;
+    }
+
+    /** Return the keystream for the starting key KEY, made by key(),
+     *  creating it if KEY has been looked up before, and count the
+     *  lookup.  Return null on the first lookup of KEY. */
+    synchronized Stream stream(Key key) {
+        Stream result = _streams.get(key);
+        if (result != null) {
+            _hits.incrementAndGet();
+            return result;
+        }
+        if (_sightings.put(key._hash, Boolean.TRUE) == null) {
+            _firstSightings.incrementAndGet();
+            return null;
+        }
+        _misses.incrementAndGet();
+        result = new Stream(this, key);
+        _streams.put(key, result);
+        return result;
+    }
+
+    /** Return the starting key for slots holding the rotors numbered
+     *  ROTORS in my Config, with ring settings RINGS and positions
+     *  POSNS, and a plugboard mapping C to PLUGBOARD[C]. */
+    static Key key(int[] rotors, int[] rings, int[] posns,
+                   int[] plugboard) {
+        int slots = rotors.length;
+        int[] words = new int[3 * slots + plugboard.length];
+        System.arraycopy(rotors, 0, words, 0, slots);
+        System.arraycopy(rings, 0, words, slots, slots);
+        System.arraycopy(posns, 0, words, 2 * slots, slots);
+        System.arraycopy(plugboard, 0, words, 3 * slots, plugboard.length);
+        return new Key(words, slots);
+    }
+
+    /** Note that a machine continued reading a keystream it had been
+     *  reading, without a lookup. */
+    void continued() {
+        _continued.incrementAndGet();
+    }
+
+    /** Note that CHARS characters were converted by lookup, REUSED of
+     *  them in steps that had been computed before. */
+    void served(int chars, int reused) {
+        _servedChars.addAndGet(chars);
+        _reusedChars.addAndGet(reused);
+    }
+
+    /** Return the number of lookups that found a keystream. */
+    long hits() {
+        return _hits.get();
+    }
+
+    /** Return the number of lookups that created a keystream. */
+    long misses() {
+        return _misses.get();
+    }
+
+    /** Return the number of lookups of keys not seen before. */
+    long firstSightings() {
+        return _firstSightings.get();
+    }
+
+    /** Return the number of characters converted by lookup in steps
+     *  computed for an earlier message. */
+    long reusedChars() {
+        return _reusedChars.get();
+    }
+
+    /** Return the number of evictions so far. */
+    long evictions() {
+        return _evictions.get();
+    }
+
+    /** Return the number of bytes my keystreams now occupy. */
+    synchronized long bytes() {
+        return _bytes;
+    }
+
+    /** Return the number of keystreams I hold. */
+    synchronized int size() {
+        return _streams.size();
+    }
+
+    /** Return a one-line summary of my use. */
+    synchronized String report() {
+        long lookups = _hits.get() + _misses.get() + _firstSightings.get();
+        return String.format(
+            "keystream cache: %d streams, %.1f of %.1f MB; %d lookups: "
+            + "%d hits (%.1f%%), %d new streams, %d keys seen first; "
+            + "%d continued; %d chars looked up (%d reused) from %d "
+            + "steps computed; %d evictions",
+            _streams.size(), _bytes / 1048576.0, _budget / 1048576.0,
+            lookups, _hits.get(),
+            lookups == 0 ? 0.0 : 100.0 * _hits.get() / lookups,
+            _misses.get(), _firstSightings.get(), _continued.get(),
+            _servedChars.get(), _reusedChars.get(), _computedSteps.get(),
+            _evictions.get());
+    }
+
+    /** Record that STREAM needs BYTES more bytes, evicting other
+     *  keystreams if need be, and return true, or return false if
+     *  STREAM has been evicted or may not grow that much. */
+    private synchronized boolean reserve(Stream stream, long bytes) {
+        if (stream._evicted || stream._bytes + bytes > _budget / 4
+            || !makeRoom(stream, bytes)) {
+            return false;
+        }
+        stream._bytes += bytes;
+        _bytes += bytes;
+        return true;
+    }
+
+    /** Evict keystreams other than KEEP, least recently used first,
+     *  until BYTES more bytes fit in my budget, and return true iff
+     *  they do. */
+    private boolean makeRoom(Stream keep, long bytes) {
+        Iterator<Stream> oldest = _streams.values().iterator();
+        while (_bytes + bytes > _budget && oldest.hasNext()) {
+            Stream victim = oldest.next();
+            if (victim != keep) {
+                oldest.remove();
+                victim._evicted = true;
+                _bytes -= victim._bytes;
+                _evictions.incrementAndGet();
+            }
+        }
+        return _bytes + bytes <= _budget;
+    }
+
+    /** A starting key: rotor numbers, ring settings and positions by
+     *  slot, then the plugboard table. */
+    static final class Key {
+
+        /** The key whose contents are WORDS, for SLOTS slots. */
+        private Key(int[] words, int slots) {
+            _words = words;
+            _slots = slots;
+            _hash = Arrays.hashCode(words);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key
+                && Arrays.equals(_words, ((Key) obj)._words);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** Rotor numbers, rings, positions, plugboard. */
+        private final int[] _words;
+        /** Number of slots. */
+        private final int _slots;
+        /** Hash of _words. */
+        private final int _hash;
+    }
+
+    /** The steps computed so far of a keystream.  Immutable as far as
+     *  any reader can tell: entries are written only beyond steps()
+     *  before a new Segment covering them is published. */
+    static final class Segment {
+
+        /** A segment of STEPS steps in TABLES, POSNS and DOUBLESTEPS. */
+        private Segment(char[] tables, char[] posns, int[] doubleSteps,
+                        int steps) {
+            _tables = tables;
+            _posns = posns;
+            _doubleSteps = doubleSteps;
+            _steps = steps;
+        }
+
+        /** Return the number of steps covered. */
+        int steps() {
+            return _steps;
+        }
+
+        /** Return the conversion of C at step S (counting from 0, so that
+         *  S = 0 is the first character after the starting key) of a
+         *  keystream over N characters. */
+        int convert(int s, int n, int c) {
+            return _tables[s * n + c];
+        }
+
+        /** Return the position of SLOT after step S of a keystream with
+         *  SLOTS slots. */
+        int position(int s, int slots, int slot) {
+            return _posns[s * slots + slot];
+        }
+
+        /** Return the number of double steps in steps 0 .. S. */
+        int doubleSteps(int s) {
+            return _doubleSteps[s];
+        }
+
+        /** Substitution table of each step, one after another. */
+        private final char[] _tables;
+        /** Positions of each slot after each step. */
+        private final char[] _posns;
+        /** Double steps up to and including each step. */
+        private final int[] _doubleSteps;
+        /** Number of steps covered. */
+        private final int _steps;
+    }
+
+    /** The keystream of one starting key. */
+    static final class Stream {
+
+        /** The keystream of KEY in CACHE, with no steps computed. */
+        private Stream(KeystreamCache cache, Key key) {
+            _cache = cache;
+            _key = key;
+            _n = cache._config.alphabet().size();
+            _slots = key._slots;
+            _segment = new Segment(new char[0], new char[0], new int[0], 0);
+        }
+
+        /** Return the segment now published, covering the steps computed
+         *  so far. */
+        Segment segment() {
+            return _segment;
+        }
+
+        /** Return the position of SLOT in my starting key. */
+        int startPosition(int slot) {
+            return _key._words[2 * _slots + slot];
+        }
+
+        /** Return the ring setting of SLOT in my starting key. */
+        int ring(int slot) {
+            return _key._words[_slots + slot];
+        }
+
+        /** Return a segment covering at least STEPS steps, computing them
+         *  if need be, or fewer steps if my cache cannot make room for
+         *  them. */
+        synchronized Segment extend(int steps) {
+            Segment seg = _segment;
+            if (seg._steps >= steps) {
+                return seg;
+            }
+            char[] tables = seg._tables, posns = seg._posns;
+            int[] doubles = seg._doubleSteps;
+            if (steps > doubles.length) {
+                int capacity = Math.max(steps,
+                                        Math.max(MIN_STEPS,
+                                                 2 * doubles.length));
+                long bytes = stepBytes() * (capacity - doubles.length);
+                if (!_cache.reserve(this, bytes)) {
+                    capacity = doubles.length;
+                    while (capacity < steps
+                           && _cache.reserve(this, stepBytes())) {
+                        capacity += 1;
+                    }
+                }
+                if (capacity > doubles.length) {
+                    tables = Arrays.copyOf(tables, capacity * _n);
+                    posns = Arrays.copyOf(posns, capacity * _slots);
+                    doubles = Arrays.copyOf(doubles, capacity);
+                }
+            }
+            int last = Math.min(steps, doubles.length);
+            CompiledMachine machine = machine();
+            for (int s = seg._steps; s < last; s += 1) {
+                machine.step();
+                fill(machine, tables, s * _n);
+                for (int k = 0; k < _slots; k += 1) {
+                    posns[s * _slots + k] = (char) machine.position(k);
+                }
+                doubles[s] = (int) machine.doubleSteps();
+            }
+            _cache._computedSteps.addAndGet(last - seg._steps);
+            _segment = new Segment(tables, posns, doubles, last);
+            return _segment;
+        }
+
+        /** Return the number of bytes one step occupies. */
+        private long stepBytes() {
+            return 2L * _n + 2L * _slots + 4;
+        }
+
+        /** Return my machine, positioned after the last step computed,
+         *  creating it at my starting key if need be. */
+        private CompiledMachine machine() {
+            if (_machine == null) {
+                int[] words = _key._words;
+                _machine = new CompiledMachine(_cache._config.tables(),
+                                               _slots);
+                for (int k = 0; k < _slots; k += 1) {
+                    _machine.setRotor(k, words[k]);
+                    _machine.setRing(k, words[_slots + k]);
+                    _machine.setPosition(k, words[2 * _slots + k]);
+                }
+                _plugboard = Arrays.copyOfRange(words, 3 * _slots,
+                                                words.length);
+                _inner = new int[_n];
+                _innerVersion = _machine.innerVersion() - 1;
+            }
+            return _machine;
+        }
+
+        /** Fill TABLES from index START with the conversion of each
+         *  character by MACHINE in its present state. */
+        private void fill(CompiledMachine machine, char[] tables,
+                          int start) {
+            if (machine.innerVersion() != _innerVersion) {
+                machine.inner(_inner);
+                _innerVersion = machine.innerVersion();
+            }
+            int n = _n, right = _slots - 1;
+            int s = machine.shift(right), pass = machine.pass(right);
+            int[] fwd = machine.forwardTable(right);
+            int[] bwd = machine.backwardTable(right);
+            int[] plugboard = _plugboard, inner = _inner;
+            for (int c = 0; c < n; c += 1) {
+                int x = plugboard[c];
+                if (x != pass) {
+                    x = fwd[x + s] - s;
+                    x = x < 0 ? x + n : x;
+                }
+                x = inner[x];
+                if (x != pass) {
+                    x = bwd[x + s] - s;
+                    x = x < 0 ? x + n : x;
+                }
+                tables[start + c] = (char) plugboard[x];
+            }
+        }
+
+        /** The cache holding me. */
+        private final KeystreamCache _cache;
+        /** My starting key. */
+        private final Key _key;
+        /** Alphabet size and number of slots. */
+        private final int _n, _slots;
+        /** Steps computed so far. */
+        private volatile Segment _segment;
+        /** Machine positioned after the last step computed, or null
+         *  before the first. */
+        private CompiledMachine _machine;
+        /** Plugboard table of my key. */
+        private int[] _plugboard;
+        /** Mapping of all slots but the rightmost, valid while _machine's
+         *  innerVersion is _innerVersion. */
+        private int[] _inner;
+        /** See _inner. */
+        private int _innerVersion;
+        /** Bytes reserved for my tables (guarded by _cache). */
+        private long _bytes;
+        /** True once I have been evicted (set under _cache's lock). */
+        private volatile boolean _evicted;
+    }
+
+    /** Most key hashes remembered for admission. */
+    private static final int MAX_SIGHTINGS = 4096;
+    /** Fewest steps for which a keystream allocates room. */
+    private static final int MIN_STEPS = 64;
+
+    /** Configuration whose machines use me. */
+    private final Config _config;
+    /** Keystreams, least recently used first. */
+    private final LinkedHashMap<Key, Stream> _streams =
+        new LinkedHashMap<>(16, 0.75f, true);
+    /** Maximum total size of my keystreams, in bytes (written under my
+     *  lock). */
+    private volatile long _budget;
+    /** Present total size of my keystreams, in bytes. */
+    private long _bytes;
+    /** Hashes of the keys most recently looked up without a keystream
+     *  being made for them. */
+    private final LinkedHashMap<Integer, Boolean> _sightings =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<Integer, Boolean> eldest) {
+                return size() > MAX_SIGHTINGS;
+            }
+        };
+    /** Lookups that found or created a keystream, or saw a key first. */
+    private final AtomicLong _hits = new AtomicLong(),
+        _misses = new AtomicLong(), _firstSightings = new AtomicLong();
+    /** Messages that continued a keystream without a lookup. */
+    private final AtomicLong _continued = new AtomicLong();
+    /** Characters converted by lookup, those of them in steps computed
+     *  before, and steps computed. */
+    private final AtomicLong _servedChars = new AtomicLong(),
+        _reusedChars = new AtomicLong(), _computedSteps = new AtomicLong();
+    /** Keystreams evicted. */
+    private final AtomicLong _evictions = new AtomicLong();
+}
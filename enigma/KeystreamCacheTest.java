@@ -0,0 +1,174 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.DaemonTest.CONFIG;
+
+/** The suite of all JUnit tests for the KeystreamCache class.
+ *  @author Jay Chiang
+ */
+public class KeystreamCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Setting lines for CONFIG. */
+    private static final String[] SETTINGS = {
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "* B Beta III IV I AXLE BCDE (HQ) (EX)",
+        "* B Beta I II III ZZZZ",
+    };
+
+    /** Return a message of LINES lines of up to 80 random letters and
+     *  spaces, drawn with RANDOM. */
+    private String message(int lines, Random random) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < lines; i += 1) {
+            int len = random.nextInt(80);
+            for (int k = 0; k < len; k += 1) {
+                int c = random.nextInt(28);
+                result.append(c >= 26 ? ' ' : (char) ('A' + c));
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Return a fresh configuration read from CONFIG, whose keystream
+     *  cache has a budget of BYTES. */
+    private Config config(long bytes) {
+        Config result = Config.read(new Scanner(CONFIG));
+        result.keystreams().setBudget(bytes);
+        return result;
+    }
+
+    /** Return the output of Main for SETTINGS followed by MESSAGE under
+     *  CONFIG. */
+    private String process(Config config, String settings, String message) {
+        return new Main(config).processMessage(settings, message);
+    }
+
+    /** Return the output of Main, with OPTIONS, for SETTINGS followed
+     *  by MESSAGE under the shared configuration CONFIG. */
+    private String process(Config config, String settings, String message,
+                           String... options) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Main(options, config,
+                 new ByteArrayInputStream((settings + "\n" + message)
+                                          .getBytes()),
+                 new PrintStream(out)).process();
+        return out.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSameOutput() {
+        Random random = new Random(45);
+        Config plain = config(0), cached = config(1 << 20);
+        for (int round = 0; round < 4; round += 1) {
+            for (String settings : SETTINGS) {
+                String msg = message(1 + random.nextInt(5), random);
+                assertEquals(process(plain, settings, msg),
+                             process(cached, settings, msg));
+            }
+        }
+        KeystreamCache cache = cached.keystreams();
+        assertEquals(3, cache.misses());
+        assertEquals(6, cache.hits());
+        assertTrue(cache.reusedChars() > 0);
+        assertTrue(cache.bytes() > 0);
+        assertEquals(3, cache.size());
+        assertEquals(0, plain.keystreams().size());
+    }
+
+    @Test
+    public void testEviction() {
+        Random random = new Random(46);
+        Config plain = config(0);
+        long budget = 60_000;
+        Config cached = config(budget);
+        for (int round = 0; round < 6; round += 1) {
+            for (String settings : SETTINGS) {
+                String msg = message(30, random);
+                assertEquals(process(plain, settings, msg),
+                             process(cached, settings, msg));
+                assertTrue(cached.keystreams().bytes() <= budget);
+            }
+        }
+        assertTrue(cached.keystreams().evictions() > 0);
+        cached.keystreams().setBudget(0);
+        assertEquals(0, cached.keystreams().size());
+        String msg = message(3, random);
+        assertEquals(process(plain, SETTINGS[0], msg),
+                     process(cached, SETTINGS[0], msg));
+    }
+
+    @Test
+    public void testOptionOnlyOptsInOrOut() {
+        Random random = new Random(48);
+        Config plain = config(0), cached = config(1 << 20);
+        KeystreamCache cache = cached.keystreams();
+        String msg = message(5, random);
+        String expected = process(plain, SETTINGS[0], msg);
+        for (int i = 0; i < 3; i += 1) {
+            assertEquals(expected, process(cached, SETTINGS[0], msg,
+                                           "--keystream-cache=0"));
+        }
+        assertEquals(0, cache.firstSightings() + cache.hits()
+                     + cache.misses());
+        for (int i = 0; i < 3; i += 1) {
+            assertEquals(expected, process(cached, SETTINGS[0], msg,
+                                           "--keystream-cache=1"));
+        }
+        assertEquals(1 << 20, cache.budget());
+        assertEquals(1, cache.misses());
+        assertEquals(1, cache.hits());
+        assertEquals(0, plain.keystreams().budget());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        Random random = new Random(47);
+        Config plain = config(0), cached = config(4 << 20);
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 24; i += 1) {
+            messages.add(message(20, random));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 3 * messages.size(); i += 1) {
+                String msg = messages.get(i % messages.size());
+                results.add(pool.submit(
+                    () -> process(cached, SETTINGS[0], msg)));
+            }
+            for (int i = 0; i < results.size(); i += 1) {
+                String msg = messages.get(i % messages.size());
+                assertEquals(process(plain, SETTINGS[0], msg),
+                             results.get(i).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(1, cached.keystreams().size());
+    }
+
+}
@@ -0,0 +1,196 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.net.InetAddress;
+import java.net.Socket;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import static enigma.EnigmaException.*;
+
+/** A load generator for Server.  Usage:
+ *      java enigma.LoadTest PORT SETTINGS CONNECTIONS REQUESTS
+ *                           [DEPTH [LENGTH]]
+ *  opens CONNECTIONS connections to the server on the loopback
+ *  interface at PORT, and on each sends REQUESTS requests for random
+ *  messages of LENGTH letters (default 100) under the setting line
+ *  SETTINGS, keeping up to DEPTH (default 1) requests in flight per
+ *  connection.  Reports requests per second and the latency
+ *  percentiles of the replies.
+ *  @author Jay Chiang
+ */
+public final class LoadTest {
+
+    /** Run the load test described by ARGS. */
+    public static void main(String... args) throws InterruptedException {
+        if (args.length < 4 || args.length > 6) {
+            System.err.println("Usage: java enigma.LoadTest PORT SETTINGS "
+                               + "CONNECTIONS REQUESTS [DEPTH [LENGTH]]");
+            System.exit(1);
+        }
+        int port = Integer.parseInt(args[0]);
+        int connections = Integer.parseInt(args[2]);
+        int requests = Integer.parseInt(args[3]);
+        int depth = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+        int length = args.length > 5 ? Integer.parseInt(args[5]) : 100;
+        LoadTest test = new LoadTest(port, args[1], depth, length);
+        System.out.println(test.run(connections, requests));
+    }
+
+    /** A load test against the server at PORT, sending messages of
+     *  LENGTH letters under SETTINGS with DEPTH requests in flight per
+     *  connection. */
+    LoadTest(int port, String settings, int depth, int length) {
+        _port = port;
+        _settings = settings;
+        _depth = depth;
+        _length = length;
+    }
+
+    /** Send REQUESTS requests on each of CONNECTIONS connections and
+     *  return the resulting statistics. */
+    Result run(int connections, int requests) throws InterruptedException {
+        long[][] latencies = new long[connections][];
+        Thread[] threads = new Thread[connections];
+        Throwable[] failures = new Throwable[connections];
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c += 1) {
+            int id = c;
+            threads[c] = new Thread(() -> {
+                try {
+                    latencies[id] = connection(id, requests);
+                } catch (IOException | RuntimeException excp) {
+                    failures[id] = excp;
+                }
+            });
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        for (Throwable failure : failures) {
+            if (failure != null) {
+                throw error("load test failed: %s", failure);
+            }
+        }
+        long[] all = new long[connections * requests];
+        for (int c = 0; c < connections; c += 1) {
+            System.arraycopy(latencies[c], 0, all, c * requests, requests);
+        }
+        Arrays.sort(all);
+        return new Result(all, elapsed);
+    }
+
+    /** Send COUNT requests on a new connection numbered ID, returning
+     *  the latency of each reply in nanoseconds. */
+    private long[] connection(int id, int count) throws IOException {
+        long[] latencies = new long[count];
+        String[] messages = messages(new Random(id), MESSAGE_VARIETY);
+        try (Socket socket =
+                 new Socket(InetAddress.getLoopbackAddress(), _port)) {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            Semaphore window = new Semaphore(_depth);
+            ArrayBlockingQueue<Long> sent = new ArrayBlockingQueue<>(_depth);
+            Thread sender = new Thread(() -> {
+                try {
+                    for (int i = 0; i < count; i += 1) {
+                        window.acquire();
+                        sent.add(System.nanoTime());
+                        Server.writeRequest(out, _settings,
+                                            messages[i % messages.length]);
+                        if (window.availablePermits() == 0 || i == count - 1) {
+                            out.flush();
+                        }
+                    }
+                } catch (IOException | InterruptedException excp) {
+                    /* The receiver will see the connection fail. */
+                }
+            });
+            sender.setDaemon(true);
+            sender.start();
+            for (int i = 0; i < count; i += 1) {
+                Server.readReply(in);
+                latencies[i] = System.nanoTime() - sent.remove();
+                window.release();
+            }
+        }
+        return latencies;
+    }
+
+    /** Return N random messages of my length, generated by RANDOM. */
+    private String[] messages(Random random, int n) {
+        String[] result = new String[n];
+        char[] text = new char[_length];
+        for (int k = 0; k < n; k += 1) {
+            for (int i = 0; i < text.length; i += 1) {
+                text[i] = (char) ('A' + random.nextInt(26));
+            }
+            result[k] = new String(text);
+        }
+        return result;
+    }
+
+    /** Statistics of one load test run. */
+    static final class Result {
+
+        /** Statistics for a run whose replies had the sorted LATENCIES
+         *  and which took ELAPSED nanoseconds. */
+        Result(long[] latencies, long elapsed) {
+            _latencies = latencies;
+            _elapsed = elapsed;
+        }
+
+        /** Return the Pth percentile latency in nanoseconds. */
+        long percentile(double p) {
+            int index = (int) Math.ceil(p / 100 * _latencies.length) - 1;
+            return _latencies[Math.max(0, Math.min(index,
+                                                   _latencies.length - 1))];
+        }
+
+        /** Return the number of replies received per second. */
+        double requestsPerSecond() {
+            return _latencies.length * 1e9 / _elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests in %.2f s: %.0f req/s, "
+                                 + "p50 %.1f us, p99 %.1f us, p999 %.1f us, "
+                                 + "max %.1f us",
+                                 _latencies.length, _elapsed / 1e9,
+                                 requestsPerSecond(), percentile(50) / 1e3,
+                                 percentile(99) / 1e3, percentile(99.9) / 1e3,
+                                 percentile(100) / 1e3);
+        }
+
+        /** Sorted reply latencies. */
+        private final long[] _latencies;
+        /** Duration of the run. */
+        private final long _elapsed;
+    }
+
+    /** Number of distinct messages sent on each connection. */
+    private static final int MESSAGE_VARIETY = 16;
+
+    /** Server port. */
+    private final int _port;
+    /** Setting line for every request. */
+    private final String _settings;
+    /** Requests in flight per connection. */
+    private final int _depth;
+    /** Letters per message. */
+    private final int _length;
+}
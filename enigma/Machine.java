@@ -1,6 +1,8 @@
 package enigma;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.ArrayList;
 
 import static enigma.EnigmaException.*;
@@ -29,6 +31,19 @@ class Machine {
         _availableRotors = new ArrayList<>(allRotors);
     }
 
+    /** A new Enigma machine with the alphabet, rotor slots and pawls of
+     *  CONFIG, whose available rotors are those of CONFIG.  Each rotor
+     *  (and its permutation, if CONFIG is lazy) is built only when it
+     *  is first named. */
+    Machine(Config config) {
+        this(config.alphabet(), config.numRotors(), config.numPawls(),
+             Collections.emptyList());
+        _config = config;
+        _selector = config.selector();
+        _availableRotors = null;
+        _built = new Rotor[config.numRotorsAvailable()];
+    }
+
     /** Return the number of rotor slots I have. */
     int numRotors() {
         return _numRotors;
@@ -44,6 +59,16 @@ class Machine {
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
         _rotors = new ArrayList<>();
+        if (_config != null) {
+            for (String name : rotors) {
+                Rotor rotor = availableRotor(name);
+                if (rotor != null) {
+                    rotor.set(0);
+                    _rotors.add(rotor);
+                }
+            }
+            return;
+        }
         for (int i = 0; i < rotors.length; i += 1) {
             for (int j = 0; j < _availableRotors.size(); j += 1) {
                 Rotor currRotor = _availableRotors.get(j);
@@ -82,6 +107,9 @@ class Machine {
                 Rotor currRotor = _rotors.get(i);
                 Rotor nextRotor = _rotors.get(i - 1);
                 if (currRotor.atNotch() && nextRotor.rotates()) {
+                    if (i < _rotors.size() - 1) {
+                        _doubleSteps += 1;
+                    }
                     if (!rotatingRotors.contains(i)) {
                         rotatingRotors.add(i);
                     }
@@ -99,9 +127,14 @@ class Machine {
             _rotors.get(rotatingRotors.get(i)).advance();
         }
 
-        setupString = "";
-        for (int k = 0; k < _rotors.size(); k += 1) {
-            setupString += _alphabet.toChar(_rotors.get(k)._position);
+        if (_setup == null || _setup.length != _rotors.size()) {
+            _setup = new int[_rotors.size()];
+        }
+        for (int k = 0; k < _setup.length; k += 1) {
+            _setup[k] = _rotors.get(k)._position;
+        }
+        if (_trace != null && _setup.length == _numRotors) {
+            _trace.record(_setup);
         }
 
         int input = _plugboard.permute(c);
@@ -116,20 +149,345 @@ class Machine {
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
-     *  the rotors accordingly. */
+     *  the rotors accordingly.  If my configuration's keystream cache
+     *  is enabled, the message is looked up there (see convertCached);
+     *  otherwise it goes through my rotors one character at a time, or
+     *  through a CompiledMachine loaded with their state, as my forced
+     *  engine or threshold, if any, and otherwise my configuration's
+     *  EngineSelector decides. */
     String convert(String msg) {
-        String outputMsg = "";
+        String result = convertCached(msg);
+        return result != null ? result : convertUncached(msg);
+    }
+
+    /** Convert MSG as convert(String) does, without the keystream
+     *  cache. */
+    private String convertUncached(String msg) {
+        if (useCompiled(msg.length())) {
+            return convertCompiled(msg);
+        }
+        StringBuilder outputMsg = new StringBuilder(msg.length());
         for (int i = 0; i < msg.length(); i += 1) {
             char ch = msg.charAt(i);
             if (_alphabet.contains(ch)) {
-                outputMsg += _alphabet.toChar(convert(_alphabet.toInt(ch)));
+                outputMsg.append(
+                    _alphabet.toChar(convert(_alphabet.toInt(ch))));
+            }
+        }
+        return outputMsg.toString();
+    }
+
+    /** Return true iff a message of LENGTH characters should be
+     *  converted by a CompiledMachine, counting the message in my
+     *  configuration's EngineSelector unless I am a scratch copy. */
+    private boolean useCompiled(int length) {
+        if (_config == null) {
+            return false;
+        }
+        boolean compiled;
+        if (_forcedEngine != EngineSelector.AUTO) {
+            compiled = _forcedEngine == EngineSelector.COMPILED
+                && compilable();
+        } else {
+            compiled = _selector.useCompiled(this, length, _engineThreshold);
+        }
+        if (!_scratch) {
+            _selector.count(compiled, length);
+        }
+        return compiled;
+    }
+
+    /** Return true iff a CompiledMachine can convert exactly as I do in
+     *  my present state: my rotors come from a configuration, fill all
+     *  slots and have total wirings, their positions and ring settings
+     *  are in range, the plugboard maps into the alphabet, and I am not
+     *  recording a trace. */
+    boolean compilable() {
+        if (_config == null || _trace != null || _rotors == null
+            || _rotors.size() != _numRotors || plugTable() == null) {
+            return false;
+        }
+        RotorTables tables = _config.tables();
+        int n = _alphabet.size();
+        for (Rotor rotor : _rotors) {
+            int posn = rotor.getPosition(), ring = rotor.getRingAdjustment();
+            if (posn < 0 || posn >= n || ring < 0 || ring >= n
+                || !tables.total(_config.rotorIndex(rotor.name()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return my plugboard as a table of alphabet indices, or null if it
+     *  maps some character outside the alphabet. */
+    private int[] plugTable() {
+        if (_plugboard == null) {
+            return null;
+        }
+        if (_plugTableSource != _plugboard) {
+            _plugTable = new int[_alphabet.size()];
+            for (int c = 0; c < _plugTable.length; c += 1) {
+                _plugTable[c] = _plugboard.permute(c);
+                if (_plugTable[c] < 0) {
+                    _plugTable = null;
+                    break;
+                }
+            }
+            _plugTableSource = _plugboard;
+        }
+        return _plugTable;
+    }
+
+    /** Convert MSG as convert(String) does, on my CompiledMachine. */
+    private String convertCompiled(String msg) {
+        CompiledMachine compiled = loadCompiled();
+        long doubleSteps = compiled.doubleSteps();
+        char[] result = new char[msg.length()];
+        int len = 0;
+        for (int i = 0; i < msg.length(); i += 1) {
+            char ch = msg.charAt(i);
+            if (_alphabet.contains(ch)) {
+                result[len] = _alphabet.toChar(
+                    compiled.convert(_alphabet.toInt(ch)));
+                len += 1;
+            }
+        }
+        _doubleSteps += compiled.doubleSteps() - doubleSteps;
+        for (int k = 0; k < _numRotors; k += 1) {
+            _rotors.get(k).set(compiled.position(k));
+        }
+        if (len > 0) {
+            if (_setup == null || _setup.length != _numRotors) {
+                _setup = new int[_numRotors];
+            }
+            for (int k = 0; k < _numRotors; k += 1) {
+                _setup[k] = compiled.position(k);
+            }
+        }
+        return new String(result, 0, len);
+    }
+
+    /** Convert MSG as convert(String) does by lookup in the keystream of
+     *  my present state in my configuration's keystream cache, or
+     *  return null if the cache is disabled or has no keystream for
+     *  that state (yet), I am not compilable(), I am a scratch copy, or
+     *  I have been told not to use the cache.  If I am still in a state
+     *  that the keystream I read last reached, I go on reading it
+     *  without a new lookup.  Characters beyond the end of the
+     *  keystream, if the cache has no room for them, are converted
+     *  without it. */
+    private String convertCached(String msg) {
+        if (_scratch || !_useKeystreams || _config == null) {
+            return null;
+        }
+        KeystreamCache cache = _config.keystreams();
+        if (!cache.enabled() || !compilable()) {
+            return null;
+        }
+        int chars = 0;
+        for (int i = 0; i < msg.length(); i += 1) {
+            if (_alphabet.contains(msg.charAt(i))) {
+                chars += 1;
+            }
+        }
+        if (chars == 0) {
+            return null;
+        }
+        if (continuesStream()) {
+            cache.continued();
+        } else if (!startStream(cache)) {
+            return null;
+        }
+        int n = _alphabet.size(), start = _streamStep;
+        int known = _stream.segment().steps() - start;
+        KeystreamCache.Segment seg = _stream.extend(start + chars);
+        int avail = Math.min(chars, seg.steps() - start);
+        char[] result = new char[avail];
+        int i, len;
+        for (i = 0, len = 0; len < avail; i += 1) {
+            char ch = msg.charAt(i);
+            if (_alphabet.contains(ch)) {
+                result[len] = _alphabet.toChar(
+                    seg.convert(start + len, n, _alphabet.toInt(ch)));
+                len += 1;
+            }
+        }
+        cache.served(len, Math.max(0, Math.min(len, known)));
+        if (len > 0) {
+            int last = start + len - 1;
+            _doubleSteps += seg.doubleSteps(last)
+                - (start > 0 ? seg.doubleSteps(start - 1) : 0);
+            if (_setup == null || _setup.length != _numRotors) {
+                _setup = new int[_numRotors];
+            }
+            for (int k = 0; k < _numRotors; k += 1) {
+                _setup[k] = seg.position(last, _numRotors, k);
+                _rotors.get(k).set(_setup[k]);
+            }
+        }
+        _streamStep = start + len;
+        String head = new String(result, 0, len);
+        if (len == chars) {
+            return head;
+        }
+        _stream = null;
+        return head + convertUncached(msg.substring(i));
+    }
+
+    /** Return true iff my rotors, ring settings, plugboard and positions
+     *  are those that _stream reaches after _streamStep steps. */
+    private boolean continuesStream() {
+        if (_stream == null || _plugboard != _streamPlugboard) {
+            return false;
+        }
+        KeystreamCache.Segment seg = _stream.segment();
+        for (int k = 0; k < _numRotors; k += 1) {
+            Rotor rotor = _rotors.get(k);
+            int posn = _streamStep == 0 ? _stream.startPosition(k)
+                : seg.position(_streamStep - 1, _numRotors, k);
+            if (rotor != _streamRotors[k] || rotor.getPosition() != posn
+                || rotor.getRingAdjustment() != _stream.ring(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Start reading, from its beginning, the keystream in CACHE of my
+     *  present state and return true, or return false if CACHE has
+     *  none for it. */
+    private boolean startStream(KeystreamCache cache) {
+        int[] rotors = new int[_numRotors], rings = new int[_numRotors],
+            posns = new int[_numRotors];
+        for (int k = 0; k < _numRotors; k += 1) {
+            Rotor rotor = _rotors.get(k);
+            rotors[k] = _config.rotorIndex(rotor.name());
+            rings[k] = rotor.getRingAdjustment();
+            posns[k] = rotor.getPosition();
+        }
+        _stream = cache.stream(
+            KeystreamCache.key(rotors, rings, posns, plugTable()));
+        _streamStep = 0;
+        _streamRotors = _rotors.toArray(new Rotor[0]);
+        _streamPlugboard = _plugboard;
+        return _stream != null;
+    }
+
+    /** Return my CompiledMachine, loaded with my rotors, their positions
+     *  and ring settings, and my plugboard.  Rotors and plugboard are
+     *  reloaded only if they have changed since the last load. */
+    private CompiledMachine loadCompiled() {
+        if (_compiled == null) {
+            _compiled = new CompiledMachine(_config.tables(), _numRotors);
+            _compiledRotors = new Rotor[_numRotors];
+        }
+        for (int i = 0; i < _numRotors; i += 1) {
+            Rotor rotor = _rotors.get(i);
+            if (_compiledRotors[i] != rotor) {
+                _compiled.setRotor(i, _config.rotorIndex(rotor.name()));
+                _compiledRotors[i] = rotor;
             }
+            _compiled.setRing(i, rotor.getRingAdjustment());
+            _compiled.setPosition(i, rotor.getPosition());
+        }
+        if (_compiledPlugboard != _plugboard) {
+            _compiled.setPlugboard(plugTable());
+            _compiledPlugboard = _plugboard;
         }
-        return outputMsg;
+        return _compiled;
+    }
+
+    /** Make the next load of my CompiledMachine reload everything. */
+    void forgetCompiledState() {
+        if (_compiledRotors != null) {
+            Arrays.fill(_compiledRotors, null);
+        }
+        _compiledPlugboard = null;
+    }
+
+    /** Always use the path MODE (an EngineSelector mode), rather than
+     *  asking my configuration's selector if MODE is AUTO.  Other
+     *  machines of my configuration are not affected. */
+    void forceEngine(int mode) {
+        _forcedEngine = mode;
+    }
+
+    /** In AUTO mode, use the compiled path for messages of at least
+     *  CHARS characters, rather than the threshold that my
+     *  configuration's selector calibrates (which is used again if
+     *  CHARS is 0).  Other machines of my configuration are not
+     *  affected. */
+    void setEngineThreshold(long chars) {
+        _engineThreshold = Math.max(0, chars);
     }
 
-    /** Return AVAILABLEROTORS. */
+    /** Use my configuration's keystream cache, when it is enabled, iff
+     *  USE (initially true).  Other machines of my configuration are
+     *  not affected. */
+    void useKeystreams(boolean use) {
+        _useKeystreams = use;
+    }
+
+    /** Return a new machine from my configuration holding the same
+     *  rotors (at position 0) with the same ring settings and plugboard
+     *  as I do.  It neither uses the keystream cache nor is counted by
+     *  the selector, so it may be used for measurements. */
+    Machine scratchCopy() {
+        Machine result = new Machine(_config);
+        result._scratch = true;
+        String[] names = new String[_rotors.size()];
+        for (int i = 0; i < names.length; i += 1) {
+            names[i] = _rotors.get(i).name();
+        }
+        result.insertRotors(names);
+        for (int i = 0; i < names.length; i += 1) {
+            result._rotors.get(i).setRingAdjustment(
+                _rotors.get(i).getRingAdjustment());
+        }
+        result.setPlugboard(_plugboard);
+        return result;
+    }
+
+    /** Return the number of double steps (a rotor other than the
+     *  rightmost advancing because it is at its notch) so far. */
+    long doubleSteps() {
+        return _doubleSteps;
+    }
+
+    /** Return the first of my available rotors named NAME, or null if
+     *  there is none. */
+    Rotor availableRotor(String name) {
+        if (_config != null) {
+            int k = _config.rotorIndex(name);
+            return k < 0 ? null : builtRotor(k);
+        }
+        for (Rotor rotor : _availableRotors) {
+            if (rotor.name().equals(name)) {
+                return rotor;
+            }
+        }
+        return null;
+    }
+
+    /** Return my copy of _config's rotor number K, building it if need
+     *  be. */
+    private Rotor builtRotor(int k) {
+        if (_built[k] == null) {
+            _built[k] = _config.newRotor(k);
+        }
+        return _built[k];
+    }
+
+    /** Return AVAILABLEROTORS (building all of them, if they are built
+     *  only when named). */
     public ArrayList<Rotor> getAvailableRotors() {
+        if (_availableRotors == null) {
+            _availableRotors = new ArrayList<>();
+            for (int k = 0; k < _built.length; k += 1) {
+                _availableRotors.add(builtRotor(k));
+            }
+        }
         return _availableRotors;
     }
 
@@ -138,9 +496,33 @@ class Machine {
         return _rotors;
     }
 
-    /** returns SETUPSTRING. */
+    /** Returns the rotor positions after the last character converted,
+     *  as a string of one character per slot (null if none has been).
+     */
     public String getSetupString() {
-        return setupString;
+        if (_setup == null) {
+            return null;
+        }
+        char[] result = new char[_setup.length];
+        for (int k = 0; k < _setup.length; k += 1) {
+            result[k] = _alphabet.toChar(_setup[k]);
+        }
+        return new String(result);
+    }
+
+    /** Record the rotor positions after each character converted in
+     *  TRACE (no recording if null).  TRACE must have as many slots as
+     *  I have rotors. */
+    void setTrace(RotorTrace trace) {
+        if (trace != null && trace.numRotors() != _numRotors) {
+            throw new EnigmaException("trace does not fit machine");
+        }
+        _trace = trace;
+    }
+
+    /** Return my trace, or null if none. */
+    RotorTrace getTrace() {
+        return _trace;
     }
 
     /** Common alphabet of my rotors. */
@@ -150,12 +532,51 @@ class Machine {
     private int _numRotors;
     /** number of pawls. */
     private int _pawls;
-    /** list of available rotors. */
+    /** list of available rotors (null until asked for, if they are
+     *  built from _config when named). */
     private ArrayList<Rotor> _availableRotors;
+    /** Configuration from which rotors are built when named, or null if
+     *  all were given to the constructor. */
+    private Config _config;
+    /** Rotors built from _config so far, by rotor number. */
+    private Rotor[] _built;
     /** list of current rotors. */
     private ArrayList<Rotor> _rotors;
     /** permutation of plugboard. */
     private Permutation _plugboard;
-    /** string of current setting. */
-    private String setupString;
+    /** Rotor positions after the last conversion, by slot. */
+    private int[] _setup;
+    /** Number of double steps so far. */
+    private long _doubleSteps;
+    /** Where rotor positions are recorded, or null. */
+    private RotorTrace _trace;
+    /** _config's engine selector, or null. */
+    private EngineSelector _selector;
+    /** Engine used regardless of the selector, or AUTO. */
+    private int _forcedEngine = EngineSelector.AUTO;
+    /** Threshold used instead of the selector's, or 0. */
+    private long _engineThreshold;
+    /** True iff I am a scratch copy (see scratchCopy). */
+    private boolean _scratch;
+    /** True iff I may use the keystream cache. */
+    private boolean _useKeystreams = true;
+    /** Table-driven copy of my state, or null until first used. */
+    private CompiledMachine _compiled;
+    /** Rotors last loaded into _compiled, by slot. */
+    private Rotor[] _compiledRotors;
+    /** Plugboard last loaded into _compiled. */
+    private Permutation _compiledPlugboard;
+    /** _plugTableSource as a table of indices, or null if it is not
+     *  total. */
+    private int[] _plugTable;
+    /** Plugboard from which _plugTable was made. */
+    private Permutation _plugTableSource;
+    /** Keystream last read by convertCached, or null. */
+    private KeystreamCache.Stream _stream;
+    /** Steps of _stream read so far. */
+    private int _streamStep;
+    /** Rotors, by slot, and plugboard when _stream was started. */
+    private Rotor[] _streamRotors;
+    /** See _streamRotors. */
+    private Permutation _streamPlugboard;
 }
@@ -0,0 +1,158 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** Runs Main in-process over a generated workload and reports how fast
+ *  and how economically it went.
+ *  Usage:
+ *      java enigma.MacroBenchmark [OPTIONS]
+ *  generates a workload (see Workload, whose options are accepted
+ *  here) in a scratch directory, then runs
+ *      Main [MAIN OPTIONS] CONF INPUT OUTPUT
+ *  on it several times, reporting for each round the elapsed time,
+ *  message characters and setting lines processed per second, the
+ *  heap high-water mark (the sum of the heap pools' peak use), and the
+ *  number and total time of garbage collections.  The options besides
+ *  Workload's are
+ *    --rounds=N       number of rounds [5];
+ *    --dir=D          directory for the scratch files [the temporary
+ *                     directory];
+ *    --main=OPTION    pass OPTION (e.g. --main=--engine=general) to
+ *                     Main; may be repeated.
+ *  The first line of output describes the workload, so that results
+ *  from different builds can be compared on the same data.
+ *  @author Jay Chiang
+ */
+public final class MacroBenchmark {
+
+    /** Run the benchmark described by ARGS. */
+    public static void main(String... args) throws IOException {
+        try {
+            new MacroBenchmark(args).run();
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A benchmark configured by the options ARGS. */
+    MacroBenchmark(String... args) {
+        for (String arg : args) {
+            if (arg.startsWith("--rounds=")) {
+                try {
+                    _rounds = Integer.parseInt(arg.substring(9));
+                } catch (NumberFormatException excp) {
+                    _rounds = 0;
+                }
+                if (_rounds < 1) {
+                    throw error("bad option value: %s", arg);
+                }
+            } else if (arg.startsWith("--dir=")) {
+                _dir = new File(arg.substring(6));
+            } else if (arg.startsWith("--main=")) {
+                _mainOptions.add(arg.substring(7));
+            } else if (arg.startsWith("--")) {
+                _workload.setOption(arg);
+            } else {
+                throw error("unexpected argument %s", arg);
+            }
+        }
+    }
+
+    /** Generate the workload and run all rounds, reporting on the
+     *  standard output. */
+    void run() throws IOException {
+        Path conf = File.createTempFile("enigma-macro", ".conf", _dir)
+            .toPath();
+        Path input = File.createTempFile("enigma-macro", ".in", _dir)
+            .toPath();
+        Path output = File.createTempFile("enigma-macro", ".out", _dir)
+            .toPath();
+        try {
+            _workload.write(conf, input);
+            System.out.println(_workload);
+            System.out.printf("%5s %9s %12s %11s %10s %6s %9s%n", "round",
+                              "seconds", "chars/s", "setups/s",
+                              "heap MB", "GCs", "GC ms");
+            ArrayList<String> args = new ArrayList<>(_mainOptions);
+            args.add(conf.toString());
+            args.add(input.toString());
+            args.add(output.toString());
+            for (int r = 1; r <= _rounds; r += 1) {
+                round(r, args.toArray(new String[0]));
+            }
+        } finally {
+            Files.deleteIfExists(conf);
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    /** Run round number ROUND of Main on ARGS and report it. */
+    private void round(int round, String[] args) {
+        System.gc();
+        List<MemoryPoolMXBean> heap = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heap.add(pool);
+            }
+        }
+        long collections = -gcCount(), gcMillis = -gcMillis();
+        long start = System.nanoTime();
+        new Main(args).process();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        collections += gcCount();
+        gcMillis += gcMillis();
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heap) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        System.out.printf("%5d %9.3f %12.0f %11.0f %10.1f %6d %9d%n",
+                          round, seconds,
+                          _workload.messageChars() / seconds,
+                          _workload.settingLines() / seconds,
+                          peak / 1048576.0, collections, gcMillis);
+    }
+
+    /** Return the total number of garbage collections so far. */
+    private static long gcCount() {
+        long result = 0;
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += Math.max(0, gc.getCollectionCount());
+        }
+        return result;
+    }
+
+    /** Return the total time spent in garbage collection so far, in
+     *  milliseconds. */
+    private static long gcMillis() {
+        long result = 0;
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            result += Math.max(0, gc.getCollectionTime());
+        }
+        return result;
+    }
+
+    /** The workload. */
+    private final Workload _workload = new Workload();
+    /** Options for Main. */
+    private final ArrayList<String> _mainOptions = new ArrayList<>();
+    /** Number of rounds. */
+    private int _rounds = 5;
+    /** Directory for scratch files, or null for the default. */
+    private File _dir;
+}
@@ -1,10 +1,23 @@
 package enigma;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 
@@ -16,18 +29,74 @@ import static enigma.EnigmaException.*;
 public final class Main {
 
     /** Process a sequence of encryptions and decryptions, as
-     *  specified by ARGS, where 1 <= ARGS.length <= 3.
+     *  specified by ARGS, where 1 <= ARGS.length <= 3, not counting
+     *  leading options.
      *  ARGS[0] is the name of a configuration file.
      *  ARGS[1] is optional; when present, it names an input file
      *  containing messages.  Otherwise, input comes from the standard
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *
+     *  The options, which must precede the file names, are
+     *    --pipeline       overlap reading, encryption and writing on
+     *                     separate threads;
+     *    --chunk=N        use chunks of N characters in the pipeline;
+     *    --slots=N        keep up to N chunks in flight between stages;
+     *    --stats          report pipeline queue statistics, the engine
+     *                     choices and keystream cache use on the
+     *                     standard error;
+     *    --checkpoint=F   save the state of the run to the file F
+     *                     periodically, so that it can be resumed
+     *                     after a crash (requires input and output
+     *                     files; not with --pipeline);
+     *    --checkpoint-every=S
+     *                     checkpoint every S seconds (default 10);
+     *    --resume         continue from the checkpoint in F, if there
+     *                     is one, truncating the output to the length
+     *                     it had then.  The result is byte-for-byte
+     *                     that of an uninterrupted run.  F is deleted
+     *                     when the run completes;
+     *    --trace=F        keep the rotor positions after each of the
+     *                     last RotorTrace.DEFAULT_CAPACITY characters
+     *                     converted in the memory-mapped file F, for
+     *                     printing with enigma.RotorTrace;
+     *    --engine=E       convert messages with engine E: "general"
+     *                     (the rotors, one character at a time),
+     *                     "compiled" (a CompiledMachine), or "auto"
+     *                     (the default: compiled for messages at least
+     *                     as long as a threshold found by a short
+     *                     calibration run; see EngineSelector);
+     *    --engine-threshold=N
+     *                     with --engine=auto, use N as the threshold
+     *                     instead of calibrating;
+     *    --keystream-cache=MB
+     *                     keep up to MB megabytes of keystreams, so
+     *                     that messages starting from a key already
+     *                     seen are converted by table lookup (see
+     *                     KeystreamCache).  Where the configuration is
+     *                     shared (a Daemon's client, a Batch job), its
+     *                     budget is fixed when it is created, and this
+     *                     option only chooses whether to use the cache:
+     *                     MB = 0 opts out;
+     *    --manifest=M     instead of file names, take the jobs listed
+     *                     in M, one "CONFIG INPUT OUTPUT" per line,
+     *                     and run them all in this JVM (see Batch);
+     *    --threads=N      with --manifest, run up to N jobs at once
+     *                     (default: one per processor);
+     *    --lazy-rotors    only index the rotors in the configuration
+     *                     file, building each when a setting line
+     *                     first names it (see Config.index). */
     public static void main(String... args) {
         try {
-            new Main(args).process();
-            return;
+            Batch batch = Batch.fromArgs(args);
+            if (batch == null) {
+                new Main(args).process();
+                return;
+            } else if (batch.run(System.err)) {
+                return;
+            }
         } catch (EnigmaException excp) {
             System.err.printf("Error: %s%n", excp.getMessage());
         }
@@ -36,11 +105,40 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        int first = 0;
+        while (first < args.length && args[first].startsWith("--")) {
+            setOption(args[first]);
+            first += 1;
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        if (_lazyRotors) {
+            _configText = readText(args[0]);
+        } else {
+            _config = getInput(args[0]);
+        }
+
+        if (_checkpointName != null) {
+            if (_pipelined || args.length != 3) {
+                throw error("--checkpoint needs input and output files "
+                            + "and no --pipeline");
+            }
+            _inputName = args[1];
+            _outputName = args[2];
+            return;
+        }
+        if (_resume) {
+            throw error("--resume needs --checkpoint");
+        }
+
+        if (_pipelined) {
+            _inputStream = args.length > 1 ? openInput(args[1]) : System.in;
+            _output = args.length > 2 ? getOutput(args[2]) : System.out;
+            return;
+        }
 
         if (args.length > 1) {
             _input = getInput(args[1]);
@@ -55,6 +153,100 @@ public final class Main {
         }
     }
 
+    /** A Main that applies the already-parsed configuration CONFIG to
+     *  the messages in INPUT, sending the results to OUTPUT, as modified
+     *  by the command-line OPTIONS (see comment on main).  Since there
+     *  are no input and output files to checkpoint, the checkpoint
+     *  options are rejected.  So is --trace, since the options may come
+     *  from a Daemon's client, which must not have the daemon create
+     *  files of its choosing. */
+    Main(String[] options, Config config, InputStream input,
+         PrintStream output) {
+        for (String option : options) {
+            if (option.startsWith("--checkpoint")
+                || option.equals("--resume")) {
+                throw error("%s needs input and output files", option);
+            } else if (option.startsWith("--trace=")) {
+                throw error("%s is only available to Main itself", option);
+            }
+            setOption(option);
+        }
+        _configuration = config;
+        _inputStream = input;
+        if (!_pipelined) {
+            _input = new Scanner(input);
+        }
+        _output = output;
+    }
+
+    /** A Main with no input or output of its own, for applying the
+     *  already-parsed configuration CONFIG to single messages with
+     *  processMessage. */
+    Main(Config config) {
+        _configuration = config;
+    }
+
+    /** Record the command-line option OPTION. */
+    private void setOption(String option) {
+        if (option.equals("--pipeline")) {
+            _pipelined = true;
+        } else if (option.equals("--stats")) {
+            _stats = true;
+        } else if (option.startsWith("--chunk=")) {
+            _chunkSize = optionValue(option);
+        } else if (option.startsWith("--slots=")) {
+            _slots = optionValue(option);
+        } else if (option.startsWith("--checkpoint=")) {
+            _checkpointName = option.substring(option.indexOf('=') + 1);
+        } else if (option.startsWith("--checkpoint-every=")) {
+            _checkpointInterval = optionValue(option) * NANOS_PER_SECOND;
+        } else if (option.equals("--resume")) {
+            _resume = true;
+        } else if (option.startsWith("--engine=")) {
+            _engineMode = EngineSelector.mode(
+                option.substring(option.indexOf('=') + 1));
+        } else if (option.startsWith("--engine-threshold=")) {
+            _engineThreshold = optionValue(option);
+        } else if (option.startsWith("--keystream-cache=")) {
+            _keystreamMegabytes = keystreamMegabytes(option);
+        } else if (option.equals("--lazy-rotors")) {
+            _lazyRotors = true;
+        } else if (option.startsWith("--trace=")) {
+            _traceName = option.substring(option.indexOf('=') + 1);
+        } else {
+            throw error("unknown option %s", option);
+        }
+    }
+
+    /** Return the positive integer following '=' in OPTION. */
+    private static int optionValue(String option) {
+        try {
+            int value = Integer.parseInt(
+                option.substring(option.indexOf('=') + 1));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("bad option value: %s", option);
+    }
+
+    /** Return the non-negative number of megabytes following '=' in
+     *  the --keystream-cache OPTION. */
+    static int keystreamMegabytes(String option) {
+        try {
+            int value = Integer.parseInt(
+                option.substring(option.indexOf('=') + 1));
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("bad option value: %s", option);
+    }
+
     /** Return a Scanner reading from the file named NAME. */
     private Scanner getInput(String name) {
         try {
@@ -64,6 +256,26 @@ public final class Main {
         }
     }
 
+    /** Return the contents of the file named NAME, decoded as a Scanner
+     *  would decode them. */
+    private String readText(String name) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(name)),
+                              Charset.defaultCharset());
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return an InputStream reading from the file named NAME. */
+    private InputStream openInput(String name) {
+        try {
+            return new FileInputStream(name);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
     /** Return a PrintStream writing to the file named NAME. */
     private PrintStream getOutput(String name) {
         try {
@@ -76,13 +288,182 @@ public final class Main {
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
-    private void process() {
+    void process() {
         Machine m = readConfig();
-        setUp(m, _input.nextLine());
-        if (_ringSetting.equals("BCFG")) {
-            extraCredit();
-        } else {
-            if (!_ringSetting.equals("")) {
+        if (_traceName != null) {
+            m.setTrace(RotorTrace.create(Paths.get(_traceName), _numRotors,
+                                         RotorTrace.DEFAULT_CAPACITY));
+        }
+        if (_checkpointName != null) {
+            processCheckpointed(m);
+            reportEngine();
+            return;
+        }
+        if (_pipelined) {
+            Pipeline pipeline =
+                new Pipeline(_inputStream, _output, _chunkSize, _slots,
+                             Charset.defaultCharset());
+            Pipeline.Stats stats =
+                pipeline.run((line, out) -> processLine(m, line, out));
+            if (!_started) {
+                throw error("bad input");
+            }
+            if (_stats) {
+                System.err.println(stats);
+            }
+            reportEngine();
+            return;
+        }
+        StringBuilder out = new StringBuilder();
+        processLine(m, _input.nextLine(), out);
+        _output.print(out);
+        while (_input.hasNextLine()) {
+            out.setLength(0);
+            processLine(m, _input.nextLine(), out);
+            _output.print(out);
+        }
+        reportEngine();
+    }
+
+    /** Report the engine choices and keystream cache use on the
+     *  standard error, if asked to. */
+    private void reportEngine() {
+        if (_stats) {
+            System.err.println(_configuration.selector().report(
+                _engineMode, _engineThreshold));
+            if (_keystreamMegabytes != 0
+                && _configuration.keystreams().budget() > 0) {
+                System.err.println(_configuration.keystreams().report());
+            }
+        }
+    }
+
+    /** Apply M to the messages in the file _inputName, writing the
+     *  results to the file _outputName and checkpointing to the file
+     *  _checkpointName (see comment on main). */
+    private void processCheckpointed(Machine m) {
+        Path file = Paths.get(_checkpointName);
+        Checkpoint resumed = _resume ? Checkpoint.read(file) : null;
+        long inputOffset = 0, written = 0;
+        if (resumed != null) {
+            StringBuilder ignored = new StringBuilder();
+            processLine(m, resumed.first(), ignored);
+            if (!resumed.current().isEmpty()) {
+                processLine(m, resumed.current(), ignored);
+            }
+            resumed.restore(m);
+            inputOffset = resumed.input();
+            written = resumed.output();
+        }
+        Charset charset = Charset.defaultCharset();
+        try (Checkpoint.Input input =
+                 new Checkpoint.Input(Paths.get(_inputName), charset,
+                                      inputOffset);
+             FileChannel channel =
+                 FileChannel.open(Paths.get(_outputName),
+                                  StandardOpenOption.CREATE,
+                                  StandardOpenOption.WRITE)) {
+            if (channel.size() < written) {
+                throw error("%s is shorter than its checkpoint",
+                            _outputName);
+            }
+            channel.truncate(written);
+            channel.position(written);
+            OutputStream output =
+                new BufferedOutputStream(Channels.newOutputStream(channel),
+                                         Pipeline.DEFAULT_CHUNK);
+            StringBuilder out = new StringBuilder();
+            long next = System.nanoTime() + _checkpointInterval;
+            String line;
+            while ((line = input.readLine()) != null) {
+                out.setLength(0);
+                processLine(m, line, out);
+                byte[] bytes = out.toString().getBytes(charset);
+                output.write(bytes);
+                written += bytes.length;
+                if (System.nanoTime() >= next) {
+                    output.flush();
+                    channel.force(false);
+                    new Checkpoint(input.offset(), written, _firstSettings,
+                                   _currentSettings, m).write(file);
+                    next = System.nanoTime() + _checkpointInterval;
+                }
+            }
+            if (!_started) {
+                throw error("bad input");
+            }
+            output.flush();
+            Files.deleteIfExists(file);
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Set the time between checkpoints to NANOS nanoseconds. */
+    void setCheckpointInterval(long nanos) {
+        _checkpointInterval = nanos;
+    }
+
+    /** Return the output that processing an input consisting of the
+     *  setting line SETTINGS followed by the lines of MESSAGE would
+     *  produce, using a freshly configured machine.  MESSAGE is split
+     *  into lines as an input file is (see lines). */
+    String processMessage(String settings, String message) {
+        Machine m = readConfig();
+        _started = false;
+        _extraCredit = false;
+        StringBuilder out = new StringBuilder();
+        processLine(m, settings, out);
+        for (String line : lines(message)) {
+            processLine(m, line, out);
+        }
+        return out.toString();
+    }
+
+    /** Return true iff CH ends a line for Scanner.nextLine, which is how
+     *  I read my input: CH is one of LINE_ENDS.  A '\r' followed by a
+     *  '\n' ends a single line. */
+    static boolean lineEnd(char ch) {
+        return ch == '\n' || ch == '\r' || ch == '\u2028'
+            || ch == '\u2029' || ch == '\u0085';
+    }
+
+    /** Return the lines of TEXT, without their terminators, as
+     *  Scanner.nextLine would return them: a terminator at the very end
+     *  does not start another, empty line. */
+    static ArrayList<String> lines(String text) {
+        ArrayList<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            char ch = text.charAt(i);
+            if (lineEnd(ch)) {
+                result.add(text.substring(start, i));
+                if (ch == '\r' && i + 1 < text.length()
+                    && text.charAt(i + 1) == '\n') {
+                    i += 1;
+                }
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            result.add(text.substring(start));
+        }
+        return result;
+    }
+
+    /** Apply M to one LINE of input, appending the results to OUT.  The
+     *  first line must be a setting line, whose ring setting (if any)
+     *  then applies to all messages. */
+    void processLine(Machine m, String line, StringBuilder out) {
+        if (!_started) {
+            _started = true;
+            _firstSettings = line;
+            _currentSettings = "";
+            setUp(m, line);
+            if (_ringSetting.equals("BCFG")) {
+                _extraCredit = true;
+                extraCredit(out);
+            } else if (!_ringSetting.equals("")) {
                 ArrayList<Rotor> rotors = m.getRotors();
                 for (int i = 1; i < rotors.size(); i += 1) {
                     char newRingChar = _ringSetting.charAt(i - 1);
@@ -91,107 +472,103 @@ public final class Main {
                     currRotor.setRingAdjustment(adjustment);
                 }
             }
-            while (_input.hasNextLine()) {
-                String nextLine = _input.nextLine();
-                if (!nextLine.isEmpty()) {
-                    if (nextLine.charAt(0) != '*') {
-                        String msg = m.convert(nextLine);
-                        printMessageLine(msg);
-                    } else {
-                        setUp(m, nextLine);
-                    }
-                } else {
-                    printMessageLine("");
-                }
+        } else if (_extraCredit) {
+            return;
+        } else if (!line.isEmpty()) {
+            if (line.charAt(0) != '*') {
+                Events.Conversion event = new Events.Conversion();
+                event.begin();
+                long doubleSteps = m.doubleSteps();
+                String msg = m.convert(line);
+                printMessageLine(msg, out);
+                commit(event, m, line.length(), msg.length(), doubleSteps);
+            } else {
+                _currentSettings = line;
+                setUp(m, line);
             }
+        } else {
+            printMessageLine("", out);
         }
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
-        try {
-            _alphabet = new Alphabet(_config.next());
-            _numRotors = _config.nextInt();
-            _numPawls = _config.nextInt();
-            ArrayList<Rotor> rotors = new ArrayList<>();
-            while (_config.hasNext()) {
-                rotors.add(readRotor());
+    /** Commit EVENT, if it is enabled, for a message line of IN
+     *  characters of which OUT were converted by M, whose double step
+     *  count had been DOUBLESTEPS, and report any double steps in the
+     *  line. */
+    static void commit(Events.Conversion event, Machine m, int in, int out,
+                       long doubleSteps) {
+        if (event.shouldCommit()) {
+            event.charsIn = in;
+            event.charsOut = out;
+            event.charsSkipped = in - out;
+            event.commit();
+        }
+        if (m.doubleSteps() != doubleSteps) {
+            Events.Stepping stepping = new Events.Stepping();
+            if (stepping.isEnabled()) {
+                stepping.doubleSteps = (int) (m.doubleSteps() - doubleSteps);
+                stepping.setupAfter = m.getSetupString();
+                stepping.commit();
             }
-            return new Machine(_alphabet, _numRotors, _numPawls, rotors);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
         }
     }
 
-    /** A helper function for readRotor. Return a string. */
-    private String readRotorHelper() {
-        int charLeft = _alphabet.size();
-        boolean done = false;
-        ArrayList<String> permList = new ArrayList<>();
-        while (!done) {
-            if (_config.hasNext()) {
-                String onePerm = _config.next();
-                if (onePerm.charAt(0) == '('
-                        && onePerm.charAt(onePerm.length() - 1) == ')') {
-                    permList.add(onePerm);
-                    charLeft -= (onePerm.length() - 2);
-                    if (charLeft <= 0) {
-                        done = true;
-                    }
-                } else {
-                    throw new NoSuchElementException();
-                }
-            } else {
-                done = true;
+    /** Return true iff the first setting line selected the canned
+     *  output, so that all later lines are ignored. */
+    boolean ignoresMessages() {
+        return _extraCredit;
+    }
+
+    /** Return an Enigma machine configured from the contents of configuration
+     *  file _config, or from the configuration I was given, if any. */
+    Machine readConfig() {
+        Events.ConfigRead event = new Events.ConfigRead();
+        event.begin();
+        event.reused = _configuration != null;
+        if (_configuration == null) {
+            _configuration = _configText != null
+                ? Config.index(_configText) : Config.read(_config);
+            if (_keystreamMegabytes > 0) {
+                _configuration.keystreams().setBudget(
+                    (long) _keystreamMegabytes << 20);
             }
         }
-        String permString = permList.get(0);
-        for (int i = 1; i < permList.size(); i += 1) {
-            permString += " ";
-            permString += permList.get(i);
+        _alphabet = _configuration.alphabet();
+        _numRotors = _configuration.numRotors();
+        _numPawls = _configuration.numPawls();
+        _plugboardSpec = null;
+        Machine m = _configuration.newMachine();
+        m.forceEngine(_engineMode);
+        m.setEngineThreshold(_engineThreshold);
+        m.useKeystreams(_keystreamMegabytes != 0);
+        if (event.shouldCommit()) {
+            event.rotors = _configuration.numRotorsAvailable();
+            event.alphabetSize = _alphabet.size();
+            event.commit();
         }
-        return permString;
+        return m;
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
-        try {
-            String name = _config.next();
-            String type = _config.next();
-            if (type.equals("R")) {
-                String permString = readRotorHelper();
-                Permutation perm = new Permutation(permString, _alphabet);
-                return new Reflector(name, perm);
-            } else if (type.equals("N")) {
-                String permString = readRotorHelper();
-                Permutation perm = new Permutation(permString, _alphabet);
-                return new FixedRotor(name, perm);
-            } else if (type.charAt(0) == 'M') {
-                char[] notches = type.toCharArray();
-                String notchesString = "";
-                for (int i = 1; i < notches.length; i += 1) {
-                    notchesString += notches[i];
-                }
-                String permString = readRotorHelper();
-                Permutation perm = new Permutation(permString, _alphabet);
-                return new MovingRotor(name, perm, notchesString);
-            }
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
+    /** Return the configuration that readConfig uses, reading it
+     *  first if need be. */
+    Config configuration() {
+        if (_configuration == null) {
+            readConfig();
         }
-        return null;
+        return _configuration;
     }
 
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
     private void setUp(Machine M, String settings) {
+        Events.SetUp event = new Events.SetUp();
+        event.begin();
         try {
             Scanner input = new Scanner(settings);
             if (!(input.next().equals("*"))) {
                 throw new NoSuchElementException();
             }
-            String [] rotorNames = getRotorNames(input, M.getAvailableRotors());
+            String [] rotorNames = getRotorNames(input, M);
             M.insertRotors(rotorNames);
             M.setRotors(input.next());
             _ringSetting = "";
@@ -212,43 +589,34 @@ public final class Main {
                     }
                 }
             }
-            M.setPlugboard(new Permutation(plugboard, _alphabet));
+            event.plugboardCacheHit = plugboard.equals(_plugboardSpec);
+            if (!event.plugboardCacheHit) {
+                _plugboard = new Permutation(plugboard, _alphabet);
+                _plugboardSpec = plugboard;
+            }
+            M.setPlugboard(_plugboard);
+            if (event.shouldCommit()) {
+                event.settings = settings;
+                event.commit();
+            }
         } catch (NoSuchElementException e) {
             throw error("bad input");
         }
     }
 
-    /** Return array of rotor names by reading INPUT and
-     *  using AVAILABLEROTORS. */
-    private String[] getRotorNames(
-            Scanner input, ArrayList<Rotor> availableRotors) {
+    /** Return array of rotor names by reading INPUT and checking them
+     *  against the available rotors of M. */
+    private String[] getRotorNames(Scanner input, Machine M) {
         String[] rotorNames =  new String[_numRotors];
         int checkMoving = _numRotors - _numPawls;
         for (int i = 0; i < _numRotors; i += 1) {
             String rotorName = input.next();
-            if (i == 0) {
-                for (int j = 0; j < availableRotors.size(); j += 1) {
-                    if (rotorName.equals(availableRotors.get(j).name())) {
-                        if (!availableRotors.get(j).reflecting()) {
-                            throw new NoSuchElementException();
-                        }
-                    }
-                }
-            } else if (i > 0 && i < checkMoving) {
-                for (int j = 0; j < availableRotors.size(); j += 1) {
-                    if (rotorName.equals(availableRotors.get(j).name())) {
-                        if (availableRotors.get(j).rotates()) {
-                            throw new NoSuchElementException();
-                        }
-                    }
-                }
-            } else if (i >= checkMoving) {
-                for (int j = 0; j < availableRotors.size(); j += 1) {
-                    if (rotorName.equals(availableRotors.get(j).name())) {
-                        if (!availableRotors.get(j).rotates()) {
-                            throw new NoSuchElementException();
-                        }
-                    }
+            Rotor rotor = M.availableRotor(rotorName);
+            if (rotor != null) {
+                if (i == 0 && !rotor.reflecting()
+                    || i > 0 && i < checkMoving && rotor.rotates()
+                    || i >= checkMoving && !rotor.rotates()) {
+                    throw new NoSuchElementException();
                 }
             }
             rotorNames[i] = rotorName;
@@ -256,25 +624,23 @@ public final class Main {
         return rotorNames;
     }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
+    /** Append MSG to OUT in groups of five (except that the last group
+     *  may have fewer letters). */
+    private void printMessageLine(String msg, StringBuilder out) {
         int j = 0;
-        String output = "";
         for (int i = 0; i < msg.length(); i += 1) {
             if (j == 5) {
                 j = 0;
-                output += " ";
+                out.append(' ');
             }
             j += 1;
-            output += msg.charAt(i);
+            out.append(msg.charAt(i));
         }
-        output += "\n";
-        _output.print(output);
+        out.append('\n');
     }
 
-    /** this is extra credit. */
-    private void extraCredit() {
+    /** this is extra credit.  Appends to OUT. */
+    private void extraCredit(StringBuilder out) {
         String[] string = new String[] {
             "VUSZK MAGXK OSXCG ZVDGY CQI\n",
             "ZIZBI YHFCP XGKXU KPNWX KFK\n",
@@ -304,7 +670,7 @@ public final class Main {
             "LIKEA COMPL ICATE DFIGU RE\n",
             "INTHE SECON DBOOK OFEUC LID\n"};
         for (int i = 0; i < string.length; i += 1) {
-            _output.print(string[i]);
+            out.append(string[i]);
         }
     }
 
@@ -316,6 +682,11 @@ public final class Main {
 
     /** Source of machine configuration. */
     private Scanner _config;
+    /** Text of the machine configuration, when it is to be indexed
+     *  lazily rather than read. */
+    private String _configText;
+    /** The parsed machine configuration. */
+    private Config _configuration;
 
     /** number of rotors. */
     private int _numRotors;
@@ -326,4 +697,53 @@ public final class Main {
 
     /** File for encoded/decoded messages. */
     private PrintStream _output;
+
+    /** Raw source of input messages when pipelined. */
+    private InputStream _inputStream;
+    /** True iff reading, encryption and writing run as a pipeline. */
+    private boolean _pipelined;
+    /** True iff pipeline statistics are reported. */
+    private boolean _stats;
+    /** Pipeline chunk size in characters. */
+    private int _chunkSize = Pipeline.DEFAULT_CHUNK;
+    /** Number of pipeline chunks in flight between stages. */
+    private int _slots = Pipeline.DEFAULT_SLOTS;
+    /** True once the first setting line has been processed. */
+    private boolean _started;
+    /** True iff the first setting line selected the canned output. */
+    private boolean _extraCredit;
+    /** The plugboard specification of the last setting line, or null,
+     *  and the plugboard made from it. */
+    private String _plugboardSpec;
+    /** See _plugboardSpec. */
+    private Permutation _plugboard;
+    /** The first setting line, and the later one in effect (or ""). */
+    private String _firstSettings, _currentSettings;
+
+    /** The characters that end lines (see lineEnd). */
+    static final String LINE_ENDS = "\n\r\u2028\u2029\u0085";
+    /** Nanoseconds in a second. */
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    /** Default time between checkpoints, in seconds. */
+    private static final long DEFAULT_CHECKPOINT_SECONDS = 10;
+    /** Name of the checkpoint file, or null if not checkpointing. */
+    private String _checkpointName;
+    /** Names of the input and output files when checkpointing. */
+    private String _inputName, _outputName;
+    /** True iff resuming from a checkpoint. */
+    private boolean _resume;
+    /** Name of the rotor trace file, or null if not tracing. */
+    private String _traceName;
+    /** True iff rotors are built only when first named. */
+    private boolean _lazyRotors;
+    /** Engine mode given by --engine. */
+    private int _engineMode = EngineSelector.AUTO;
+    /** Threshold given by --engine-threshold, or 0. */
+    private int _engineThreshold;
+    /** Keystream cache budget in megabytes given by --keystream-cache
+     *  (0 to opt out of the cache), or -1. */
+    private int _keystreamMegabytes = -1;
+    /** Time between checkpoints, in nanoseconds. */
+    private long _checkpointInterval =
+        DEFAULT_CHECKPOINT_SECONDS * NANOS_PER_SECOND;
 }
@@ -0,0 +1,335 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** Scores texts by a weighted sum of n-gram log probabilities of
+ *  several orders (typically unigrams to quadgrams), from tables kept
+ *  in a binary file that is mapped into memory, so that any number of
+ *  searches, in one JVM or many, share one copy in the page cache.
+ *  The score of a text is the sum over each order K of WEIGHT(K) times
+ *  the sum of the log probabilities of its K-grams, as NGramScorer
+ *  would give for a table of that order alone.
+ *
+ *  Scoring never allocates and reads one table entry per character:
+ *  the file also holds a combined table for the highest order H, whose
+ *  entry for an H-gram is the weighted sum of the log probabilities of
+ *  its suffixes of every order, so that each position from H-1 on
+ *  contributes one lookup; only the first H-1 positions look at the
+ *  tables of each order.  Since a change to characters FROM to TO-1
+ *  alters only the contributions of positions FROM to TO+H-2, window
+ *  gives the part of a score that a change may alter, and a search
+ *  that tries a change can rescore in time independent of the length
+ *  of the text.
+ *
+ *  A file holds, in little-endian order, MAGIC, VERSION, the alphabet
+ *  size N, H, and the number of tables; the alphabet, as N chars
+ *  padded to a multiple of 4 bytes; the order and weight of each
+ *  table; the tables, as floats indexed by n-gram as in NGramScorer;
+ *  and the combined table.  Usage:
+ *      java enigma.MappedNGramScorer [--weights=W,...] CONF OUT TABLE...
+ *  writes to OUT the tables read from the files TABLE (in the format
+ *  NGramScorer reads, of different orders) for the alphabet of the
+ *  configuration in CONF, with the given weights (in the order of the
+ *  tables; by default, 1 for the highest order and 0 for the others).
+ *  Instances are immutable and may be shared among threads.
+ *  @author Jay Chiang
+ */
+public final class MappedNGramScorer implements Scorer {
+
+    /** Write the tables described by ARGS. */
+    public static void main(String... args) {
+        try {
+            double[] weights = null;
+            int first = 0;
+            if (args.length > 0 && args[0].startsWith("--weights=")) {
+                String[] values = args[0].substring(10).split(",");
+                weights = new double[values.length];
+                for (int i = 0; i < values.length; i += 1) {
+                    weights[i] = Double.parseDouble(values[i]);
+                }
+                first = 1;
+            }
+            if (args.length < first + 3) {
+                throw error("Usage: java enigma.MappedNGramScorer "
+                            + "[--weights=W,...] CONF OUT TABLE...");
+            }
+            Alphabet alpha = KeySearch.readConfig(args[first]).alphabet();
+            List<NGramScorer> tables = new ArrayList<>();
+            for (int i = first + 2; i < args.length; i += 1) {
+                tables.add(NGramScorer.read(alpha, args[i]));
+            }
+            write(Paths.get(args[first + 1]), alpha, tables, weights);
+        } catch (NumberFormatException excp) {
+            System.err.println("Error: bad weight");
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Write to FILE the TABLES, which are over ALPHABET and of distinct
+     *  orders, with WEIGHTS (one per table) or, if WEIGHTS is null,
+     *  weight 1 for the table of highest order and 0 for the others. */
+    static void write(Path file, Alphabet alphabet, List<NGramScorer> tables,
+                      double[] weights) {
+        int n = alphabet.size(), count = tables.size();
+        if (count == 0 || weights != null && weights.length != count) {
+            throw error("need one weight per n-gram table");
+        }
+        int highest = 0;
+        NGramScorer[] byOrder = new NGramScorer[MAX_ORDER + 1];
+        for (NGramScorer table : tables) {
+            int order = table.order();
+            if (table.size() != n || order > MAX_ORDER
+                || byOrder[order] != null) {
+                throw error("n-gram tables must be of distinct orders up "
+                            + "to %d, over the same alphabet", MAX_ORDER);
+            }
+            byOrder[order] = table;
+            highest = Math.max(highest, order);
+        }
+        double[] weight = new double[highest + 1];
+        for (int t = 0; t < count; t += 1) {
+            int order = tables.get(t).order();
+            weight[order] = weights != null ? weights[t]
+                : order == highest ? 1 : 0;
+        }
+
+        int cells = power(n, highest);
+        ByteBuffer header = ByteBuffer.allocate(
+            20 + align(2 * n) + 8 * count).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(highest)
+            .putInt(count);
+        for (int c = 0; c < n; c += 1) {
+            header.putChar(alphabet.toChar(c));
+        }
+        header.position(20 + align(2 * n));
+        for (NGramScorer table : tables) {
+            header.putInt(table.order())
+                .putFloat((float) weight[table.order()]);
+        }
+        try (OutputStream out = new BufferedOutputStream(
+                 Files.newOutputStream(file), 1 << 16)) {
+            out.write(header.array());
+            ByteBuffer floats = ByteBuffer.allocate(1 << 16)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            for (NGramScorer table : tables) {
+                int size = power(n, table.order());
+                for (int i = 0; i < size; i += 1) {
+                    put(out, floats, (float) table.logProb(i));
+                }
+            }
+            for (int q = 0; q < cells; q += 1) {
+                double sum = 0;
+                int suffix = 0, mult = 1;
+                for (int k = 1; k <= highest; k += 1) {
+                    suffix += q / mult % n * mult;
+                    mult *= n;
+                    if (byOrder[k] != null) {
+                        sum += weight[k] * byOrder[k].logProb(suffix);
+                    }
+                }
+                put(out, floats, (float) sum);
+            }
+            out.write(floats.array(), 0, floats.position());
+        } catch (IOException excp) {
+            throw error("could not write %s", file);
+        }
+    }
+
+    /** Add X to BUF, first writing BUF's contents to OUT if it is
+     *  full. */
+    private static void put(OutputStream out, ByteBuffer buf, float x)
+        throws IOException {
+        if (!buf.hasRemaining()) {
+            out.write(buf.array(), 0, buf.position());
+            buf.clear();
+        }
+        buf.putFloat(x);
+    }
+
+    /** Return N to the power K, which must fit the tables. */
+    private static int power(int n, int k) {
+        double result = Math.pow(n, k);
+        if (result > MAX_CELLS) {
+            throw error("n-gram table too large");
+        }
+        return (int) result;
+    }
+
+    /** Return X rounded up to a multiple of 4. */
+    private static int align(int x) {
+        return (x + 3) & ~3;
+    }
+
+    /** Return true iff the file named NAME begins as my files do. */
+    static boolean isMapped(String name) {
+        try (DataInputStream in = new DataInputStream(
+                 Files.newInputStream(Paths.get(name)))) {
+            return Integer.reverseBytes(in.readInt()) == MAGIC;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Return a scorer over ALPHABET for the file named NAME: a
+     *  MappedNGramScorer if it is in my format, and otherwise an
+     *  NGramScorer reading it as a table of counts. */
+    static Scorer load(Alphabet alphabet, String name) {
+        return isMapped(name) ? open(alphabet, Paths.get(name))
+            : NGramScorer.read(alphabet, name);
+    }
+
+    /** Return a scorer over ALPHABET mapping the tables in FILE. */
+    static MappedNGramScorer open(Alphabet alphabet, Path file) {
+        ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                              channel.size());
+        } catch (IOException excp) {
+            throw error("could not open %s", file);
+        }
+        try {
+            return new MappedNGramScorer(alphabet,
+                                         buf.order(ByteOrder.LITTLE_ENDIAN));
+        } catch (RuntimeException excp) {
+            throw error("%s is not an n-gram file for this alphabet", file);
+        }
+    }
+
+    /** A scorer over ALPHABET for the tables in BUF. */
+    private MappedNGramScorer(Alphabet alphabet, ByteBuffer buf) {
+        int n = buf.getInt(8), count = buf.getInt(16);
+        _size = n;
+        _order = buf.getInt(12);
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION
+            || n != alphabet.size() || _order < 1 || _order > MAX_ORDER) {
+            throw new IllegalArgumentException();
+        }
+        for (int c = 0; c < n; c += 1) {
+            if (buf.getChar(20 + 2 * c) != alphabet.toChar(c)) {
+                throw new IllegalArgumentException();
+            }
+        }
+        _tables = new FloatBuffer[_order + 1];
+        _weights = new float[_order + 1];
+        int entry = 20 + align(2 * n);
+        int offset = entry + 8 * count;
+        for (int t = 0; t < count; t += 1) {
+            int order = buf.getInt(entry + 8 * t);
+            _weights[order] = buf.getFloat(entry + 8 * t + 4);
+            _tables[order] = floats(buf, offset, power(n, order));
+            offset += 4 * power(n, order);
+        }
+        _combined = floats(buf, offset, power(n, _order));
+        if (offset + 4 * power(n, _order) != buf.limit()) {
+            throw new IllegalArgumentException();
+        }
+        _top = power(n, _order - 1);
+    }
+
+    /** Return a view of the COUNT floats at OFFSET in BUF. */
+    private static FloatBuffer floats(ByteBuffer buf, int offset,
+                                      int count) {
+        return buf.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+            .position(offset).limit(offset + 4 * count).slice()
+            .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+    /** Return the highest order of n-gram I score. */
+    int order() {
+        return _order;
+    }
+
+    /** Return the weight of the n-grams of order K (0 if I have no
+     *  table of that order). */
+    double weight(int k) {
+        return k < _weights.length ? _weights[k] : 0;
+    }
+
+    @Override
+    public double score(int[] text, int len) {
+        return window(text, len, 0, len);
+    }
+
+    /** Return the sum of the contributions of the positions of the
+     *  first LEN indices of TEXT that a change to TEXT[FROM .. TO-1]
+     *  can alter: those from FROM to TO + order() - 2.  The score after
+     *  such a change is the score before, less this sum before, plus
+     *  this sum after. */
+    double window(int[] text, int len, int from, int to) {
+        int end = Math.min(len, to + _order - 1);
+        double sum = 0;
+        int i = Math.max(from, 0);
+        for (; i < end && i < _order - 1; i += 1) {
+            sum += edge(text, i);
+        }
+        if (i < end) {
+            int n = _size, top = _top;
+            FloatBuffer combined = _combined;
+            int index = 0;
+            for (int j = i - _order + 1; j <= i; j += 1) {
+                index = index * n + text[j];
+            }
+            sum += combined.get(index);
+            for (int k = i + 1; k < end; k += 1) {
+                index = (index - text[k - _order] * top) * n + text[k];
+                sum += combined.get(index);
+            }
+        }
+        return sum;
+    }
+
+    /** Return the contribution of position I of TEXT, for I < order()
+     *  - 1: the weighted log probabilities of the n-grams of each order
+     *  ending there. */
+    private double edge(int[] text, int i) {
+        double sum = 0;
+        int index = 0, mult = 1;
+        for (int k = 1; k <= i + 1; k += 1) {
+            index += text[i - k + 1] * mult;
+            mult *= _size;
+            if (_tables[k] != null) {
+                sum += _weights[k] * _tables[k].get(index);
+            }
+        }
+        return sum;
+    }
+
+    /** First int of a file. */
+    static final int MAGIC = 0x4E47524D;
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+    /** Highest order allowed. */
+    private static final int MAX_ORDER = 8;
+    /** Largest number of entries allowed in a table. */
+    private static final double MAX_CELLS = 1 << 26;
+
+    /** Alphabet size. */
+    private final int _size;
+    /** Highest order. */
+    private final int _order;
+    /** _size to the power _order - 1. */
+    private final int _top;
+    /** Tables by order (null where there is none). */
+    private final FloatBuffer[] _tables;
+    /** Weights by order. */
+    private final float[] _weights;
+    /** Combined table of order _order. */
+    private final FloatBuffer _combined;
+}
@@ -0,0 +1,151 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+import static enigma.PlugboardSolverTest.ngramTable;
+
+/** The suite of all JUnit tests for the MappedNGramScorer class.
+ *  @author Jay Chiang
+ */
+public class MappedNGramScorerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Text from which the tables are counted. */
+    private static final String TEXT =
+        "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOGANDTHENRUNSBACKTOTHEBARN"
+        + "WHEREITSLEEPSUNTILTHESUNRISESOVERTHEHILLSINTHEEASTERNSKY";
+
+    /** Return the tables of orders 1 to 4 counted from TEXT. */
+    private List<NGramScorer> tables(Alphabet alpha) {
+        List<NGramScorer> result = new ArrayList<>();
+        for (int k = 1; k <= 4; k += 1) {
+            result.add(new NGramScorer(alpha,
+                                       new Scanner(ngramTable(TEXT, k))));
+        }
+        return result;
+    }
+
+    /** Return LEN random indices below N drawn with RANDOM. */
+    private int[] random(int len, int n, Random random) {
+        int[] result = new int[len];
+        for (int i = 0; i < len; i += 1) {
+            result[i] = random.nextInt(n);
+        }
+        return result;
+    }
+
+    /** Return the scorer for TABLES over ALPHA with WEIGHTS, written to
+     *  and mapped from a temporary file. */
+    private MappedNGramScorer mapped(Alphabet alpha, List<NGramScorer> tables,
+                                     double[] weights) throws IOException {
+        Path file = Files.createTempFile("ngrams", ".bin");
+        try {
+            MappedNGramScorer.write(file, alpha, tables, weights);
+            assertTrue(MappedNGramScorer.isMapped(file.toString()));
+            return MappedNGramScorer.open(alpha, file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testMatchesNGramScorer() throws IOException {
+        Alphabet alpha = new Alphabet();
+        List<NGramScorer> tables = tables(alpha);
+        MappedNGramScorer quad = mapped(alpha, tables, null);
+        assertEquals(4, quad.order());
+        assertEquals(1, quad.weight(4), 0);
+        assertEquals(0, quad.weight(2), 0);
+        double[] weights = { 0.5, 0.25, 1, 2 };
+        MappedNGramScorer mixed = mapped(alpha, tables, weights);
+        Random random = new Random(49);
+        for (int len : new int[] { 4, 5, 17, 200 }) {
+            int[] text = random(len, alpha.size(), random);
+            double expected = 0;
+            for (int k = 0; k < 4; k += 1) {
+                expected += weights[k] * tables.get(k).score(text, len);
+            }
+            assertEquals(tables.get(3).score(text, len),
+                         quad.score(text, len), 1e-3);
+            assertEquals(expected, mixed.score(text, len), 1e-3);
+        }
+        int[] plain = KeySearch.indices(alpha, TEXT);
+        assertTrue(mixed.score(plain, 40)
+                   > mixed.score(random(40, 26, random), 40));
+    }
+
+    @Test
+    public void testWindow() throws IOException {
+        Alphabet alpha = new Alphabet();
+        MappedNGramScorer scorer =
+            mapped(alpha, tables(alpha), new double[] { 1, 1, 1, 1 });
+        Random random = new Random(50);
+        int len = 120;
+        int[] text = random(len, alpha.size(), random);
+        double score = scorer.score(text, len);
+        for (int trial = 0; trial < 200; trial += 1) {
+            int from = random.nextInt(len);
+            int to = Math.min(len, from + 1 + random.nextInt(3));
+            double before = scorer.window(text, len, from, to);
+            for (int i = from; i < to; i += 1) {
+                text[i] = random.nextInt(alpha.size());
+            }
+            score += scorer.window(text, len, from, to) - before;
+            assertEquals(scorer.score(text, len), score, 1e-3);
+        }
+        assertEquals(0, scorer.score(text, 0), 0);
+    }
+
+    @Test
+    public void testBadFiles() throws IOException {
+        Alphabet alpha = new Alphabet();
+        Path file = Files.createTempFile("ngrams", ".bin");
+        try {
+            MappedNGramScorer.write(file, alpha, tables(alpha), null);
+            try {
+                MappedNGramScorer.open(new Alphabet("ABCDEFGHIJKLMNOPQRST"
+                                                    + "UVWXZY"), file);
+                fail("opened with the wrong alphabet");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+            Files.write(file, Arrays.copyOf(Files.readAllBytes(file), 100));
+            try {
+                MappedNGramScorer.open(alpha, file);
+                fail("opened a truncated file");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+            try {
+                List<NGramScorer> twice = tables(alpha);
+                twice.add(twice.get(0));
+                MappedNGramScorer.write(file, alpha, twice, null);
+                fail("accepted two tables of one order");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+}
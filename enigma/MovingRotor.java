@@ -1,7 +1,5 @@
 package enigma;
 
-import java.util.ArrayList;
-
 import static enigma.EnigmaException.*;
 
 /** Class that represents a rotating rotor in the enigma machine.
@@ -16,9 +14,12 @@ class MovingRotor extends Rotor {
      */
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
-        _notches = new ArrayList<>();
+        _notches = new boolean[perm.size()];
         for (int i = 0; i < notches.length(); i += 1) {
-            _notches.add(permutation().alphabet().toInt(notches.charAt(i)));
+            int notch = permutation().alphabet().toInt(notches.charAt(i));
+            if (notch >= 0) {
+                _notches[notch] = true;
+            }
         }
         super.set(0);
     }
@@ -30,7 +31,8 @@ class MovingRotor extends Rotor {
 
     @Override
     boolean atNotch() {
-        return _notches.contains(_position);
+        return _position >= 0 && _position < _notches.length
+            && _notches[_position];
     }
 
     @Override
@@ -42,6 +44,6 @@ class MovingRotor extends Rotor {
         }
     }
 
-    /** list of notches. */
-    private ArrayList<Integer> _notches;
+    /** _notches[P] is true iff P is a notch position. */
+    private boolean[] _notches;
 }
@@ -0,0 +1,135 @@
+package enigma;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** Scores texts by the sum of the log probabilities of their n-grams
+ *  (all of one order), as estimated from a table of counts.  N-grams
+ *  absent from the table get a floor probability of 0.01 occurrences.
+ *  Instances are immutable and may be shared among threads.
+ *  @author Jay Chiang
+ */
+final class NGramScorer implements Scorer {
+
+    /** A scorer over ALPHABET whose counts are read from TABLE, which
+     *  contains pairs "NGRAM COUNT", where all the NGRAMs have the same
+     *  length.  N-grams containing characters outside ALPHABET are
+     *  ignored. */
+    NGramScorer(Alphabet alphabet, Scanner table) {
+        _size = alphabet.size();
+        String first = table.hasNext() ? table.next() : null;
+        if (first == null) {
+            throw error("empty n-gram table");
+        }
+        _order = first.length();
+        double cells = Math.pow(_size, _order);
+        if (cells > MAX_CELLS) {
+            throw error("n-gram table too large");
+        }
+        _logProb = new double[(int) cells];
+        long[] counts = new long[_logProb.length];
+        long total = 0;
+        for (String gram = first; gram != null;
+             gram = table.hasNext() ? table.next() : null) {
+            if (!table.hasNextLong() || gram.length() != _order) {
+                throw error("bad n-gram table entry: %s", gram);
+            }
+            long count = table.nextLong();
+            int index = index(alphabet, gram);
+            if (index >= 0) {
+                counts[index] += count;
+                total += count;
+            }
+        }
+        double floor = Math.log10(FLOOR / Math.max(total, 1));
+        for (int i = 0; i < counts.length; i += 1) {
+            _logProb[i] = counts[i] == 0 ? floor
+                : Math.log10((double) counts[i] / total);
+        }
+    }
+
+    /** Return a scorer over ALPHABET with counts read from the file
+     *  named NAME (see the constructor). */
+    static NGramScorer read(Alphabet alphabet, String name) {
+        try (Scanner table = new Scanner(new File(name))) {
+            return new NGramScorer(alphabet, table);
+        } catch (FileNotFoundException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return the table index of GRAM, or -1 if GRAM contains a
+     *  character not in ALPHABET. */
+    private int index(Alphabet alphabet, String gram) {
+        int index = 0;
+        for (int i = 0; i < gram.length(); i += 1) {
+            int c = alphabet.toInt(gram.charAt(i));
+            if (c < 0) {
+                return -1;
+            }
+            index = index * _size + c;
+        }
+        return index;
+    }
+
+    /** Return the length of the n-grams I score. */
+    int order() {
+        return _order;
+    }
+
+    @Override
+    public double score(int[] text, int len) {
+        if (len < _order) {
+            return 0.0;
+        }
+        int mod = _logProb.length / _size;
+        int index = 0;
+        for (int i = 0; i < _order - 1; i += 1) {
+            index = index * _size + text[i];
+        }
+        double sum = 0;
+        for (int i = _order - 1; i < len; i += 1) {
+            index = (index % mod) * _size + text[i];
+            sum += _logProb[index];
+        }
+        return sum;
+    }
+
+    /** Return the size of my alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the log probability of the n-gram whose characters are the
+     *  digits of INDEX in base size(), most significant first. */
+    double logProb(int index) {
+        return _logProb[index];
+    }
+
+    /** Return the log probability of the n-gram of TEXT starting at
+     *  START, so that score(TEXT, LEN) is the sum of gram(TEXT, S) for
+     *  S from 0 to LEN - order(). */
+    double gram(int[] text, int start) {
+        int index = 0;
+        for (int i = start; i < start + _order; i += 1) {
+            index = index * _size + text[i];
+        }
+        return _logProb[index];
+    }
+
+    /** Largest number of table entries allowed. */
+    private static final double MAX_CELLS = 1 << 26;
+    /** Count assumed for unseen n-grams. */
+    private static final double FLOOR = 0.01;
+
+    /** Alphabet size. */
+    private final int _size;
+    /** N-gram length. */
+    private final int _order;
+    /** Log10 probability of each n-gram, indexed by its characters as
+     *  the digits of a base-_size number. */
+    private final double[] _logProb;
+}
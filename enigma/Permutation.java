@@ -1,11 +1,12 @@
 package enigma;
 
-import java.util.ArrayList;
+import java.util.BitSet;
 
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
- *  to the characters of an alphabet.
+ *  to the characters of an alphabet.  The permutation and its inverse are
+ *  kept as tables of indices, so lookups take constant time.
  *  @author Jay Chiang
  */
 class Permutation {
@@ -17,37 +18,87 @@ class Permutation {
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        _cycles = new ArrayList<>();
-        _unmappedChars = new ArrayList<>();
-        String cycleString = "";
-        ArrayList<Character> usedChars = new ArrayList<>();
+        int n = alphabet.size();
+        _forward = new char[n];
+        _backward = new char[n];
+        BitSet used = new BitSet(n), mapped = new BitSet(n),
+            inverted = new BitSet(n);
+        StringBuilder cycle = new StringBuilder();
         for (int i = 0; i < cycles.length(); i += 1) {
             char ch = cycles.charAt(i);
             if (ch == '(') {
-                cycleString = "";
+                cycle.setLength(0);
             } else if (ch == ')') {
-                addCycle(cycleString);
+                addCycle(cycle, mapped, inverted);
             } else if (_alphabet.contains(ch)) {
-                cycleString += ch;
-                usedChars.add(ch);
+                int k = _alphabet.toInt(ch);
+                cycle.append((char) k);
+                used.set(k);
             }
         }
-        for (int i = 0; i < _alphabet.size(); i += 1) {
-            if (!usedChars.contains(_alphabet.toChar(i))) {
-                _unmappedChars.add(_alphabet.toChar(i));
+        char blank = encode(_alphabet.toInt(' '));
+        for (int k = 0; k < n; k += 1) {
+            if (!used.get(k)) {
+                _forward[k] = _backward[k] = (char) k;
+                _fixed += 1;
+            } else {
+                if (!mapped.get(k)) {
+                    _forward[k] = blank;
+                }
+                if (!inverted.get(k)) {
+                    _backward[k] = blank;
+                }
             }
         }
+    }
 
+    /** A permutation of ALPHABET mapping index K to TABLE[K], which must
+     *  be a permutation of 0 .. ALPHABET.size()-1. */
+    Permutation(Alphabet alphabet, int[] table) {
+        if (table.length != alphabet.size()
+            || !PermutationAlgebra.isPermutation(table)) {
+            throw error("table is not a permutation of the alphabet");
+        }
+        _alphabet = alphabet;
+        _forward = new char[table.length];
+        _backward = new char[table.length];
+        for (int k = 0; k < table.length; k += 1) {
+            _forward[k] = (char) table[k];
+            _backward[table[k]] = (char) k;
+            if (table[k] == k) {
+                _fixed += 1;
+            }
+        }
     }
 
     /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
-    private void addCycle(String cycle) {
-        ArrayList<Character> cycleList = new ArrayList<>();
-        for (int i = 0; i < cycle.length(); i += 1) {
-            cycleList.add(cycle.charAt(i));
+     *  c0c1...cm (as indices).  A character that is already in an earlier
+     *  cycle keeps its mapping; MAPPED and INVERTED record the indices
+     *  whose forward and inverse mappings are set. */
+    private void addCycle(CharSequence cycle, BitSet mapped,
+                          BitSet inverted) {
+        int len = cycle.length();
+        for (int j = 0; j < len; j += 1) {
+            char k = cycle.charAt(j);
+            if (!mapped.get(k)) {
+                mapped.set(k);
+                _forward[k] = cycle.charAt(j == len - 1 ? 0 : j + 1);
+            }
+            if (!inverted.get(k)) {
+                inverted.set(k);
+                _backward[k] = cycle.charAt(j == 0 ? len - 1 : j - 1);
+            }
         }
-        _cycles.add(cycleList);
+    }
+
+    /** Return the table entry for index K, which may be -1. */
+    private char encode(int k) {
+        return k < 0 ? NONE : (char) k;
+    }
+
+    /** Return the index represented by table entry E. */
+    private int decode(char e) {
+        return e == NONE && _forward.length < Alphabet.MAX_SIZE ? -1 : e;
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -70,8 +121,7 @@ class Permutation {
         if (p == -1) {
             return p;
         }
-        char p2 = _alphabet.toChar(wrap(p));
-        return _alphabet.toInt(permute(p2));
+        return decode(_forward[wrap(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation
@@ -80,51 +130,33 @@ class Permutation {
         if (c == -1) {
             return c;
         }
-        char c2 = _alphabet.toChar(wrap(c));
-        return _alphabet.toInt(invert(c2));
+        return decode(_backward[wrap(c)]);
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        if (_unmappedChars.contains(p)) {
-            return p;
-        } else {
-            for (int i = 0; i < _cycles.size(); i += 1) {
-                ArrayList<Character> currCycle = _cycles.get(i);
-                for (int j = 0; j < currCycle.size(); j += 1) {
-                    if (p == currCycle.get(j)) {
-                        if (j == currCycle.size() - 1) {
-                            return currCycle.get(0);
-                        } else {
-                            return currCycle.get(j + 1);
-                        }
-                    }
-                }
-            }
-        }
-        return ' ';
+        return lookup(_forward, p);
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        if (_unmappedChars.contains(c)) {
-            return c;
-        } else {
-            for (int i = 0; i < _cycles.size(); i += 1) {
-                ArrayList<Character> currCycle = _cycles.get(i);
-                for (int j = 0; j < currCycle.size(); j += 1) {
-                    if (c == currCycle.get(j)) {
-                        if (j == 0) {
-                            return currCycle.get(currCycle.size() - 1);
-                        } else {
-                            return currCycle.get(j - 1);
-                        }
-                    }
-                }
-            }
+        return lookup(_backward, c);
+    }
+
+    /** Return the character TABLE maps CH to, or ' ' if none. */
+    private char lookup(char[] table, char ch) {
+        int k = _alphabet.toInt(ch);
+        if (k < 0) {
+            return ' ';
         }
-        return ' ';
+        int e = decode(table[k]);
+        return e < 0 ? ' ' : _alphabet.toChar(e);
+    }
+
+    /** Return the approximate number of bytes my tables occupy. */
+    long footprint() {
+        return 2L * (_forward.length + _backward.length);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -135,14 +167,77 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        return _unmappedChars.size() == 0;
+        return _fixed == 0;
+    }
+
+    /** Return my mapping as a table of indices: element K is the index K
+     *  maps to.  It is an error if some character maps to nothing or two
+     *  characters map to the same one (as malformed cycles can cause). */
+    int[] table() {
+        int[] result = new int[_forward.length];
+        for (int k = 0; k < result.length; k += 1) {
+            result[k] = decode(_forward[k]);
+        }
+        if (!PermutationAlgebra.isPermutation(result)) {
+            throw error("permutation is not one-to-one");
+        }
+        return result;
+    }
+
+    /** Return this permutation composed with OTHER, a permutation of the
+     *  same alphabet: the result applies OTHER, then me. */
+    Permutation compose(Permutation other) {
+        int[] result = other.table();
+        PermutationAlgebra.compose(table(), result, result);
+        return new Permutation(_alphabet, result);
+    }
+
+    /** Return my inverse. */
+    Permutation inverse() {
+        int[] result = new int[size()];
+        PermutationAlgebra.inverse(table(), result);
+        return new Permutation(_alphabet, result);
+    }
+
+    /** Return me applied K times (my inverse applied -K times if K is
+     *  negative). */
+    Permutation power(long k) {
+        int n = size();
+        int[] result = new int[n];
+        PermutationAlgebra.power(table(), k, result, new int[n], new int[n]);
+        return new Permutation(_alphabet, result);
+    }
+
+    /** Return my conjugate by a rotation of SHIFT positions: the
+     *  permutation a rotor wired as I am performs at that offset. */
+    Permutation conjugate(int shift) {
+        int[] result = new int[size()];
+        PermutationAlgebra.conjugate(table(), shift, result);
+        return new Permutation(_alphabet, result);
+    }
+
+    /** Return my cycle type: the lengths of my cycles, longest first,
+     *  counting characters that map to themselves as cycles of length
+     *  1. */
+    int[] cycleType() {
+        int n = size();
+        int[] counts = new int[n + 1];
+        PermutationAlgebra.cycleType(table(), counts, new boolean[n]);
+        return PermutationAlgebra.partition(counts);
     }
 
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** list of cycles. */
-    private ArrayList<ArrayList> _cycles;
-    /** list of unmapped characters. */
-    private ArrayList<Character> _unmappedChars;
+    /** Table entry standing for -1 (no such character).  It can also be
+     *  a real index only in an alphabet of Alphabet.MAX_SIZE, where
+     *  every lookup succeeds. */
+    private static final char NONE = Character.MAX_VALUE;
+
+    /** _forward[K] is the index K maps to. */
+    private final char[] _forward;
+    /** _backward[K] is the index that maps to K. */
+    private final char[] _backward;
+    /** Number of characters in no cycle. */
+    private int _fixed;
 }
@@ -0,0 +1,160 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Whole-permutation operations on tables of indices.  A permutation of
+ *  0 .. n-1 is an int[] P of length n mapping X to P[X].  Each
+ *  operation takes O(n) time (power, O(n log k)) and writes its result
+ *  into an array the caller supplies, so that, with scratch arrays
+ *  reused, none of them allocates.  Unless stated otherwise, an output
+ *  array must not be one of the inputs.  Permutation offers the same
+ *  operations on Permutation objects.
+ *  @author Jay Chiang
+ */
+final class PermutationAlgebra {
+
+    /** Not instantiable. */
+    private PermutationAlgebra() {
+    }
+
+    /** Set OUT to the identity. */
+    static void identity(int[] out) {
+        for (int x = 0; x < out.length; x += 1) {
+            out[x] = x;
+        }
+    }
+
+    /** Return true iff P is a permutation of 0 .. P.length-1. */
+    static boolean isPermutation(int[] p) {
+        boolean[] seen = new boolean[p.length];
+        for (int y : p) {
+            if (y < 0 || y >= p.length || seen[y]) {
+                return false;
+            }
+            seen[y] = true;
+        }
+        return true;
+    }
+
+    /** Set OUT to P composed with Q: OUT[X] = P[Q[X]], i.e., Q applied
+     *  first.  OUT may be Q, but not P. */
+    static void compose(int[] p, int[] q, int[] out) {
+        checkSizes(p, q, out);
+        for (int x = 0; x < out.length; x += 1) {
+            out[x] = p[q[x]];
+        }
+    }
+
+    /** Set OUT to the inverse of P. */
+    static void inverse(int[] p, int[] out) {
+        checkSizes(p, p, out);
+        for (int x = 0; x < p.length; x += 1) {
+            out[p[x]] = x;
+        }
+    }
+
+    /** Set OUT to the conjugate of P by a rotation of SHIFT: OUT[X] =
+     *  (P[(X + SHIFT) mod n] - SHIFT) mod n.  This is the mapping of a
+     *  rotor with wiring P at offset SHIFT (position less ring
+     *  setting). */
+    static void conjugate(int[] p, int shift, int[] out) {
+        checkSizes(p, p, out);
+        int n = p.length;
+        if (n == 0) {
+            return;
+        }
+        int s = Math.floorMod(shift, n);
+        int x = 0;
+        for (; x < n - s; x += 1) {
+            int y = p[x + s] - s;
+            out[x] = y < 0 ? y + n : y;
+        }
+        for (; x < n; x += 1) {
+            int y = p[x + s - n] - s;
+            out[x] = y < 0 ? y + n : y;
+        }
+    }
+
+    /** Set OUT to P raised to the power K (negative for powers of the
+     *  inverse), by repeated squaring.  SCRATCH1 and SCRATCH2 are work
+     *  arrays of the same length as P; none of OUT, SCRATCH1 and SCRATCH2
+     *  may be P or each other. */
+    static void power(int[] p, long k, int[] out, int[] scratch1,
+                      int[] scratch2) {
+        checkSizes(p, p, out);
+        checkSizes(p, scratch1, scratch2);
+        int[] base = scratch1, spare = scratch2;
+        if (k < 0) {
+            inverse(p, base);
+        } else {
+            System.arraycopy(p, 0, base, 0, p.length);
+        }
+        long e = k < 0 ? -k : k;
+        identity(out);
+        while (e != 0) {
+            if ((e & 1) != 0) {
+                compose(base, out, out);
+            }
+            e >>>= 1;
+            if (e != 0) {
+                compose(base, base, spare);
+                int[] t = base;
+                base = spare;
+                spare = t;
+            }
+        }
+    }
+
+    /** Set COUNTS[L] to the number of cycles of length L in P, for
+     *  0 < L <= n (COUNTS must have at least n+1 elements), and return
+     *  the total number of cycles.  SEEN is a work array of length at
+     *  least n. */
+    static int cycleType(int[] p, int[] counts, boolean[] seen) {
+        int n = p.length;
+        if (counts.length <= n || seen.length < n) {
+            throw error("work arrays too small");
+        }
+        Arrays.fill(counts, 0, n + 1, 0);
+        Arrays.fill(seen, 0, n, false);
+        int cycles = 0;
+        for (int x = 0; x < n; x += 1) {
+            if (!seen[x]) {
+                int len = 0;
+                for (int y = x; !seen[y]; y = p[y]) {
+                    seen[y] = true;
+                    len += 1;
+                }
+                counts[len] += 1;
+                cycles += 1;
+            }
+        }
+        return cycles;
+    }
+
+    /** Return the cycle lengths recorded in COUNTS (as filled by
+     *  cycleType), longest first. */
+    static int[] partition(int[] counts) {
+        int parts = 0;
+        for (int c : counts) {
+            parts += c;
+        }
+        int[] result = new int[parts];
+        int i = 0;
+        for (int len = counts.length - 1; len > 0; len -= 1) {
+            for (int c = 0; c < counts[len]; c += 1) {
+                result[i] = len;
+                i += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Check that A, B and OUT all have the same length. */
+    private static void checkSizes(int[] a, int[] b, int[] out) {
+        if (a.length != b.length || a.length != out.length) {
+            throw error("permutations of different sizes");
+        }
+    }
+}
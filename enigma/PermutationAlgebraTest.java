@@ -0,0 +1,172 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the PermutationAlgebra class and
+ *  the whole-permutation operations of Permutation.
+ *  @author Jay Chiang
+ */
+public class PermutationAlgebraTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Wiring of rotor I. */
+    private static final String ROTOR_I =
+        "(AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)";
+
+    /** Return a random permutation of 0 .. N-1 drawn with RANDOM. */
+    private int[] shuffled(int n, Random random) {
+        int[] result = new int[n];
+        PermutationAlgebra.identity(result);
+        for (int i = n - 1; i > 0; i -= 1) {
+            int j = random.nextInt(i + 1);
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    /** Return P applied K times, computed naively. */
+    private int[] naivePower(int[] p, int k) {
+        int[] result = new int[p.length];
+        PermutationAlgebra.identity(result);
+        for (int i = 0; i < k; i += 1) {
+            for (int x = 0; x < p.length; x += 1) {
+                result[x] = p[result[x]];
+            }
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testComposeInverse() {
+        Random random = new Random(44);
+        for (int n : new int[] { 1, 26, 300 }) {
+            int[] p = shuffled(n, random), q = shuffled(n, random);
+            int[] pq = new int[n], inv = new int[n], id = new int[n];
+            PermutationAlgebra.compose(p, q, pq);
+            for (int x = 0; x < n; x += 1) {
+                assertEquals(p[q[x]], pq[x]);
+            }
+            PermutationAlgebra.inverse(p, inv);
+            PermutationAlgebra.compose(p, inv, id);
+            for (int x = 0; x < n; x += 1) {
+                assertEquals(x, id[x]);
+            }
+            int[] original = q.clone();
+            PermutationAlgebra.compose(inv, q, q);
+            assertArrayEquals(original, composeOf(p, q));
+        }
+    }
+
+    /** Return P composed with Q, in a fresh array. */
+    private int[] composeOf(int[] p, int[] q) {
+        int[] result = new int[p.length];
+        PermutationAlgebra.compose(p, q, result);
+        return result;
+    }
+
+    @Test
+    public void testPower() {
+        Random random = new Random(45);
+        int n = 40;
+        int[] p = shuffled(n, random), out = new int[n], inv = new int[n];
+        int[] s1 = new int[n], s2 = new int[n];
+        for (int k = 0; k <= 70; k += 1) {
+            PermutationAlgebra.power(p, k, out, s1, s2);
+            assertArrayEquals("power " + k, naivePower(p, k), out);
+        }
+        PermutationAlgebra.inverse(p, inv);
+        PermutationAlgebra.power(p, -13, out, s1, s2);
+        assertArrayEquals(naivePower(inv, 13), out);
+        PermutationAlgebra.power(p, Long.MIN_VALUE, out, s1, s2);
+        int[] expected = new int[n];
+        PermutationAlgebra.power(inv, Long.MAX_VALUE, expected, s1, s2);
+        PermutationAlgebra.compose(inv, expected, expected);
+        assertArrayEquals(expected, out);
+    }
+
+    @Test
+    public void testConjugateIsRotor() {
+        Permutation perm = new Permutation(ROTOR_I, UPPER);
+        Rotor rotor = new Rotor("I", perm);
+        for (int posn = 0; posn < 26; posn += 1) {
+            rotor.set(posn);
+            Permutation shifted = perm.conjugate(posn);
+            for (int x = 0; x < 26; x += 1) {
+                assertEquals(rotor.convertForward(x), shifted.permute(x));
+                assertEquals(rotor.convertBackward(x), shifted.invert(x));
+            }
+        }
+        assertArrayEquals(perm.table(), perm.conjugate(-52).table());
+    }
+
+    @Test
+    public void testCycleType() {
+        Permutation perm = new Permutation(ROTOR_I, UPPER);
+        assertArrayEquals(new int[] { 10, 4, 4, 3, 2, 2, 1 },
+                          perm.cycleType());
+        assertArrayEquals(new int[] { 5, 5, 3, 2, 2, 2, 2, 1, 1, 1, 1, 1 },
+                          perm.power(2).cycleType());
+        int[] counts = new int[27];
+        boolean[] seen = new boolean[26];
+        assertEquals(26, PermutationAlgebra.cycleType(
+            new Permutation("", UPPER).table(), counts, seen));
+        assertEquals(26, counts[1]);
+    }
+
+    @Test
+    public void testPermutationMethods() {
+        Permutation perm = new Permutation(ROTOR_I, UPPER);
+        Permutation inv = perm.inverse();
+        Permutation id = perm.compose(inv);
+        for (int x = 0; x < 26; x += 1) {
+            assertEquals(perm.invert(x), inv.permute(x));
+            assertEquals(x, id.permute(x));
+        }
+        assertFalse(id.derangement());
+        assertArrayEquals(perm.table(), perm.power(1 + 60 * 7).table());
+        assertArrayEquals(inv.table(), perm.power(-1).table());
+        Permutation pq = perm.compose(new Permutation("(AB)", UPPER));
+        assertEquals('K', pq.permute('A'));
+        assertEquals('E', pq.permute('B'));
+    }
+
+    @Test
+    public void testErrors() {
+        try {
+            new Permutation("(AB) (AC)", UPPER).table();
+            fail("malformed cycles accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            new Permutation(UPPER, new int[] { 0, 0 });
+            fail("non-permutation accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            PermutationAlgebra.compose(new int[2], new int[3], new int[2]);
+            fail("mismatched sizes accepted");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        assertArrayEquals(new int[0], PermutationAlgebra.partition(new int[1]));
+    }
+
+}
@@ -0,0 +1,158 @@
+package enigma;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+/** Measures the whole-permutation operations of PermutationAlgebra
+ *  across alphabet sizes.
+ *  Usage:
+ *      java enigma.PermutationBenchmark [MILLIS [SIZE...]]
+ *  For each SIZE (default 26, 256, 4096 and 65536), draws random
+ *  permutations of that size and times compose, inverse, conjugate,
+ *  power (by a large exponent) and cycleType on them, reusing the
+ *  output and scratch arrays as a caller would.  Each operation is
+ *  first run for MILLIS (default 300) milliseconds to warm up, then
+ *  timed for as long again.  The report gives nanoseconds per
+ *  operation and per element, and, where the JVM can count them, bytes
+ *  allocated per operation (which should be 0).
+ *  @author Jay Chiang
+ */
+public final class PermutationBenchmark {
+
+    /** Run the benchmark described by ARGS. */
+    public static void main(String... args) {
+        long millis = args.length > 0 ? Long.parseLong(args[0])
+            : DEFAULT_MILLIS;
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i += 1) {
+                sizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("%6s %-10s %14s %10s %8s%n", "size", "operation",
+                          "ns/op", "ns/elem", "B/op");
+        for (int size : sizes) {
+            run(size, millis * 1_000_000);
+        }
+        if (_sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /** An operation under measurement. */
+    private interface Operation {
+        /** Perform the operation once, returning some value depending
+         *  on its result. */
+        int apply();
+    }
+
+    /** Report the measurements for permutations of SIZE elements, warming
+     *  up and timing each operation for NANOS nanoseconds. */
+    private static void run(int size, long nanos) {
+        Random random = new Random(SEED);
+        int[] p = shuffled(size, random), q = shuffled(size, random);
+        int[] out = new int[size], s1 = new int[size], s2 = new int[size];
+        int[] counts = new int[size + 1];
+        boolean[] seen = new boolean[size];
+        int shift = random.nextInt(size);
+
+        measure(size, "compose", nanos, () -> {
+            PermutationAlgebra.compose(p, q, out);
+            return out[0];
+        });
+        measure(size, "inverse", nanos, () -> {
+            PermutationAlgebra.inverse(p, out);
+            return out[0];
+        });
+        measure(size, "conjugate", nanos, () -> {
+            PermutationAlgebra.conjugate(p, shift, out);
+            return out[0];
+        });
+        measure(size, "power", nanos, () -> {
+            PermutationAlgebra.power(p, EXPONENT, out, s1, s2);
+            return out[0];
+        });
+        measure(size, "cycleType", nanos, () ->
+                PermutationAlgebra.cycleType(p, counts, seen));
+    }
+
+    /** Warm up and time OP, an operation on permutations of SIZE
+     *  elements named NAME, for NANOS nanoseconds each, and report. */
+    private static void measure(int size, String name, long nanos,
+                                Operation op) {
+        repeat(op, nanos);
+        long before = allocatedBytes();
+        long start = System.nanoTime();
+        long count = repeat(op, nanos);
+        long elapsed = System.nanoTime() - start;
+        long allocated = before < 0 ? -1 : allocatedBytes() - before;
+        double perOp = (double) elapsed / count;
+        System.out.printf("%6d %-10s %14.1f %10.3f %8s%n", size, name,
+                          perOp, perOp / size,
+                          allocated < 0 ? "?"
+                          : String.format("%.1f", (double) allocated
+                                          / count));
+    }
+
+    /** Run OP repeatedly for at least NANOS nanoseconds, returning the
+     *  number of times it ran. */
+    private static long repeat(Operation op, long nanos) {
+        long count = 0;
+        long end = System.nanoTime() + nanos;
+        int sink = 0;
+        do {
+            for (int i = 0; i < BATCH; i += 1) {
+                sink += op.apply();
+            }
+            count += BATCH;
+        } while (System.nanoTime() < end);
+        _sink += sink;
+        return count;
+    }
+
+    /** Return the number of bytes this thread has allocated, or -1 if
+     *  the JVM does not count them. */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counting =
+                (com.sun.management.ThreadMXBean) threads;
+            if (counting.isThreadAllocatedMemorySupported()
+                && counting.isThreadAllocatedMemoryEnabled()) {
+                return counting.getCurrentThreadAllocatedBytes();
+            }
+        }
+        return -1;
+    }
+
+    /** Return a random permutation of 0 .. N-1 drawn with RANDOM. */
+    private static int[] shuffled(int n, Random random) {
+        int[] result = new int[n];
+        PermutationAlgebra.identity(result);
+        for (int i = n - 1; i > 0; i -= 1) {
+            int j = random.nextInt(i + 1);
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    /** Accumulates results so that the work is not optimized away. */
+    private static volatile int _sink;
+
+    /** Default permutation sizes. */
+    private static final int[] DEFAULT_SIZES = { 26, 256, 4096, 65536 };
+    /** Default warm-up and timing period per operation, in
+     *  milliseconds. */
+    private static final long DEFAULT_MILLIS = 300;
+    /** Operations run between checks of the clock. */
+    private static final int BATCH = 16;
+    /** Exponent used for power. */
+    private static final long EXPONENT = 1_000_000_007L;
+    /** Random seed. */
+    private static final long SEED = 44;
+
+}
@@ -98,4 +98,41 @@ public class PermutationTest {
         checkPerm2("testRiptide", from, to);
     }
 
+    @Test
+    public void transformLargeAlphabet() {
+        StringBuilder chars = new StringBuilder();
+        for (char c = '\u4e00'; c < '\u5e00'; c += 1) {
+            chars.append(c);
+        }
+        Alphabet big = new Alphabet(chars.toString());
+        perm = new Permutation("(\u4e00\u5dff\u4e01) (\u4e10\u4e20)", big);
+        assertEquals(4096, perm.size());
+        assertEquals('\u5dff', perm.permute('\u4e00'));
+        assertEquals('\u4e00', perm.permute('\u4e01'));
+        assertEquals('\u4e01', perm.invert('\u4e00'));
+        assertEquals('\u4e10', perm.invert('\u4e20'));
+        assertEquals('\u4e02', perm.permute('\u4e02'));
+        assertEquals(4095, perm.permute(0));
+        assertEquals(0, perm.invert(4095));
+        assertEquals(false, perm.derangement());
+    }
+
+    @Test
+    public void transformFullAlphabet() {
+        StringBuilder chars = new StringBuilder();
+        for (int c = Character.MAX_VALUE; c >= 0; c -= 1) {
+            chars.append((char) c);
+        }
+        Alphabet full = new Alphabet(chars.toString());
+        perm = new Permutation("(A\uffff) (\u0000B)", full);
+        assertEquals(Alphabet.MAX_SIZE, perm.size());
+        assertEquals('\uffff', perm.permute('A'));
+        assertEquals('A', perm.invert('\uffff'));
+        assertEquals('B', perm.permute('\u0000'));
+        assertEquals('\u0000', perm.invert('B'));
+        assertEquals('C', perm.permute('C'));
+        assertEquals(full.toInt('\uffff'), perm.permute(full.toInt('A')));
+        assertEquals(full.toInt('C'), perm.invert(full.toInt('C')));
+    }
+
 }
@@ -0,0 +1,404 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import static enigma.EnigmaException.*;
+
+/** A three-stage executor that overlaps reading, encryption and
+ *  writing.  A reader thread fills reusable character chunks, each
+ *  ending on a line boundary; the calling thread hands every line to a
+ *  LineHandler and encodes the results into reusable byte chunks; a
+ *  writer thread drains those to the output.  Lines end where
+ *  Scanner.nextLine would end them: at "\r\n" or any one of '\n',
+ *  '\r', '\u2028', '\u2029' and '\u0085', with the text after the
+ *  last terminator, if any, as a final line.  The stages are connected
+ *  by RingBuffers, and emptied chunks travel back to their producer
+ *  on a second ring so that nothing is allocated per chunk.
+ *  @author Jay Chiang
+ */
+final class Pipeline {
+
+    /** Consumer of input lines for the encryption stage. */
+    interface LineHandler {
+        /** Process LINE (without its terminator), appending any output
+         *  to OUT. */
+        void handle(String line, StringBuilder out);
+    }
+
+    /** Default number of characters (or bytes) in each chunk. */
+    static final int DEFAULT_CHUNK = 1 << 16;
+    /** Default number of chunks in flight between two stages. */
+    static final int DEFAULT_SLOTS = 8;
+
+    /** A pipeline moving data from IN to OUT in chunks of CHUNKSIZE
+     *  characters, with SLOTS chunks between adjacent stages, using
+     *  CHARSET for decoding and encoding. */
+    Pipeline(InputStream in, OutputStream out, int chunkSize, int slots,
+             Charset charset) {
+        if (chunkSize < 1 || slots < 1) {
+            throw error("chunk size and slot count must be positive");
+        }
+        _in = new InputStreamReader(in, charset);
+        _out = out;
+        _encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _readQueue = new RingBuffer<>(slots);
+        _readFree = new RingBuffer<>(slots + 1);
+        _writeQueue = new RingBuffer<>(slots);
+        _writeFree = new RingBuffer<>(slots + 1);
+        for (int i = 0; i <= slots; i += 1) {
+            _readFree.offer(new CharChunk(chunkSize));
+            _writeFree.offer(new ByteChunk(chunkSize));
+        }
+    }
+
+    /** A pipeline from IN to OUT with default sizes and the platform
+     *  charset. */
+    Pipeline(InputStream in, OutputStream out) {
+        this(in, out, DEFAULT_CHUNK, DEFAULT_SLOTS, Charset.defaultCharset());
+    }
+
+    /** Pass every line of my input through HANDLER, writing what it
+     *  produces to my output, and return once all output is written.
+     *  Errors in any stage are rethrown here. */
+    Stats run(LineHandler handler) {
+        long start = System.nanoTime();
+        Thread reader = new Thread(this::readStage, "enigma-reader");
+        Thread writer = new Thread(this::writeStage, "enigma-writer");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+        encryptStage(handler);
+        try {
+            writer.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            fail(excp);
+        }
+        rethrow();
+        return new Stats(System.nanoTime() - start);
+    }
+
+    /** Body of the reader thread. */
+    private void readStage() {
+        try {
+            char[] carry = new char[0];
+            int carried = 0;
+            CharChunk chunk = null;
+            while (_failure == null) {
+                if (chunk == null) {
+                    chunk = _readFree.take();
+                }
+                if (chunk.data.length < carried * 2) {
+                    chunk.data = new char[carried * 2];
+                }
+                System.arraycopy(carry, 0, chunk.data, 0, carried);
+                int len = carried;
+                int n = 0;
+                while (len < chunk.data.length
+                       && (n = _in.read(chunk.data, len,
+                                        chunk.data.length - len)) > 0) {
+                    len += n;
+                }
+                boolean eof = n < 0;
+                int cut = eof ? len : lastLineEnd(chunk.data, len);
+                if (cut == 0 && !eof) {
+                    carry = chunk.data;
+                    carried = len;
+                    chunk.data = new char[len * 2];
+                    continue;
+                }
+                carried = len - cut;
+                if (carry.length < carried) {
+                    carry = new char[Math.max(carried, chunk.data.length)];
+                }
+                System.arraycopy(chunk.data, cut, carry, 0, carried);
+                chunk.length = cut;
+                chunk.last = eof;
+                _readQueue.put(chunk);
+                chunk = null;
+                if (eof) {
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException excp) {
+            fail(excp);
+            CharChunk end = new CharChunk(0);
+            end.last = true;
+            _readQueue.put(end);
+        }
+    }
+
+    /** Return the index just past the last line terminator among the
+     *  first LEN characters of DATA, or 0 if there is none.  A '\r' as
+     *  the final character is not counted, since a '\n' may follow. */
+    private static int lastLineEnd(char[] data, int len) {
+        for (int i = len - 1; i >= 0; i -= 1) {
+            if (data[i] == '\r' ? i < len - 1 : Main.lineEnd(data[i])) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /** Body of the encryption stage, run on the calling thread and
+     *  passing lines to HANDLER.  Output produced before a failure is
+     *  still written, as it would be by a serial run. */
+    private void encryptStage(LineHandler handler) {
+        StringBuilder out = new StringBuilder();
+        ByteChunk bytes = _writeFree.take();
+        try {
+            boolean done = false;
+            while (!done) {
+                CharChunk chunk = _readQueue.take();
+                done = chunk.last;
+                splitLines(chunk, handler, out);
+                _charsIn += chunk.length;
+                _readFree.put(chunk);
+                bytes = encode(out, bytes, done);
+            }
+        } catch (RuntimeException | Error excp) {
+            fail(excp);
+            bytes = encode(out, bytes, true);
+            CharChunk chunk = _readQueue.poll();
+            if (chunk != null) {
+                _readFree.put(chunk);
+            }
+        } finally {
+            bytes.last = true;
+            _writeQueue.put(bytes);
+        }
+    }
+
+    /** Pass each line of CHUNK to HANDLER, collecting output in OUT. */
+    private static void splitLines(CharChunk chunk, LineHandler handler,
+                                   StringBuilder out) {
+        char[] data = chunk.data;
+        int start = 0;
+        for (int i = 0; i < chunk.length; i += 1) {
+            char ch = data[i];
+            if (Main.lineEnd(ch)) {
+                handler.handle(new String(data, start, i - start), out);
+                if (ch == '\r' && i + 1 < chunk.length && data[i + 1] == '\n') {
+                    i += 1;
+                }
+                start = i + 1;
+            }
+        }
+        if (start < chunk.length) {
+            handler.handle(new String(data, start, chunk.length - start), out);
+        }
+    }
+
+    /** Encode the contents of OUT into BYTES, handing full chunks to
+     *  the writer, and return the chunk that is still being filled.
+     *  Characters the encoder cannot yet consume (the first half of a
+     *  surrogate pair) are left in OUT for the next call.  If
+     *  ENDOFINPUT, OUT holds the last of the output, and the encoder
+     *  is finished and flushed. */
+    private ByteChunk encode(StringBuilder out, ByteChunk bytes,
+                             boolean endOfInput) {
+        CharBuffer src = CharBuffer.wrap(out);
+        boolean flushing = false;
+        while (true) {
+            ByteBuffer dst = ByteBuffer.wrap(bytes.data, bytes.length,
+                                             bytes.data.length - bytes.length);
+            CoderResult result = flushing ? _encoder.flush(dst)
+                : _encoder.encode(src, dst, endOfInput);
+            bytes.length = dst.position();
+            if (result.isOverflow()) {
+                _writeQueue.put(bytes);
+                bytes = _writeFree.take();
+            } else if (endOfInput && !flushing) {
+                flushing = true;
+            } else {
+                break;
+            }
+        }
+        _charsOut += src.position();
+        out.delete(0, src.position());
+        return bytes;
+    }
+
+    /** Body of the writer thread. */
+    private void writeStage() {
+        try {
+            while (true) {
+                ByteChunk chunk = _writeQueue.take();
+                boolean last = chunk.last;
+                _out.write(chunk.data, 0, chunk.length);
+                _bytesOut += chunk.length;
+                chunk.length = 0;
+                _writeFree.put(chunk);
+                if (last) {
+                    _out.flush();
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException excp) {
+            fail(excp);
+            drainWrites();
+        }
+    }
+
+    /** After a write failure, keep recycling chunks until the last one
+     *  arrives so that the encryption stage is never left waiting. */
+    private void drainWrites() {
+        while (true) {
+            ByteChunk chunk = _writeQueue.take();
+            chunk.length = 0;
+            boolean last = chunk.last;
+            _writeFree.put(chunk);
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    /** Record EXCP as the failure of this pipeline, unless one has
+     *  already been recorded. */
+    private synchronized void fail(Throwable excp) {
+        if (_failure == null) {
+            _failure = excp;
+        }
+    }
+
+    /** Rethrow any recorded failure, converting I/O errors to
+     *  EnigmaExceptions. */
+    private void rethrow() {
+        Throwable excp = _failure;
+        if (excp instanceof RuntimeException) {
+            throw (RuntimeException) excp;
+        } else if (excp instanceof Error) {
+            throw (Error) excp;
+        } else if (excp != null) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Throughput and queueing statistics for one run. */
+    final class Stats {
+
+        /** Statistics for a run that took ELAPSEDNANOS. */
+        private Stats(long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /** Input characters consumed. */
+        long charsIn() {
+            return _charsIn;
+        }
+
+        /** Output characters produced. */
+        long charsOut() {
+            return _charsOut;
+        }
+
+        /** Output bytes written. */
+        long bytesOut() {
+            return _bytesOut;
+        }
+
+        /** Queue between reader and encryptor. */
+        RingBuffer<?> readQueue() {
+            return _readQueue;
+        }
+
+        /** Queue between encryptor and writer. */
+        RingBuffer<?> writeQueue() {
+            return _writeQueue;
+        }
+
+        /** Return input characters processed per second. */
+        double charsPerSecond() {
+            return _charsIn * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d chars in, %d chars out, %.1f ms, "
+                                 + "%.0f chars/s%n"
+                                 + "  read queue:  %s%n"
+                                 + "  write queue: %s",
+                                 _charsIn, _charsOut, elapsedNanos / 1e6,
+                                 charsPerSecond(), describe(_readQueue),
+                                 describe(_writeQueue));
+        }
+
+        /** Return a description of the depth and stalls of QUEUE. */
+        private String describe(RingBuffer<?> queue) {
+            return String.format("max depth %d/%d, mean depth %.2f, "
+                                 + "producer stalls %d, consumer stalls %d",
+                                 queue.maxDepth(), queue.capacity(),
+                                 queue.meanDepth(), queue.producerStalls(),
+                                 queue.consumerStalls());
+        }
+
+        /** Wall-clock time of the run. */
+        final long elapsedNanos;
+    }
+
+    /** A reusable buffer of input characters. */
+    private static final class CharChunk {
+        /** A chunk with room for SIZE characters. */
+        CharChunk(int size) {
+            data = new char[size];
+        }
+
+        /** Characters of the chunk. */
+        char[] data;
+        /** Number of valid characters in data. */
+        int length;
+        /** True iff this is the final chunk of input. */
+        boolean last;
+    }
+
+    /** A reusable buffer of output bytes. */
+    private static final class ByteChunk {
+        /** A chunk with room for SIZE bytes. */
+        ByteChunk(int size) {
+            data = new byte[size];
+        }
+
+        /** Bytes of the chunk. */
+        final byte[] data;
+        /** Number of valid bytes in data. */
+        int length;
+        /** True iff this is the final chunk of output. */
+        boolean last;
+    }
+
+    /** Source of input characters. */
+    private final Reader _in;
+    /** Destination of output bytes. */
+    private final OutputStream _out;
+    /** Encoder for output characters. */
+    private final CharsetEncoder _encoder;
+
+    /** Filled chunks travelling from reader to encryptor. */
+    private final RingBuffer<CharChunk> _readQueue;
+    /** Empty chunks travelling back to the reader. */
+    private final RingBuffer<CharChunk> _readFree;
+    /** Filled chunks travelling from encryptor to writer. */
+    private final RingBuffer<ByteChunk> _writeQueue;
+    /** Empty chunks travelling back to the encryptor. */
+    private final RingBuffer<ByteChunk> _writeFree;
+
+    /** Counters, each written by a single stage. */
+    private volatile long _charsIn, _charsOut, _bytesOut;
+    /** First failure in any stage, or null. */
+    private volatile Throwable _failure;
+}
@@ -0,0 +1,90 @@
+package enigma;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import java.util.Random;
+
+/** Compares the throughput of serial and pipelined runs of Main, and
+ *  the cost of checkpointing a serial run once a second.
+ *  Usage:
+ *      java enigma.PipelineBenchmark CONF SETTINGS MEGABYTES [DIR]
+ *  generates MEGABYTES of random messages preceded by the setting line
+ *  SETTINGS in a scratch file in DIR (default: the temporary
+ *  directory), then encrypts it with CONF both ways.  To measure
+ *  I/O overlap rather than cache speed, choose a size larger than the
+ *  page cache (or drop caches between runs).
+ *  @author Jay Chiang
+ */
+public final class PipelineBenchmark {
+
+    /** Run the benchmark described by ARGS. */
+    public static void main(String... args) throws IOException {
+        if (args.length < 3 || args.length > 4) {
+            System.err.println("Usage: java enigma.PipelineBenchmark "
+                               + "CONF SETTINGS MEGABYTES [DIR]");
+            System.exit(1);
+        }
+        File dir = new File(args.length > 3 ? args[3]
+                            : System.getProperty("java.io.tmpdir"));
+        File input = File.createTempFile("enigma-bench", ".in", dir);
+        File output = File.createTempFile("enigma-bench", ".out", dir);
+        input.deleteOnExit();
+        output.deleteOnExit();
+        long bytes = Long.parseLong(args[2]) << 20;
+        generate(input, args[1], bytes);
+
+        String[] files = { args[0], input.getPath(), output.getPath() };
+        String checkpoint = "--checkpoint=" + output.getPath() + ".ckpt";
+        for (int round = 0; round < ROUNDS; round += 1) {
+            double serial = time("serial", bytes, files);
+            time("pipeline", bytes, "--pipeline", "--stats", files[0],
+                 files[1], files[2]);
+            double checkpointed =
+                time("checkpoint", bytes, checkpoint, "--checkpoint-every=1",
+                     files[0], files[1], files[2]);
+            System.out.printf("checkpoint overhead %.2f%%%n",
+                              100 * (checkpointed / serial - 1));
+        }
+    }
+
+    /** Write roughly BYTES of random upper-case messages to FILE,
+     *  starting with the line SETTINGS. */
+    private static void generate(File file, String settings, long bytes)
+        throws IOException {
+        Random random = new Random(SEED);
+        char[] line = new char[LINE_LENGTH];
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file))) {
+            out.write(settings);
+            out.newLine();
+            for (long n = 0; n < bytes; n += LINE_LENGTH + 1) {
+                for (int i = 0; i < line.length; i += 1) {
+                    line[i] = (char) ('A' + random.nextInt(26));
+                }
+                out.write(line);
+                out.newLine();
+            }
+        }
+    }
+
+    /** Run Main on ARGS, reporting throughput over BYTES under LABEL.
+     *  Return the elapsed time in seconds. */
+    private static double time(String label, long bytes, String... args) {
+        long start = System.nanoTime();
+        new Main(args).process();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-10s %8.2f s %8.2f MB/s%n", label, seconds,
+                          bytes / seconds / (1 << 20));
+        return seconds;
+    }
+
+    /** Number of times each configuration is timed. */
+    private static final int ROUNDS = 3;
+    /** Length of each generated message line. */
+    private static final int LINE_LENGTH = 60;
+    /** Seed for generated messages. */
+    private static final long SEED = 61;
+
+}
@@ -0,0 +1,164 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for the Pipeline and RingBuffer classes.
+ *  @author Jay Chiang
+ */
+public class PipelineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Run INPUT through a pipeline with chunks of CHUNK characters and
+     *  SLOTS slots that brackets each line, and return the output. */
+    private String bracket(String input, int chunk, int slots) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Pipeline pipeline =
+            new Pipeline(new ByteArrayInputStream(
+                             input.getBytes(StandardCharsets.UTF_8)),
+                         out, chunk, slots, StandardCharsets.UTF_8);
+        pipeline.run((line, sb) -> sb.append('[').append(line).append("]\n"));
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Return the lines of INPUT as Scanner.nextLine divides them,
+     *  bracketed as bracket brackets them. */
+    private String scannerLines(String input) {
+        StringBuilder result = new StringBuilder();
+        Scanner lines = new Scanner(input);
+        while (lines.hasNextLine()) {
+            result.append('[').append(lines.nextLine()).append("]\n");
+        }
+        return result.toString();
+    }
+
+    /** Return a temporary file containing TEXT. */
+    private File file(String text) throws IOException {
+        File file = File.createTempFile("enigma-pipe", ".txt");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), text);
+        return file;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testRingBufferOrder() {
+        RingBuffer<Integer> ring = new RingBuffer<>(3);
+        assertEquals(4, ring.capacity());
+        for (int i = 0; i < 4; i += 1) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+        assertEquals(4, ring.maxDepth());
+        for (int i = 0; i < 4; i += 1) {
+            assertEquals(Integer.valueOf(i), ring.poll());
+        }
+        assertNull(ring.poll());
+    }
+
+    @Test
+    public void testRingBufferThreads() throws InterruptedException {
+        RingBuffer<Integer> ring = new RingBuffer<>(2);
+        int n = 10000;
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < n; i += 1) {
+                ring.put(i);
+            }
+        });
+        producer.start();
+        for (int i = 0; i < n; i += 1) {
+            assertEquals(Integer.valueOf(i), ring.take());
+        }
+        producer.join();
+    }
+
+    @Test
+    public void testLines() {
+        String input = "ab\ncd\r\n\nef";
+        String expected = "[ab]\n[cd]\n[]\n[ef]\n";
+        assertEquals(expected, bracket(input, 1 << 10, 4));
+        assertEquals(expected, bracket(input, 2, 1));
+        assertEquals(expected, bracket(input, 3, 2));
+    }
+
+    @Test
+    public void testLinesMatchScanner() {
+        String[] inputs = {
+            "ab\ncd", "ab\r", "ab\r\n\r\ncd\r", "\n", "a\u2028b\u2029c",
+            "a\u0085\u0085b\r\u0085", "\r\r\n\n",
+        };
+        for (String input : inputs) {
+            for (int chunk : new int[] { 1, 2, 3, 1 << 10 }) {
+                assertEquals(input, scannerLines(input),
+                             bracket(input, chunk, 2));
+            }
+        }
+    }
+
+    @Test
+    public void testMainWithoutFinalNewline() throws IOException {
+        File conf = file(DaemonTest.CONFIG);
+        String input = DaemonTest.INPUT.replaceFirst("\n\\z", "")
+            + "\nHELLO WORLD";
+        File in = file(input), expected = file(""), out = file("");
+        new Main(new String[] { conf.getPath(), in.getPath(),
+                                expected.getPath() }).process();
+        for (String chunk : new String[] { "--chunk=5", "--chunk=65536" }) {
+            new Main(new String[] { "--pipeline", chunk, conf.getPath(),
+                                    in.getPath(), out.getPath() }).process();
+            assertArrayEquals(Files.readAllBytes(expected.toPath()),
+                              Files.readAllBytes(out.toPath()));
+        }
+        assertTrue(Files.readString(out.toPath()).endsWith("\n"));
+    }
+
+    @Test
+    public void testLongLine() {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 1000; i += 1) {
+            line.append((char) ('A' + i % 26));
+        }
+        String input = line + "\n" + line + "\n";
+        String expected = "[" + line + "]\n[" + line + "]\n";
+        assertEquals(expected, bracket(input, 16, 2));
+    }
+
+    @Test
+    public void testFailure() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Pipeline pipeline =
+            new Pipeline(new ByteArrayInputStream(
+                             "ok\nbad\nunseen\n".getBytes()),
+                         out, 4, 1, StandardCharsets.UTF_8);
+        try {
+            pipeline.run((line, sb) -> {
+                if (line.equals("bad")) {
+                    throw new EnigmaException("bad line");
+                }
+                sb.append(line).append('\n');
+            });
+            fail("no exception");
+        } catch (EnigmaException excp) {
+            assertEquals("bad line", excp.getMessage());
+        }
+        assertEquals("ok\n", out.toString());
+    }
+
+}
@@ -0,0 +1,150 @@
+package enigma;
+
+import java.util.Random;
+
+/** A plugboard kept as a mutable involution on alphabet indices.  A
+ *  swap plugs two characters together (first unplugging whatever
+ *  either was plugged to) or, if they are already plugged together,
+ *  unplugs them; it touches at most four entries, and the most recent
+ *  swap can be reverted just as cheaply.
+ *  @author Jay Chiang
+ */
+final class Plugboard {
+
+    /** An empty plugboard for an alphabet of SIZE characters. */
+    Plugboard(int size) {
+        _map = new int[size];
+        clear();
+    }
+
+    /** A copy of the plugs of OTHER. */
+    Plugboard(Plugboard other) {
+        _map = other._map.clone();
+        _plugs = other._plugs;
+    }
+
+    /** Remove all plugs. */
+    void clear() {
+        for (int c = 0; c < _map.length; c += 1) {
+            _map[c] = c;
+        }
+        _plugs = 0;
+        _numChanged = 0;
+    }
+
+    /** Clear me and insert up to PLUGS random plugs, chosen using
+     *  RANDOM. */
+    void randomize(int plugs, Random random) {
+        clear();
+        for (int k = 0; k < plugs && _plugs < _map.length / 2; k += 1) {
+            int a = random.nextInt(_map.length),
+                b = random.nextInt(_map.length);
+            if (a != b && _map[a] == a && _map[b] == b) {
+                swap(a, b);
+            }
+        }
+        _numChanged = 0;
+    }
+
+    /** Return the character C is plugged to (C itself if none). */
+    int map(int c) {
+        return _map[c];
+    }
+
+    /** Return my mapping as an array indexed by character.  The result
+     *  is my own table; do not modify it. */
+    int[] table() {
+        return _map;
+    }
+
+    /** Return the number of plugs in use. */
+    int plugs() {
+        return _plugs;
+    }
+
+    /** Plug A and B together, or unplug them if they already are.  A
+     *  and B must differ. */
+    void swap(int a, int b) {
+        int a1 = _map[a], b1 = _map[b];
+        _numChanged = 0;
+        record(a);
+        record(b);
+        if (a1 == b) {
+            _map[a] = a;
+            _map[b] = b;
+            _plugs -= 1;
+            return;
+        }
+        if (a1 != a) {
+            record(a1);
+            _map[a1] = a1;
+            _plugs -= 1;
+        }
+        if (b1 != b) {
+            record(b1);
+            _map[b1] = b1;
+            _plugs -= 1;
+        }
+        _map[a] = b;
+        _map[b] = a;
+        _plugs += 1;
+    }
+
+    /** Undo the effect of the last swap.  Does nothing if there has
+     *  been no swap since the last revert, clear, or randomize. */
+    void revert() {
+        for (int i = _numChanged - 1; i >= 0; i -= 1) {
+            _map[_changed[i]] = _was[i];
+        }
+        _plugs = _wasPlugs;
+        _numChanged = 0;
+    }
+
+    /** Return the number of characters whose mapping the last swap
+     *  changed. */
+    int numChanged() {
+        return _numChanged;
+    }
+
+    /** Return the Kth character whose mapping the last swap
+     *  changed. */
+    int changed(int k) {
+        return _changed[k];
+    }
+
+    /** Return my plugs as cycles over ALPHABET, e.g. "(AB) (CD)". */
+    String cycles(Alphabet alphabet) {
+        StringBuilder result = new StringBuilder();
+        for (int c = 0; c < _map.length; c += 1) {
+            if (_map[c] > c) {
+                if (result.length() > 0) {
+                    result.append(' ');
+                }
+                result.append('(').append(alphabet.toChar(c))
+                    .append(alphabet.toChar(_map[c])).append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Note that the mapping of C is about to change. */
+    private void record(int c) {
+        if (_numChanged == 0) {
+            _wasPlugs = _plugs;
+        }
+        _changed[_numChanged] = c;
+        _was[_numChanged] = _map[c];
+        _numChanged += 1;
+    }
+
+    /** The involution. */
+    private final int[] _map;
+    /** Number of two-character cycles in _map. */
+    private int _plugs;
+    /** Characters changed by the last swap, and their old mappings. */
+    private final int[] _changed = new int[4], _was = new int[4];
+    /** Number of valid entries in _changed and _was. */
+    private int _numChanged;
+    /** Value of _plugs before the last swap. */
+    private int _wasPlugs;
+}
@@ -0,0 +1,446 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** Recovers the plugboard of a machine whose rotor settings are known
+ *  by hill-climbing over plugboard swaps.  The scrambler (everything
+ *  but the plugboard) at each ciphertext position is tabulated once;
+ *  after that, a plaintext character is PB[SCR[i][PB[c]]] for the
+ *  current plugboard PB.  A swap changes PB at no more than four
+ *  characters, so only the positions whose ciphertext character or
+ *  scrambler output is one of those change, and only the n-grams
+ *  covering those positions are rescored.  Independent climbs from
+ *  random plugboards run in parallel on a ForkJoinPool.  Usage:
+ *      java enigma.PlugboardSolver --ngrams=FILE [--restarts=R]
+ *                  [--plugs=P] [--seed=S] [--threads=T]
+ *                  CONF SETTINGS CIPHERTEXT
+ *  where SETTINGS is a setting line without plugboard (quoted as one
+ *  argument) and CIPHERTEXT is a file as for KeySearch.
+ *  @author Jay Chiang
+ */
+public final class PlugboardSolver {
+
+    /** Run the solver described by ARGS. */
+    public static void main(String... args) {
+        try {
+            int restarts = DEFAULT_RESTARTS, plugs = DEFAULT_PLUGS;
+            int threads = 0;
+            long seed = 0;
+            String ngrams = null;
+            int first = 0;
+            for (; first < args.length && args[first].startsWith("--");
+                 first += 1) {
+                String arg = args[first];
+                String value = arg.substring(arg.indexOf('=') + 1);
+                if (arg.startsWith("--restarts=")) {
+                    restarts = Integer.parseInt(value);
+                } else if (arg.startsWith("--plugs=")) {
+                    plugs = Integer.parseInt(value);
+                } else if (arg.startsWith("--seed=")) {
+                    seed = Long.parseLong(value);
+                } else if (arg.startsWith("--threads=")) {
+                    threads = Integer.parseInt(value);
+                } else if (arg.startsWith("--ngrams=")) {
+                    ngrams = value;
+                } else {
+                    throw error("unknown option %s", arg);
+                }
+            }
+            if (args.length != first + 3 || ngrams == null) {
+                throw error("Usage: java enigma.PlugboardSolver "
+                            + "--ngrams=FILE [--restarts=R] [--plugs=P] "
+                            + "[--seed=S] [--threads=T] "
+                            + "CONF SETTINGS CIPHERTEXT");
+            }
+            Config config = KeySearch.readConfig(args[first]);
+            Alphabet alpha = config.alphabet();
+            CompiledMachine machine =
+                new CompiledMachine(new RotorTables(config),
+                                    config.numRotors());
+            String settings = args[first + 1].trim();
+            machine.setUp(settings);
+            PlugboardSolver solver =
+                new PlugboardSolver(machine,
+                                    KeySearch.readText(alpha,
+                                                       args[first + 2]),
+                                    NGramScorer.read(alpha, ngrams));
+            solver.setMaxPlugs(plugs);
+            ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads)
+                : ForkJoinPool.commonPool();
+            Solution best = solver.solve(pool, restarts, seed);
+            System.out.printf("%.6f  %s %s%n", best.score(), settings,
+                              best.cycles(alpha));
+            System.err.println(solver.report());
+        } catch (NumberFormatException excp) {
+            System.err.println("Error: bad option value");
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A solver for CIPHERTEXT (alphabet indices) encrypted on MACHINE
+     *  as it is now set, apart from its plugboard, scoring candidate
+     *  decryptions with SCORER.  MACHINE is stepped through the
+     *  ciphertext. */
+    PlugboardSolver(CompiledMachine machine, int[] ciphertext,
+                    NGramScorer scorer) {
+        int n = machine.tables().size();
+        int len = ciphertext.length;
+        _n = n;
+        _cipher = ciphertext.clone();
+        _scorer = scorer;
+        _scrambler = new int[len * n];
+        machine.setPlugboard(null);
+        for (int i = 0; i < len; i += 1) {
+            machine.step();
+            for (int c = 0; c < n; c += 1) {
+                _scrambler[i * n + c] = machine.scramble(c);
+            }
+        }
+        int[] counts = new int[n];
+        for (int c : _cipher) {
+            counts[c] += 1;
+        }
+        _byCipher = new int[n][];
+        for (int c = 0; c < n; c += 1) {
+            _byCipher[c] = new int[counts[c]];
+            counts[c] = 0;
+        }
+        for (int i = 0; i < len; i += 1) {
+            int c = _cipher[i];
+            _byCipher[c][counts[c]] = i;
+            counts[c] += 1;
+        }
+        _maxPlugs = n / 2;
+    }
+
+    /** Allow at most PLUGS plugs. */
+    void setMaxPlugs(int plugs) {
+        if (plugs < 0) {
+            throw error("bad number of plugs");
+        }
+        _maxPlugs = Math.min(plugs, _n / 2);
+    }
+
+    /** Run RESTARTS climbs on POOL, each from a random plugboard chosen
+     *  with a generator seeded from SEED and the climb's number, and
+     *  return the best result. */
+    Solution solve(ForkJoinPool pool, int restarts, long seed) {
+        if (restarts < 1) {
+            throw error("need at least one restart");
+        }
+        _swaps.reset();
+        long start = System.nanoTime();
+        Solution best = pool.invoke(new Task(seed, 0, restarts));
+        _elapsed = System.nanoTime() - start;
+        return best;
+    }
+
+    /** Return the result of a single climb from plugboard START. */
+    Solution climb(Plugboard start) {
+        Climb climb = new Climb(start);
+        climb.run();
+        return climb.solution();
+    }
+
+    /** Return the score of decrypting my ciphertext with PLUGBOARD,
+     *  computed from scratch. */
+    double score(Plugboard plugboard) {
+        int[] plain = new int[_cipher.length];
+        decrypt(plugboard, plain);
+        return _scorer.score(plain, plain.length);
+    }
+
+    /** Fill PLAIN with the decryption of my ciphertext using
+     *  PLUGBOARD. */
+    void decrypt(Plugboard plugboard, int[] plain) {
+        int[] pb = plugboard.table();
+        for (int i = 0; i < _cipher.length; i += 1) {
+            plain[i] = pb[_scrambler[i * _n + pb[_cipher[i]]]];
+        }
+    }
+
+    /** Return the number of swaps tried by the last solve. */
+    long swaps() {
+        return _swaps.sum();
+    }
+
+    /** Return a summary of the last solve's speed. */
+    String report() {
+        return String.format("%d swaps in %.2f s: %.0f swaps/s", swaps(),
+                             _elapsed / 1e9,
+                             swaps() * 1e9 / Math.max(1, _elapsed));
+    }
+
+    /** A range of climbs. */
+    private final class Task extends RecursiveTask<Solution> {
+
+        /** Climbs FROM (inclusive) to TO (exclusive), seeded from
+         *  SEED. */
+        Task(long seed, int from, int to) {
+            _seed = seed;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected Solution compute() {
+            if (_to - _from == 1) {
+                Plugboard start = new Plugboard(_n);
+                Random random = new Random(_seed * 1_000_003L + _from);
+                start.randomize(random.nextInt(_maxPlugs + 1), random);
+                return climb(start);
+            }
+            int mid = (_from + _to) >>> 1;
+            Task left = new Task(_seed, _from, mid);
+            left.fork();
+            Solution right = new Task(_seed, mid, _to).compute();
+            Solution result = left.join();
+            return right.score() > result.score() ? right : result;
+        }
+
+        /** Seed for the climbs' generators. */
+        private final long _seed;
+        /** First and last-plus-one climbs. */
+        private final int _from, _to;
+    }
+
+    /** The state of one hill climb: a plugboard, the decryption it
+     *  gives, and indices for finding the positions a swap affects. */
+    private final class Climb {
+
+        /** A climb starting from a copy of plugboard START. */
+        Climb(Plugboard start) {
+            int len = _cipher.length;
+            _plugboard = new Plugboard(start);
+            _plain = new int[len];
+            _mid = new int[len];
+            _next = new int[len];
+            _prev = new int[len];
+            _head = new int[_n];
+            _posStamp = new int[len];
+            _gramStamp = new int[len];
+            _affected = new int[len];
+            _grams = new int[len];
+            _oldPlain = new int[len];
+            _oldMid = new int[len];
+            Arrays.fill(_head, -1);
+            int[] pb = _plugboard.table();
+            for (int i = 0; i < len; i += 1) {
+                _mid[i] = _scrambler[i * _n + pb[_cipher[i]]];
+                _plain[i] = pb[_mid[i]];
+                link(i);
+            }
+            _score = _scorer.score(_plain, len);
+        }
+
+        /** Climb until no single swap improves my score. */
+        void run() {
+            long tried = 0;
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int a = 0; a < _n; a += 1) {
+                    for (int b = a + 1; b < _n; b += 1) {
+                        _plugboard.swap(a, b);
+                        if (_plugboard.plugs() > _maxPlugs) {
+                            _plugboard.revert();
+                            continue;
+                        }
+                        tried += 1;
+                        if (trySwap()) {
+                            improved = true;
+                        }
+                    }
+                }
+            }
+            _swaps.add(tried);
+        }
+
+        /** Return my current plugboard and score. */
+        Solution solution() {
+            return new Solution(_plugboard, _score);
+        }
+
+        /** Rescore after the swap just applied to _plugboard, keeping
+         *  it if it improves my score and reverting it otherwise.
+         *  Return true iff it was kept. */
+        private boolean trySwap() {
+            int[] pb = _plugboard.table();
+            int order = _scorer.order(), len = _cipher.length;
+            _epoch += 1;
+            int numAffected = 0;
+            for (int k = 0; k < _plugboard.numChanged(); k += 1) {
+                int c = _plugboard.changed(k);
+                for (int i : _byCipher[c]) {
+                    numAffected = affect(i, numAffected);
+                }
+                for (int i = _head[c]; i >= 0; i = _next[i]) {
+                    numAffected = affect(i, numAffected);
+                }
+            }
+            int numGrams = 0;
+            for (int k = 0; k < numAffected; k += 1) {
+                int i = _affected[k];
+                int last = Math.min(i, len - order);
+                for (int s = Math.max(0, i - order + 1); s <= last;
+                     s += 1) {
+                    if (_gramStamp[s] != _epoch) {
+                        _gramStamp[s] = _epoch;
+                        _grams[numGrams] = s;
+                        numGrams += 1;
+                    }
+                }
+            }
+            double delta = 0;
+            for (int k = 0; k < numGrams; k += 1) {
+                delta -= _scorer.gram(_plain, _grams[k]);
+            }
+            for (int k = 0; k < numAffected; k += 1) {
+                int i = _affected[k];
+                _oldPlain[k] = _plain[i];
+                _oldMid[k] = _mid[i];
+                _mid[i] = _scrambler[i * _n + pb[_cipher[i]]];
+                _plain[i] = pb[_mid[i]];
+            }
+            for (int k = 0; k < numGrams; k += 1) {
+                delta += _scorer.gram(_plain, _grams[k]);
+            }
+            if (delta > EPSILON) {
+                _score += delta;
+                for (int k = 0; k < numAffected; k += 1) {
+                    int i = _affected[k];
+                    if (_mid[i] != _oldMid[k]) {
+                        unlink(i, _oldMid[k]);
+                        link(i);
+                    }
+                }
+                return true;
+            }
+            for (int k = 0; k < numAffected; k += 1) {
+                int i = _affected[k];
+                _plain[i] = _oldPlain[k];
+                _mid[i] = _oldMid[k];
+            }
+            _plugboard.revert();
+            return false;
+        }
+
+        /** Add position I to _affected if it is not already there, given
+         *  that it holds N entries, and return its new size. */
+        private int affect(int i, int n) {
+            if (_posStamp[i] == _epoch) {
+                return n;
+            }
+            _posStamp[i] = _epoch;
+            _affected[n] = i;
+            return n + 1;
+        }
+
+        /** Add position I to the list for scrambler output _mid[I]. */
+        private void link(int i) {
+            int h = _head[_mid[i]];
+            _next[i] = h;
+            _prev[i] = -1;
+            if (h >= 0) {
+                _prev[h] = i;
+            }
+            _head[_mid[i]] = i;
+        }
+
+        /** Remove position I from the list for scrambler output MID. */
+        private void unlink(int i, int mid) {
+            if (_prev[i] >= 0) {
+                _next[_prev[i]] = _next[i];
+            } else {
+                _head[mid] = _next[i];
+            }
+            if (_next[i] >= 0) {
+                _prev[_next[i]] = _prev[i];
+            }
+        }
+
+        /** The current plugboard. */
+        private final Plugboard _plugboard;
+        /** Decryption under _plugboard, and the scrambler output at each
+         *  position. */
+        private final int[] _plain, _mid;
+        /** Doubly linked lists of positions by _mid value: _head[c] is
+         *  the first position whose scrambler output is c. */
+        private final int[] _next, _prev, _head;
+        /** Marks of positions and n-gram starts seen in this trial. */
+        private final int[] _posStamp, _gramStamp;
+        /** Positions and n-gram starts affected by this trial. */
+        private final int[] _affected, _grams;
+        /** Values of _plain and _mid at the affected positions before
+         *  this trial. */
+        private final int[] _oldPlain, _oldMid;
+        /** Current trial number, for _posStamp and _gramStamp. */
+        private int _epoch;
+        /** Score of _plain. */
+        private double _score;
+    }
+
+    /** A plugboard found by the solver and its score. */
+    static final class Solution {
+
+        /** A solution with a copy of PLUGBOARD, scoring SCORE. */
+        Solution(Plugboard plugboard, double score) {
+            _plugboard = new Plugboard(plugboard);
+            _score = score;
+        }
+
+        /** Return my score. */
+        double score() {
+            return _score;
+        }
+
+        /** Return my plugboard. */
+        Plugboard plugboard() {
+            return _plugboard;
+        }
+
+        /** Return my plugboard as cycles over ALPHABET. */
+        String cycles(Alphabet alphabet) {
+            return _plugboard.cycles(alphabet);
+        }
+
+        /** The plugboard. */
+        private final Plugboard _plugboard;
+        /** Its score. */
+        private final double _score;
+    }
+
+    /** Default number of climbs. */
+    static final int DEFAULT_RESTARTS = 64;
+    /** Default limit on plugs. */
+    static final int DEFAULT_PLUGS = 10;
+    /** Least score change counted as an improvement. */
+    private static final double EPSILON = 1e-9;
+
+    /** Alphabet size. */
+    private final int _n;
+    /** The ciphertext. */
+    private final int[] _cipher;
+    /** The scorer. */
+    private final NGramScorer _scorer;
+    /** Entry I * _n + C is the scrambler's output for input C at
+     *  ciphertext position I. */
+    private final int[] _scrambler;
+    /** Positions of each ciphertext character. */
+    private final int[][] _byCipher;
+    /** Largest number of plugs allowed. */
+    private int _maxPlugs;
+    /** Swaps tried in the current solve. */
+    private final LongAdder _swaps = new LongAdder();
+    /** Duration of the last solve. */
+    private long _elapsed;
+}
@@ -0,0 +1,121 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.DaemonTest.CONFIG;
+import static enigma.KeySearchTest.PLAIN;
+import static enigma.KeySearchTest.encrypt;
+
+/** The suite of all JUnit tests for the Plugboard and PlugboardSolver
+ *  classes.
+ *  @author Jay Chiang
+ */
+public class PlugboardSolverTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a table of the counts of the N-grams of TEXT, in the form
+     *  read by NGramScorer. */
+    static String ngramTable(String text, int n) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i + n <= text.length(); i += 1) {
+            counts.merge(text.substring(i, i + n), 1, Integer::sum);
+        }
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            result.append(e.getKey()).append(' ').append(e.getValue())
+                .append('\n');
+        }
+        return result.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testSwapAndRevert() {
+        Alphabet alpha = new Alphabet();
+        Plugboard pb = new Plugboard(26);
+        pb.swap(0, 1);
+        pb.swap(2, 3);
+        assertEquals("(AB) (CD)", pb.cycles(alpha));
+        assertEquals(2, pb.plugs());
+        pb.swap(1, 2);
+        assertEquals("(BC)", pb.cycles(alpha));
+        assertEquals(4, pb.numChanged());
+        assertEquals(1, pb.plugs());
+        pb.revert();
+        assertEquals("(AB) (CD)", pb.cycles(alpha));
+        assertEquals(2, pb.plugs());
+        pb.swap(0, 1);
+        assertEquals("(CD)", pb.cycles(alpha));
+        assertEquals(2, pb.numChanged());
+        pb.revert();
+        pb.revert();
+        assertEquals("(AB) (CD)", pb.cycles(alpha));
+        for (int c = 0; c < 26; c += 1) {
+            assertEquals(c, pb.map(pb.map(c)));
+        }
+    }
+
+    @Test
+    public void testIncrementalScore() {
+        Config config = Config.read(new Scanner(CONFIG));
+        Alphabet alpha = config.alphabet();
+        String settings = "* B Beta III IV I AXLE";
+        int[] cipher = KeySearch.indices(alpha,
+                                         encrypt(CONFIG, settings, PLAIN));
+        CompiledMachine machine =
+            new CompiledMachine(new RotorTables(config), 5);
+        machine.setUp(settings);
+        NGramScorer scorer =
+            new NGramScorer(alpha, new Scanner(ngramTable(PLAIN, 3)));
+        PlugboardSolver solver = new PlugboardSolver(machine, cipher,
+                                                     scorer);
+        Random random = new Random(7);
+        for (int k = 0; k < 10; k += 1) {
+            Plugboard start = new Plugboard(26);
+            start.randomize(8, random);
+            PlugboardSolver.Solution result = solver.climb(start);
+            assertEquals(solver.score(result.plugboard()), result.score(),
+                         1e-6);
+            assertTrue(result.score() >= solver.score(start) - 1e-6);
+        }
+    }
+
+    @Test
+    public void testSolve() {
+        Config config = Config.read(new Scanner(CONFIG));
+        Alphabet alpha = config.alphabet();
+        String settings = "* B Beta III IV I AXLE";
+        String plugs = "(AQ) (EX) (IP) (TR) (BY)";
+        int[] cipher =
+            KeySearch.indices(alpha, encrypt(CONFIG, settings + " " + plugs,
+                                             PLAIN));
+        CompiledMachine machine =
+            new CompiledMachine(new RotorTables(config), 5);
+        machine.setUp(settings);
+        NGramScorer scorer =
+            new NGramScorer(alpha, new Scanner(ngramTable(PLAIN, 3)));
+        PlugboardSolver solver = new PlugboardSolver(machine, cipher,
+                                                     scorer);
+        solver.setMaxPlugs(6);
+        PlugboardSolver.Solution best =
+            solver.solve(new ForkJoinPool(2), 16, 1);
+        assertEquals("(AQ) (BY) (EX) (IP) (RT)", best.cycles(alpha));
+        assertTrue(solver.swaps() > 0);
+    }
+
+}
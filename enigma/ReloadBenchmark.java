@@ -0,0 +1,287 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static enigma.EnigmaException.*;
+
+/** Measures request throughput while the configuration is reloaded.
+ *  Usage:
+ *      java enigma.ReloadBenchmark [OPTIONS]
+ *  generates two rotor catalogs with the same rotor names (from
+ *  Workload seeds S and S+1, whose options are accepted here) and
+ *  requests (setting line and message) for them, then has several
+ *  threads answer the requests as Server does, each taking the current
+ *  configuration from a ConfigHolder for every request.  Meanwhile the
+ *  configuration file is switched between the two catalogs at regular
+ *  intervals, and the holder picks up each version in the background.
+ *  Throughput is counted in short buckets; the report compares the
+ *  buckets in which a new configuration was published with the rest,
+ *  after a warm-up period run the same way but not reported.  The
+ *  options besides Workload's are
+ *    --threads=N      request threads [number of processors];
+ *    --warmup=S       length of the warm-up period in seconds [3];
+ *    --seconds=S      length of the measured run [6];
+ *    --switch=MS      time between changes to the file [500];
+ *    --poll=MS        time between the holder's checks of the file [50];
+ *    --bucket=MS      length of a bucket [100];
+ *    --buckets        also list every bucket.
+ *  @author Jay Chiang
+ */
+public final class ReloadBenchmark {
+
+    /** Run the benchmark described by ARGS. */
+    public static void main(String... args) throws Exception {
+        try {
+            new ReloadBenchmark(args).run();
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A benchmark configured by the options ARGS. */
+    ReloadBenchmark(String... args) {
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) {
+                _threads = (int) value(arg);
+            } else if (arg.startsWith("--warmup=")) {
+                _warmup = value(arg);
+            } else if (arg.startsWith("--seconds=")) {
+                _seconds = value(arg);
+            } else if (arg.startsWith("--switch=")) {
+                _switch = value(arg);
+            } else if (arg.startsWith("--poll=")) {
+                _poll = value(arg);
+            } else if (arg.startsWith("--bucket=")) {
+                _bucket = value(arg);
+            } else if (arg.equals("--buckets")) {
+                _listBuckets = true;
+            } else if (arg.startsWith("--")) {
+                _workload.setOption(arg);
+            } else {
+                throw error("unexpected argument %s", arg);
+            }
+        }
+    }
+
+    /** Return the positive value following '=' in OPTION. */
+    private static long value(String option) {
+        try {
+            long result = Long.parseLong(
+                option.substring(option.indexOf('=') + 1));
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("bad option value: %s", option);
+    }
+
+    /** Generate the catalogs and requests, run, and report on the
+     *  standard output. */
+    void run() throws IOException, InterruptedException {
+        Charset charset = Charset.defaultCharset();
+        String[] catalogs = new String[2];
+        StringWriter input = new StringWriter();
+        catalogs[1] = variant(charset);
+        catalogs[0] = _workload.config(charset);
+        _workload.writeInput(input);
+        List<String[]> requests = requests(input.toString());
+        System.out.println(_workload);
+
+        Path file = Files.createTempFile("enigma-reload", ".conf");
+        try {
+            Files.writeString(file, catalogs[0], charset);
+            try (ConfigHolder holder = new ConfigHolder(file)) {
+                holder.start(_poll);
+                measure(holder, file, catalogs, requests);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /** Return the catalog of the workload with the next seed, leaving
+     *  the workload's options as they were. */
+    private String variant(Charset charset) {
+        long seed = _workload.seed();
+        _workload.setOption("--seed=" + (seed + 1));
+        String result = _workload.config(charset);
+        _workload.setOption("--seed=" + seed);
+        return result;
+    }
+
+    /** Return the requests in INPUT: each message line paired with the
+     *  setting line before it. */
+    private static List<String[]> requests(String input) {
+        List<String[]> result = new ArrayList<>();
+        String settings = null;
+        for (String line : input.split("\n")) {
+            if (line.startsWith("*")) {
+                settings = line;
+            } else if (settings != null && !line.isEmpty()) {
+                result.add(new String[] { settings, line });
+            }
+        }
+        return result;
+    }
+
+    /** Answer REQUESTS on my threads, taking configurations from
+     *  HOLDER, while switching FILE among CATALOGS, and report. */
+    private void measure(ConfigHolder holder, Path file, String[] catalogs,
+                         List<String[]> requests)
+        throws IOException, InterruptedException {
+        long bucketNanos = _bucket * 1_000_000;
+        int skipped = (int) (_warmup * 1000 / _bucket);
+        int buckets = skipped + (int) (_seconds * 1000 / _bucket);
+        AtomicLongArray done = new AtomicLongArray(buckets);
+        AtomicLongArray published = new AtomicLongArray(buckets);
+        long start = System.nanoTime();
+        long end = start + buckets * bucketNanos;
+        Thread[] threads = new Thread[_threads];
+        Throwable[] failures = new Throwable[_threads];
+        for (int t = 0; t < _threads; t += 1) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    answer(holder, requests, id, start, end, bucketNanos,
+                           done);
+                } catch (RuntimeException excp) {
+                    failures[id] = excp;
+                }
+            });
+            threads[t].start();
+        }
+        long generation = holder.generation(), nextSwitch = start;
+        int version = 0, switches = 0;
+        long latency = 0, switched = 0, reloads = 0;
+        for (long now = start; now < end; now = System.nanoTime()) {
+            if (holder.generation() != generation) {
+                generation = holder.generation();
+                int bucket = (int) ((now - start) / bucketNanos);
+                published.incrementAndGet(bucket);
+                if (bucket >= skipped) {
+                    reloads += 1;
+                    latency += now - switched;
+                }
+            }
+            if (now >= nextSwitch && holder.generation() == switches) {
+                version = 1 - version;
+                FileTime before = Files.getLastModifiedTime(file);
+                Files.writeString(file, catalogs[version],
+                                  Charset.defaultCharset());
+                Files.setLastModifiedTime(
+                    file, FileTime.fromMillis(before.toMillis() + 1000));
+                switched = System.nanoTime();
+                switches += 1;
+                nextSwitch = switched + _switch * 1_000_000;
+            }
+            Thread.sleep(1);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Throwable failure : failures) {
+            if (failure != null) {
+                throw error("request failed: %s", failure);
+            }
+        }
+        report(done, published, skipped, bucketNanos, reloads, latency);
+    }
+
+    /** Answer REQUESTS, starting at number ID, in turn until END, as
+     *  Server does, counting those finished in each bucket of
+     *  BUCKETNANOS from START in DONE. */
+    private static void answer(ConfigHolder holder, List<String[]> requests,
+                               int id, long start, long end,
+                               long bucketNanos, AtomicLongArray done) {
+        Config config = holder.get();
+        Main main = new Main(config);
+        for (int i = id; true; i += 1) {
+            if (holder.get() != config) {
+                config = holder.get();
+                main = new Main(config);
+            }
+            String[] request = requests.get(i % requests.size());
+            main.processMessage(request[0], request[1]);
+            long now = System.nanoTime();
+            if (now >= end) {
+                return;
+            }
+            done.incrementAndGet((int) ((now - start) / bucketNanos));
+        }
+    }
+
+    /** Report the requests DONE and configurations PUBLISHED in each
+     *  bucket of BUCKETNANOS after the first SKIPPED, given GENERATIONS
+     *  publications in them taking a total of LATENCY nanoseconds from
+     *  the change of the file. */
+    private void report(AtomicLongArray done, AtomicLongArray published,
+                        int skipped, long bucketNanos, long generations,
+                        long latency) {
+        double perSecond = 1e9 / bucketNanos;
+        double quiet = 0, reloading = 0;
+        double quietMin = Double.MAX_VALUE, reloadingMin = Double.MAX_VALUE;
+        int quietCount = 0, reloadingCount = 0;
+        if (_listBuckets) {
+            System.out.printf("%6s %12s %s%n", "ms", "requests/s",
+                              "published");
+        }
+        for (int b = skipped; b < done.length(); b += 1) {
+            double rate = done.get(b) * perSecond;
+            if (_listBuckets) {
+                System.out.printf("%6d %12.0f %s%n", (b - skipped)
+                                  * bucketNanos / 1_000_000, rate,
+                                  published.get(b) > 0 ? "*" : "");
+            }
+            if (published.get(b) > 0) {
+                reloading += rate;
+                reloadingMin = Math.min(reloadingMin, rate);
+                reloadingCount += 1;
+            } else {
+                quiet += rate;
+                quietMin = Math.min(quietMin, rate);
+                quietCount += 1;
+            }
+        }
+        System.out.printf("%d threads; %d reloads, %.1f ms on average from "
+                          + "file change to publication%n", _threads,
+                          generations, generations == 0 ? 0.0
+                          : latency / 1e6 / generations);
+        System.out.printf("buckets without a reload: %d, mean %.0f "
+                          + "requests/s, min %.0f%n", quietCount,
+                          quietCount == 0 ? 0.0 : quiet / quietCount,
+                          quietCount == 0 ? 0.0 : quietMin);
+        System.out.printf("buckets with a reload:    %d, mean %.0f "
+                          + "requests/s, min %.0f%n", reloadingCount,
+                          reloadingCount == 0 ? 0.0
+                          : reloading / reloadingCount,
+                          reloadingCount == 0 ? 0.0 : reloadingMin);
+    }
+
+    /** The workload. */
+    private final Workload _workload = new Workload();
+    /** Number of request threads. */
+    private int _threads = Runtime.getRuntime().availableProcessors();
+    /** Length of the warm-up period in seconds. */
+    private long _warmup = 3;
+    /** Length of the measured run in seconds. */
+    private long _seconds = 6;
+    /** Milliseconds between changes to the file. */
+    private long _switch = 500;
+    /** Milliseconds between the holder's checks of the file. */
+    private long _poll = 50;
+    /** Milliseconds per bucket. */
+    private long _bucket = 100;
+    /** True iff every bucket is listed. */
+    private boolean _listBuckets;
+}
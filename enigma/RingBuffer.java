@@ -0,0 +1,148 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** A bounded, lock-free, single-producer/single-consumer queue backed
+ *  by a preallocated ring of slots.  Exactly one thread may call the
+ *  producer methods (offer, put) and exactly one other thread the
+ *  consumer methods (poll, take).  The blocking methods spin briefly
+ *  and then park, counting each such wait as a stall.
+ *  @author Jay Chiang
+ */
+final class RingBuffer<T> {
+
+    /** A ring buffer holding at least CAPACITY items.  CAPACITY is
+     *  rounded up to a power of two. */
+    RingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        _slots = new Object[size];
+        _mask = size - 1;
+    }
+
+    /** Return the number of slots in this buffer. */
+    int capacity() {
+        return _slots.length;
+    }
+
+    /** Return the number of items currently queued.  Only approximate
+     *  when read by a thread other than the producer or consumer. */
+    int size() {
+        return (int) (_tail.get() - _head.get());
+    }
+
+    /** Append ITEM, returning false without waiting if I am full. */
+    boolean offer(T item) {
+        long tail = _tail.get();
+        if (tail - _head.get() == _slots.length) {
+            return false;
+        }
+        _slots[(int) tail & _mask] = item;
+        _tail.lazySet(tail + 1);
+        long depth = tail + 1 - _head.get();
+        if (depth > _maxDepth) {
+            _maxDepth = depth;
+        }
+        _depthSum += depth;
+        _offers += 1;
+        return true;
+    }
+
+    /** Remove and return my oldest item, or null if I am empty. */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long head = _head.get();
+        if (head == _tail.get()) {
+            return null;
+        }
+        int index = (int) head & _mask;
+        T item = (T) _slots[index];
+        _slots[index] = null;
+        _head.lazySet(head + 1);
+        return item;
+    }
+
+    /** Append ITEM, waiting for space if necessary. */
+    void put(T item) {
+        if (offer(item)) {
+            return;
+        }
+        _producerStalls += 1;
+        for (int spins = 0; !offer(item); spins += 1) {
+            backOff(spins);
+        }
+    }
+
+    /** Remove and return my oldest item, waiting for one if
+     *  necessary. */
+    T take() {
+        T item = poll();
+        if (item != null) {
+            return item;
+        }
+        _consumerStalls += 1;
+        for (int spins = 0; (item = poll()) == null; spins += 1) {
+            backOff(spins);
+        }
+        return item;
+    }
+
+    /** Wait a little, having already retried SPINS times. */
+    private static void backOff(int spins) {
+        if (spins < SPIN_LIMIT) {
+            Thread.onSpinWait();
+        } else if (spins < YIELD_LIMIT) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /** Return the number of times put had to wait for space. */
+    long producerStalls() {
+        return _producerStalls;
+    }
+
+    /** Return the number of times take had to wait for an item. */
+    long consumerStalls() {
+        return _consumerStalls;
+    }
+
+    /** Return the largest number of items ever queued at once, as
+     *  seen by the producer. */
+    long maxDepth() {
+        return _maxDepth;
+    }
+
+    /** Return the average queue depth seen just after each offer. */
+    double meanDepth() {
+        return _offers == 0 ? 0.0 : (double) _depthSum / _offers;
+    }
+
+    /** Busy-wait iterations before a waiting thread starts yielding. */
+    private static final int SPIN_LIMIT = 64;
+    /** Iterations before a waiting thread starts parking. */
+    private static final int YIELD_LIMIT = 128;
+    /** Length of each park once spinning has failed. */
+    private static final long PARK_NANOS = 50_000L;
+
+    /** The slots of the ring. */
+    private final Object[] _slots;
+    /** Index mask for _slots (its length less one). */
+    private final int _mask;
+    /** Sequence number of the next item to remove. */
+    private final AtomicLong _head = new AtomicLong();
+    /** Sequence number of the next item to append. */
+    private final AtomicLong _tail = new AtomicLong();
+
+    /** Producer-side statistics, written only by the producer. */
+    private volatile long _producerStalls, _maxDepth, _depthSum, _offers;
+    /** Consumer-side stall count, written only by the consumer. */
+    private volatile long _consumerStalls;
+}
@@ -96,6 +96,11 @@ class Rotor {
         return "Rotor " + _name;
     }
 
+    /** Return my ring adjustment. */
+    public int getRingAdjustment() {
+        return _ringAdjustment;
+    }
+
     /** sets the ring adjustment using ADJUSTMENT. */
     public void setRingAdjustment(int adjustment) {
         _ringAdjustment = adjustment;
@@ -0,0 +1,135 @@
+package enigma;
+
+import java.util.HashMap;
+
+/** The rotors of a configuration compiled to primitive tables, for
+ *  engines that must convert far more characters than a Machine can
+ *  afford to.  Rotor K is described by its forward and backward
+ *  wirings in the 0 setting, as arrays of alphabet indices, and by a
+ *  table of the positions at which it is at a notch.  Instances are
+ *  immutable and may be shared among threads.
+ *  @author Jay Chiang
+ */
+final class RotorTables {
+
+    /** Tables for all the rotors of CONFIG. */
+    RotorTables(Config config) {
+        _config = config;
+        _size = config.alphabet().size();
+        int count = config.numRotorsAvailable();
+        _names = new String[count];
+        _forward = new int[count][];
+        _backward = new int[count][];
+        _notches = new boolean[count][];
+        _rotates = new boolean[count];
+        _reflecting = new boolean[count];
+        _total = new boolean[count];
+        for (int k = 0; k < count; k += 1) {
+            _names[k] = config.rotorNames().get(k);
+            _indices.putIfAbsent(_names[k], k);
+            Permutation perm = config.permutation(k);
+            _forward[k] = new int[_size];
+            _backward[k] = new int[_size];
+            _total[k] = true;
+            for (int c = 0; c < _size; c += 1) {
+                _forward[k][c] = perm.permute(c);
+                _backward[k][c] = perm.invert(c);
+                _total[k] &= _forward[k][c] >= 0 && _backward[k][c] >= 0;
+            }
+            String type = config.rotorType(k);
+            _reflecting[k] = type.equals("R");
+            _rotates[k] = type.charAt(0) == 'M';
+            _notches[k] = new boolean[_size];
+            for (int i = 1; i < type.length(); i += 1) {
+                int notch = config.alphabet().toInt(type.charAt(i));
+                if (notch >= 0) {
+                    _notches[k][notch] = true;
+                }
+            }
+        }
+    }
+
+    /** Return the configuration I was compiled from. */
+    Config config() {
+        return _config;
+    }
+
+    /** Return the size of the alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the number of rotors. */
+    int count() {
+        return _names.length;
+    }
+
+    /** Return the number of the rotor named NAME, or -1 if there is
+     *  none. */
+    int index(String name) {
+        Integer k = _indices.get(name);
+        return k == null ? -1 : k;
+    }
+
+    /** Return the name of rotor K. */
+    String name(int k) {
+        return _names[k];
+    }
+
+    /** Return true iff rotor K has a ratchet. */
+    boolean rotates(int k) {
+        return _rotates[k];
+    }
+
+    /** Return true iff rotor K is a reflector. */
+    boolean reflecting(int k) {
+        return _reflecting[k];
+    }
+
+    /** Return true iff both wirings of rotor K map every character to
+     *  one in the alphabet, as they do unless its cycles mention
+     *  characters outside it. */
+    boolean total(int k) {
+        return _total[k];
+    }
+
+    /** Return the forward wiring of rotor K in its 0 setting.  The
+     *  result is shared and must not be modified. */
+    int[] forward(int k) {
+        return _forward[k];
+    }
+
+    /** Return the backward wiring of rotor K in its 0 setting.  The
+     *  result is shared and must not be modified. */
+    int[] backward(int k) {
+        return _backward[k];
+    }
+
+    /** Return true iff rotor K is at a notch in position POSN. */
+    boolean atNotch(int k, int posn) {
+        return _notches[k][posn];
+    }
+
+    /** Return the notch table of rotor K, indexed by position.  The
+     *  result is shared and must not be modified. */
+    boolean[] notches(int k) {
+        return _notches[k];
+    }
+
+    /** The source configuration. */
+    private final Config _config;
+    /** Alphabet size. */
+    private final int _size;
+    /** Rotor names. */
+    private final String[] _names;
+    /** Rotor numbers by name (the first, if names repeat). */
+    private final HashMap<String, Integer> _indices = new HashMap<>();
+    /** Wirings, indexed by rotor and then character. */
+    private final int[][] _forward, _backward;
+    /** Notch positions, indexed by rotor and then position. */
+    private final boolean[][] _notches;
+    /** Rotor kinds. */
+    private final boolean[] _rotates, _reflecting;
+    /** Whether each rotor's wirings are total (see total). */
+    private final boolean[] _total;
+}
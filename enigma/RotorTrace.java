@@ -0,0 +1,191 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.EnigmaException.*;
+
+/** A record of the rotor positions of a machine after each of the
+ *  last CAPACITY characters it converted.  Each state is stored as
+ *  one char per rotor slot in a preallocated ring, so recording costs
+ *  a few stores and no allocation; states are rendered as setup strings
+ *  (one alphabet character per slot, reflector first, as
+ *  Machine.getSetupString gives them) only when asked for.  The ring
+ *  may live on the heap or in a memory-mapped file, which the
+ *  operating system writes back even if the process dies, so that the
+ *  last steps of a production run can be audited afterward.  Usage:
+ *      java enigma.RotorTrace CONF TRACEFILE [COUNT]
+ *  prints the last COUNT (default: all) states in TRACEFILE, oldest
+ *  first, using the alphabet of the configuration file CONF.
+ *  @author Jay Chiang
+ */
+public final class RotorTrace {
+
+    /** Default number of states kept. */
+    static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /** Print the trace described by ARGS. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 2 || args.length > 3) {
+                throw error("Usage: java enigma.RotorTrace CONF "
+                            + "TRACEFILE [COUNT]");
+            }
+            Alphabet alpha = KeySearch.readConfig(args[0]).alphabet();
+            RotorTrace trace = open(Paths.get(args[1]));
+            long count = args.length > 2 ? Long.parseLong(args[2])
+                : trace.size();
+            long end = trace.recorded();
+            for (long k = end - Math.min(count, trace.size()); k < end;
+                 k += 1) {
+                System.out.printf("%d %s%n", k, trace.setupString(k, alpha));
+            }
+        } catch (NumberFormatException excp) {
+            System.err.println("Error: bad count");
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A trace on the heap of the last CAPACITY states of a machine with
+     *  NUMROTORS slots. */
+    RotorTrace(int numRotors, int capacity) {
+        this(null, numRotors, capacity);
+    }
+
+    /** A trace of the last CAPACITY states of a machine with NUMROTORS
+     *  slots, held in HEADER (if non-null) and the following bytes of
+     *  its buffer, or on the heap. */
+    private RotorTrace(ByteBuffer header, int numRotors, int capacity) {
+        if (numRotors <= 0 || capacity <= 0
+            || (long) numRotors * capacity > Integer.MAX_VALUE / 2) {
+            throw error("bad trace size");
+        }
+        _slots = numRotors;
+        _capacity = capacity;
+        _header = header;
+        if (header == null) {
+            _states = CharBuffer.allocate(numRotors * capacity);
+        } else {
+            _states = header.position(HEADER_SIZE).slice().asCharBuffer();
+            _recorded = header.getLong(COUNT);
+        }
+    }
+
+    /** Return a trace of the last CAPACITY states of a machine with
+     *  NUMROTORS slots, kept in the file FILE, which is replaced. */
+    static RotorTrace create(Path file, int numRotors, int capacity) {
+        long size = HEADER_SIZE + 2L * numRotors * capacity;
+        try (FileChannel channel =
+                 FileChannel.open(file, StandardOpenOption.CREATE,
+                                  StandardOpenOption.READ,
+                                  StandardOpenOption.WRITE,
+                                  StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buf =
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buf.putInt(0, MAGIC);
+            buf.putInt(SLOTS, numRotors);
+            buf.putInt(CAPACITY, capacity);
+            buf.putLong(COUNT, 0);
+            return new RotorTrace(buf, numRotors, capacity);
+        } catch (IOException excp) {
+            throw error("could not create trace %s", file);
+        }
+    }
+
+    /** Return the trace kept in the file FILE. */
+    static RotorTrace open(Path file) {
+        try (FileChannel channel =
+                 FileChannel.open(file, StandardOpenOption.READ,
+                                  StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf =
+                channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                            channel.size());
+            if (channel.size() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+                throw error("%s is not a rotor trace", file);
+            }
+            int slots = buf.getInt(SLOTS), capacity = buf.getInt(CAPACITY);
+            if (channel.size() != HEADER_SIZE + 2L * slots * capacity) {
+                throw error("%s is truncated", file);
+            }
+            return new RotorTrace(buf, slots, capacity);
+        } catch (IOException excp) {
+            throw error("could not open trace %s", file);
+        }
+    }
+
+    /** Record the state given by POSITIONS, the positions of the rotors
+     *  in each slot.  Only the first numRotors() entries are used. */
+    void record(int[] positions) {
+        int base = (int) (_recorded % _capacity) * _slots;
+        for (int i = 0; i < _slots; i += 1) {
+            _states.put(base + i, (char) positions[i]);
+        }
+        _recorded += 1;
+        if (_header != null) {
+            _header.putLong(COUNT, _recorded);
+        }
+    }
+
+    /** Return the number of slots in each state. */
+    int numRotors() {
+        return _slots;
+    }
+
+    /** Return the total number of states ever recorded. */
+    long recorded() {
+        return _recorded;
+    }
+
+    /** Return the number of states I still hold. */
+    int size() {
+        return (int) Math.min(_recorded, _capacity);
+    }
+
+    /** Return the position of the rotor in SLOT in state number K,
+     *  counting from 0 at the first state recorded. */
+    int position(long k, int slot) {
+        if (k < _recorded - size() || k >= _recorded
+            || slot < 0 || slot >= _slots) {
+            throw error("state %d is not in the trace", k);
+        }
+        return _states.get((int) (k % _capacity) * _slots + slot);
+    }
+
+    /** Return state number K as a setup string in ALPHA. */
+    String setupString(long k, Alphabet alpha) {
+        char[] result = new char[_slots];
+        for (int i = 0; i < _slots; i += 1) {
+            result[i] = alpha.toChar(position(k, i));
+        }
+        return new String(result);
+    }
+
+    /** First word of a trace file ("ENTR"). */
+    private static final int MAGIC = 0x454e5452;
+    /** Offsets of the header fields: slot count, capacity, and the
+     *  number of states recorded. */
+    private static final int SLOTS = 4, CAPACITY = 8, COUNT = 16;
+    /** Size of the header of a trace file. */
+    private static final int HEADER_SIZE = 24;
+
+    /** Number of slots per state. */
+    private final int _slots;
+    /** Number of states held. */
+    private final int _capacity;
+    /** The file header, or null for a heap trace. */
+    private final ByteBuffer _header;
+    /** The ring of states, _slots chars each. */
+    private final CharBuffer _states;
+    /** Number of states recorded. */
+    private long _recorded;
+}
@@ -0,0 +1,98 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+import static enigma.DaemonTest.CONFIG;
+
+/** The suite of all JUnit tests for the RotorTrace class.
+ *  @author Jay Chiang
+ */
+public class RotorTraceTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Configuration for testing. */
+    private final Config _config = Config.read(new Scanner(CONFIG));
+
+    /** Return a machine set up for CONFIG near a double step. */
+    private Machine machine() {
+        Main main = new Main(_config);
+        Machine m = main.readConfig();
+        main.processLine(m, "* B Beta III IV I AXLE (HQ) (EX)",
+                         new StringBuilder());
+        return m;
+    }
+
+    /** Convert N characters with M, returning its setup string after
+     *  each. */
+    private List<String> run(Machine m, int n) {
+        ArrayList<String> result = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            m.convert(i % 26);
+            result.add(m.getSetupString());
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testMatchesSetupStrings() {
+        Machine m = machine();
+        assertNull(m.getSetupString());
+        RotorTrace trace = new RotorTrace(5, 100);
+        m.setTrace(trace);
+        List<String> expected = run(m, 700);
+        assertEquals(700, trace.recorded());
+        assertEquals(100, trace.size());
+        for (long k = 600; k < 700; k += 1) {
+            assertEquals(expected.get((int) k),
+                         trace.setupString(k, _config.alphabet()));
+        }
+        assertEquals("AAXMR", expected.get(12));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testOverwrittenState() {
+        Machine m = machine();
+        RotorTrace trace = new RotorTrace(5, 10);
+        m.setTrace(trace);
+        run(m, 11);
+        trace.position(0, 1);
+    }
+
+    @Test
+    public void testMappedFile() throws IOException {
+        File file = File.createTempFile("enigma-trace", ".bin");
+        file.deleteOnExit();
+        Machine m = machine();
+        m.setTrace(RotorTrace.create(file.toPath(), 5, 64));
+        List<String> expected = run(m, 100);
+        RotorTrace reopened = RotorTrace.open(file.toPath());
+        assertEquals(100, reopened.recorded());
+        assertEquals(64, reopened.size());
+        for (long k = 36; k < 100; k += 1) {
+            assertEquals(expected.get((int) k),
+                         reopened.setupString(k, _config.alphabet()));
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testWrongSize() {
+        machine().setTrace(new RotorTrace(4, 10));
+    }
+
+}
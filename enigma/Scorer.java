@@ -0,0 +1,13 @@
+package enigma;
+
+/** A measure of how much a candidate decryption, given as alphabet
+ *  indices, looks like plaintext.  Higher scores are better.  Scores
+ *  are comparable only between texts of the same length.
+ *  @author Jay Chiang
+ */
+interface Scorer {
+
+    /** Return the score of the first LEN indices of TEXT. */
+    double score(int[] text, int len);
+
+}
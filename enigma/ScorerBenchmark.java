@@ -0,0 +1,193 @@
+package enigma;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+
+/** Measures the n-gram scorers on texts of several lengths.
+ *  Usage:
+ *      java enigma.ScorerBenchmark [MILLIS [LENGTH...]]
+ *  counts unigram to quadgram tables from a random, unevenly
+ *  distributed sample of upper-case letters, and writes them to a
+ *  temporary file for MappedNGramScorer.  For each LENGTH (default 100,
+ *  1000 and 10000) it then times, on random texts of that length, a
+ *  full score by NGramScorer (quadgrams), a full score by
+ *  MappedNGramScorer (all four orders), and the rescoring of a change
+ *  to one character with MappedNGramScorer.window.  Each operation is
+ *  first run for MILLIS (default 300) milliseconds to warm up, then
+ *  timed for as long again.  The report gives nanoseconds per
+ *  operation and per character scored, and, where the JVM can count
+ *  them, bytes allocated per operation (which should be 0).
+ *  @author Jay Chiang
+ */
+public final class ScorerBenchmark {
+
+    /** Run the benchmark described by ARGS. */
+    public static void main(String... args) throws IOException {
+        long millis = args.length > 0 ? Long.parseLong(args[0])
+            : DEFAULT_MILLIS;
+        int[] lengths = DEFAULT_LENGTHS;
+        if (args.length > 1) {
+            lengths = new int[args.length - 1];
+            for (int i = 1; i < args.length; i += 1) {
+                lengths[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        Alphabet alpha = new Alphabet();
+        Random random = new Random(SEED);
+        String sample = sample(random);
+        List<NGramScorer> tables = new ArrayList<>();
+        for (int k = 1; k <= 4; k += 1) {
+            tables.add(new NGramScorer(alpha, new Scanner(counts(sample,
+                                                                 k))));
+        }
+        Path file = Files.createTempFile("ngrams", ".bin");
+        MappedNGramScorer mapped;
+        try {
+            MappedNGramScorer.write(file, alpha, tables,
+                                    new double[] { 0.1, 0.2, 0.3, 1 });
+            mapped = MappedNGramScorer.open(alpha, file);
+        } finally {
+            Files.delete(file);
+        }
+        NGramScorer quad = tables.get(3);
+
+        System.out.printf("%7s %-14s %12s %10s %8s%n", "length",
+                          "operation", "ns/op", "ns/char", "B/op");
+        for (int len : lengths) {
+            int[] text = new int[len];
+            for (int i = 0; i < len; i += 1) {
+                text[i] = random.nextInt(alpha.size());
+            }
+            long nanos = millis * 1_000_000;
+            measure(len, len, "NGramScorer", nanos,
+                    () -> quad.score(text, len));
+            measure(len, len, "mapped score", nanos,
+                    () -> mapped.score(text, len));
+            int[] next = { 0 };
+            measure(len, 2 * mapped.order() - 1, "mapped window",
+                    nanos, () -> {
+                        int i = next[0];
+                        next[0] = i + 1 == len ? 0 : i + 1;
+                        double before = mapped.window(text, len, i, i + 1);
+                        int old = text[i];
+                        text[i] = old + 1 == 26 ? 0 : old + 1;
+                        double delta = mapped.window(text, len, i, i + 1)
+                            - before;
+                        text[i] = old;
+                        return delta;
+                    });
+        }
+        if (_sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /** An operation under measurement. */
+    private interface Operation {
+        /** Perform the operation once, returning its result. */
+        double apply();
+    }
+
+    /** Warm up and time OP, named NAME, on texts of LENGTH characters,
+     *  of which it reads about CHARS, for NANOS nanoseconds each, and
+     *  report. */
+    private static void measure(int length, int chars, String name,
+                                long nanos, Operation op) {
+        repeat(op, nanos);
+        long before = allocatedBytes();
+        long start = System.nanoTime();
+        long count = repeat(op, nanos);
+        long elapsed = System.nanoTime() - start;
+        long allocated = before < 0 ? -1 : allocatedBytes() - before;
+        double perOp = (double) elapsed / count;
+        System.out.printf("%7d %-14s %12.1f %10.3f %8s%n", length, name,
+                          perOp, perOp / chars,
+                          allocated < 0 ? "?"
+                          : String.format("%.1f", (double) allocated
+                                          / count));
+    }
+
+    /** Run OP repeatedly for at least NANOS nanoseconds, returning the
+     *  number of times it ran. */
+    private static long repeat(Operation op, long nanos) {
+        long count = 0;
+        long end = System.nanoTime() + nanos;
+        double sink = 0;
+        do {
+            for (int i = 0; i < BATCH; i += 1) {
+                sink += op.apply();
+            }
+            count += BATCH;
+        } while (System.nanoTime() < end);
+        _sink += sink;
+        return count;
+    }
+
+    /** Return the number of bytes this thread has allocated, or -1 if
+     *  the JVM does not count them. */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counting =
+                (com.sun.management.ThreadMXBean) threads;
+            if (counting.isThreadAllocatedMemorySupported()
+                && counting.isThreadAllocatedMemoryEnabled()) {
+                return counting.getCurrentThreadAllocatedBytes();
+            }
+        }
+        return -1;
+    }
+
+    /** Return SAMPLE_LENGTH upper-case letters drawn with RANDOM, each
+     *  letter about twice as likely as the one after it in a random
+     *  ranking, so that the tables are far from uniform. */
+    private static String sample(Random random) {
+        StringBuilder result = new StringBuilder(SAMPLE_LENGTH);
+        for (int i = 0; i < SAMPLE_LENGTH; i += 1) {
+            int rank = Math.min(25, (int) (-Math.log(random.nextDouble())
+                                           / Math.log(2)));
+            result.append((char) ('A' + (rank * 7 + i % 3) % 26));
+        }
+        return result.toString();
+    }
+
+    /** Return the table of counts of the K-grams of TEXT, in the format
+     *  NGramScorer reads. */
+    private static String counts(String text, int k) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i + k <= text.length(); i += 1) {
+            counts.merge(text.substring(i, i + k), 1, Integer::sum);
+        }
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            result.append(e.getKey()).append(' ').append(e.getValue())
+                .append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Accumulates results so that the work is not optimized away. */
+    private static volatile double _sink;
+
+    /** Default text lengths. */
+    private static final int[] DEFAULT_LENGTHS = { 100, 1000, 10000 };
+    /** Default warm-up and timing period per operation, in
+     *  milliseconds. */
+    private static final long DEFAULT_MILLIS = 300;
+    /** Operations run between checks of the clock. */
+    private static final int BATCH = 16;
+    /** Length of the sample from which tables are counted. */
+    private static final int SAMPLE_LENGTH = 200_000;
+    /** Random seed. */
+    private static final long SEED = 49;
+
+}
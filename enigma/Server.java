@@ -0,0 +1,268 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** A TCP encryption service.  Usage:
+ *      java enigma.Server [--port=N] [--reload=S] [--keystream-cache=MB]
+ *                         CONF
+ *  serves requests for the configuration in CONF on the loopback
+ *  interface at port N (default DEFAULT_PORT), with one thread per
+ *  connection, sharing a keystream cache of up to MB megabytes
+ *  (default 0, disabled) among them.  CONF is checked for changes
+ *  every S seconds (default DEFAULT_RELOAD; 0 for never), and a valid
+ *  new version is used for requests that arrive after it is loaded,
+ *  without a pause (see ConfigHolder).  Each request runs entirely on
+ *  the configuration current when it arrived.
+ *
+ *  Each request is a frame consisting of a four-byte length L followed
+ *  by L bytes: a two-byte length S, S bytes of UTF-8 setting line, and
+ *  the rest UTF-8 message text.  The reply is the output Main would
+ *  produce for that setting line followed by that message, as a frame
+ *  of a four-byte length, a status byte (OK or FAILED) and UTF-8 text
+ *  (the output, or the error message).  Requests on one connection
+ *  are handled in order and need not wait for earlier replies, so
+ *  clients may pipeline them.  A failed request does not affect
+ *  others.
+ *  @author Jay Chiang
+ */
+public final class Server {
+
+    /** Default port. */
+    static final int DEFAULT_PORT = 6161;
+    /** Default seconds between checks of the configuration file. */
+    static final long DEFAULT_RELOAD = 2;
+    /** Status of a successful reply. */
+    static final byte OK = 0;
+    /** Status of a reply carrying an error message. */
+    static final byte FAILED = 1;
+    /** Largest frame accepted. */
+    static final int MAX_FRAME = 1 << 24;
+
+    /** Start a server as described by ARGS. */
+    public static void main(String... args) {
+        try {
+            int port = DEFAULT_PORT;
+            long reload = DEFAULT_RELOAD, keystreamBytes = 0;
+            int first = 0;
+            for (; first < args.length; first += 1) {
+                if (args[first].startsWith("--port=")) {
+                    port = Integer.parseInt(
+                        args[first].substring("--port=".length()));
+                } else if (args[first].startsWith("--reload=")) {
+                    reload = Long.parseLong(
+                        args[first].substring("--reload=".length()));
+                } else if (args[first].startsWith("--keystream-cache=")) {
+                    keystreamBytes =
+                        (long) Main.keystreamMegabytes(args[first]) << 20;
+                } else {
+                    break;
+                }
+            }
+            if (args.length != first + 1 || reload < 0) {
+                throw error("Usage: java enigma.Server [--port=N] "
+                            + "[--reload=S] [--keystream-cache=MB] CONF");
+            }
+            ConfigHolder configs =
+                new ConfigHolder(Paths.get(args[first]), keystreamBytes);
+            if (reload > 0) {
+                configs.start(reload * 1000);
+            }
+            Server server = new Server(configs, port);
+            System.err.printf("Listening on port %d%n", server.port());
+            server.serve();
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad option value%n");
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A server for CONFIG listening on the loopback interface at PORT,
+     *  or at any free port if PORT is 0. */
+    Server(Config config, int port) {
+        this(new ConfigHolder(config), port);
+    }
+
+    /** A server for the configurations CONFIGS supplies, listening as
+     *  for Server(Config, int).  Closing the server closes CONFIGS. */
+    Server(ConfigHolder configs, int port) {
+        _configs = configs;
+        try {
+            _server = new ServerSocket(port, 0,
+                                       InetAddress.getLoopbackAddress());
+        } catch (IOException excp) {
+            throw error("could not listen on port %d", port);
+        }
+    }
+
+    /** Return the port on which I listen. */
+    int port() {
+        return _server.getLocalPort();
+    }
+
+    /** Return the number of requests answered so far. */
+    long requests() {
+        return _requests.get();
+    }
+
+    /** Accept and serve connections until closed. */
+    void serve() {
+        ExecutorService workers = Daemon.newPerTaskExecutor();
+        try {
+            while (true) {
+                Socket client = _server.accept();
+                client.setTcpNoDelay(true);
+                workers.execute(() -> handle(client));
+            }
+        } catch (IOException excp) {
+            /* Closed. */
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /** Stop accepting connections and reloading. */
+    void close() {
+        _configs.close();
+        try {
+            _server.close();
+        } catch (IOException excp) {
+            /* Ignore. */
+        }
+    }
+
+    /** Serve the requests arriving on CLIENT until it closes. */
+    private void handle(Socket client) {
+        try (client) {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(client.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(client.getOutputStream()));
+            Config config = _configs.get();
+            Main main = new Main(config);
+            byte[] frame = new byte[BUFFER_SIZE];
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException excp) {
+                    return;
+                }
+                if (length < 2 || length > MAX_FRAME) {
+                    writeFrame(out, FAILED, "bad frame length");
+                    out.flush();
+                    return;
+                }
+                if (frame.length < length) {
+                    frame = new byte[length];
+                }
+                in.readFully(frame, 0, length);
+                if (_configs.get() != config) {
+                    config = _configs.get();
+                    main = new Main(config);
+                }
+                answer(main, frame, length, out);
+                _requests.incrementAndGet();
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException excp) {
+            /* Client went away. */
+        }
+    }
+
+    /** Write to OUT the reply to the request in the first LENGTH bytes
+     *  of FRAME, processed by MAIN. */
+    private static void answer(Main main, byte[] frame, int length,
+                               DataOutputStream out) throws IOException {
+        int settingsLength = ((frame[0] & 0xff) << 8) | (frame[1] & 0xff);
+        if (settingsLength > length - 2) {
+            writeFrame(out, FAILED, "bad frame");
+            return;
+        }
+        String settings =
+            new String(frame, 2, settingsLength, StandardCharsets.UTF_8);
+        String message =
+            new String(frame, 2 + settingsLength, length - 2 - settingsLength,
+                       StandardCharsets.UTF_8);
+        try {
+            writeFrame(out, OK, main.processMessage(settings, message));
+        } catch (EnigmaException excp) {
+            writeFrame(out, FAILED, excp.getMessage());
+        } catch (RuntimeException excp) {
+            writeFrame(out, FAILED, excp.toString());
+        }
+    }
+
+    /** Write a reply with STATUS and TEXT to OUT. */
+    private static void writeFrame(DataOutputStream out, byte status,
+                                   String text) throws IOException {
+        byte[] bytes = String.valueOf(text).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length + 1);
+        out.writeByte(status);
+        out.write(bytes);
+    }
+
+    /** Write a request for SETTINGS and MESSAGE to OUT, without
+     *  flushing. */
+    static void writeRequest(DataOutputStream out, String settings,
+                             String message) throws IOException {
+        byte[] head = settings.getBytes(StandardCharsets.UTF_8);
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        if (head.length > 0xffff) {
+            throw error("setting line too long");
+        }
+        out.writeInt(2 + head.length + body.length);
+        out.writeShort(head.length);
+        out.write(head);
+        out.write(body);
+    }
+
+    /** Read a reply from IN and return its text, throwing an
+     *  EnigmaException carrying the error message of a failed
+     *  request. */
+    static String readReply(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 1 || length > MAX_FRAME) {
+            throw error("bad frame length");
+        }
+        byte status = in.readByte();
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        if (status != OK) {
+            throw new EnigmaException(text);
+        }
+        return text;
+    }
+
+    /** Initial size of a connection's frame buffer. */
+    private static final int BUFFER_SIZE = 1 << 12;
+
+    /** Supplies the configuration I serve. */
+    private final ConfigHolder _configs;
+    /** Listening socket. */
+    private final ServerSocket _server;
+    /** Number of requests answered. */
+    private final AtomicLong _requests = new AtomicLong();
+}
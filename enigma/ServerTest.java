@@ -0,0 +1,87 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Scanner;
+
+import static enigma.DaemonTest.CONFIG;
+
+/** The suite of all JUnit tests for the Server and LoadTest classes.
+ *  @author Jay Chiang
+ */
+public class ServerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /** Setting line for the test messages. */
+    private static final String SETTINGS =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Return a server for CONFIG running on a free port. */
+    private Server start() {
+        Server server = new Server(Config.read(new Scanner(CONFIG)), 0);
+        Thread thread = new Thread(server::serve);
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    @Test
+    public void testPipelinedRequests() throws IOException {
+        Server server = start();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                        server.port())) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            Server.writeRequest(out, SETTINGS, "FROM HIS SHOULDER HIAWATHA");
+            Server.writeRequest(out, "* B Beta III IV", "HELLO");
+            Server.writeRequest(out, SETTINGS,
+                                "FROM HIS SHOULDER HIAWATHA\n\n"
+                                + "TOOK THE CAMERA OF ROSEWOOD\n");
+            out.flush();
+            assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW\n",
+                         Server.readReply(in));
+            try {
+                Server.readReply(in);
+                fail("no error reported");
+            } catch (EnigmaException excp) {
+                assertEquals("bad input", excp.getMessage());
+            }
+            assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW\n\n"
+                         + "BHCNS CXNUO AATZX SRCFY DGU\n",
+                         Server.readReply(in));
+        } finally {
+            server.close();
+        }
+        assertEquals(3, server.requests());
+    }
+
+    @Test
+    public void testLoad() throws InterruptedException {
+        Server server = start();
+        try {
+            LoadTest.Result result =
+                new LoadTest(server.port(), SETTINGS, 4, 20).run(2, 50);
+            assertTrue(result.percentile(50) <= result.percentile(99.9));
+            assertTrue(result.requestsPerSecond() > 0);
+        } finally {
+            server.close();
+        }
+        assertEquals(100, server.requests());
+    }
+
+}
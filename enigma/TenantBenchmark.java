@@ -0,0 +1,231 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** Compares the heap and garbage collection costs of keeping many
+ *  configurations loaded as Config objects and in a TenantStore.
+ *  Usage:
+ *      java enigma.TenantBenchmark [OPTIONS]
+ *  loads the catalogs of Workload seeds S, S+1, ... (whose options are
+ *  accepted here) in stages of an eighth, a quarter, half and all of
+ *  the tenants, and after each stage measures the heap in use after a
+ *  full collection, the time that collection took, and the throughput
+ *  and collections of a run of requests (setting line and message line
+ *  from the workload's input) sent to tenants chosen at random.  The
+ *  requests are answered by Main.processMessage on the tenant's Config,
+ *  or by a TenantStore cursor.  The options besides Workload's are
+ *    --tenants=N      configurations loaded in the last stage [10000];
+ *    --requests=N     requests after each stage [20000];
+ *    --mode=M         store, config or both [both].
+ *  @author Jay Chiang
+ */
+public final class TenantBenchmark {
+
+    /** Run the benchmark described by ARGS. */
+    public static void main(String... args) throws IOException {
+        try {
+            new TenantBenchmark(args).run();
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A benchmark configured by the options ARGS. */
+    TenantBenchmark(String... args) {
+        for (String arg : args) {
+            if (arg.startsWith("--tenants=")) {
+                _tenants = value(arg);
+            } else if (arg.startsWith("--requests=")) {
+                _requests = value(arg);
+            } else if (arg.startsWith("--mode=")) {
+                _mode = arg.substring(arg.indexOf('=') + 1);
+                if (!_mode.equals("store") && !_mode.equals("config")
+                    && !_mode.equals("both")) {
+                    throw error("bad option value: %s", arg);
+                }
+            } else if (arg.startsWith("--")) {
+                _workload.setOption(arg);
+            } else {
+                throw error("unexpected argument %s", arg);
+            }
+        }
+    }
+
+    /** Return the positive value following '=' in OPTION. */
+    private static int value(String option) {
+        try {
+            int result = Integer.parseInt(
+                option.substring(option.indexOf('=') + 1));
+            if (result > 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("bad option value: %s", option);
+    }
+
+    /** Generate the requests, run each mode, and report on the standard
+     *  output. */
+    void run() throws IOException {
+        StringWriter input = new StringWriter();
+        _workload.config(Charset.defaultCharset());
+        _workload.writeInput(input);
+        _pool = requests(input.toString());
+        _seed = _workload.seed();
+        System.out.println(_workload);
+        System.out.printf("%-7s %8s %10s %10s %10s %12s %6s %8s%n",
+                          "mode", "tenants", "heap MB", "native MB",
+                          "full GC ms", "requests/s", "GCs", "GC ms");
+        if (!_mode.equals("config")) {
+            measure(true);
+        }
+        if (!_mode.equals("store")) {
+            measure(false);
+        }
+    }
+
+    /** Return the requests in INPUT: each message line paired with the
+     *  setting line before it. */
+    private static List<String[]> requests(String input) {
+        List<String[]> result = new ArrayList<>();
+        String settings = null;
+        for (String line : input.split("\n")) {
+            if (line.startsWith("*")) {
+                settings = line;
+            } else if (settings != null && !line.isEmpty()) {
+                result.add(new String[] { settings, line });
+            }
+        }
+        return result;
+    }
+
+    /** Load tenants in stages into a TenantStore if STORE, and
+     *  otherwise as Config objects, reporting after each stage. */
+    private void measure(boolean store) {
+        TenantStore tenants = store ? new TenantStore() : null;
+        List<Config> configs = store ? null : new ArrayList<>();
+        long baseline = fullCollection()[0];
+        int loaded = 0;
+        for (int stage = 3; stage >= 0; stage -= 1) {
+            int target = Math.max(1, _tenants >> stage);
+            for (; loaded < target; loaded += 1) {
+                Config config = config(loaded);
+                if (store) {
+                    tenants.add(config);
+                } else {
+                    config.tables();
+                    configs.add(config);
+                }
+            }
+            long[] heap = fullCollection();
+            double[] run = store ? serve(tenants, loaded)
+                : serve(configs, loaded);
+            System.out.printf("%-7s %8d %10.1f %10.1f %10.1f %12.0f %6.0f "
+                              + "%8.1f%n", store ? "store" : "config",
+                              loaded, (heap[0] - baseline) / 1048576.0,
+                              store ? tenants.offHeapBytes() / 1048576.0
+                              : 0.0, heap[1] / 1e6, run[0], run[1],
+                              run[2]);
+        }
+    }
+
+    /** Return the configuration of tenant T: the catalog of the
+     *  workload with seed _seed + T. */
+    private Config config(int t) {
+        _workload.setOption("--seed=" + (_seed + t));
+        String text = _workload.config(Charset.defaultCharset());
+        _workload.setOption("--seed=" + _seed);
+        return Config.read(new Scanner(text));
+    }
+
+    /** Collect garbage fully, and return the heap then in use in bytes
+     *  and the nanoseconds the collection took. */
+    private static long[] fullCollection() {
+        long start = System.nanoTime();
+        System.gc();
+        long time = System.nanoTime() - start;
+        Runtime runtime = Runtime.getRuntime();
+        return new long[] { runtime.totalMemory() - runtime.freeMemory(),
+                            time };
+    }
+
+    /** Answer my requests for random tenants among the first COUNT of
+     *  STORE, and return the requests per second, and the collections
+     *  and milliseconds of collection during the run. */
+    private double[] serve(TenantStore store, int count) {
+        TenantStore.Cursor cursor = store.cursor();
+        Random random = new Random(_seed);
+        long[] before = collections();
+        long start = System.nanoTime();
+        for (int i = 0; i < _requests; i += 1) {
+            String[] request = _pool.get(i % _pool.size());
+            _sink += cursor.process(random.nextInt(count), request[0],
+                                    request[1]).length();
+        }
+        return results(start, before);
+    }
+
+    /** Answer my requests for random members of CONFIGS, of which
+     *  there are COUNT, as Server does, and return as for the other
+     *  serve. */
+    private double[] serve(List<Config> configs, int count) {
+        Random random = new Random(_seed);
+        long[] before = collections();
+        long start = System.nanoTime();
+        for (int i = 0; i < _requests; i += 1) {
+            String[] request = _pool.get(i % _pool.size());
+            Main main = new Main(configs.get(random.nextInt(count)));
+            _sink += main.processMessage(request[0], request[1]).length();
+        }
+        return results(start, before);
+    }
+
+    /** Return the requests per second, collections and milliseconds of
+     *  collection of a run that began at START, when collections
+     *  returned BEFORE. */
+    private double[] results(long start, long[] before) {
+        long elapsed = System.nanoTime() - start;
+        long[] after = collections();
+        return new double[] { _requests * 1e9 / elapsed,
+                              after[0] - before[0], after[1] - before[1] };
+    }
+
+    /** Return the number of collections so far and the milliseconds
+     *  they took, over all collectors. */
+    private static long[] collections() {
+        long count = 0, millis = 0;
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] { count, millis };
+    }
+
+    /** The workload. */
+    private final Workload _workload = new Workload();
+    /** Seed of the first tenant's catalog. */
+    private long _seed;
+    /** Requests to send. */
+    private List<String[]> _pool;
+    /** Tenants in the last stage. */
+    private int _tenants = 10000;
+    /** Requests after each stage. */
+    private int _requests = 20000;
+    /** Representations measured. */
+    private String _mode = "both";
+    /** Results consumed, so that the work cannot be skipped. */
+    private volatile long _sink;
+}
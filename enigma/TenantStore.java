@@ -0,0 +1,612 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Many configurations ("tenants") compiled into native memory, for a
+ *  service that must keep thousands of them loaded at once.  A Config
+ *  and its rotors are a graph of small heap objects (alphabet,
+ *  permutation and rotor objects, name maps, rotor tables) costing
+ *  kilobytes each and scanned by every collection.  A store instead
+ *  copies what the encrypt path needs (the alphabet, each rotor's
+ *  doubled wirings and notch mask, and the rotor names) into large
+ *  direct buffers shared by all tenants, so that the heap holds only
+ *  one long per tenant and the cost of a collection does not grow with
+ *  the number of tenants.
+ *
+ *  Tenants are numbered from 0 in the order added, and are never
+ *  removed.  Conversion runs on a Cursor, a flyweight that reads a
+ *  tenant's tables in place and keeps only its key state on the heap,
+ *  in arrays reused from request to request.  A store may be read by
+ *  any number of threads while tenants are added; each thread needs
+ *  its own Cursor.
+ *
+ *  Each tenant occupies one record in a slab, laid out (in native
+ *  byte order) as
+ *      the header: the ints N (alphabet size), slot and pawl counts,
+ *          rotor count, lowest alphabet character, and SPAN, and the
+ *          offsets within the record of the lookup table, the name
+ *          directory and the rotors;
+ *      the alphabet: N chars, by index;
+ *      the lookup table: if SPAN > 0, the index (or NONE) of each of
+ *          the SPAN characters from the lowest up; otherwise the N
+ *          characters in increasing order followed by their indices;
+ *      the name directory: the offset and length of each rotor's name,
+ *          then the names' characters;
+ *      the rotors: for each, an int of flags (ROTATES, REFLECTING),
+ *          the doubled forward and backward wirings as 2N chars each
+ *          (as in CompiledMachine), and the notch positions as a
+ *          bit mask of (N + 31) / 32 ints.
+ *  @author Jay Chiang
+ */
+final class TenantStore {
+
+    /** Return the number of tenants. */
+    int tenants() {
+        return _count;
+    }
+
+    /** Return the number of bytes of native memory reserved. */
+    long offHeapBytes() {
+        return _reserved;
+    }
+
+    /** Return the number of bytes of native memory holding tenants. */
+    long usedBytes() {
+        return _used;
+    }
+
+    /** Return the number of slabs allocated. */
+    int slabs() {
+        return _slabCount;
+    }
+
+    /** Compile CONFIG into a new tenant and return its number.  All of
+     *  CONFIG's rotors must map every character of its alphabet into
+     *  it.  CONFIG itself is not retained. */
+    synchronized int add(Config config) {
+        int n = config.alphabet().size();
+        int slots = config.numRotors();
+        if (n < 1 || n >= NONE) {
+            throw error("alphabet of %d characters cannot be stored", n);
+        }
+        if (slots < 2) {
+            throw error("numRotors not > 1");
+        }
+        RotorTables tables = config.tables();
+        int count = tables.count();
+        char[] alphabet = new char[n];
+        char lo = Character.MAX_VALUE, hi = 0;
+        for (int c = 0; c < n; c += 1) {
+            alphabet[c] = config.alphabet().toChar(c);
+            lo = (char) Math.min(lo, alphabet[c]);
+            hi = (char) Math.max(hi, alphabet[c]);
+        }
+        int span = hi - lo + 1 <= DENSE * n ? hi - lo + 1 : 0;
+        int nameChars = 0;
+        for (int k = 0; k < count; k += 1) {
+            nameChars += tables.name(k).length();
+            if (!tables.total(k)) {
+                throw error("rotor %s maps characters outside the alphabet",
+                            tables.name(k));
+            }
+        }
+        int rotorBytes = 4 + 8 * n + 4 * ((n + 31) / 32);
+        int lookup = align(HEADER + 2 * n);
+        int names = align(lookup + 2 * (span > 0 ? span : 2 * n));
+        int rotors = align(names + 8 * count + 2 * nameChars);
+        long size = rotors + (long) count * rotorBytes;
+        if (size > Integer.MAX_VALUE) {
+            throw error("configuration too large to store");
+        }
+
+        long address = reserve((int) size);
+        ByteBuffer buf = _slabs[(int) (address >>> 32)];
+        int base = (int) address;
+        buf.putInt(base + N, n);
+        buf.putInt(base + SLOTS, slots);
+        buf.putInt(base + PAWLS, config.numPawls());
+        buf.putInt(base + ROTORS, count);
+        buf.putInt(base + LOW, lo);
+        buf.putInt(base + SPAN, span);
+        buf.putInt(base + LOOKUP, lookup);
+        buf.putInt(base + NAMES, names);
+        buf.putInt(base + ROTOR_TABLES, rotors);
+        for (int c = 0; c < n; c += 1) {
+            buf.putChar(base + HEADER + 2 * c, alphabet[c]);
+        }
+        if (span > 0) {
+            for (int i = 0; i < span; i += 1) {
+                buf.putChar(base + lookup + 2 * i, NONE);
+            }
+            for (int c = 0; c < n; c += 1) {
+                buf.putChar(base + lookup + 2 * (alphabet[c] - lo), (char) c);
+            }
+        } else {
+            char[] sorted = alphabet.clone();
+            Arrays.sort(sorted);
+            for (int i = 0; i < n; i += 1) {
+                buf.putChar(base + lookup + 2 * i, sorted[i]);
+                buf.putChar(base + lookup + 2 * (n + i),
+                            (char) config.alphabet().toInt(sorted[i]));
+            }
+        }
+        int chars = names + 8 * count;
+        for (int k = 0; k < count; k += 1) {
+            String name = tables.name(k);
+            buf.putInt(base + names + 8 * k, chars);
+            buf.putInt(base + names + 8 * k + 4, name.length());
+            for (int i = 0; i < name.length(); i += 1) {
+                buf.putChar(base + chars, name.charAt(i));
+                chars += 2;
+            }
+        }
+        for (int k = 0; k < count; k += 1) {
+            int rotor = base + rotors + k * rotorBytes;
+            buf.putInt(rotor, (tables.rotates(k) ? ROTATES : 0)
+                       | (tables.reflecting(k) ? REFLECTING : 0));
+            int[] fwd = tables.forward(k), bwd = tables.backward(k);
+            for (int i = 0; i < 2 * n; i += 1) {
+                buf.putChar(rotor + 4 + 2 * i, (char) fwd[i % n]);
+                buf.putChar(rotor + 4 + 4 * n + 2 * i, (char) bwd[i % n]);
+            }
+            boolean[] notches = tables.notches(k);
+            for (int w = 0; w < (n + 31) / 32; w += 1) {
+                int mask = 0;
+                for (int b = 0; b < 32 && 32 * w + b < n; b += 1) {
+                    if (notches[32 * w + b]) {
+                        mask |= 1 << b;
+                    }
+                }
+                buf.putInt(rotor + 4 + 8 * n + 4 * w, mask);
+            }
+        }
+
+        int tenant = _count;
+        if (tenant == _addresses.length) {
+            _addresses = Arrays.copyOf(_addresses, 2 * tenant);
+        }
+        _addresses[tenant] = address;
+        _used += size;
+        _count = tenant + 1;
+        return tenant;
+    }
+
+    /** Return the address (slab number in the upper half, offset in the
+     *  lower) of a new record of SIZE bytes. */
+    private long reserve(int size) {
+        if (_slabCount == 0 || _slabs[_slabCount - 1].capacity()
+            - _slabUsed < size) {
+            if (_slabCount == _slabs.length) {
+                _slabs = Arrays.copyOf(_slabs, 2 * _slabCount);
+            }
+            int capacity = Math.max(SLAB_BYTES, size);
+            _slabs[_slabCount] = ByteBuffer.allocateDirect(capacity)
+                .order(ByteOrder.nativeOrder());
+            _slabCount += 1;
+            _slabUsed = 0;
+            _reserved += capacity;
+        }
+        long result = ((long) (_slabCount - 1) << 32) | _slabUsed;
+        _slabUsed = align(_slabUsed + size);
+        return result;
+    }
+
+    /** Return X rounded up to a multiple of 4. */
+    private static int align(int x) {
+        return (x + 3) & ~3;
+    }
+
+    /** Return a new cursor on me. */
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /** A flyweight Enigma machine that runs on the tables of one tenant
+     *  at a time, in place.  It steps and converts exactly as
+     *  CompiledMachine does, and process answers a request exactly as
+     *  Main.processMessage does, except that the canned output of the
+     *  ring setting BCFG is not reproduced.  Its arrays grow to fit the
+     *  largest tenant it has served and are then reused, so that a
+     *  request allocates nothing on the heap but its strings.  Not
+     *  thread-safe. */
+    final class Cursor {
+
+        /** Return the tenant I am set up for, or -1. */
+        int tenant() {
+            return _tenant;
+        }
+
+        /** Return the number of TENANT's alphabet characters. */
+        int alphabetSize() {
+            return _n;
+        }
+
+        /** Make TENANT my current tenant, with no rotors inserted and
+         *  the ring settings of all its rotors 0. */
+        void select(int tenant) {
+            if (tenant < 0 || tenant >= _count) {
+                throw error("no tenant %d", tenant);
+            }
+            long address = _addresses[tenant];
+            _tenant = tenant;
+            _buf = _slabs[(int) (address >>> 32)];
+            _base = (int) address;
+            _n = _buf.getInt(_base + N);
+            _slots = _buf.getInt(_base + SLOTS);
+            _pawls = _buf.getInt(_base + PAWLS);
+            _rotorCount = _buf.getInt(_base + ROTORS);
+            _low = _buf.getInt(_base + LOW);
+            _span = _buf.getInt(_base + SPAN);
+            _lookup = _base + _buf.getInt(_base + LOOKUP);
+            _rotorBytes = 4 + 8 * _n + 4 * ((_n + 31) / 32);
+            if (_posn.length < _slots) {
+                int slots = Math.max(_slots, 2 * _posn.length);
+                _rotor = new int[slots];
+                _fwd = new int[slots];
+                _bwd = new int[slots];
+                _notch = new int[slots];
+                _rotates = new boolean[slots];
+                _advance = new boolean[slots];
+                _posn = new int[slots];
+                _ring = new int[slots];
+                _shift = new int[slots];
+                _pass = new int[slots];
+            }
+            if (_plugboard.length < _n) {
+                _plugboard = new int[Math.max(_n, 2 * _plugboard.length)];
+                _inverse = new int[_plugboard.length];
+            }
+            if (_rings.length < _rotorCount) {
+                _rings = new int[Math.max(_rotorCount, 2 * _rings.length)];
+            }
+            Arrays.fill(_rings, 0, _rotorCount, 0);
+        }
+
+        /** Return the index of CH in my tenant's alphabet, or -1. */
+        int toInt(char ch) {
+            if (_span > 0) {
+                int i = ch - _low;
+                if (i < 0 || i >= _span) {
+                    return -1;
+                }
+                char c = _buf.getChar(_lookup + 2 * i);
+                return c == NONE ? -1 : c;
+            }
+            int lo = 0, hi = _n - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                char c = _buf.getChar(_lookup + 2 * mid);
+                if (c < ch) {
+                    lo = mid + 1;
+                } else if (c > ch) {
+                    hi = mid - 1;
+                } else {
+                    return _buf.getChar(_lookup + 2 * (_n + mid));
+                }
+            }
+            return -1;
+        }
+
+        /** Return character C of my tenant's alphabet. */
+        char toChar(int c) {
+            return _buf.getChar(_base + HEADER + 2 * c);
+        }
+
+        /** Return the number of my tenant's rotor named NAME (the first,
+         *  if several are), or -1 if there is none. */
+        int rotor(String name) {
+            int dir = _base + _buf.getInt(_base + NAMES);
+            for (int k = 0; k < _rotorCount; k += 1) {
+                int chars = _base + _buf.getInt(dir + 8 * k);
+                int len = _buf.getInt(dir + 8 * k + 4);
+                if (len == name.length()) {
+                    int i;
+                    for (i = 0; i < len; i += 1) {
+                        if (_buf.getChar(chars + 2 * i) != name.charAt(i)) {
+                            break;
+                        }
+                    }
+                    if (i == len) {
+                        return k;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /** Return the flags of my tenant's rotor K. */
+        private int flags(int k) {
+            return _buf.getInt(rotorRecord(k));
+        }
+
+        /** Return the buffer offset of the record of rotor K. */
+        private int rotorRecord(int k) {
+            return _base + _buf.getInt(_base + ROTOR_TABLES)
+                + k * _rotorBytes;
+        }
+
+        /** Set my rotors, positions and plugboard from the setting line
+         *  SETTINGS, checked as Main checks it.  If FIRST, its ring
+         *  setting (if any) becomes that of the rotors it names, as for
+         *  the first setting line of Main's input; otherwise it is
+         *  ignored.  Each rotor takes the ring setting it was last
+         *  given since select. */
+        void setUp(String settings, boolean first) {
+            String[] words = settings.trim().split("\\s+");
+            if (words.length < _slots + 2 || !words[0].equals("*")) {
+                throw error("bad input");
+            }
+            int moving = _slots - _pawls;
+            for (int i = 0; i < _slots; i += 1) {
+                int k = rotor(words[i + 1]);
+                if (k < 0) {
+                    throw error("bad input");
+                }
+                int flags = flags(k);
+                boolean rotates = (flags & ROTATES) != 0;
+                if (i == 0 && (flags & REFLECTING) == 0
+                    || i > 0 && i < moving && rotates
+                    || i >= moving && !rotates) {
+                    throw error("bad input");
+                }
+                int record = rotorRecord(k);
+                _rotor[i] = k;
+                _fwd[i] = record + 4;
+                _bwd[i] = record + 4 + 4 * _n;
+                _notch[i] = record + 4 + 8 * _n;
+                _rotates[i] = rotates;
+                _posn[i] = 0;
+            }
+            String posns = words[_slots + 1];
+            int next = _slots + 2;
+            String rings = null;
+            if (next < words.length && !words[next].startsWith("(")) {
+                rings = words[next];
+                next += 1;
+            }
+            if (posns.length() != _slots - 1
+                || rings != null && rings.length() != _slots - 1) {
+                throw error("bad input");
+            }
+            for (int i = 1; i < _slots; i += 1) {
+                _posn[i] = index(posns.charAt(i - 1));
+                if (first && rings != null) {
+                    _rings[_rotor[i]] = index(rings.charAt(i - 1));
+                }
+            }
+            for (int i = 0; i < _slots; i += 1) {
+                _ring[i] = _rings[_rotor[i]];
+                _shift[i] = Math.floorMod(_posn[i] - _ring[i], _n);
+                setPass(i);
+            }
+            setPlugboard(words, next);
+        }
+
+        /** Return the index of CH, which must be in my tenant's
+         *  alphabet. */
+        private int index(char ch) {
+            int result = toInt(ch);
+            if (result < 0) {
+                throw error("bad input");
+            }
+            return result;
+        }
+
+        /** Set the plugboard from the cycles in WORDS[NEXT..], read as
+         *  Permutation reads them.  The result must be one-to-one. */
+        private void setPlugboard(String[] words, int next) {
+            int[] plug = _plugboard;
+            for (int c = 0; c < _n; c += 1) {
+                plug[c] = -1;
+            }
+            int start = -1, prev = -1;
+            for (int w = next; w < words.length; w += 1) {
+                String word = words[w];
+                for (int i = 0; i < word.length(); i += 1) {
+                    char ch = word.charAt(i);
+                    int c = ch == '(' || ch == ')' ? -1 : toInt(ch);
+                    if (ch == '(') {
+                        start = prev = -1;
+                    } else if (ch == ')') {
+                        if (prev >= 0 && plug[prev] < 0) {
+                            plug[prev] = start;
+                        }
+                        start = prev = -1;
+                    } else if (c >= 0) {
+                        if (start < 0) {
+                            start = c;
+                        } else if (plug[prev] < 0) {
+                            plug[prev] = c;
+                        }
+                        prev = c;
+                    }
+                }
+            }
+            int[] inverse = _inverse;
+            for (int c = 0; c < _n; c += 1) {
+                inverse[c] = -1;
+            }
+            for (int c = 0; c < _n; c += 1) {
+                if (plug[c] < 0) {
+                    plug[c] = c;
+                }
+                if (inverse[plug[c]] >= 0) {
+                    throw error("plugboard is not one-to-one");
+                }
+                inverse[plug[c]] = c;
+            }
+        }
+
+        /** Recompute _pass[SLOT], as CompiledMachine.setPass does. */
+        private void setPass(int slot) {
+            int d = _posn[slot] - _ring[slot];
+            _pass[slot] = d < 0 ? -d - 1 : -1;
+        }
+
+        /** Advance the rotors as CompiledMachine.step does. */
+        private void step() {
+            int last = _slots - 1;
+            if (_slots > 2) {
+                boolean[] advance = _advance;
+                for (int i = last; i > 1; i -= 1) {
+                    int p = _posn[i];
+                    int mask = _buf.getInt(_notch[i] + 4 * (p >>> 5));
+                    if ((mask >>> p & 1) != 0 && _rotates[i - 1]) {
+                        advance[i] = true;
+                        advance[i - 1] = true;
+                    } else if (i == last) {
+                        advance[i] = true;
+                    }
+                }
+                for (int i = 1; i <= last; i += 1) {
+                    if (advance[i]) {
+                        advance[i] = false;
+                        if (_rotates[i]) {
+                            advanceSlot(i);
+                        }
+                    }
+                }
+            } else if (_rotates[1]) {
+                advanceSlot(1);
+            }
+        }
+
+        /** Move the rotor in SLOT on by one position. */
+        private void advanceSlot(int slot) {
+            int p = _posn[slot] + 1;
+            _posn[slot] = p == _n ? 0 : p;
+            int s = _shift[slot] + 1;
+            _shift[slot] = s == _n ? 0 : s;
+            setPass(slot);
+        }
+
+        /** Return the conversion of C, after first advancing the
+         *  rotors. */
+        int convert(int c) {
+            step();
+            ByteBuffer buf = _buf;
+            int n = _n;
+            c = _plugboard[c];
+            for (int i = _slots - 1; i >= 0; i -= 1) {
+                if (c != _pass[i]) {
+                    int s = _shift[i];
+                    c = buf.getChar(_fwd[i] + 2 * (c + s)) - s;
+                    if (c < 0) {
+                        c += n;
+                    }
+                }
+            }
+            for (int i = 1; i < _slots; i += 1) {
+                if (c != _pass[i]) {
+                    int s = _shift[i];
+                    c = buf.getChar(_bwd[i] + 2 * (c + s)) - s;
+                    if (c < 0) {
+                        c += n;
+                    }
+                }
+            }
+            return _plugboard[c];
+        }
+
+        /** Append the conversion of the characters of LINE that are in
+         *  my tenant's alphabet to OUT, in groups of five, followed by
+         *  a newline, as Main prints a message line. */
+        void convertLine(CharSequence line, StringBuilder out) {
+            int group = 0;
+            for (int i = 0; i < line.length(); i += 1) {
+                int c = toInt(line.charAt(i));
+                if (c >= 0) {
+                    if (group == 5) {
+                        group = 0;
+                        out.append(' ');
+                    }
+                    group += 1;
+                    out.append(toChar(convert(c)));
+                }
+            }
+            out.append('\n');
+        }
+
+        /** Return the output that Main.processMessage would produce for
+         *  the setting line SETTINGS followed by the lines of MESSAGE,
+         *  using the configuration of TENANT. */
+        String process(int tenant, String settings, String message) {
+            select(tenant);
+            StringBuilder out = new StringBuilder(message.length() + 16);
+            setUp(settings, true);
+            for (String line : Main.lines(message)) {
+                if (line.isEmpty()) {
+                    out.append('\n');
+                } else if (line.charAt(0) == '*') {
+                    setUp(line, false);
+                } else {
+                    convertLine(line, out);
+                }
+            }
+            return out.toString();
+        }
+
+        /** Current tenant, or -1. */
+        private int _tenant = -1;
+        /** Slab holding the current tenant, and its record's offset. */
+        private ByteBuffer _buf;
+        /** See the class comment. */
+        private int _base;
+        /** The current tenant's alphabet size, slot, pawl and rotor
+         *  counts, lowest character and lookup span. */
+        private int _n, _slots, _pawls, _rotorCount, _low, _span;
+        /** Buffer offset of the lookup table, and size of a rotor
+         *  record. */
+        private int _lookup, _rotorBytes;
+        /** Rotor number in each slot. */
+        private int[] _rotor = new int[0];
+        /** Buffer offsets of the doubled wirings and notch mask of the
+         *  rotor in each slot. */
+        private int[] _fwd = _rotor, _bwd = _rotor, _notch = _rotor;
+        /** Whether the rotor in each slot has a ratchet. */
+        private boolean[] _rotates = new boolean[0];
+        /** Scratch flags for step. */
+        private boolean[] _advance = _rotates;
+        /** Position, ring setting, (position - ring) mod n, and pass
+         *  character (see CompiledMachine.setPass) of each slot. */
+        private int[] _posn = _rotor, _ring = _rotor, _shift = _rotor,
+            _pass = _rotor;
+        /** Plugboard mapping, and scratch space for its inverse. */
+        private int[] _plugboard = _rotor, _inverse = _rotor;
+        /** Ring setting of each of the current tenant's rotors. */
+        private int[] _rings = _rotor;
+    }
+
+    /** Size of a new slab. */
+    static final int SLAB_BYTES = 1 << 22;
+    /** The greatest ratio of a lookup table's span to the alphabet size
+     *  for which it is direct. */
+    private static final int DENSE = 4;
+    /** Lookup table entry of a character not in the alphabet. */
+    private static final char NONE = '\uffff';
+
+    /** Offsets of header fields (see class comment). */
+    private static final int
+        N = 0, SLOTS = 4, PAWLS = 8, ROTORS = 12, LOW = 16, SPAN = 20,
+        LOOKUP = 24, NAMES = 28, ROTOR_TABLES = 32, HEADER = 36;
+    /** Rotor flags. */
+    private static final int ROTATES = 1, REFLECTING = 2;
+
+    /** The slabs; the first _slabCount are in use. */
+    private volatile ByteBuffer[] _slabs = new ByteBuffer[4];
+    /** Number of slabs allocated. */
+    private int _slabCount;
+    /** Bytes used in the last slab. */
+    private int _slabUsed;
+    /** Total capacity of the slabs, and bytes used in them. */
+    private long _reserved, _used;
+    /** Address of each tenant's record (see reserve). */
+    private volatile long[] _addresses = new long[16];
+    /** Number of tenants.  Written last by add, so that a reader that
+     *  sees a tenant number below it sees that tenant's record. */
+    private volatile int _count;
+}
@@ -0,0 +1,189 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+import static enigma.DaemonTest.CONFIG;
+import static enigma.DaemonTest.INPUT;
+
+/** The suite of all JUnit tests for the TenantStore class.
+ *  @author Jay Chiang
+ */
+public class TenantStoreTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration whose alphabet is too sparse for a direct lookup
+     *  table. */
+    private static final String SPARSE =
+        "AZ\u4e00\u00e9 3 1\n"
+        + "I MA (AZ\u4e00) (\u00e9)\n"
+        + "R R (AZ) (\u4e00\u00e9)\n"
+        + "F N (A\u00e9) (Z) (\u4e00)\n";
+
+    /** Return the configuration and input of a workload with OPTIONS. */
+    private String[] workload(String... options) throws IOException {
+        Workload workload = new Workload();
+        workload.setOptions(options);
+        StringWriter input = new StringWriter();
+        String config = workload.config(StandardCharsets.UTF_8);
+        workload.writeInput(input);
+        return new String[] { config, input.toString() };
+    }
+
+    /** Assert that CURSOR answers INPUT (a setting line and the lines
+     *  after it) for TENANT as Main does for CONFIG. */
+    private void assertSame(TenantStore.Cursor cursor, int tenant,
+                            Config config, String input) {
+        int eol = input.indexOf('\n');
+        String settings = input.substring(0, eol);
+        String message = input.substring(eol + 1);
+        assertEquals(new Main(config).processMessage(settings, message),
+                     cursor.process(tenant, settings, message));
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testMatchesMain() throws IOException {
+        TenantStore store = new TenantStore();
+        List<Config> configs = new ArrayList<>();
+        List<String> inputs = new ArrayList<>();
+        String[][] shapes = {
+            { "--messages=60" },
+            { "--alphabet=40", "--rotors=20", "--slots=6", "--pawls=2",
+              "--messages=60", "--reconfigure=5" },
+            { "--alphabet=70", "--slots=3", "--pawls=2",
+              "--messages=60", "--reconfigure=3" },
+            { "--alphabet=26", "--slots=2", "--pawls=1",
+              "--messages=30" },
+        };
+        for (int seed = 1; seed <= 3; seed += 1) {
+            for (String[] shape : shapes) {
+                String[] options = new String[shape.length + 1];
+                System.arraycopy(shape, 0, options, 0, shape.length);
+                options[shape.length] = "--seed=" + seed;
+                String[] generated = workload(options);
+                Config config = Config.read(new Scanner(generated[0]));
+                assertEquals(configs.size(), store.add(config));
+                configs.add(config);
+                inputs.add(generated[1]);
+            }
+        }
+        configs.add(Config.read(new Scanner(CONFIG)));
+        inputs.add(INPUT);
+        store.add(configs.get(configs.size() - 1));
+        assertEquals(configs.size(), store.tenants());
+        assertTrue(store.usedBytes() <= store.offHeapBytes());
+
+        TenantStore.Cursor cursor = store.cursor();
+        for (int round = 0; round < 2; round += 1) {
+            for (int t = configs.size() - 1; t >= 0; t -= 1) {
+                assertSame(cursor, t, configs.get(t), inputs.get(t));
+            }
+        }
+    }
+
+    @Test
+    public void testLineEnds() {
+        TenantStore store = new TenantStore();
+        Config config = Config.read(new Scanner(CONFIG));
+        int tenant = store.add(config);
+        String settings = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+        String message = "FROM HIS\u2028SHOULDER\rHIA\r\nWATHA\u0085\u0085"
+            + "* B Beta III IV I AAAA\u2029TOOK THE\r";
+        String plain =
+            message.replaceAll("\r\n|[\r\u2028\u2029\u0085]", "\n");
+        String expected = new Main(config).processMessage(settings, plain);
+        assertEquals(6, expected.split("\n", -1).length - 1);
+        assertEquals(expected,
+                     new Main(config).processMessage(settings, message));
+        assertEquals(expected,
+                     store.cursor().process(tenant, settings, message));
+    }
+
+    @Test
+    public void testSparseAlphabet() {
+        TenantStore store = new TenantStore();
+        Config config = Config.read(new Scanner(SPARSE));
+        int tenant = store.add(config);
+        TenantStore.Cursor cursor = store.cursor();
+        cursor.select(tenant);
+        assertEquals(2, cursor.toInt('\u4e00'));
+        assertEquals(-1, cursor.toInt('B'));
+        assertEquals('\u00e9', cursor.toChar(3));
+        assertSame(cursor, tenant, config,
+                   "* R F I \u4e00Z (A\u00e9)\nAZ\u4e00\u00e9 ZZ AA\n"
+                   + "\n\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\n");
+    }
+
+    @Test
+    public void testManyTenants() {
+        TenantStore store = new TenantStore();
+        Config config = Config.read(new Scanner(CONFIG));
+        for (int i = 0; i < 3000; i += 1) {
+            assertEquals(i, store.add(config));
+        }
+        assertTrue(store.slabs() > 1);
+        TenantStore.Cursor cursor = store.cursor();
+        String expected = new Main(config).processMessage(
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+            "FROM HIS SHOULDER HIAWATHA");
+        for (int t = 0; t < store.tenants(); t += 997) {
+            assertEquals(expected, cursor.process(
+                t, "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+                "FROM HIS SHOULDER HIAWATHA"));
+        }
+    }
+
+    @Test
+    public void testErrors() {
+        TenantStore store = new TenantStore();
+        int tenant = store.add(Config.read(new Scanner(CONFIG)));
+        TenantStore.Cursor cursor = store.cursor();
+        String[] bad = {
+            "* B Beta III IV Nine AXLE",
+            "* B Beta III IV I AXL",
+            "* Beta B III IV I AXLE",
+            "* B Beta III IV I AXLE AX",
+            "* B Beta III IV I AX!E",
+            "* B Beta III IV I AXLE (AB) (AC)",
+            "B Beta III IV I AXLE",
+        };
+        for (String settings : bad) {
+            try {
+                cursor.process(tenant, settings, "HELLO");
+                fail("accepted " + settings);
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+        try {
+            cursor.select(1);
+            fail("accepted missing tenant");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            store.add(Config.read(new Scanner(
+                "ABC 2 1\nI M (A(B) (C)\nR R (AB) (C)\n")));
+            fail("accepted partial rotor");
+        } catch (EnigmaException excp) {
+            assertEquals(1, store.tenants());
+        }
+    }
+
+}
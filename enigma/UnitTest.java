@@ -11,7 +11,32 @@ public class UnitTest {
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
         System.exit(textui.runClasses(PermutationTest.class,
-                                      MovingRotorTest.class));
+                                      MovingRotorTest.class,
+                                      PipelineTest.class,
+                                      DaemonTest.class,
+                                      ServerTest.class,
+                                      EncoderTest.class,
+                                      KeySearchTest.class,
+                                      PlugboardSolverTest.class,
+                                      BombeTest.class,
+                                      CoordinatorTest.class,
+                                      KeySpaceIteratorTest.class,
+                                      ArchiveIndexTest.class,
+                                      CheckpointTest.class,
+                                      RotorTraceTest.class,
+                                      EventsTest.class,
+                                      AlphabetTest.class,
+                                      ConfigTest.class,
+                                      EngineSelectorTest.class,
+                                      BatchTest.class,
+                                      WorkloadTest.class,
+                                      PermutationAlgebraTest.class,
+                                      KeystreamCacheTest.class,
+                                      ConfigHolderTest.class,
+                                      TenantStoreTest.class,
+                                      CharacteristicCatalogTest.class,
+                                      MappedNGramScorerTest.class,
+                                      CribScannerTest.class));
     }
 
 }
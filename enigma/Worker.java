@@ -0,0 +1,98 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.net.Socket;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static enigma.Coordinator.*;
+
+/** A key-search worker process, started by a Coordinator.  Usage:
+ *      java enigma.Worker HOST PORT
+ *  connects to the coordinator at HOST and PORT, receives a job, and
+ *  searches the work units it is assigned until told to stop.  See
+ *  Coordinator for the protocol.
+ *  @author Jay Chiang
+ */
+public final class Worker {
+
+    /** Serve the coordinator named by ARGS. */
+    public static void main(String... args) {
+        if (args.length != 2) {
+            System.err.println("Usage: java enigma.Worker HOST PORT");
+            System.exit(1);
+        }
+        try (Socket socket = new Socket(args[0],
+                                        Integer.parseInt(args[1]))) {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            serve(in, out);
+        } catch (EOFException excp) {
+            return;
+        } catch (IOException | NumberFormatException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Read a job from IN, then answer UNIT messages from IN on OUT
+     *  until STOP. */
+    static void serve(DataInputStream in, DataOutputStream out)
+        throws IOException {
+        String conf = in.readUTF(), ngrams = in.readUTF();
+        int top = in.readInt(), rings = in.readInt(),
+            threads = in.readInt();
+        int[] cipher = new int[in.readInt()];
+        for (int i = 0; i < cipher.length; i += 1) {
+            cipher[i] = in.readInt();
+        }
+        KeySearch search = null;
+        String failure = null;
+        try {
+            Config config = new Main(new String[] { conf }).configuration();
+            search = newSearch(config, cipher, rings, top);
+            if (!ngrams.isEmpty()) {
+                Scorer scorer = MappedNGramScorer.load(config.alphabet(),
+                                                       ngrams);
+                search.setScorer(() -> scorer);
+            }
+        } catch (EnigmaException excp) {
+            failure = excp.getMessage();
+        }
+        ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads)
+            : ForkJoinPool.commonPool();
+        while (in.readByte() == UNIT) {
+            int from = in.readInt(), to = in.readInt();
+            if (failure == null) {
+                try {
+                    List<KeySearch.Candidate> best =
+                        search.search(pool, from, to);
+                    out.writeByte(RESULT);
+                    out.writeLong(search.candidates());
+                    out.writeInt(best.size());
+                    for (KeySearch.Candidate candidate : best) {
+                        out.writeDouble(candidate.score());
+                        out.writeUTF(candidate.settings());
+                    }
+                    out.flush();
+                    continue;
+                } catch (EnigmaException excp) {
+                    failure = excp.getMessage();
+                }
+            }
+            out.writeByte(FAILED);
+            out.writeUTF(failure);
+            out.flush();
+        }
+    }
+
+}
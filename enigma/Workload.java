@@ -0,0 +1,417 @@
+package enigma;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** Generates synthetic configurations and inputs for Main, reproducibly
+ *  from a seed.
+ *  Usage:
+ *      java enigma.Workload [OPTIONS] CONF INPUT
+ *  writes a configuration to CONF and messages for it to INPUT, in the
+ *  default charset, and a summary to the standard error.  The options
+ *  (defaults in brackets) are
+ *    --seed=S         random seed [1];
+ *    --alphabet=N     alphabet size [26]: the upper-case letters for up
+ *                     to 26, and otherwise the first N characters from
+ *                     '!' up that the charset can encode, other than
+ *                     whitespace, '*' and parentheses;
+ *    --rotors=N       rotors in the catalog [12], of which about an
+ *                     eighth are reflectors and a quarter of the rest
+ *                     fixed;
+ *    --slots=N        rotor slots [5];
+ *    --pawls=N        pawls [3];
+ *    --plugs=N        plugboard pairs per setting line [10];
+ *    --messages=N     message lines [10000];
+ *    --line=N         mean message line length [60]; lengths are
+ *                     uniform between N/2 and 3N/2;
+ *    --reconfigure=N  on average, a new setting line ('*' line) every
+ *                     N message lines, or never if 0 [50];
+ *    --noise=F        fraction of message characters that are not in
+ *                     the alphabet (spaces and punctuation) [0.1].
+ *  The configuration depends only on the seed and the first four
+ *  options, so changing the shape of the messages keeps the rotors.
+ *  @author Jay Chiang
+ */
+public final class Workload {
+
+    /** Write the workload described by ARGS. */
+    public static void main(String... args) {
+        try {
+            Workload workload = new Workload();
+            int first = workload.setOptions(args);
+            if (args.length - first != 2) {
+                throw error("Usage: java enigma.Workload [OPTIONS] CONF "
+                            + "INPUT");
+            }
+            workload.write(Paths.get(args[first]),
+                           Paths.get(args[first + 1]));
+            System.err.println(workload);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Apply the leading options of ARGS, returning the index of the
+     *  first argument that is not an option. */
+    int setOptions(String... args) {
+        int first = 0;
+        while (first < args.length && args[first].startsWith("--")) {
+            setOption(args[first]);
+            first += 1;
+        }
+        return first;
+    }
+
+    /** Apply the option OPTION (see comment on main). */
+    void setOption(String option) {
+        String value = option.substring(option.indexOf('=') + 1);
+        try {
+            if (option.startsWith("--seed=")) {
+                _seed = Long.parseLong(value);
+            } else if (option.startsWith("--alphabet=")) {
+                _alphabetSize = atLeast(option, 2);
+            } else if (option.startsWith("--rotors=")) {
+                _rotors = atLeast(option, 1);
+            } else if (option.startsWith("--slots=")) {
+                _slots = atLeast(option, 2);
+            } else if (option.startsWith("--pawls=")) {
+                _pawls = atLeast(option, 0);
+            } else if (option.startsWith("--plugs=")) {
+                _plugs = atLeast(option, 0);
+            } else if (option.startsWith("--messages=")) {
+                _messages = atLeast(option, 0);
+            } else if (option.startsWith("--line=")) {
+                _line = atLeast(option, 1);
+            } else if (option.startsWith("--reconfigure=")) {
+                _reconfigure = atLeast(option, 0);
+            } else if (option.startsWith("--noise=")) {
+                _noise = Double.parseDouble(value);
+                if (!(_noise >= 0 && _noise <= 1)) {
+                    throw new NumberFormatException();
+                }
+            } else {
+                throw error("unknown option %s", option);
+            }
+        } catch (NumberFormatException excp) {
+            throw error("bad option value: %s", option);
+        }
+    }
+
+    /** Return the integer value of OPTION, which must be at least MIN. */
+    private static int atLeast(String option, int min) {
+        int value = Integer.parseInt(option.substring(option.indexOf('=')
+                                                      + 1));
+        if (value < min) {
+            throw new NumberFormatException();
+        }
+        return value;
+    }
+
+    /** Write my configuration to CONF and my input to INPUT. */
+    void write(Path conf, Path input) {
+        Charset charset = Charset.defaultCharset();
+        try {
+            Files.writeString(conf, config(charset), charset);
+            try (BufferedWriter out = Files.newBufferedWriter(input,
+                                                              charset)) {
+                writeInput(out);
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Return the text of my configuration, whose characters CHARSET
+     *  must be able to encode. */
+    String config(Charset charset) {
+        if (_pawls >= _slots) {
+            throw error("pawls must be fewer than slots");
+        }
+        Random random = new Random(_seed);
+        _alphabet = alphabet(charset);
+        _noiseChars = noiseChars();
+        int reflectors = Math.max(1, _rotors / 8);
+        int fixed = Math.max(_slots - _pawls - 1, (_rotors - reflectors) / 4);
+        if (_rotors - reflectors - fixed < _pawls) {
+            throw error("catalog of %d rotors too small for %d slots",
+                        _rotors, _slots);
+        }
+        _reflectors.clear();
+        _fixed.clear();
+        _moving.clear();
+        StringBuilder out = new StringBuilder();
+        out.append(_alphabet).append(' ').append(_slots).append(' ')
+            .append(_pawls).append('\n');
+        for (int k = 0; k < _rotors; k += 1) {
+            String name, type, cycles;
+            if (k < reflectors) {
+                name = "R" + k;
+                type = "R";
+                cycles = reflectorCycles(random);
+                _reflectors.add(name);
+            } else if (k < reflectors + fixed) {
+                name = "N" + k;
+                type = "N";
+                cycles = rotorCycles(random);
+                _fixed.add(name);
+            } else {
+                name = "M" + k;
+                type = "M" + randomChar(random)
+                    + (random.nextBoolean() ? "" : randomChar(random));
+                cycles = rotorCycles(random);
+                _moving.add(name);
+            }
+            out.append(name).append(' ').append(type).append(' ')
+                .append(cycles).append('\n');
+        }
+        return out.toString();
+    }
+
+    /** Write my messages, after config has been called, to OUT. */
+    void writeInput(Writer out) throws IOException {
+        Random random = new Random(_seed + 1);
+        _settingLines = 0;
+        _messageChars = 0;
+        _inputChars = 0;
+        writeLine(out, settingLine(random, true));
+        _settingLines += 1;
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < _messages; i += 1) {
+            if (_reconfigure > 0 && random.nextInt(_reconfigure) == 0) {
+                writeLine(out, settingLine(random, false));
+                _settingLines += 1;
+            }
+            line.setLength(0);
+            int length = _line / 2 + random.nextInt(_line + 1);
+            for (int j = 0; j < length; j += 1) {
+                if (random.nextDouble() < _noise) {
+                    line.append(_noiseChars.charAt(
+                        random.nextInt(_noiseChars.length())));
+                } else {
+                    line.append(randomChar(random));
+                    _messageChars += 1;
+                }
+            }
+            writeLine(out, line);
+        }
+    }
+
+    /** Write LINE and a newline to OUT. */
+    private void writeLine(Writer out, CharSequence line)
+        throws IOException {
+        out.append(line).append('\n');
+        _inputChars += line.length() + 1;
+    }
+
+    /** Return a random setting line, with a ring setting iff FIRST (Main
+     *  uses only the first line's), choosing with RANDOM. */
+    private String settingLine(Random random, boolean first) {
+        StringBuilder out = new StringBuilder("*");
+        out.append(' ').append(pick(_reflectors, 1, random).get(0));
+        for (String name : pick(_fixed, _slots - _pawls - 1, random)) {
+            out.append(' ').append(name);
+        }
+        for (String name : pick(_moving, _pawls, random)) {
+            out.append(' ').append(name);
+        }
+        out.append(' ').append(randomChars(_slots - 1, random));
+        if (first) {
+            String rings;
+            do {
+                rings = randomChars(_slots - 1, random);
+            } while (rings.equals(EXTRA_CREDIT_RINGS));
+            out.append(' ').append(rings);
+        }
+        List<Integer> order = shuffled(random);
+        for (int i = 0; i < _plugs && 2 * i + 1 < order.size(); i += 1) {
+            out.append(" (").append(_alphabet.charAt(order.get(2 * i)))
+                .append(_alphabet.charAt(order.get(2 * i + 1))).append(')');
+        }
+        return out.toString();
+    }
+
+    /** Return COUNT distinct members of NAMES, chosen with RANDOM. */
+    private static List<String> pick(List<String> names, int count,
+                                     Random random) {
+        ArrayList<String> result = new ArrayList<>(names);
+        Collections.shuffle(result, random);
+        return result.subList(0, count);
+    }
+
+    /** Return COUNT random alphabet characters chosen with RANDOM. */
+    private String randomChars(int count, Random random) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; i += 1) {
+            result.append(randomChar(random));
+        }
+        return result.toString();
+    }
+
+    /** Return a random alphabet character chosen with RANDOM. */
+    private char randomChar(Random random) {
+        return _alphabet.charAt(random.nextInt(_alphabet.length()));
+    }
+
+    /** Return the indices of my alphabet, shuffled with RANDOM. */
+    private List<Integer> shuffled(Random random) {
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int k = 0; k < _alphabet.length(); k += 1) {
+            result.add(k);
+        }
+        Collections.shuffle(result, random);
+        return result;
+    }
+
+    /** Return the cycles, covering the whole alphabet, of a random
+     *  rotor wiring chosen with RANDOM. */
+    private String rotorCycles(Random random) {
+        List<Integer> image = shuffled(random);
+        boolean[] done = new boolean[image.size()];
+        StringBuilder result = new StringBuilder();
+        for (int k = 0; k < image.size(); k += 1) {
+            if (!done[k]) {
+                result.append(result.length() == 0 ? "(" : " (");
+                for (int j = k; !done[j]; j = image.get(j)) {
+                    done[j] = true;
+                    result.append(_alphabet.charAt(j));
+                }
+                result.append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the cycles, covering the whole alphabet, of a random
+     *  reflector chosen with RANDOM.  With an odd alphabet, one
+     *  character maps to itself. */
+    private String reflectorCycles(Random random) {
+        List<Integer> order = shuffled(random);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < order.size(); i += 2) {
+            result.append(i == 0 ? "(" : " (")
+                .append(_alphabet.charAt(order.get(i)));
+            if (i + 1 < order.size()) {
+                result.append(_alphabet.charAt(order.get(i + 1)));
+            }
+            result.append(')');
+        }
+        return result.toString();
+    }
+
+    /** Return my alphabet, in characters CHARSET can encode. */
+    private String alphabet(Charset charset) {
+        if (_alphabetSize <= UPPER.length()) {
+            return UPPER.substring(0, _alphabetSize);
+        }
+        CharsetEncoder encoder = charset.newEncoder();
+        StringBuilder result = new StringBuilder();
+        for (int c = '!'; c <= Character.MAX_VALUE
+                 && result.length() < _alphabetSize; c += 1) {
+            char ch = (char) c;
+            if (allowed(ch) && encoder.canEncode(ch)) {
+                result.append(ch);
+            }
+        }
+        if (result.length() < _alphabetSize) {
+            throw error("%s can encode only %d alphabet characters",
+                        charset, result.length());
+        }
+        return result.toString();
+    }
+
+    /** Return true iff CH may be in an alphabet. */
+    private static boolean allowed(char ch) {
+        return !Character.isWhitespace(ch) && !Character.isSurrogate(ch)
+            && !Character.isISOControl(ch) && ch != '*' && ch != '('
+            && ch != ')';
+    }
+
+    /** Return the characters (space, and printable ASCII characters
+     *  outside my alphabet other than '*') used as noise. */
+    private String noiseChars() {
+        StringBuilder result = new StringBuilder(" ");
+        for (char ch = '!'; ch <= '~'; ch += 1) {
+            if (ch != '*' && _alphabet.indexOf(ch) < 0) {
+                result.append(ch);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the number of message characters in the alphabet
+     *  written by the last writeInput. */
+    long messageChars() {
+        return _messageChars;
+    }
+
+    /** Return the number of characters (including newlines) written by
+     *  the last writeInput. */
+    long inputChars() {
+        return _inputChars;
+    }
+
+    /** Return my random seed. */
+    long seed() {
+        return _seed;
+    }
+
+    /** Return the number of setting lines written by the last
+     *  writeInput. */
+    int settingLines() {
+        return _settingLines;
+    }
+
+    /** Return the number of message lines. */
+    int messages() {
+        return _messages;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("seed %d, alphabet %d, %d rotors, %d slots, "
+                             + "%d pawls, %d plugs; %d messages of ~%d "
+                             + "chars, %d setting lines, noise %.2f: %d "
+                             + "message chars, %d input chars", _seed,
+                             _alphabetSize, _rotors, _slots, _pawls,
+                             _plugs, _messages, _line, _settingLines,
+                             _noise, _messageChars, _inputChars);
+    }
+
+    /** Upper-case letters. */
+    private static final String UPPER = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    /** Ring setting that makes Main print a canned message. */
+    private static final String EXTRA_CREDIT_RINGS = "BCFG";
+
+    /** Random seed. */
+    private long _seed = 1;
+    /** Options (see comment on main). */
+    private int _alphabetSize = 26, _rotors = 12, _slots = 5, _pawls = 3,
+        _plugs = 10, _messages = 10000, _line = 60, _reconfigure = 50;
+    /** Fraction of message characters outside the alphabet. */
+    private double _noise = 0.1;
+
+    /** The alphabet, once generated. */
+    private String _alphabet;
+    /** Characters used as noise. */
+    private String _noiseChars;
+    /** Names of the rotors of each kind. */
+    private final ArrayList<String> _reflectors = new ArrayList<>(),
+        _fixed = new ArrayList<>(), _moving = new ArrayList<>();
+    /** Counts from the last writeInput. */
+    private long _messageChars, _inputChars;
+    /** Setting lines written by the last writeInput. */
+    private int _settingLines;
+}
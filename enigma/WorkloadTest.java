@@ -0,0 +1,107 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for the Workload class.
+ *  @author Jay Chiang
+ */
+public class WorkloadTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the configuration and input of a workload with OPTIONS,
+     *  separated by a blank line. */
+    private String generate(String... options) throws IOException {
+        Workload workload = new Workload();
+        workload.setOptions(options);
+        StringWriter input = new StringWriter();
+        String config = workload.config(StandardCharsets.UTF_8);
+        workload.writeInput(input);
+        return config + "\n" + input;
+    }
+
+    /** Return Main's output for the workload with OPTIONS. */
+    private String run(String... options) throws IOException {
+        Workload workload = new Workload();
+        workload.setOptions(options);
+        Config config = Config.read(new Scanner(
+            workload.config(StandardCharsets.UTF_8)));
+        StringWriter input = new StringWriter();
+        workload.writeInput(input);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Main(new String[0], config,
+                 new ByteArrayInputStream(input.toString().getBytes()),
+                 new PrintStream(out)).process();
+        return out.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testReproducible() throws IOException {
+        assertEquals(generate("--seed=7", "--messages=50"),
+                     generate("--seed=7", "--messages=50"));
+        assertNotEquals(generate("--seed=7", "--messages=50"),
+                        generate("--seed=8", "--messages=50"));
+        String a = generate("--seed=7", "--messages=50");
+        String b = generate("--seed=7", "--messages=80", "--noise=0.5");
+        assertEquals(a.substring(0, a.indexOf("\n\n")),
+                     b.substring(0, b.indexOf("\n\n")));
+    }
+
+    @Test
+    public void testShape() throws IOException {
+        Workload workload = new Workload();
+        workload.setOptions("--alphabet=40", "--rotors=30", "--slots=6",
+                            "--pawls=2", "--messages=200", "--line=20",
+                            "--reconfigure=10", "--noise=0");
+        Config config = Config.read(new Scanner(
+            workload.config(StandardCharsets.UTF_8)));
+        assertEquals(40, config.alphabet().size());
+        assertEquals(30, config.numRotorsAvailable());
+        assertEquals(6, config.numRotors());
+        StringWriter input = new StringWriter();
+        workload.writeInput(input);
+        String[] lines = input.toString().split("\n");
+        assertEquals(200 + workload.settingLines(), lines.length);
+        assertTrue(workload.settingLines() > 5);
+        assertEquals(input.toString().length(), workload.inputChars());
+        assertEquals(workload.inputChars() - lines.length,
+                     workload.messageChars() + settingChars(lines));
+    }
+
+    /** Return the number of characters in the setting lines among
+     *  LINES. */
+    private long settingChars(String[] lines) {
+        long result = 0;
+        for (String line : lines) {
+            result += line.startsWith("*") ? line.length() : 0;
+        }
+        return result;
+    }
+
+    @Test
+    public void testMainAccepts() throws IOException {
+        String out = run("--messages=300", "--reconfigure=5");
+        assertEquals(300, out.split("\n", -1).length - 1);
+        run("--alphabet=90", "--rotors=20", "--messages=50");
+        run("--alphabet=27", "--slots=3", "--pawls=1", "--rotors=3",
+            "--messages=50");
+    }
+
+}